@@ -0,0 +1,171 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.benchmarks;
+
+import com.datastax.oss.pulsar.functions.transforms.TransformContext;
+import com.datastax.oss.pulsar.functions.transforms.Utils;
+import com.datastax.oss.pulsar.functions.transforms.util.JsonConverter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.schema.Field;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.client.impl.schema.generic.GenericAvroRecord;
+import org.apache.pulsar.client.impl.schema.generic.GenericJsonRecord;
+import org.apache.pulsar.common.schema.KeyValue;
+import org.apache.pulsar.common.schema.KeyValueEncodingType;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Record;
+
+/**
+ * Builds the records processed by the benchmarks.
+ *
+ * <p>The struct records have <code>width</code> fields per level named <code>field0</code>, <code>
+ * field1</code>, ... of type string, int and double in turn. When <code>depth</code> is more than
+ * 1, each level has an additional <code>nested</code> field holding the next level.
+ */
+public final class BenchmarkRecords {
+
+  private BenchmarkRecords() {}
+
+  /**
+   * Creates a KeyValue record whose key and value have the given schema type.
+   *
+   * @param schemaType AVRO, JSON or STRING.
+   * @param width the number of fields per level of the struct records.
+   * @param depth the number of levels of the struct records.
+   * @return the record.
+   */
+  public static Record<GenericObject> keyValueRecord(SchemaType schemaType, int width, int depth) {
+    Schema<?> keySchema;
+    Schema<?> valueSchema;
+    Object key;
+    Object value;
+    switch (schemaType) {
+      case AVRO:
+      case JSON:
+        org.apache.avro.Schema avroKeySchema = recordSchema("key", width, depth);
+        org.apache.avro.Schema avroValueSchema = recordSchema("value", width, depth);
+        Utils.NativeSchemaWrapper keyWrapper =
+            new Utils.NativeSchemaWrapper(avroKeySchema, schemaType);
+        Utils.NativeSchemaWrapper valueWrapper =
+            new Utils.NativeSchemaWrapper(avroValueSchema, schemaType);
+        keySchema = keyWrapper;
+        valueSchema = valueWrapper;
+        key = genericObject(keyWrapper, newRecord(avroKeySchema, width));
+        value = genericObject(valueWrapper, newRecord(avroValueSchema, width));
+        break;
+      case STRING:
+        keySchema = Schema.STRING;
+        valueSchema = Schema.STRING;
+        key = "key";
+        value = "value";
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported schema type " + schemaType);
+    }
+    Schema<KeyValue<Object, Object>> keyValueSchema =
+        (Schema) Schema.KeyValue(keySchema, valueSchema, KeyValueEncodingType.SEPARATED);
+    KeyValue<Object, Object> keyValue = new KeyValue<>(key, value);
+    GenericObject genericObject =
+        new GenericObject() {
+          @Override
+          public SchemaType getSchemaType() {
+            return SchemaType.KEY_VALUE;
+          }
+
+          @Override
+          public Object getNativeObject() {
+            return keyValue;
+          }
+        };
+    return new Utils.TestRecord<>(keyValueSchema, genericObject, null);
+  }
+
+  /** @return a new context to process the record. */
+  public static TransformContext newTransformContext(
+      Context context, Record<GenericObject> record) {
+    return new TransformContext(context, record.getValue().getNativeObject());
+  }
+
+  /** @return a function context for the record. */
+  public static Context newContext(Record<GenericObject> record) {
+    return new Utils.TestContext(record, new HashMap<>());
+  }
+
+  static org.apache.avro.Schema recordSchema(String name, int width, int depth) {
+    SchemaBuilder.FieldAssembler<org.apache.avro.Schema> fields =
+        SchemaBuilder.record(name + "_level" + depth).fields();
+    for (int i = 0; i < width; i++) {
+      switch (i % 3) {
+        case 0:
+          fields = fields.requiredString("field" + i);
+          break;
+        case 1:
+          fields = fields.requiredInt("field" + i);
+          break;
+        default:
+          fields = fields.requiredDouble("field" + i);
+      }
+    }
+    if (depth > 1) {
+      fields = fields.name("nested").type(recordSchema(name, width, depth - 1)).noDefault();
+    }
+    return fields.endRecord();
+  }
+
+  private static GenericData.Record newRecord(org.apache.avro.Schema schema, int width) {
+    GenericData.Record record = new GenericData.Record(schema);
+    for (int i = 0; i < width; i++) {
+      switch (i % 3) {
+        case 0:
+          record.put(i, "value-" + i);
+          break;
+        case 1:
+          record.put(i, i);
+          break;
+        default:
+          record.put(i, i * 1.5d);
+      }
+    }
+    org.apache.avro.Schema.Field nested = schema.getField("nested");
+    if (nested != null) {
+      record.put(nested.pos(), newRecord(nested.schema(), width));
+    }
+    return record;
+  }
+
+  private static GenericObject genericObject(
+      Utils.NativeSchemaWrapper schema, GenericData.Record record) {
+    List<Field> fields =
+        record
+            .getSchema()
+            .getFields()
+            .stream()
+            .map(f -> new Field(f.name(), f.pos()))
+            .collect(Collectors.toCollection(ArrayList::new));
+    if (schema.getSchemaInfo().getType() == SchemaType.JSON) {
+      return new GenericJsonRecord(
+          null, fields, JsonConverter.toJson(record), schema.getSchemaInfo());
+    }
+    return new GenericAvroRecord(null, record.getSchema(), fields, record);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.benchmarks;
+
+import com.datastax.oss.pulsar.functions.transforms.ComputeStep;
+import com.datastax.oss.pulsar.functions.transforms.TransformContext;
+import com.datastax.oss.pulsar.functions.transforms.model.ComputeField;
+import com.datastax.oss.pulsar.functions.transforms.model.ComputeFieldType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes a string and an int field of the value and a property from the fields of the value, or
+ * from the value itself when it's a string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComputeStepBenchmark {
+
+  @Param({"AVRO", "JSON", "STRING"})
+  public String schemaType;
+
+  @Param({"4", "32"})
+  public int width;
+
+  @Param({"1", "4"})
+  public int depth;
+
+  @Param({"true", "false"})
+  public boolean compile;
+
+  private Record<GenericObject> record;
+  private Context context;
+  private ComputeStep step;
+
+  @Setup
+  public void setUp() {
+    record = BenchmarkRecords.keyValueRecord(SchemaType.valueOf(schemaType), width, depth);
+    context = BenchmarkRecords.newContext(record);
+    List<ComputeField> fields;
+    if ("STRING".equals(schemaType)) {
+      fields =
+          List.of(
+              field("properties.computed", "fn:uppercase(value)", ComputeFieldType.STRING),
+              field("value", "fn:concat(value, '-computed')", ComputeFieldType.STRING));
+    } else {
+      fields =
+          List.of(
+              field(
+                  "value.computedString",
+                  "fn:concat(value.field0, '-computed')",
+                  ComputeFieldType.STRING),
+              field("value.computedInt", "value.field1 + 1", ComputeFieldType.INT32),
+              field("properties.computed", "fn:uppercase(value.field0)", ComputeFieldType.STRING));
+    }
+    step = ComputeStep.builder().fields(fields).build();
+  }
+
+  private ComputeField field(String name, String expression, ComputeFieldType type) {
+    return ComputeField.builder()
+        .scopedName(name)
+        .expression(expression)
+        .type(type)
+        .compile(compile)
+        .build();
+  }
+
+  @Benchmark
+  public TransformContext process() throws Exception {
+    TransformContext transformContext = BenchmarkRecords.newTransformContext(context, record);
+    step.process(transformContext);
+    return transformContext;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.benchmarks;
+
+import com.datastax.oss.pulsar.functions.transforms.TransformContext;
+import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.JstlPredicate;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Evaluates a <code>when</code> condition on the fields of the value. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JstlPredicateBenchmark {
+
+  @Param({"AVRO", "JSON", "STRING"})
+  public String schemaType;
+
+  @Param({"4", "32"})
+  public int width;
+
+  @Param({"1", "4"})
+  public int depth;
+
+  @Param({"true", "false"})
+  public boolean compile;
+
+  private TransformContext transformContext;
+  private JstlPredicate predicate;
+
+  @Setup
+  public void setUp() {
+    Record<GenericObject> record =
+        BenchmarkRecords.keyValueRecord(SchemaType.valueOf(schemaType), width, depth);
+    Context context = BenchmarkRecords.newContext(record);
+    transformContext = BenchmarkRecords.newTransformContext(context, record);
+    String when =
+        "STRING".equals(schemaType)
+            ? "value == 'value' && key != 'other'"
+            : "value.field1 >= 1 && value.field0 == 'value-0'";
+    predicate = new JstlPredicate(when, compile);
+  }
+
+  @Benchmark
+  public boolean test() {
+    return predicate.test(transformContext);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.benchmarks;
+
+import com.datastax.oss.pulsar.functions.transforms.TransformFunction;
+import com.datastax.oss.pulsar.functions.transforms.Utils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Processes a record through a complete {@link TransformFunction} configuration. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformFunctionBenchmark {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final Map<String, String> PIPELINES =
+      Map.of(
+          "drop-compute",
+          "{'steps': ["
+              + "  {'type': 'drop-fields', 'fields': ['field2']},"
+              + "  {'type': 'compute', 'when': 'value.field1 >= 0', 'fields': ["
+              + "    {'name': 'value.computed', 'expression': 'fn:uppercase(value.field0)',"
+              + "     'type': 'STRING'}]}"
+              + "]}",
+          "merge-unwrap",
+          "{'steps': ["
+              + "  {'type': 'merge-key-value'},"
+              + "  {'type': 'unwrap-key-value'}"
+              + "]}",
+          "compute-cast",
+          "{'steps': ["
+              + "  {'type': 'compute', 'fields': ["
+              + "    {'name': 'value.computed', 'expression': 'value.field1 * 2', 'type': 'INT32'}]},"
+              + "  {'type': 'cast', 'schema-type': 'STRING'}"
+              + "]}");
+
+  /** The struct schema types. The pipelines read the fields of the value. */
+  @Param({"AVRO", "JSON"})
+  public String schemaType;
+
+  @Param({"4", "32"})
+  public int width;
+
+  @Param({"1", "4"})
+  public int depth;
+
+  @Param({"drop-compute", "merge-unwrap", "compute-cast"})
+  public String pipeline;
+
+  private Record<GenericObject> record;
+  private Context context;
+  private TransformFunction transformFunction;
+
+  @Setup
+  public void setUp() throws Exception {
+    record = BenchmarkRecords.keyValueRecord(SchemaType.valueOf(schemaType), width, depth);
+    Map<String, Object> config =
+        OBJECT_MAPPER.readValue(
+            PIPELINES.get(pipeline).replace("'", "\""),
+            new TypeReference<Map<String, Object>>() {});
+    context = new Utils.TestContext(record, config);
+    transformFunction = new TransformFunction();
+    transformFunction.initialize(context);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    transformFunction.close();
+  }
+
+  @Benchmark
+  public Record<GenericObject> process() throws Exception {
+    return transformFunction.process(record.getValue(), context);
+  }
+}
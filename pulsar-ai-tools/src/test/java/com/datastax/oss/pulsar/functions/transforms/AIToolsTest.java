@@ -63,6 +63,9 @@ public class AIToolsTest {
       {
         "{'steps': [{'type': 'compute-ai-embeddings', 'text': '{{ value }}', 'embeddings-field': 'emb', 'model': 'the-new-model'}]}"
       },
+      {
+        "{'steps': [{'type': 'compute-ai-embeddings', 'text': '{{ value }}', 'embeddings-field': 'emb', 'model': 'the-new-model', 'batch-size': 100, 'flush-interval': 50}]}"
+      },
       {
         "{'steps': [{'type': 'compute-ai-embeddings', 'text': '{{ value }}', 'embeddings-field': 'emb', 'model': 'ConGen-BERT-Mini'"
             + ", 'compute-service': 'huggingface', 'model-url': 'jar:///ConGen-BERT-Mini.zip'"
@@ -128,6 +131,9 @@ public class AIToolsTest {
       {
         "{'steps': [{'type': 'compute-ai-embeddings', 'embeddings-field': 'emb', 'model': 'the-new-model'}]}"
       },
+      {
+        "{'steps': [{'type': 'compute-ai-embeddings', 'text': '{{ value }}', 'embeddings-field': 'emb', 'model': 'the-new-model', 'batch-size': 0}]}"
+      },
       {
         "{'steps': [{'type': 'ai-chat-completions', 'model': 'example_model', 'messages': [{'role': 'user','content': 'Hello'}]}]}"
       },
@@ -0,0 +1,155 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import com.datastax.oss.pulsar.functions.transforms.model.config.TransformStepConfig;
+import com.datastax.oss.pulsar.functions.transforms.util.Batcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Function;
+import org.apache.pulsar.functions.api.Record;
+
+/**
+ * <code>AsyncTransformFunction</code> applies the same steps as the {@link TransformFunction} but
+ * implements the asynchronous {@link Function} interface. Steps calling remote services don't block
+ * the function instance thread, so many records can be in flight at the same time. The Pulsar
+ * runtime keeps the output in the input order and limits the number of records in flight to the
+ * maximum number of pending async requests of the function instance.
+ *
+ * <p>The steps are started on a single pipeline thread, and the processing of a record resumes on
+ * it after a step completes asynchronously. The continuation of a remote call that writes its
+ * result into the record (eg. the <code>query</code>, <code>compute-ai-embeddings</code> and <code>
+ * ai-chat-completions</code> steps) runs on the thread of the client that completes the call, so
+ * steps can process different records concurrently: their shared state must be thread-safe. A
+ * record is only accessed by one thread at a time.
+ *
+ * <p>When the <code>batch-size</code> config is greater than 1, the records are gathered in batches
+ * of at most <code>batch-size</code> records and processed with {@link
+ * TransformStep#processBatchAsync(List)}. A batch that is not full is processed <code>
+ * flush-interval</code> milliseconds after its first record was received. Like the records, the
+ * batches resume on the pipeline thread after a step completes asynchronously, so several batches
+ * can wait for remote services at the same time. The batch size should not exceed the maximum
+ * number of pending async requests of the function instance. If the processing of a batch fails,
+ * all the records of the batch fail.
+ */
+@Slf4j
+public class AsyncTransformFunction
+    implements Function<GenericObject, CompletableFuture<Record<GenericObject>>> {
+
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final TransformFunction transformFunction = new TransformFunction();
+  private ScheduledExecutorService executor;
+  private Batcher<PendingRecord> batcher;
+
+  @Override
+  public void initialize(Context context) throws Exception {
+    transformFunction.initialize(context);
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "transform-pipeline");
+              thread.setDaemon(true);
+              return thread;
+            });
+    TransformStepConfig config = transformFunction.getConfig();
+    if (config.getBatchSize() > 1) {
+      batcher =
+          new Batcher<>(
+              config.getBatchSize(),
+              config.getFlushInterval(),
+              batch -> executor.execute(() -> processBatch(batch)),
+              executor);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Record<GenericObject>> process(GenericObject input, Context context) {
+    TransformContext transformContext =
+        new TransformContext(new RecordContext(context, context.getCurrentRecord()), input);
+    if (batcher == null) {
+      return CompletableFuture.supplyAsync(
+              () -> transformFunction.processAsync(transformContext, executor), executor)
+          .thenCompose(result -> result)
+          .thenApply(v -> send(transformContext));
+    }
+    PendingRecord pendingRecord = new PendingRecord(transformContext, new CompletableFuture<>());
+    batcher.add(pendingRecord);
+    return pendingRecord.getResult();
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (batcher != null) {
+      batcher.close();
+    }
+    if (executor != null) {
+      executor.shutdown();
+      executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    transformFunction.close();
+  }
+
+  private void processBatch(List<PendingRecord> batch) {
+    List<TransformContext> transformContexts = new ArrayList<>(batch.size());
+    for (PendingRecord pendingRecord : batch) {
+      transformContexts.add(pendingRecord.getTransformContext());
+    }
+    transformFunction
+        .processBatchAsync(transformContexts, executor)
+        .whenComplete(
+            (v, error) -> {
+              if (error != null) {
+                Throwable cause =
+                    error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                log.error("Error while processing a batch of {} records", batch.size(), cause);
+                batch.forEach(
+                    pendingRecord -> pendingRecord.getResult().completeExceptionally(cause));
+                return;
+              }
+              for (PendingRecord pendingRecord : batch) {
+                try {
+                  pendingRecord.getResult().complete(pendingRecord.getTransformContext().send());
+                } catch (Throwable e) {
+                  pendingRecord.getResult().completeExceptionally(e);
+                }
+              }
+            });
+  }
+
+  @SneakyThrows
+  private static Record<GenericObject> send(TransformContext transformContext) {
+    return transformContext.send();
+  }
+
+  @Value
+  private static class PendingRecord {
+    TransformContext transformContext;
+    CompletableFuture<Record<GenericObject>> result;
+  }
+}
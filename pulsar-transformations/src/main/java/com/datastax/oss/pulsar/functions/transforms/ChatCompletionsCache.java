@@ -0,0 +1,163 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import com.azure.ai.openai.models.ChatCompletionsOptions;
+import com.datastax.oss.pulsar.functions.transforms.util.LruCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A cache of the completions returned by the chat completions service. The entries are keyed by a
+ * hash of the model, the rendered messages and the generation options, so a completion is only
+ * reused for an identical request.
+ *
+ * <p>The cache is bounded to <code>maxSize</code> entries and evicts the least recently used entry
+ * when full. If a path is set, the entries are loaded from the file when the cache is created and
+ * saved to it when the cache is closed, so that they survive the restarts of the function.
+ */
+@Slf4j
+public class ChatCompletionsCache implements AutoCloseable {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String KEY = "key";
+  private static final String COMPLETION = "completion";
+  private static final String EXPIRES_AT = "expires-at";
+
+  private final LruCache<String, String> cache;
+  private final Path path;
+
+  /**
+   * @param maxSize the maximum number of completions in the cache.
+   * @param ttlMillis the time-to-live of the completions in milliseconds. If 0, the completions
+   *     don't expire.
+   * @param path the file where the completions are persisted. If null, the completions are only
+   *     kept in memory.
+   */
+  public ChatCompletionsCache(int maxSize, long ttlMillis, Path path) {
+    this.cache = new LruCache<>(maxSize, ttlMillis);
+    this.path = path;
+    if (path != null && Files.exists(path)) {
+      load();
+    }
+  }
+
+  /** @return the key of the completion of the given model and options. */
+  public static String key(String model, ChatCompletionsOptions options) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+      digest.update(model.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(OBJECT_MAPPER.writeValueAsBytes(options));
+    } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+      throw new IllegalStateException("Cannot compute the chat completions cache key", e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+  }
+
+  /** @return the cached completion or null if absent or expired. */
+  public String get(String key) {
+    return cache.get(key);
+  }
+
+  public void put(String key, String completion) {
+    if (completion != null) {
+      cache.put(key, completion);
+    }
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  /** Saves the completions to the file, if any. */
+  @Override
+  public void close() throws IOException {
+    if (path != null) {
+      save();
+    }
+  }
+
+  private void load() {
+    int count = 0;
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        JsonNode entry = OBJECT_MAPPER.readTree(line);
+        cache.put(
+            entry.get(KEY).textValue(),
+            entry.get(COMPLETION).textValue(),
+            entry.get(EXPIRES_AT).longValue());
+        count++;
+      }
+      log.info("Loaded {} chat completions from {}", count, path);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot load the chat completions cache from {}, ignoring it", path, e);
+      cache.clear();
+    }
+  }
+
+  private void save() throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      cache.forEach(
+          (key, completion, expiresAt) -> {
+            ObjectNode entry = OBJECT_MAPPER.createObjectNode();
+            entry.put(KEY, key);
+            entry.put(COMPLETION, completion);
+            entry.put(EXPIRES_AT, expiresAt);
+            try {
+              writer.write(OBJECT_MAPPER.writeValueAsString(entry));
+              writer.newLine();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -15,34 +15,64 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.azure.ai.openai.OpenAIAsyncClient;
 import com.azure.ai.openai.OpenAIClient;
 import com.azure.ai.openai.models.ChatCompletions;
 import com.azure.ai.openai.models.ChatCompletionsOptions;
 import com.azure.ai.openai.models.ChatMessage;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
 import com.datastax.oss.pulsar.functions.transforms.model.JsonRecord;
+import com.datastax.oss.pulsar.functions.transforms.model.config.CacheConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.ChatCompletionsConfig;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import org.apache.avro.Schema;
+import lombok.SneakyThrows;
 
+/**
+ * Computes a chat completion from messages templated with the received message fields and metadata
+ * and puts it into a new or existing field.
+ *
+ * <p>If the cache is enabled, the completions are cached by model, rendered messages and generation
+ * options, and a record whose request was already sent gets the cached completion without calling
+ * the service. This is mostly useful with a temperature of 0, where the same request is expected to
+ * return the same completion.
+ */
 public class ChatCompletionsStep implements TransformStep {
 
   private final OpenAIClient client;
+  private final OpenAIAsyncClient asyncClient;
   private final ChatCompletionsConfig config;
 
-  private final Map<Schema, Schema> avroValueSchemaCache = new ConcurrentHashMap<>();
-
-  private final Map<Schema, Schema> avroKeySchemaCache = new ConcurrentHashMap<>();
+  private final SchemaCache schemaCache = SchemaCache.shared();
 
   private final Map<ChatMessage, Template> messageTemplates = new ConcurrentHashMap<>();
 
+  private final ChatCompletionsCache cache;
+
+  private StepMetrics metrics = StepMetrics.NOOP;
+
   public ChatCompletionsStep(OpenAIClient client, ChatCompletionsConfig config) {
+    this(client, null, config);
+  }
+
+  /**
+   * @param client the client used when the records are processed synchronously.
+   * @param asyncClient the client used when the records are processed asynchronously. If null, the
+   *     synchronous client is used.
+   * @param config the step configuration.
+   */
+  public ChatCompletionsStep(
+      OpenAIClient client, OpenAIAsyncClient asyncClient, ChatCompletionsConfig config) {
     this.client = client;
+    this.asyncClient = asyncClient;
     this.config = config;
     config
         .getMessages()
@@ -50,10 +80,110 @@ public class ChatCompletionsStep implements TransformStep {
             chatMessage ->
                 messageTemplates.put(
                     chatMessage, Mustache.compiler().compile(chatMessage.getContent())));
+    CacheConfig cacheConfig = config.getCache();
+    this.cache =
+        cacheConfig != null && cacheConfig.isEnabled()
+            ? new ChatCompletionsCache(
+                cacheConfig.getMaxSize(),
+                cacheConfig.getTtl(),
+                cacheConfig.getPath() != null ? Paths.get(cacheConfig.getPath()) : null)
+            : null;
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  @Override
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
   }
 
   @Override
   public void process(TransformContext transformContext) throws Exception {
+    ChatCompletionsOptions chatCompletionsOptions = buildOptions(transformContext);
+    String cacheKey = cacheKey(chatCompletionsOptions);
+    String completion = getCachedCompletion(cacheKey);
+    if (completion == null) {
+      ChatCompletions chatCompletions;
+      long start = System.nanoTime();
+      try {
+        chatCompletions = client.getChatCompletions(config.getModel(), chatCompletionsOptions);
+      } finally {
+        metrics.recordRemoteCall(System.nanoTime() - start, 1);
+      }
+      completion = getCompletion(chatCompletions);
+      cacheCompletion(cacheKey, completion);
+    }
+    setResult(transformContext, chatCompletionsOptions, completion);
+  }
+
+  @Override
+  public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    if (asyncClient == null) {
+      return TransformStep.super.processAsync(transformContext);
+    }
+    ChatCompletionsOptions chatCompletionsOptions;
+    String cacheKey;
+    String cachedCompletion;
+    try {
+      chatCompletionsOptions = buildOptions(transformContext);
+      cacheKey = cacheKey(chatCompletionsOptions);
+      cachedCompletion = getCachedCompletion(cacheKey);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (cachedCompletion != null) {
+      return CompletableFuture.completedFuture(cachedCompletion)
+          .thenAccept(
+              completion -> setResult(transformContext, chatCompletionsOptions, completion));
+    }
+    long start = System.nanoTime();
+    return asyncClient
+        .getChatCompletions(config.getModel(), chatCompletionsOptions)
+        .toFuture()
+        .whenComplete((r, e) -> metrics.recordRemoteCall(System.nanoTime() - start, 1))
+        .thenApply(ChatCompletionsStep::getCompletion)
+        .thenAccept(
+            completion -> {
+              cacheCompletion(cacheKey, completion);
+              setResult(transformContext, chatCompletionsOptions, completion);
+            });
+  }
+
+  private String cacheKey(ChatCompletionsOptions chatCompletionsOptions) {
+    return cache == null
+        ? null
+        : ChatCompletionsCache.key(config.getModel(), chatCompletionsOptions);
+  }
+
+  private String getCachedCompletion(String cacheKey) {
+    if (cache == null) {
+      return null;
+    }
+    String completion = cache.get(cacheKey);
+    if (completion == null) {
+      metrics.recordCacheMiss();
+    } else {
+      metrics.recordCacheHit();
+    }
+    return completion;
+  }
+
+  private void cacheCompletion(String cacheKey, String completion) {
+    if (cache != null) {
+      cache.put(cacheKey, completion);
+    }
+  }
+
+  private static String getCompletion(ChatCompletions chatCompletions) {
+    return chatCompletions.getChoices().get(0).getMessage().getContent();
+  }
+
+  private ChatCompletionsOptions buildOptions(TransformContext transformContext) {
     JsonRecord jsonRecord = transformContext.toJsonRecord();
 
     List<ChatMessage> messages =
@@ -66,28 +196,28 @@ public class ChatCompletionsStep implements TransformStep {
                         .setContent(messageTemplates.get(message).execute(jsonRecord)))
             .collect(Collectors.toList());
 
-    ChatCompletionsOptions chatCompletionsOptions =
-        new ChatCompletionsOptions(messages)
-            .setMaxTokens(config.getMaxTokens())
-            .setTemperature(config.getTemperature())
-            .setTopP(config.getTopP())
-            .setLogitBias(config.getLogitBias())
-            .setUser(config.getUser())
-            .setStop(config.getStop())
-            .setPresencePenalty(config.getPresencePenalty())
-            .setFrequencyPenalty(config.getFrequencyPenalty());
-
-    ChatCompletions chatCompletions =
-        client.getChatCompletions(config.getModel(), chatCompletionsOptions);
-
-    String content = chatCompletions.getChoices().get(0).getMessage().getContent();
+    return new ChatCompletionsOptions(messages)
+        .setMaxTokens(config.getMaxTokens())
+        .setTemperature(config.getTemperature())
+        .setTopP(config.getTopP())
+        .setLogitBias(config.getLogitBias())
+        .setUser(config.getUser())
+        .setStop(config.getStop())
+        .setPresencePenalty(config.getPresencePenalty())
+        .setFrequencyPenalty(config.getFrequencyPenalty());
+  }
+
+  @SneakyThrows
+  private void setResult(
+      TransformContext transformContext,
+      ChatCompletionsOptions chatCompletionsOptions,
+      String content) {
     String fieldName = config.getFieldName();
     transformContext.setResultField(
         content,
         fieldName,
         org.apache.avro.Schema.create(org.apache.avro.Schema.Type.STRING),
-        avroKeySchemaCache,
-        avroValueSchemaCache);
+        schemaCache);
 
     String logField = config.getLogField();
     if (logField != null && !logField.isEmpty()) {
@@ -98,8 +228,7 @@ public class ChatCompletionsStep implements TransformStep {
           TransformContext.toJson(logMap),
           logField,
           org.apache.avro.Schema.create(org.apache.avro.Schema.Type.STRING),
-          avroKeySchemaCache,
-          avroValueSchemaCache);
+          schemaCache);
     }
   }
 }
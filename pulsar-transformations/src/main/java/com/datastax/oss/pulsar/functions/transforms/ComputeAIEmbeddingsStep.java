@@ -15,55 +15,224 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.embeddings.CachedEmbeddingsService;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.EmbeddingsService;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
 import com.datastax.oss.pulsar.functions.transforms.model.JsonRecord;
+import com.datastax.oss.pulsar.functions.transforms.util.Batcher;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArray;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import lombok.Value;
 import org.apache.avro.Schema;
 
 /**
  * Compute AI Embeddings from a template filled with the received message fields and metadata and
  * put the value into a new or existing field.
+ *
+ * <p>The texts of the records processed together or concurrently are sent to the embeddings service
+ * in calls of at most <code>batchSize</code> texts. A text waits at most <code>
+ * flushInterval</code> milliseconds for the texts of other records.
+ *
+ * <p>The embeddings are handled as primitive float vectors and written as an array of <code>double
+ * </code>, or of <code>float</code> to halve the size of the payload.
  */
 public class ComputeAIEmbeddingsStep implements TransformStep {
 
+  public static final int DEFAULT_BATCH_SIZE = 10;
+
   private final Template template;
   private final String embeddingsFieldName;
+  private final Schema embeddingsSchema;
   private final EmbeddingsService embeddingsService;
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> avroValueSchemaCache =
-      new ConcurrentHashMap<>();
-
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> avroKeySchemaCache =
-      new ConcurrentHashMap<>();
+  private final long flushInterval;
+  private final ScheduledExecutorService scheduler;
+  private final Batcher<PendingText> batcher;
+  private final SchemaCache schemaCache = SchemaCache.shared();
+  private StepMetrics metrics = StepMetrics.NOOP;
 
   public ComputeAIEmbeddingsStep(
       String text, String embeddingsFieldName, EmbeddingsService embeddingsService) {
+    this(text, embeddingsFieldName, embeddingsService, DEFAULT_BATCH_SIZE, 0);
+  }
+
+  public ComputeAIEmbeddingsStep(
+      String text,
+      String embeddingsFieldName,
+      EmbeddingsService embeddingsService,
+      int batchSize,
+      long flushInterval) {
+    this(
+        text, embeddingsFieldName, embeddingsService, batchSize, flushInterval, Schema.Type.DOUBLE);
+  }
+
+  public ComputeAIEmbeddingsStep(
+      String text,
+      String embeddingsFieldName,
+      EmbeddingsService embeddingsService,
+      int batchSize,
+      long flushInterval,
+      Schema.Type elementType) {
+    if (elementType != Schema.Type.FLOAT && elementType != Schema.Type.DOUBLE) {
+      throw new IllegalArgumentException(
+          "The embeddings element type must be FLOAT or DOUBLE, got " + elementType);
+    }
     this.template = Mustache.compiler().compile(text);
     this.embeddingsFieldName = embeddingsFieldName;
+    this.embeddingsSchema = Schema.createArray(Schema.create(elementType));
     this.embeddingsService = embeddingsService;
+    this.flushInterval = flushInterval;
+    this.scheduler =
+        flushInterval > 0
+            ? Executors.newSingleThreadScheduledExecutor(
+                r -> {
+                  Thread thread = new Thread(r, "compute-ai-embeddings-flush");
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+    this.batcher = new Batcher<>(batchSize, flushInterval, this::computeEmbeddings, scheduler);
   }
 
   @Override
   public void close() throws Exception {
+    batcher.close();
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
     if (embeddingsService != null) {
       embeddingsService.close();
     }
   }
 
   @Override
-  public void process(TransformContext transformContext) {
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
+    if (embeddingsService instanceof CachedEmbeddingsService) {
+      ((CachedEmbeddingsService) embeddingsService).setMetrics(metrics);
+    }
+  }
+
+  @Override
+  public void process(TransformContext transformContext) throws Exception {
+    processBatch(List.of(transformContext));
+  }
+
+  @Override
+  public void processBatch(List<TransformContext> transformContexts) throws Exception {
+    List<CompletableFuture<float[]>> results = new ArrayList<>(transformContexts.size());
+    for (TransformContext transformContext : transformContexts) {
+      results.add(submit(transformContext));
+    }
+    batcher.flush();
+    for (int i = 0; i < transformContexts.size(); i++) {
+      setEmbeddings(transformContexts.get(i), getResult(results.get(i)));
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    CompletableFuture<float[]> result = submit(transformContext);
+    if (flushInterval <= 0) {
+      batcher.flush();
+    }
+    return result.thenAccept(embeddings -> setEmbeddings(transformContext, embeddings));
+  }
+
+  @Override
+  public CompletableFuture<Void> processBatchAsync(List<TransformContext> transformContexts) {
+    List<CompletableFuture<float[]>> results = new ArrayList<>(transformContexts.size());
+    try {
+      for (TransformContext transformContext : transformContexts) {
+        results.add(submit(transformContext));
+      }
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    } finally {
+      batcher.flush();
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenRun(
+            () -> {
+              for (int i = 0; i < transformContexts.size(); i++) {
+                setEmbeddings(transformContexts.get(i), results.get(i).join());
+              }
+            });
+  }
+
+  private CompletableFuture<float[]> submit(TransformContext transformContext) {
     JsonRecord jsonRecord = transformContext.toJsonRecord();
-    String text = template.execute(jsonRecord);
+    PendingText pendingText =
+        new PendingText(template.execute(jsonRecord), new CompletableFuture<>());
+    batcher.add(pendingText);
+    return pendingText.getResult();
+  }
 
-    final List<Double> embeddings = embeddingsService.computeEmbeddings(List.of(text)).get(0);
+  private void setEmbeddings(TransformContext transformContext, float[] embeddings) {
     transformContext.setResultField(
-        embeddings,
+        embeddings == null ? null : new FloatArray(embeddingsSchema, embeddings),
         embeddingsFieldName,
-        Schema.createArray(Schema.create(Schema.Type.DOUBLE)),
-        avroKeySchemaCache,
-        avroValueSchemaCache);
+        embeddingsSchema,
+        schemaCache);
+  }
+
+  private void computeEmbeddings(List<PendingText> batch) {
+    List<String> texts = new ArrayList<>(batch.size());
+    for (PendingText pendingText : batch) {
+      texts.add(pendingText.getText());
+    }
+    long start = System.nanoTime();
+    CompletableFuture<List<float[]>> computed;
+    try {
+      computed = embeddingsService.computeVectorsAsync(texts);
+    } catch (Throwable e) {
+      // fail the pending texts, otherwise the records waiting for them never complete
+      computed = CompletableFuture.failedFuture(e);
+    }
+    computed.whenComplete(
+        (embeddings, error) -> {
+          metrics.recordRemoteCall(System.nanoTime() - start, texts.size());
+          for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<float[]> result = batch.get(i).getResult();
+            if (error != null) {
+              result.completeExceptionally(error);
+            } else if (i >= embeddings.size()) {
+              result.completeExceptionally(
+                  new IllegalStateException(
+                      "Expected " + batch.size() + " embeddings, got " + embeddings.size()));
+            } else {
+              result.complete(embeddings.get(i));
+            }
+          }
+        });
+  }
+
+  private static float[] getResult(CompletableFuture<float[]> result) throws Exception {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  @Value
+  private static class PendingText {
+    String text;
+    CompletableFuture<float[]> result;
   }
 }
@@ -15,10 +15,12 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.jstl.JstlTransformContextAdapter;
 import com.datastax.oss.pulsar.functions.transforms.jstl.JstlTypeConverter;
 import com.datastax.oss.pulsar.functions.transforms.model.ComputeField;
 import com.datastax.oss.pulsar.functions.transforms.model.ComputeFieldType;
 import com.datastax.oss.pulsar.functions.transforms.util.AvroUtil;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.sql.Time;
@@ -48,12 +50,12 @@ public class ComputeStep implements TransformStep {
 
   public static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
   @Builder.Default private final List<ComputeField> fields = new ArrayList<>();
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> keySchemaCache =
-      new ConcurrentHashMap<>();
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> valueSchemaCache =
-      new ConcurrentHashMap<>();
+  private final SchemaCache schemaCache = SchemaCache.shared();
   private final Map<ComputeFieldType, org.apache.avro.Schema> fieldTypeToAvroSchemaCache =
       new ConcurrentHashMap<>();
+  // the same Avro field instances are reused so that the schema cache lookups are cheap
+  private final Map<ComputeField, Map<ComputeFieldType, Schema.Field>> avroFieldCache =
+      new ConcurrentHashMap<>();
 
   @Override
   public void process(TransformContext transformContext) {
@@ -78,10 +80,13 @@ public class ComputeStep implements TransformStep {
   }
 
   public void computeValueFields(List<ComputeField> fields, TransformContext context) {
+    if (fields.isEmpty()) {
+      return;
+    }
     SchemaType schemaType = context.getValueSchema().getSchemaInfo().getType();
     if (schemaType == SchemaType.AVRO || schemaType == SchemaType.JSON) {
       Map<Schema.Field, Object> evaluatedFields = getEvaluatedFields(fields, context);
-      context.addOrReplaceValueFields(schemaType, evaluatedFields, valueSchemaCache);
+      context.addOrReplaceValueFields(schemaType, evaluatedFields, schemaCache);
     }
   }
 
@@ -127,11 +132,14 @@ public class ComputeStep implements TransformStep {
   }
 
   public void computeKeyFields(List<ComputeField> fields, TransformContext context) {
+    if (fields.isEmpty()) {
+      return;
+    }
     if (context.getKeyObject() != null) {
       SchemaType schemaType = context.getKeySchema().getSchemaInfo().getType();
       if (schemaType == SchemaType.AVRO || schemaType == SchemaType.JSON) {
         Map<Schema.Field, Object> evaluatedFields = getEvaluatedFields(fields, context);
-        context.addOrReplaceKeyFields(schemaType, evaluatedFields, keySchemaCache);
+        context.addOrReplaceKeyFields(schemaType, evaluatedFields, schemaCache);
       }
     }
   }
@@ -179,8 +187,10 @@ public class ComputeStep implements TransformStep {
       List<ComputeField> fields, TransformContext context) {
     Map<Schema.Field, Object> evaluatedFields =
         new LinkedHashMap<>(); // preserves the insertion order of keys
+    // The record is only modified once all the fields are evaluated, so they can share the adapter
+    JstlTransformContextAdapter adapter = new JstlTransformContextAdapter(context);
     for (ComputeField field : fields) {
-      Object value = field.getEvaluator().evaluate(context);
+      Object value = field.getEvaluator().evaluate(adapter);
       ComputeFieldType type = field.getType() == null ? getFieldType(value) : field.getType();
       Schema.Field avroField = createAvroField(field, type, value);
       evaluatedFields.put(avroField, getAvroValue(avroField.schema(), value));
@@ -255,6 +265,16 @@ public class ComputeStep implements TransformStep {
   }
 
   private Schema.Field createAvroField(ComputeField field, ComputeFieldType type, Object value) {
+    if (type == ComputeFieldType.DECIMAL) {
+      // the schema depends on the precision and scale of the value
+      return newAvroField(field, type, value);
+    }
+    return avroFieldCache
+        .computeIfAbsent(field, f -> new ConcurrentHashMap<>())
+        .computeIfAbsent(type, t -> newAvroField(field, t, value));
+  }
+
+  private Schema.Field newAvroField(ComputeField field, ComputeFieldType type, Object value) {
     Schema avroSchema = getAvroSchema(type, value);
     Object defaultValue = null;
     if (field.isOptional()) {
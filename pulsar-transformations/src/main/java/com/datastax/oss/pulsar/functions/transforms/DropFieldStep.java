@@ -15,10 +15,9 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import lombok.Builder;
 import org.apache.avro.generic.GenericData;
@@ -27,15 +26,13 @@ import org.apache.pulsar.common.schema.SchemaType;
 
 /** This function removes a "field" from a message. */
 @Builder
-public class DropFieldStep implements TransformStep {
+public class DropFieldStep implements FusibleStep {
+  private static final String DROP_FIELDS = "dropFields";
 
   @Builder.Default private final List<String> keyFields = new ArrayList<>();
   @Builder.Default private final List<String> valueFields = new ArrayList<>();
 
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> keySchemaCache =
-      new ConcurrentHashMap<>();
-  private final Map<org.apache.avro.Schema, org.apache.avro.Schema> valueSchemaCache =
-      new ConcurrentHashMap<>();
+  private final SchemaCache schemaCache = SchemaCache.shared();
 
   @Override
   public void process(TransformContext transformContext) {
@@ -43,10 +40,27 @@ public class DropFieldStep implements TransformStep {
     dropValueFields(valueFields, transformContext);
   }
 
+  @Override
+  public boolean plan(RecordRewritePlan plan) {
+    RecordRewritePlan.RecordShape key = plan.getKey();
+    if (key != null) {
+      org.apache.avro.Schema schema = dropFields(keyFields, key.getSchema());
+      if (schema != key.getSchema()) {
+        plan.setKey(key.project(schema));
+      }
+    }
+    RecordRewritePlan.RecordShape value = plan.getValue();
+    org.apache.avro.Schema schema = dropFields(valueFields, value.getSchema());
+    if (schema != value.getSchema()) {
+      plan.setValue(value.project(schema));
+    }
+    return true;
+  }
+
   public void dropValueFields(List<String> fields, TransformContext context) {
     if (context.getValueSchema().getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord avroRecord = (GenericRecord) context.getValueObject();
-      GenericRecord newRecord = dropFields(fields, avroRecord, valueSchemaCache);
+      GenericRecord newRecord = dropFields(fields, avroRecord);
       if (avroRecord != newRecord) {
         context.setValueModified(true);
       }
@@ -58,7 +72,7 @@ public class DropFieldStep implements TransformStep {
     if (context.getKeyObject() != null
         && context.getValueSchema().getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord avroRecord = (GenericRecord) context.getKeyObject();
-      GenericRecord newRecord = dropFields(fields, avroRecord, keySchemaCache);
+      GenericRecord newRecord = dropFields(fields, avroRecord);
       if (avroRecord != newRecord) {
         context.setKeyModified(true);
       }
@@ -66,32 +80,9 @@ public class DropFieldStep implements TransformStep {
     }
   }
 
-  private GenericRecord dropFields(
-      List<String> fields,
-      GenericRecord record,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
-    org.apache.avro.Schema avroSchema = record.getSchema();
-    if (schemaCache.get(avroSchema) != null
-        || fields.stream().anyMatch(field -> avroSchema.getField(field) != null)) {
-      org.apache.avro.Schema modified =
-          schemaCache.computeIfAbsent(
-              avroSchema,
-              schema ->
-                  org.apache.avro.Schema.createRecord(
-                      avroSchema.getName(),
-                      avroSchema.getDoc(),
-                      avroSchema.getNamespace(),
-                      avroSchema.isError(),
-                      avroSchema
-                          .getFields()
-                          .stream()
-                          .filter(f -> !fields.contains(f.name()))
-                          .map(
-                              f ->
-                                  new org.apache.avro.Schema.Field(
-                                      f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
-                          .collect(Collectors.toList())));
-
+  private GenericRecord dropFields(List<String> fields, GenericRecord record) {
+    org.apache.avro.Schema modified = dropFields(fields, record.getSchema());
+    if (modified != record.getSchema()) {
       GenericRecord newRecord = new GenericData.Record(modified);
       for (org.apache.avro.Schema.Field field : modified.getFields()) {
         newRecord.put(field.name(), record.get(field.name()));
@@ -100,4 +91,29 @@ public class DropFieldStep implements TransformStep {
     }
     return record;
   }
+
+  private org.apache.avro.Schema dropFields(
+      List<String> fields, org.apache.avro.Schema avroSchema) {
+    if (fields.stream().anyMatch(field -> avroSchema.getField(field) != null)) {
+      return schemaCache.computeIfAbsent(
+          avroSchema,
+          List.of(DROP_FIELDS, fields),
+          schema ->
+              org.apache.avro.Schema.createRecord(
+                  avroSchema.getName(),
+                  avroSchema.getDoc(),
+                  avroSchema.getNamespace(),
+                  avroSchema.isError(),
+                  avroSchema
+                      .getFields()
+                      .stream()
+                      .filter(f -> !fields.contains(f.name()))
+                      .map(
+                          f ->
+                              new org.apache.avro.Schema.Field(
+                                  f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
+                      .collect(Collectors.toList())));
+    }
+    return avroSchema;
+  }
 }
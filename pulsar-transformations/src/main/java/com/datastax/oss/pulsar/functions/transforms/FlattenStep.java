@@ -15,10 +15,10 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
-import javax.annotation.Nullable;
 import lombok.Builder;
 import lombok.Value;
 import org.apache.avro.SchemaBuilder;
@@ -28,8 +28,7 @@ import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.common.schema.SchemaType;
 
 @Builder
-public class FlattenStep implements TransformStep {
-  // TODO: Cache schema to flattened schema
+public class FlattenStep implements FusibleStep {
   // TODO: Microbenchmark the flatten algorithm for performance optimization
   // TODO: Validate flatten delimiter
   // TODO: Add integration test
@@ -37,10 +36,13 @@ public class FlattenStep implements TransformStep {
   public static final String AVRO_READ_OFFSET_PROP = "__AVRO_READ_OFFSET__";
 
   private static final String DEFAULT_DELIMITER = "_"; // '.' in not valid in AVRO field names
+  private static final String FLATTEN = "flatten";
 
   @Builder.Default private final String delimiter = DEFAULT_DELIMITER;
   private final String part;
 
+  private final SchemaCache schemaCache = SchemaCache.shared();
+
   @Override
   public void process(TransformContext transformContext) throws Exception {
     if (part == null) {
@@ -78,30 +80,72 @@ public class FlattenStep implements TransformStep {
     }
   }
 
+  @Override
+  public boolean plan(RecordRewritePlan plan) {
+    if (part == null) {
+      if (plan.getKey() == null) {
+        return false;
+      }
+      plan.setKey(flattenShape(plan.getKey()));
+      plan.setValue(flattenShape(plan.getValue()));
+    } else if ("key".equals(part)) {
+      if (plan.getKey() == null) {
+        return false;
+      }
+      plan.setKey(flattenShape(plan.getKey()));
+    } else if ("value".equals(part)) {
+      plan.setValue(flattenShape(plan.getValue()));
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private RecordRewritePlan.RecordShape flattenShape(RecordRewritePlan.RecordShape shape) {
+    FlattenedSchema flattenedSchema = flattenSchema(shape.getSchema());
+    List<RecordRewritePlan.FieldSource> sources = new ArrayList<>();
+    for (FieldPath path : flattenedSchema.getPaths()) {
+      String[] names = path.getNames();
+      RecordRewritePlan.FieldSource source = shape.getSource(names[0]);
+      for (int i = 1; i < names.length; i++) {
+        source = source.child(names[i]);
+      }
+      sources.add(source);
+    }
+    return RecordRewritePlan.RecordShape.of(flattenedSchema.getSchema(), sources);
+  }
+
   GenericRecord flattenGenericRecord(GenericRecord record) {
-    List<FieldValuePair> fieldValuePairs = buildFlattenedFields(record);
-    List<org.apache.avro.Schema.Field> fields =
-        fieldValuePairs.stream().map(FieldValuePair::getField).collect(Collectors.toList());
-    org.apache.avro.Schema modified = buildFlattenedSchema(record, fields);
-    GenericRecord newRecord = new GenericData.Record(modified);
-    fieldValuePairs.forEach(pair -> newRecord.put(pair.getField().name(), pair.getValue()));
+    FlattenedSchema flattenedSchema = flattenSchema(record.getSchema());
+    GenericRecord newRecord = new GenericData.Record(flattenedSchema.getSchema());
+    List<FieldPath> paths = flattenedSchema.getPaths();
+    for (int i = 0; i < paths.size(); i++) {
+      newRecord.put(i, paths.get(i).read(record));
+    }
     return newRecord;
   }
 
-  private List<FieldValuePair> buildFlattenedFields(GenericRecord record) {
-    List<FieldValuePair> flattenedFields = new ArrayList<>();
-    org.apache.avro.Schema originalSchema = record.getSchema();
+  /**
+   * Gets the flattened schema of a record schema along with the path to read in the original record
+   * for each flattened field. The result is computed once per schema and delimiter.
+   */
+  FlattenedSchema flattenSchema(org.apache.avro.Schema originalSchema) {
+    return schemaCache.computeIfAbsent(
+        originalSchema, List.of(FLATTEN, delimiter), this::computeFlattenedSchema);
+  }
+
+  private FlattenedSchema computeFlattenedSchema(org.apache.avro.Schema originalSchema) {
+    List<org.apache.avro.Schema.Field> fields = new ArrayList<>();
+    List<FieldPath> paths = new ArrayList<>();
     for (org.apache.avro.Schema.Field field : originalSchema.getFields()) {
-      flattenedFields.addAll(
-          flattenField(record, record.getSchema(), field, field.schema().isNullable(), ""));
+      flattenField(
+          field, field.schema().isNullable(), "", FieldPath.ROOT, originalSchema, fields, paths);
     }
-
-    return flattenedFields;
+    return new FlattenedSchema(buildFlattenedSchema(originalSchema, fields), List.copyOf(paths));
   }
 
   org.apache.avro.Schema buildFlattenedSchema(
-      GenericRecord record, List<org.apache.avro.Schema.Field> flattenedFields) {
-    org.apache.avro.Schema originalSchema = record.getSchema();
+      org.apache.avro.Schema originalSchema, List<org.apache.avro.Schema.Field> flattenedFields) {
     org.apache.avro.Schema flattenedSchema =
         org.apache.avro.Schema.createRecord(
             originalSchema.getName(),
@@ -119,58 +163,46 @@ public class FlattenStep implements TransformStep {
   }
 
   /**
-   * @param record the record that contains the field to be flattened. Each recursive call will pass
-   *     the record one level deeper. At any level, the field could become null.
-   * @param schema the schema of the record that contains the field to be flattened. Each recursive
-   *     call will pass the schema one level deeper. At any level, the schema should exist.
    * @param field the field to be flattened
    * @param nullable true if the current field schema is nullable, this has to be passed all the way
    *     to the last nested level because anytime one of the ancestors is null, the flattened field
    *     schema could be null even if it is not nullable on the original schema
    * @param flattenedFieldName the field name that is built incrementally with each recursive call.
-   * @return flattened key/value pairs.
+   * @param parentPath the path to the record that contains the field.
+   * @param parentSchema the schema of the record that contains the field.
+   * @param flattenedFields the list where the flattened fields are added.
+   * @param paths the list where the paths of the flattened fields are added.
    */
-  List<FieldValuePair> flattenField(
-      @Nullable GenericRecord record,
-      org.apache.avro.Schema schema,
+  void flattenField(
       org.apache.avro.Schema.Field field,
       boolean nullable,
-      String flattenedFieldName) {
-    List<FieldValuePair> flattenedFields = new ArrayList<>();
-    // Because of UNION schemas, we cannot tell for sure if the current field is a record, so we
-    // have to use reflection
-    org.apache.avro.Schema recordSchema = getRecordSchema(schema, field.name());
+      String flattenedFieldName,
+      FieldPath parentPath,
+      org.apache.avro.Schema parentSchema,
+      List<org.apache.avro.Schema.Field> flattenedFields,
+      List<FieldPath> paths) {
+    FieldPath path = parentPath.child(field, parentSchema);
+    // Because of UNION schemas, we cannot tell for sure if the current field is a record
+    org.apache.avro.Schema recordSchema = getRecordSchema(field.schema());
     if (recordSchema != null) {
       for (org.apache.avro.Schema.Field nestedField : recordSchema.getFields()) {
-        GenericRecord genericRecord =
-            record == null ? null : (GenericRecord) record.get(field.name());
-        flattenedFields.addAll(
-            flattenField(
-                genericRecord,
-                recordSchema,
-                nestedField,
-                nullable || nestedField.schema().isNullable(),
-                flattenedFieldName + field.name() + delimiter));
+        flattenField(
+            nestedField,
+            nullable || nestedField.schema().isNullable(),
+            flattenedFieldName + field.name() + delimiter,
+            path,
+            recordSchema,
+            flattenedFields,
+            paths);
       }
-
-      return flattenedFields;
+      return;
     }
 
-    org.apache.avro.Schema.Field flattenedField =
-        createField(field, flattenedFieldName + field.name(), nullable);
-    FieldValuePair fieldValuePair =
-        new FieldValuePair(flattenedField, record == null ? null : record.get(field.name()));
-    flattenedFields.add(fieldValuePair);
-
-    return flattenedFields;
+    flattenedFields.add(createField(field, flattenedFieldName + field.name(), nullable));
+    paths.add(path);
   }
 
-  private org.apache.avro.Schema getRecordSchema(org.apache.avro.Schema schema, String name) {
-    if (schema.getType() != org.apache.avro.Schema.Type.RECORD) {
-      return null;
-    }
-
-    org.apache.avro.Schema fieldSchema = schema.getField(name).schema();
+  private org.apache.avro.Schema getRecordSchema(org.apache.avro.Schema fieldSchema) {
     if (fieldSchema.isUnion()) {
       for (org.apache.avro.Schema s : fieldSchema.getTypes()) {
         if (s.getType() == org.apache.avro.Schema.Type.RECORD) {
@@ -202,8 +234,59 @@ public class FlattenStep implements TransformStep {
   }
 
   @Value
-  private static class FieldValuePair {
-    org.apache.avro.Schema.Field field;
-    Object value;
+  static class FlattenedSchema {
+    org.apache.avro.Schema schema;
+    List<FieldPath> paths;
+  }
+
+  /** The path to a field of the original record, resolved to the positions of the fields. */
+  static final class FieldPath {
+    static final FieldPath ROOT = new FieldPath(new String[0], new int[0], new String[0]);
+
+    private final String[] names;
+    private final int[] positions;
+    private final String[] recordNames;
+
+    private FieldPath(String[] names, int[] positions, String[] recordNames) {
+      this.names = names;
+      this.positions = positions;
+      this.recordNames = recordNames;
+    }
+
+    FieldPath child(org.apache.avro.Schema.Field field, org.apache.avro.Schema recordSchema) {
+      String[] childNames = Arrays.copyOf(names, names.length + 1);
+      childNames[names.length] = field.name();
+      int[] childPositions = Arrays.copyOf(positions, positions.length + 1);
+      childPositions[positions.length] = field.pos();
+      String[] childRecordNames = Arrays.copyOf(recordNames, recordNames.length + 1);
+      childRecordNames[recordNames.length] = recordSchema.getFullName();
+      return new FieldPath(childNames, childPositions, childRecordNames);
+    }
+
+    String[] getNames() {
+      return names;
+    }
+
+    /**
+     * Reads the field in a record having the schema the path was computed for. The nested records
+     * are read by position unless their schema is another branch of a union, in which case they are
+     * read by name.
+     */
+    Object read(GenericRecord record) {
+      Object value = record.get(positions[0]);
+      for (int i = 1; i < names.length; i++) {
+        if (value == null) {
+          return null;
+        }
+        record = (GenericRecord) value;
+        if (recordNames[i].equals(record.getSchema().getFullName())) {
+          value = record.get(positions[i]);
+        } else {
+          org.apache.avro.Schema.Field field = record.getSchema().getField(names[i]);
+          value = field == null ? null : record.get(field.pos());
+        }
+      }
+      return value;
+    }
   }
 }
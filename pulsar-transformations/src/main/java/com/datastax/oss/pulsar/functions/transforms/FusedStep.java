@@ -0,0 +1,121 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.List;
+import java.util.Optional;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.common.schema.SchemaType;
+
+/**
+ * Runs consecutive {@link FusibleStep}s as a single step. For AVRO records, the steps are planned
+ * once per key/value schema pair and the output records are built in a single pass instead of
+ * materializing a record after each step. Other records and schemas that can't be planned are
+ * processed by each step in turn. The plans are kept in the shared {@link SchemaCache} so that
+ * their number stays bounded when the upstream schemas evolve.
+ */
+@Slf4j
+public class FusedStep implements TransformStep {
+
+  private static final String FUSED_PLAN = "fusedPlan";
+
+  private final List<FusibleStep> steps;
+  // the plans depend on the configuration of the steps, the steps are compared by identity
+  private final List<Object> planSignature;
+  private final SchemaCache schemaCache = SchemaCache.shared();
+
+  public FusedStep(List<FusibleStep> steps) {
+    this.steps = List.copyOf(steps);
+    this.planSignature = List.of(FUSED_PLAN, this.steps);
+  }
+
+  public List<FusibleStep> getSteps() {
+    return steps;
+  }
+
+  @Override
+  public void process(TransformContext transformContext) throws Exception {
+    RecordRewritePlan plan = getPlan(transformContext);
+    if (plan != null) {
+      plan.apply(transformContext);
+      return;
+    }
+    for (FusibleStep step : steps) {
+      step.process(transformContext);
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    for (FusibleStep step : steps) {
+      step.close();
+    }
+  }
+
+  private RecordRewritePlan getPlan(TransformContext transformContext) {
+    org.apache.avro.Schema valueSchema =
+        getAvroSchema(transformContext.getValueSchema(), transformContext.getValueObject());
+    if (valueSchema == null) {
+      return null;
+    }
+    org.apache.avro.Schema keySchema = null;
+    if (transformContext.getKeySchema() != null) {
+      keySchema = getAvroSchema(transformContext.getKeySchema(), transformContext.getKeyObject());
+      if (keySchema == null) {
+        return null;
+      }
+    }
+    Optional<RecordRewritePlan> plan =
+        schemaCache.computeIfAbsent(
+            new PlanKey(keySchema, valueSchema), planSignature, this::buildPlan);
+    return plan.orElse(null);
+  }
+
+  private Optional<RecordRewritePlan> buildPlan(PlanKey planKey) {
+    RecordRewritePlan plan = new RecordRewritePlan(planKey.getKey(), planKey.getValue());
+    try {
+      for (FusibleStep step : steps) {
+        if (!step.plan(plan)) {
+          return Optional.empty();
+        }
+      }
+    } catch (RuntimeException e) {
+      // let the steps report the error when processing the records
+      log.debug("Cannot plan fused steps for schemas {}", planKey, e);
+      return Optional.empty();
+    }
+    return Optional.of(plan);
+  }
+
+  private static org.apache.avro.Schema getAvroSchema(Schema<?> schema, Object object) {
+    if (schema != null
+        && schema.getSchemaInfo().getType() == SchemaType.AVRO
+        && object instanceof GenericRecord) {
+      return ((GenericRecord) object).getSchema();
+    }
+    return null;
+  }
+
+  @Value
+  private static class PlanKey {
+    org.apache.avro.Schema key;
+    org.apache.avro.Schema value;
+  }
+}
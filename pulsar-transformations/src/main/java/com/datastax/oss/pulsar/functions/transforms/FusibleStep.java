@@ -0,0 +1,33 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+/**
+ * A {@link TransformStep} that only rewrites the structure of AVRO key/value records. Its effect
+ * only depends on the input schemas, so consecutive fusible steps can be planned once per schema
+ * and applied in a single pass with a {@link FusedStep}.
+ */
+public interface FusibleStep extends TransformStep {
+
+  /**
+   * Applies the effect of this step to the plan.
+   *
+   * @param plan the plan built by the previous steps of the run.
+   * @return false if this step cannot be expressed as a rewrite of the planned schemas. The records
+   *     with these schemas are then processed step by step.
+   */
+  boolean plan(RecordRewritePlan plan);
+}
@@ -15,19 +15,20 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.common.schema.SchemaType;
 
-public class MergeKeyValueStep implements TransformStep {
+public class MergeKeyValueStep implements FusibleStep {
 
-  private final Map<org.apache.avro.Schema, Map<org.apache.avro.Schema, org.apache.avro.Schema>>
-      schemaCache = new ConcurrentHashMap<>();
+  private static final String MERGE_KEY_VALUE = "mergeKeyValue";
+
+  private final SchemaCache schemaCache = SchemaCache.shared();
 
   @Override
   public void process(TransformContext transformContext) {
@@ -43,47 +44,10 @@ public class MergeKeyValueStep implements TransformStep {
       GenericRecord avroValueRecord = (GenericRecord) transformContext.getValueObject();
       org.apache.avro.Schema avroValueSchema = avroValueRecord.getSchema();
 
-      List<String> valueSchemaFieldNames =
-          avroValueSchema
-              .getFields()
-              .stream()
-              .map(org.apache.avro.Schema.Field::name)
-              .collect(Collectors.toList());
-      List<org.apache.avro.Schema.Field> fields =
-          avroKeySchema
-              .getFields()
-              .stream()
-              .filter(field -> !valueSchemaFieldNames.contains(field.name()))
-              .map(
-                  f ->
-                      new org.apache.avro.Schema.Field(
-                          f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
-              .collect(Collectors.toList());
-      fields.addAll(
-          avroValueSchema
-              .getFields()
-              .stream()
-              .map(
-                  f ->
-                      new org.apache.avro.Schema.Field(
-                          f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
-              .collect(Collectors.toList()));
-
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCacheKey =
-          schemaCache.computeIfAbsent(avroKeySchema, s -> new ConcurrentHashMap<>());
-      org.apache.avro.Schema modified =
-          schemaCacheKey.computeIfAbsent(
-              avroValueSchema,
-              schema ->
-                  org.apache.avro.Schema.createRecord(
-                      avroValueSchema.getName(),
-                      null,
-                      avroValueSchema.getNamespace(),
-                      false,
-                      fields));
+      org.apache.avro.Schema modified = mergeSchemas(avroKeySchema, avroValueSchema);
       GenericRecord newRecord = new GenericData.Record(modified);
-      for (String fieldName : valueSchemaFieldNames) {
-        newRecord.put(fieldName, avroValueRecord.get(fieldName));
+      for (org.apache.avro.Schema.Field field : avroValueSchema.getFields()) {
+        newRecord.put(field.name(), avroValueRecord.get(field.name()));
       }
       for (org.apache.avro.Schema.Field field : avroKeySchema.getFields()) {
         newRecord.put(field.name(), avroKeyRecord.get(field.name()));
@@ -92,4 +56,58 @@ public class MergeKeyValueStep implements TransformStep {
       transformContext.setValueModified(true);
     }
   }
+
+  @Override
+  public boolean plan(RecordRewritePlan plan) {
+    RecordRewritePlan.RecordShape key = plan.getKey();
+    if (key == null) {
+      return true;
+    }
+    RecordRewritePlan.RecordShape value = plan.getValue();
+    org.apache.avro.Schema modified = mergeSchemas(key.getSchema(), value.getSchema());
+    // key fields take precedence over value fields with the same name
+    List<RecordRewritePlan.FieldSource> sources = new ArrayList<>();
+    for (org.apache.avro.Schema.Field field : modified.getFields()) {
+      RecordRewritePlan.FieldSource source = key.getSource(field.name());
+      sources.add(source != null ? source : value.getSource(field.name()));
+    }
+    plan.setValue(RecordRewritePlan.RecordShape.of(modified, sources));
+    return true;
+  }
+
+  private org.apache.avro.Schema mergeSchemas(
+      org.apache.avro.Schema avroKeySchema, org.apache.avro.Schema avroValueSchema) {
+    return schemaCache.computeIfAbsent(
+        avroValueSchema,
+        List.of(MERGE_KEY_VALUE, avroKeySchema),
+        schema -> {
+          List<String> valueSchemaFieldNames =
+              avroValueSchema
+                  .getFields()
+                  .stream()
+                  .map(org.apache.avro.Schema.Field::name)
+                  .collect(Collectors.toList());
+          List<org.apache.avro.Schema.Field> fields =
+              avroKeySchema
+                  .getFields()
+                  .stream()
+                  .filter(field -> !valueSchemaFieldNames.contains(field.name()))
+                  .map(
+                      f ->
+                          new org.apache.avro.Schema.Field(
+                              f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
+                  .collect(Collectors.toList());
+          fields.addAll(
+              avroValueSchema
+                  .getFields()
+                  .stream()
+                  .map(
+                      f ->
+                          new org.apache.avro.Schema.Field(
+                              f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()))
+                  .collect(Collectors.toList()));
+          return org.apache.avro.Schema.createRecord(
+              avroValueSchema.getName(), null, avroValueSchema.getNamespace(), false, fields);
+        });
+  }
 }
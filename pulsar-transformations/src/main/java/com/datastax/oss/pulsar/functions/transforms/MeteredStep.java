@@ -0,0 +1,223 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.StepPredicatePair;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Wraps a {@link StepPredicatePair} to record its {@link StepMetrics}: the predicate results, the
+ * dropped records, the errors and a sample of the execution times. The wrapped step records its
+ * remote calls, if any.
+ */
+public class MeteredStep implements TransformStep {
+
+  private final TransformStep step;
+  private final Predicate<TransformContext> predicate;
+  private final StepMetrics metrics;
+
+  public MeteredStep(StepPredicatePair pair, StepMetrics metrics) {
+    this.step = pair.getTransformStep();
+    this.predicate = pair.getPredicate();
+    this.metrics = metrics;
+    step.setMetrics(metrics);
+  }
+
+  public TransformStep getStep() {
+    return step;
+  }
+
+  public StepMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void process(TransformContext transformContext) throws Exception {
+    boolean sampled = metrics.sample();
+    try {
+      if (!test(transformContext)) {
+        return;
+      }
+      boolean dropped = transformContext.isDropCurrentRecord();
+      long start = sampled ? System.nanoTime() : 0;
+      try {
+        step.process(transformContext);
+      } catch (Exception e) {
+        metrics.recordError();
+        throw e;
+      }
+      if (sampled) {
+        metrics.recordExecTime(System.nanoTime() - start);
+      }
+      if (!dropped && transformContext.isDropCurrentRecord()) {
+        metrics.recordDropped(1);
+      }
+    } finally {
+      if (sampled) {
+        metrics.publish();
+      }
+    }
+  }
+
+  /**
+   * Processes the records selected by the predicate as a batch. The sampled execution time is the
+   * execution time of the batch divided by its size.
+   */
+  @Override
+  public void processBatch(List<TransformContext> transformContexts) throws Exception {
+    boolean sampled = metrics.sample();
+    try {
+      List<TransformContext> selected = select(transformContexts);
+      if (selected.isEmpty()) {
+        return;
+      }
+      int dropped = countDropped(selected);
+      long start = sampled ? System.nanoTime() : 0;
+      try {
+        step.processBatch(selected);
+      } catch (Exception e) {
+        metrics.recordError();
+        throw e;
+      }
+      if (sampled) {
+        metrics.recordExecTime((System.nanoTime() - start) / selected.size());
+      }
+      metrics.recordDropped(countDropped(selected) - dropped);
+    } finally {
+      if (sampled) {
+        metrics.publish();
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    boolean sampled = metrics.sample();
+    boolean selected;
+    try {
+      selected = test(transformContext);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (!selected) {
+      if (sampled) {
+        metrics.publish();
+      }
+      return CompletableFuture.completedFuture(null);
+    }
+    boolean dropped = transformContext.isDropCurrentRecord();
+    long start = sampled ? System.nanoTime() : 0;
+    return step.processAsync(transformContext)
+        .whenComplete(
+            (v, error) -> {
+              if (error != null) {
+                metrics.recordError();
+              } else {
+                if (sampled) {
+                  metrics.recordExecTime(System.nanoTime() - start);
+                }
+                if (!dropped && transformContext.isDropCurrentRecord()) {
+                  metrics.recordDropped(1);
+                }
+              }
+              if (sampled) {
+                metrics.publish();
+              }
+            });
+  }
+
+  /**
+   * Processes the records selected by the predicate as a batch without blocking. The sampled
+   * execution time is the execution time of the batch divided by its size.
+   */
+  @Override
+  public CompletableFuture<Void> processBatchAsync(List<TransformContext> transformContexts) {
+    boolean sampled = metrics.sample();
+    List<TransformContext> selected;
+    try {
+      selected = select(transformContexts);
+    } catch (Throwable e) {
+      if (sampled) {
+        metrics.publish();
+      }
+      return CompletableFuture.failedFuture(e);
+    }
+    if (selected.isEmpty()) {
+      if (sampled) {
+        metrics.publish();
+      }
+      return CompletableFuture.completedFuture(null);
+    }
+    int dropped = countDropped(selected);
+    long start = sampled ? System.nanoTime() : 0;
+    return step.processBatchAsync(selected)
+        .whenComplete(
+            (v, error) -> {
+              if (error != null) {
+                metrics.recordError();
+              } else {
+                if (sampled) {
+                  metrics.recordExecTime((System.nanoTime() - start) / selected.size());
+                }
+                metrics.recordDropped(countDropped(selected) - dropped);
+              }
+              if (sampled) {
+                metrics.publish();
+              }
+            });
+  }
+
+  @Override
+  public void close() throws Exception {
+    step.close();
+  }
+
+  private boolean test(TransformContext transformContext) {
+    if (predicate == null) {
+      return true;
+    }
+    boolean result = predicate.test(transformContext);
+    metrics.recordPredicate(result);
+    return result;
+  }
+
+  private List<TransformContext> select(List<TransformContext> transformContexts) {
+    if (predicate == null) {
+      return transformContexts;
+    }
+    List<TransformContext> selected = new ArrayList<>(transformContexts.size());
+    for (TransformContext transformContext : transformContexts) {
+      if (test(transformContext)) {
+        selected.add(transformContext);
+      }
+    }
+    return selected;
+  }
+
+  private static int countDropped(List<TransformContext> transformContexts) {
+    int count = 0;
+    for (TransformContext transformContext : transformContexts) {
+      if (transformContext.isDropCurrentRecord()) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
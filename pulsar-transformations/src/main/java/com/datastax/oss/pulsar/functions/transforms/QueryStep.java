@@ -15,22 +15,40 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.datasource.CachedQueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.QueryResult;
 import com.datastax.oss.pulsar.functions.transforms.datasource.QueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.SnapshotQueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import com.datastax.oss.pulsar.functions.transforms.util.JsonConverter;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.Builder;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.pulsar.common.schema.SchemaType;
 import org.apache.pulsar.functions.api.Record;
 
 /**
- * Compute AI Embeddings for one or more records fields and put the value into a new or existing
- * field.
+ * Runs a query on a {@link QueryStepDataSource} with the values of record fields as parameters and
+ * puts the returned rows into a new or existing field.
+ *
+ * <p>The rows are written as an array of maps of strings, or with <code>typedRows</code> as an
+ * array of records with a field per column of the query, of the type of the column. The record
+ * schema is derived from the columns returned by the data source and reused while they don't
+ * change. The column names that are not valid Avro names have their invalid characters replaced by
+ * <code>_</code>.
+ *
+ * <p>With a {@link SnapshotQueryStepDataSource}, the rows are looked up in a local snapshot of the
+ * rows of the query, so the step doesn't call the database while processing the records.
  */
 @Builder
 @Slf4j
@@ -40,11 +58,140 @@ public class QueryStep implements TransformStep {
   private final String outputFieldName;
   private final String query;
   private final QueryStepDataSource dataSource;
-  private final Map<Schema, Schema> avroValueSchemaCache = new ConcurrentHashMap<>();
-  private final Map<Schema, Schema> avroKeySchemaCache = new ConcurrentHashMap<>();
+  private final boolean typedRows;
+  private final SchemaCache schemaCache = SchemaCache.shared();
+  private final AtomicReference<RowSchema> rowSchema = new AtomicReference<>();
+  @Builder.Default private StepMetrics metrics = StepMetrics.NOOP;
+
+  @Override
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
+    if (dataSource instanceof CachedQueryStepDataSource) {
+      ((CachedQueryStepDataSource) dataSource).setMetrics(metrics);
+    }
+    if (dataSource instanceof SnapshotQueryStepDataSource) {
+      ((SnapshotQueryStepDataSource) dataSource).setMetrics(metrics);
+    }
+  }
+
+  @Override
+  public void close() {
+    // the snapshot is owned by the step, unlike the data source it was loaded from
+    if (dataSource instanceof SnapshotQueryStepDataSource) {
+      dataSource.close();
+    }
+  }
 
   @Override
   public void process(TransformContext transformContext) {
+    List<Object> params = buildParams(transformContext);
+    long start = System.nanoTime();
+    if (typedRows) {
+      QueryResult result;
+      try {
+        result = dataSource.fetchResult(query, params);
+      } finally {
+        recordRemoteCall(start, 1);
+      }
+      setResult(transformContext, result);
+      return;
+    }
+    List<Map<String, String>> results;
+    try {
+      results = dataSource.fetchData(query, params);
+    } finally {
+      recordRemoteCall(start, 1);
+    }
+    setResult(transformContext, results);
+  }
+
+  @Override
+  public void processBatch(List<TransformContext> transformContexts) {
+    List<List<Object>> paramsList = new ArrayList<>(transformContexts.size());
+    for (TransformContext transformContext : transformContexts) {
+      paramsList.add(buildParams(transformContext));
+    }
+    long start = System.nanoTime();
+    if (typedRows) {
+      List<QueryResult> results;
+      try {
+        results = dataSource.fetchResultBatch(query, paramsList);
+      } finally {
+        recordRemoteCall(start, transformContexts.size());
+      }
+      for (int i = 0; i < transformContexts.size(); i++) {
+        setResult(transformContexts.get(i), results.get(i));
+      }
+      return;
+    }
+    List<List<Map<String, String>>> results;
+    try {
+      results = dataSource.fetchDataBatch(query, paramsList);
+    } finally {
+      recordRemoteCall(start, transformContexts.size());
+    }
+    for (int i = 0; i < transformContexts.size(); i++) {
+      setResult(transformContexts.get(i), results.get(i));
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    List<Object> params = buildParams(transformContext);
+    long start = System.nanoTime();
+    if (typedRows) {
+      return dataSource
+          .fetchResultAsync(query, params)
+          .whenComplete((r, e) -> recordRemoteCall(start, 1))
+          .thenAccept(result -> setResult(transformContext, result));
+    }
+    return dataSource
+        .fetchDataAsync(query, params)
+        .whenComplete((r, e) -> recordRemoteCall(start, 1))
+        .thenAccept(results -> setResult(transformContext, results));
+  }
+
+  @Override
+  public CompletableFuture<Void> processBatchAsync(List<TransformContext> transformContexts) {
+    List<List<Object>> paramsList = new ArrayList<>(transformContexts.size());
+    try {
+      for (TransformContext transformContext : transformContexts) {
+        paramsList.add(buildParams(transformContext));
+      }
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    long start = System.nanoTime();
+    if (typedRows) {
+      return dataSource
+          .fetchResultBatchAsync(query, paramsList)
+          .whenComplete((r, e) -> recordRemoteCall(start, transformContexts.size()))
+          .thenAccept(
+              results -> {
+                for (int i = 0; i < transformContexts.size(); i++) {
+                  setResult(transformContexts.get(i), results.get(i));
+                }
+              });
+    }
+    return dataSource
+        .fetchDataBatchAsync(query, paramsList)
+        .whenComplete((r, e) -> recordRemoteCall(start, transformContexts.size()))
+        .thenAccept(
+            results -> {
+              for (int i = 0; i < transformContexts.size(); i++) {
+                setResult(transformContexts.get(i), results.get(i));
+              }
+            });
+  }
+
+  private void recordRemoteCall(long start, int batchSize) {
+    // the lookups in a snapshot don't call the database
+    if (!(dataSource instanceof SnapshotQueryStepDataSource)) {
+      metrics.recordRemoteCall(System.nanoTime() - start, batchSize);
+    }
+  }
+
+  private List<Object> buildParams(TransformContext transformContext) {
     Record<?> currentRecord = transformContext.getContext().getCurrentRecord();
     List<Object> params = new ArrayList<>();
     fields.forEach(
@@ -80,13 +227,72 @@ public class QueryStep implements TransformStep {
                     transformContext.getKeyObject()));
           }
         });
-    final List<Map<String, String>> results = dataSource.fetchData(query, params);
+    return params;
+  }
+
+  private void setResult(TransformContext transformContext, List<Map<String, String>> results) {
     transformContext.setResultField(
         results,
         outputFieldName,
         Schema.createArray(Schema.createMap(Schema.create(Schema.Type.STRING))),
-        avroKeySchemaCache,
-        avroValueSchemaCache);
+        schemaCache);
+  }
+
+  private void setResult(TransformContext transformContext, QueryResult result) {
+    RowSchema schema = rowSchema(result.getColumns());
+    List<GenericRecord> records = new ArrayList<>(result.getRows().size());
+    for (List<Object> row : result.getRows()) {
+      GenericData.Record record = new GenericData.Record(schema.getRecordSchema());
+      for (int i = 0; i < row.size(); i++) {
+        record.put(i, row.get(i));
+      }
+      records.add(record);
+    }
+    Object content = records;
+    if ((outputFieldName.startsWith("value.") && isJson(transformContext.getValueSchema()))
+        || (outputFieldName.startsWith("key.") && isJson(transformContext.getKeySchema()))) {
+      content = JsonConverter.toJson(schema.getArraySchema(), records);
+    }
+    transformContext.setResultField(content, outputFieldName, schema.getArraySchema(), schemaCache);
+  }
+
+  private static boolean isJson(org.apache.pulsar.client.api.Schema<?> schema) {
+    return schema != null && schema.getSchemaInfo().getType() == SchemaType.JSON;
+  }
+
+  /** Returns the schema of the rows with the given columns, built again if the columns changed. */
+  private RowSchema rowSchema(List<QueryResult.Column> columns) {
+    RowSchema schema = rowSchema.get();
+    if (schema == null || !schema.getColumns().equals(columns)) {
+      List<Schema.Field> fields = new ArrayList<>(columns.size());
+      for (QueryResult.Column column : columns) {
+        fields.add(
+            new Schema.Field(
+                avroName(column.getName()),
+                Schema.createUnion(Schema.create(Schema.Type.NULL), column.getSchema()),
+                null,
+                Schema.Field.NULL_DEFAULT_VALUE));
+      }
+      Schema recordSchema =
+          Schema.createRecord(avroName(outputFieldName + "_row"), null, null, false, fields);
+      schema = new RowSchema(columns, recordSchema, Schema.createArray(recordSchema));
+      rowSchema.set(schema);
+    }
+    return schema;
+  }
+
+  private static String avroName(String name) {
+    StringBuilder avroName = new StringBuilder(name.length() + 1);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid =
+          c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+      avroName.append(valid ? c : '_');
+    }
+    if (avroName.length() == 0 || Character.isDigit(avroName.charAt(0))) {
+      avroName.insert(0, '_');
+    }
+    return avroName.toString();
   }
 
   private Object getField(
@@ -139,4 +345,11 @@ public class QueryStep implements TransformStep {
     }
     return rawValue;
   }
+
+  @Value
+  private static class RowSchema {
+    List<QueryResult.Column> columns;
+    Schema recordSchema;
+    Schema arraySchema;
+  }
 }
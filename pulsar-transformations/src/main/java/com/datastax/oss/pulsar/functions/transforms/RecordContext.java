@@ -0,0 +1,55 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import lombok.experimental.Delegate;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.functions.api.Context;
+import org.apache.pulsar.functions.api.Record;
+import org.apache.pulsar.functions.api.utils.FunctionRecord;
+
+/**
+ * A {@link Context} bound to the record it was created for. The function context only knows the
+ * record that is currently received, so records that are processed after the function call returned
+ * (in batches or asynchronously) must use this context instead.
+ */
+public class RecordContext implements Context {
+  @Delegate(excludes = RecordBound.class)
+  private final Context context;
+
+  private final Record<?> record;
+
+  public RecordContext(Context context, Record<?> record) {
+    this.context = context;
+    this.record = record;
+  }
+
+  @Override
+  public Record<?> getCurrentRecord() {
+    return record;
+  }
+
+  @Override
+  public <X> FunctionRecord.FunctionRecordBuilder<X> newOutputRecordBuilder(Schema<X> schema) {
+    return FunctionRecord.from(this, schema);
+  }
+
+  private interface RecordBound {
+    Record<?> getCurrentRecord();
+
+    <X> FunctionRecord.FunctionRecordBuilder<X> newOutputRecordBuilder(Schema<X> schema);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.Getter;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Describes the key and value produced by a run of {@link FusibleStep}s in terms of the input AVRO
+ * key and value records. Each output field references the input field it is read from so that the
+ * output records can be built in a single pass without intermediate records.
+ */
+@Getter
+public class RecordRewritePlan {
+  /** The planned key or null if there is no key. */
+  private RecordShape key;
+
+  private RecordShape value;
+  private boolean keyModified;
+  private boolean valueModified;
+  private boolean keyRemoved;
+  private boolean valueFromKey;
+
+  public RecordRewritePlan(Schema keySchema, Schema valueSchema) {
+    this.key = keySchema == null ? null : RecordShape.of(keySchema, true);
+    this.value = RecordShape.of(valueSchema, false);
+  }
+
+  public void setKey(RecordShape key) {
+    this.key = key;
+    this.keyModified = true;
+  }
+
+  public void setValue(RecordShape value) {
+    this.value = value;
+    this.valueModified = true;
+  }
+
+  /**
+   * Removes the key from the plan.
+   *
+   * @param unwrapKey if true, the key becomes the value.
+   */
+  public void unwrapKeyValue(boolean unwrapKey) {
+    if (key == null) {
+      return;
+    }
+    if (unwrapKey) {
+      value = key;
+      valueFromKey = true;
+    }
+    valueModified = true;
+    keyRemoved = true;
+    key = null;
+  }
+
+  /**
+   * Applies the plan to a context which key (if any) and value are AVRO records with the schemas
+   * the plan was built for.
+   */
+  public void apply(TransformContext transformContext) {
+    GenericRecord keyRecord =
+        transformContext.getKeySchema() == null
+            ? null
+            : (GenericRecord) transformContext.getKeyObject();
+    GenericRecord valueRecord = (GenericRecord) transformContext.getValueObject();
+    if (valueFromKey) {
+      transformContext.setValueSchema(transformContext.getKeySchema());
+    }
+    transformContext.setValueObject(value.build(keyRecord, valueRecord));
+    if (keyRemoved) {
+      transformContext.setKeySchema(null);
+      transformContext.setKeyObject(null);
+    } else if (key != null) {
+      transformContext.setKeyObject(key.build(keyRecord, valueRecord));
+    }
+    if (keyModified) {
+      transformContext.setKeyModified(true);
+    }
+    if (valueModified) {
+      transformContext.setValueModified(true);
+    }
+  }
+
+  /** The schema of a planned record and the source of each of its fields. */
+  public static class RecordShape {
+    @Getter private final Schema schema;
+    private final List<FieldSource> sources;
+    /** If true, the planned record is the input record itself. */
+    private final boolean passthrough;
+
+    private final boolean fromKey;
+
+    private RecordShape(
+        Schema schema, List<FieldSource> sources, boolean passthrough, boolean fromKey) {
+      this.schema = schema;
+      this.sources = sources;
+      this.passthrough = passthrough;
+      this.fromKey = fromKey;
+    }
+
+    static RecordShape of(Schema schema, boolean fromKey) {
+      List<FieldSource> sources = new ArrayList<>(schema.getFields().size());
+      for (Schema.Field field : schema.getFields()) {
+        sources.add(new FieldSource(fromKey, new String[] {field.name()}));
+      }
+      return new RecordShape(schema, sources, true, fromKey);
+    }
+
+    /**
+     * Creates a new shape.
+     *
+     * @param schema the schema of the planned record.
+     * @param sources the sources of the fields, in the order of the schema fields.
+     */
+    public static RecordShape of(Schema schema, List<FieldSource> sources) {
+      if (schema.getFields().size() != sources.size()) {
+        throw new IllegalArgumentException(
+            "Expected " + schema.getFields().size() + " field sources, got " + sources.size());
+      }
+      return new RecordShape(schema, sources, false, false);
+    }
+
+    /** Returns a new shape with the given schema which fields are a subset of this shape fields. */
+    public RecordShape project(Schema schema) {
+      List<FieldSource> projected = new ArrayList<>(schema.getFields().size());
+      for (Schema.Field field : schema.getFields()) {
+        projected.add(getSource(field.name()));
+      }
+      return of(schema, projected);
+    }
+
+    /** Returns the source of a field of this shape or null if the field doesn't exist. */
+    public FieldSource getSource(String fieldName) {
+      Schema.Field field = schema.getField(fieldName);
+      return field == null ? null : sources.get(field.pos());
+    }
+
+    GenericRecord build(GenericRecord keyRecord, GenericRecord valueRecord) {
+      if (passthrough) {
+        return fromKey ? keyRecord : valueRecord;
+      }
+      GenericRecord record = new GenericData.Record(schema);
+      for (int i = 0; i < sources.size(); i++) {
+        record.put(i, sources.get(i).read(keyRecord, valueRecord));
+      }
+      return record;
+    }
+  }
+
+  /** The path of field names to read in the input key or value record. */
+  public static class FieldSource {
+    private final boolean fromKey;
+    private final String[] path;
+
+    private FieldSource(boolean fromKey, String[] path) {
+      this.fromKey = fromKey;
+      this.path = path;
+    }
+
+    /** Returns the source of a field nested in the record read by this source. */
+    public FieldSource child(String fieldName) {
+      String[] childPath = Arrays.copyOf(path, path.length + 1);
+      childPath[path.length] = fieldName;
+      return new FieldSource(fromKey, childPath);
+    }
+
+    Object read(GenericRecord keyRecord, GenericRecord valueRecord) {
+      GenericRecord record = fromKey ? keyRecord : valueRecord;
+      for (int i = 0; i < path.length - 1; i++) {
+        record = (GenericRecord) record.get(path[i]);
+        if (record == null) {
+          return null;
+        }
+      }
+      return record.get(path[path.length - 1]);
+    }
+  }
+}
@@ -17,7 +17,9 @@ package com.datastax.oss.pulsar.functions.transforms;
 
 import com.datastax.oss.pulsar.functions.transforms.model.JsonRecord;
 import com.datastax.oss.pulsar.functions.transforms.util.AvroUtil;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArrayDatumWriter;
 import com.datastax.oss.pulsar.functions.transforms.util.JsonConverter;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -26,13 +28,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.Conversions;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.EncoderFactory;
+import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.schema.GenericObject;
 import org.apache.pulsar.client.api.schema.KeyValueSchema;
@@ -48,7 +56,36 @@ import org.apache.pulsar.functions.api.utils.FunctionRecord;
 public class TransformContext {
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final SchemaCache SCHEMA_CACHE = SchemaCache.shared();
+  private static final String DATUM_WRITER = "datumWriter";
+  private static final String NATIVE_AVRO = "nativeAvro";
+  private static final String JSON_NODE = "jsonNode";
+  private static final String KEY_VALUE = "keyValue";
+  private static final GenericData GENERIC_DATA = GenericData.get();
+  // a larger buffer is not kept by the thread after use
+  private static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+  private static final ThreadLocal<Encoding> ENCODING = ThreadLocal.withInitial(Encoding::new);
+
+  static {
+    // enable Decimal conversion, otherwise attempting to serialize java.math.BigDecimal will throw
+    // ClassCastException
+    GENERIC_DATA.addLogicalTypeConversion(new Conversions.DecimalConversion());
+  }
+
   private final Context context;
+  // the record value, until the key and value are decoded from it
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private Object input;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private boolean inputIsGenericObject;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private boolean decoded;
+
   private Schema<?> keySchema;
   private Object keyObject;
   private boolean keyModified;
@@ -62,9 +99,37 @@ public class TransformContext {
   private boolean dropCurrentRecord;
 
   public TransformContext(Context context, Object value) {
-    Record<?> currentRecord = context.getCurrentRecord();
+    this(context, value, false);
+  }
+
+  /**
+   * Creates a context that reads the native object of the record value only if the key or the value
+   * are accessed.
+   */
+  public TransformContext(Context context, GenericObject value) {
+    this(context, value, true);
+  }
+
+  private TransformContext(Context context, Object input, boolean inputIsGenericObject) {
     this.context = context;
     this.outputTopic = context.getOutputTopic();
+    this.input = input;
+    this.inputIsGenericObject = inputIsGenericObject;
+  }
+
+  /**
+   * Decodes the key and the value from the record value. This is done on the first access to the
+   * key or the value so that the steps that only use the headers and properties don't need it.
+   */
+  private void decode() {
+    if (decoded) {
+      return;
+    }
+    decoded = true;
+    Object value =
+        inputIsGenericObject && input != null ? ((GenericObject) input).getNativeObject() : input;
+    input = null;
+    Record<?> currentRecord = context.getCurrentRecord();
     Schema<?> schema = currentRecord.getSchema();
     if (schema instanceof KeyValueSchema && value instanceof KeyValue) {
       KeyValueSchema<?, ?> kvSchema = (KeyValueSchema<?, ?>) schema;
@@ -87,47 +152,225 @@ public class TransformContext {
     }
   }
 
+  /**
+   * Only the key of a KeyValue record is in the record value. The key of another record is read
+   * without decoding the value.
+   */
+  private boolean isKeyValueRecord() {
+    return context.getCurrentRecord().getSchema() instanceof KeyValueSchema;
+  }
+
+  public Schema<?> getKeySchema() {
+    if (!decoded && !isKeyValueRecord()) {
+      return null;
+    }
+    decode();
+    return keySchema;
+  }
+
+  public void setKeySchema(Schema<?> keySchema) {
+    decode();
+    this.keySchema = keySchema;
+  }
+
+  public Object getKeyObject() {
+    if (!decoded && !isKeyValueRecord()) {
+      return null;
+    }
+    decode();
+    return keyObject;
+  }
+
+  public void setKeyObject(Object keyObject) {
+    decode();
+    this.keyObject = keyObject;
+  }
+
+  public Schema<?> getValueSchema() {
+    decode();
+    return valueSchema;
+  }
+
+  public void setValueSchema(Schema<?> valueSchema) {
+    decode();
+    this.valueSchema = valueSchema;
+  }
+
+  public Object getValueObject() {
+    decode();
+    return valueObject;
+  }
+
+  public void setValueObject(Object valueObject) {
+    decode();
+    this.valueObject = valueObject;
+  }
+
+  public KeyValueEncodingType getKeyValueEncodingType() {
+    decode();
+    return keyValueEncodingType;
+  }
+
+  public void setKeyValueEncodingType(KeyValueEncodingType keyValueEncodingType) {
+    decode();
+    this.keyValueEncodingType = keyValueEncodingType;
+  }
+
+  public String getKey() {
+    if (!decoded && !isKeyValueRecord()) {
+      return context.getCurrentRecord().getKey().orElse(null);
+    }
+    decode();
+    return key;
+  }
+
+  public void setKey(String key) {
+    decode();
+    this.key = key;
+  }
+
   public Record<GenericObject> send() throws IOException {
     if (dropCurrentRecord) {
       return null;
     }
+    Record<?> currentRecord = context.getCurrentRecord();
+    GenericObject recordValue = (GenericObject) currentRecord.getValue();
+    if (!decoded
+        && !(currentRecord.getSchema() instanceof KeyValueSchema)
+        && currentRecord.getSchema().getSchemaInfo().getType().isStruct()) {
+      // the record was neither read nor modified
+      return forwardValue(
+          currentRecord.getSchema(), recordValue, currentRecord.getKey().orElse(null));
+    }
+    decode();
     if (keyModified
         && keySchema != null
         && keySchema.getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord genericRecord = (GenericRecord) keyObject;
-      keySchema = Schema.NATIVE_AVRO(genericRecord.getSchema());
+      keySchema = nativeAvroSchema(genericRecord.getSchema());
       keyObject = serializeGenericRecord(genericRecord);
     }
     if (valueModified
         && valueSchema != null
         && valueSchema.getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord genericRecord = (GenericRecord) valueObject;
-      valueSchema = Schema.NATIVE_AVRO(genericRecord.getSchema());
+      valueSchema = nativeAvroSchema(genericRecord.getSchema());
       valueObject = serializeGenericRecord(genericRecord);
     }
 
     Schema outputSchema;
     Object outputObject;
-    GenericObject recordValue = (GenericObject) context.getCurrentRecord().getValue();
     if (keySchema != null) {
-      outputSchema = Schema.KeyValue(keySchema, valueSchema, keyValueEncodingType);
-      Object outputKeyObject =
-          !keyModified && keySchema.getSchemaInfo().getType().isStruct()
-              ? ((KeyValue<?, ?>) recordValue.getNativeObject()).getKey()
-              : keyObject;
-      Object outputValueObject =
-          !valueModified && valueSchema.getSchemaInfo().getType().isStruct()
-              ? ((KeyValue<?, ?>) recordValue.getNativeObject()).getValue()
-              : valueObject;
+      Schema<?> outputKeySchema = keySchema;
+      Object outputKeyObject = keyObject;
+      Schema<?> outputValueSchema = valueSchema;
+      Object outputValueObject = valueObject;
+      boolean forwardKey = !keyModified && keySchema.getSchemaInfo().getType().isStruct();
+      boolean forwardValue = !valueModified && valueSchema.getSchemaInfo().getType().isStruct();
+      if (forwardKey || forwardValue) {
+        KeyValue<?, ?> recordKeyValue = (KeyValue<?, ?>) recordValue.getNativeObject();
+        // only AVRO payloads can be forwarded
+        KeyValue<byte[], byte[]> payloads =
+            (forwardKey && keySchema.getSchemaInfo().getType() == SchemaType.AVRO)
+                    || (forwardValue && valueSchema.getSchemaInfo().getType() == SchemaType.AVRO)
+                ? originalKeyValuePayloads()
+                : null;
+        KeyValueSchema<?, ?> recordSchema = (KeyValueSchema<?, ?>) currentRecord.getSchema();
+        if (forwardKey) {
+          outputKeyObject = recordKeyValue.getKey();
+          Schema<?> payloadSchema =
+              payloadSchema(
+                  keySchema,
+                  recordSchema.getKeySchema(),
+                  payloads == null ? null : payloads.getKey());
+          if (payloadSchema != null) {
+            outputKeySchema = payloadSchema;
+            outputKeyObject = payloads.getKey();
+          }
+        }
+        if (forwardValue) {
+          outputValueObject = recordKeyValue.getValue();
+          Schema<?> payloadSchema =
+              payloadSchema(
+                  valueSchema,
+                  recordSchema.getValueSchema(),
+                  payloads == null ? null : payloads.getValue());
+          if (payloadSchema != null) {
+            outputValueSchema = payloadSchema;
+            outputValueObject = payloads.getValue();
+          }
+        }
+      }
+      outputSchema = keyValueSchema(outputKeySchema, outputValueSchema, keyValueEncodingType);
       outputObject = new KeyValue<>(outputKeyObject, outputValueObject);
+    } else if (!valueModified && valueSchema.getSchemaInfo().getType().isStruct()) {
+      return forwardValue(valueSchema, recordValue, key);
     } else {
       outputSchema = valueSchema;
-      outputObject =
-          !valueModified && valueSchema.getSchemaInfo().getType().isStruct()
-              ? recordValue
-              : valueObject;
+      outputObject = valueObject;
     }
+    return newOutputRecord(outputSchema, outputObject, keySchema == null ? key : null);
+  }
+
+  /**
+   * Sends the unmodified record value. The payload of an AVRO message is sent as is instead of
+   * re-encoding the record.
+   */
+  private Record<GenericObject> forwardValue(
+      Schema<?> schema, GenericObject recordValue, String key) {
+    Record<?> currentRecord = context.getCurrentRecord();
+    byte[] payload = currentRecord.getMessage().map(Message::getData).orElse(null);
+    Schema<?> payloadSchema = payloadSchema(schema, currentRecord.getSchema(), payload);
+    if (payloadSchema != null) {
+      return newOutputRecord(payloadSchema, payload, key);
+    }
+    return newOutputRecord(schema, recordValue, key);
+  }
 
+  /**
+   * @return the schema with which the original payload of an unmodified key or value can be sent as
+   *     is, or null if it can't.
+   */
+  private static Schema<?> payloadSchema(
+      Schema<?> schema, Schema<?> originalSchema, byte[] payload) {
+    if (payload == null
+        || schema != originalSchema
+        || schema.getSchemaInfo().getType() != SchemaType.AVRO) {
+      return null;
+    }
+    Object nativeSchema = schema.getNativeSchema().orElse(null);
+    return nativeSchema instanceof org.apache.avro.Schema
+        ? nativeAvroSchema((org.apache.avro.Schema) nativeSchema)
+        : null;
+  }
+
+  /**
+   * @return the encoded key and value of the current KeyValue message, or null if the message is
+   *     not available.
+   */
+  private KeyValue<byte[], byte[]> originalKeyValuePayloads() {
+    Message<?> message = context.getCurrentRecord().getMessage().orElse(null);
+    if (message == null) {
+      return null;
+    }
+    if (keyValueEncodingType == KeyValueEncodingType.SEPARATED) {
+      return new KeyValue<>(message.hasKey() ? message.getKeyBytes() : null, message.getData());
+    }
+    byte[] data = message.getData();
+    return data == null ? null : KeyValue.decode(data, KeyValue::new);
+  }
+
+  /** @return the KeyValue schema of a key schema and a value schema, created once per pair. */
+  private static Schema<?> keyValueSchema(
+      Schema<?> keySchema, Schema<?> valueSchema, KeyValueEncodingType keyValueEncodingType) {
+    return SCHEMA_CACHE.computeIfAbsent(
+        new KeyValueSchemaKey(keySchema, valueSchema, keyValueEncodingType),
+        KEY_VALUE,
+        key -> Schema.KeyValue(key.keySchema, key.valueSchema, key.keyValueEncodingType));
+  }
+
+  private Record<GenericObject> newOutputRecord(
+      Schema outputSchema, Object outputObject, String key) {
     if (log.isDebugEnabled()) {
       log.debug("output {} schema {}", outputObject, outputSchema);
     }
@@ -139,7 +382,7 @@ public class TransformContext {
             .value(outputObject)
             .properties(getOutputProperties());
 
-    if (keySchema == null && key != null) {
+    if (key != null) {
       recordBuilder.key(key);
     }
 
@@ -171,20 +414,74 @@ public class TransformContext {
   }
 
   public static byte[] serializeGenericRecord(GenericRecord record) throws IOException {
-    GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(record.getSchema());
-    // enable Decimal conversion, otherwise attempting to serialize java.math.BigDecimal will throw
-    // ClassCastException
-    writer.getData().addLogicalTypeConversion(new Conversions.DecimalConversion());
-    ByteArrayOutputStream oo = new ByteArrayOutputStream();
-    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(oo, null);
-    writer.write(record, encoder);
-    return oo.toByteArray();
+    GenericDatumWriter<GenericRecord> writer =
+        SCHEMA_CACHE.computeIfAbsent(
+            record.getSchema(),
+            DATUM_WRITER,
+            schema -> new FloatArrayDatumWriter<>(schema, GENERIC_DATA));
+    Encoding encoding = ENCODING.get();
+    encoding.buffer.reset();
+    encoding.encoder = EncoderFactory.get().directBinaryEncoder(encoding.buffer, encoding.encoder);
+    writer.write(record, encoding.encoder);
+    byte[] bytes = encoding.buffer.toByteArray();
+    if (bytes.length > MAX_REUSED_BUFFER_SIZE) {
+      ENCODING.remove();
+    }
+    return bytes;
+  }
+
+  /** @return the NATIVE_AVRO schema of an Avro schema, created once per schema. */
+  private static Schema<?> nativeAvroSchema(org.apache.avro.Schema avroSchema) {
+    return SCHEMA_CACHE.computeIfAbsent(avroSchema, NATIVE_AVRO, Schema::NATIVE_AVRO);
+  }
+
+  /** @return the JSON schema of an Avro schema, created once per schema. */
+  private static Schema<?> jsonNodeSchema(org.apache.avro.Schema avroSchema) {
+    return SCHEMA_CACHE.computeIfAbsent(avroSchema, JSON_NODE, JsonNodeSchema::new);
+  }
+
+  /** The key of a KeyValue schema. The key and value schemas are compared by identity. */
+  private static class KeyValueSchemaKey {
+    private final Schema<?> keySchema;
+    private final Schema<?> valueSchema;
+    private final KeyValueEncodingType keyValueEncodingType;
+
+    private KeyValueSchemaKey(
+        Schema<?> keySchema, Schema<?> valueSchema, KeyValueEncodingType keyValueEncodingType) {
+      this.keySchema = keySchema;
+      this.valueSchema = valueSchema;
+      this.keyValueEncodingType = keyValueEncodingType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof KeyValueSchemaKey)) {
+        return false;
+      }
+      KeyValueSchemaKey other = (KeyValueSchemaKey) o;
+      return keySchema == other.keySchema
+          && valueSchema == other.valueSchema
+          && keyValueEncodingType == other.keyValueEncodingType;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * System.identityHashCode(keySchema) + System.identityHashCode(valueSchema))
+          + Objects.hashCode(keyValueEncodingType);
+    }
+  }
+
+  /** The buffer and encoder reused by a thread to serialize the records. */
+  private static class Encoding {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private BinaryEncoder encoder;
   }
 
   public void addOrReplaceValueFields(
       SchemaType schemaType,
       Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      SchemaCache schemaCache) {
+    decode();
     if (schemaType == SchemaType.AVRO) {
       addOrReplaceAvroValueFields(newFields, schemaCache);
     } else if (schemaType == SchemaType.JSON) {
@@ -193,8 +490,7 @@ public class TransformContext {
   }
 
   private void addOrReplaceAvroValueFields(
-      Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      Map<org.apache.avro.Schema.Field, Object> newFields, SchemaCache schemaCache) {
     if (valueSchema.getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord avroRecord = (GenericRecord) valueObject;
       GenericRecord newRecord =
@@ -207,8 +503,7 @@ public class TransformContext {
   }
 
   private void addOrReplaceAvroKeyFields(
-      Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      Map<org.apache.avro.Schema.Field, Object> newFields, SchemaCache schemaCache) {
     if (keySchema.getSchemaInfo().getType() == SchemaType.AVRO) {
       GenericRecord avroRecord = (GenericRecord) keyObject;
       GenericRecord newRecord =
@@ -223,7 +518,8 @@ public class TransformContext {
   public void addOrReplaceKeyFields(
       SchemaType schemaType,
       Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      SchemaCache schemaCache) {
+    decode();
     if (schemaType == SchemaType.AVRO) {
       addOrReplaceAvroKeyFields(newFields, schemaCache);
     } else if (schemaType == SchemaType.JSON) {
@@ -232,15 +528,14 @@ public class TransformContext {
   }
 
   private void addOrReplaceJsonValueFields(
-      Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      Map<org.apache.avro.Schema.Field, Object> newFields, SchemaCache schemaCache) {
     if (valueSchema.getSchemaInfo().getType() == SchemaType.JSON) {
       org.apache.avro.Schema schema =
           AvroUtil.addOrReplaceAvroSchemaFields(
               (org.apache.avro.Schema) valueSchema.getNativeSchema().orElseThrow(),
               newFields.keySet(),
               schemaCache);
-      valueSchema = new JsonNodeSchema(schema);
+      valueSchema = jsonNodeSchema(schema);
       ObjectNode json = (ObjectNode) valueObject;
       newFields.forEach((field, value) -> json.set(field.name(), OBJECT_MAPPER.valueToTree(value)));
       valueObject = json;
@@ -249,15 +544,14 @@ public class TransformContext {
   }
 
   private void addOrReplaceJsonKeyFields(
-      Map<org.apache.avro.Schema.Field, Object> newFields,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> schemaCache) {
+      Map<org.apache.avro.Schema.Field, Object> newFields, SchemaCache schemaCache) {
     if (keySchema.getSchemaInfo().getType() == SchemaType.JSON) {
       org.apache.avro.Schema schema =
           AvroUtil.addOrReplaceAvroSchemaFields(
               (org.apache.avro.Schema) keySchema.getNativeSchema().orElseThrow(),
               newFields.keySet(),
               schemaCache);
-      keySchema = new JsonNodeSchema(schema);
+      keySchema = jsonNodeSchema(schema);
       ObjectNode json = (ObjectNode) keyObject;
       newFields.forEach((field, value) -> json.set(field.name(), OBJECT_MAPPER.valueToTree(value)));
       keyObject = json;
@@ -266,6 +560,7 @@ public class TransformContext {
   }
 
   public JsonRecord toJsonRecord() {
+    decode();
     JsonRecord jsonRecord = new JsonRecord();
     if (keySchema != null) {
       jsonRecord.setKey(toJsonSerializable(keySchema, keyObject));
@@ -309,8 +604,11 @@ public class TransformContext {
       Object content,
       String fieldName,
       org.apache.avro.Schema fieldSchema,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> avroKeySchemaCache,
-      Map<org.apache.avro.Schema, org.apache.avro.Schema> avroValueSchemaCache) {
+      SchemaCache schemaCache) {
+    if (fieldName == null
+        || !(fieldName.equals("destinationTopic") || fieldName.startsWith("properties."))) {
+      decode();
+    }
     if (fieldName == null || fieldName.equals("value")) {
       valueSchema = Schema.STRING;
       valueObject = content;
@@ -328,12 +626,14 @@ public class TransformContext {
       String valueFieldName = fieldName.substring("value.".length());
       org.apache.avro.Schema.Field fieldSchemaField =
           new org.apache.avro.Schema.Field(valueFieldName, fieldSchema, null, null);
-      addOrReplaceValueFields(valueSchema.getSchemaInfo().getType(), Map.of(fieldSchemaField, content), avroValueSchemaCache);
+      addOrReplaceValueFields(
+          valueSchema.getSchemaInfo().getType(), Map.of(fieldSchemaField, content), schemaCache);
     } else if (fieldName.startsWith("key.")) {
       String keyFieldName = fieldName.substring("key.".length());
       org.apache.avro.Schema.Field fieldSchemaField =
           new org.apache.avro.Schema.Field(keyFieldName, fieldSchema, null, null);
-      addOrReplaceKeyFields(keySchema.getSchemaInfo().getType(), Map.of(fieldSchemaField, content), avroKeySchemaCache);
+      addOrReplaceKeyFields(
+          keySchema.getSchemaInfo().getType(), Map.of(fieldSchemaField, content), schemaCache);
     }
   }
 }
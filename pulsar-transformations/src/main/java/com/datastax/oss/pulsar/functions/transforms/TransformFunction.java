@@ -15,22 +15,29 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.azure.ai.openai.OpenAIAsyncClient;
 import com.azure.ai.openai.OpenAIClient;
 import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.NonAzureOpenAIKeyCredential;
 import com.azure.core.credential.AzureKeyCredential;
 import com.datastax.oss.driver.shaded.guava.common.base.Strings;
-import com.datastax.oss.pulsar.functions.transforms.datasource.AstraDBDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.CachedQueryStepDataSource;
 import com.datastax.oss.pulsar.functions.transforms.datasource.QueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.QueryStepDataSourceProvider;
+import com.datastax.oss.pulsar.functions.transforms.datasource.SnapshotQueryStepDataSource;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.AbstractHuggingFaceEmbeddingService;
+import com.datastax.oss.pulsar.functions.transforms.embeddings.CachedEmbeddingsService;
+import com.datastax.oss.pulsar.functions.transforms.embeddings.EmbeddingsCache;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.EmbeddingsService;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.HuggingFaceEmbeddingService;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.HuggingFaceRestEmbeddingService;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.OpenAIEmbeddingsService;
 import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.JstlPredicate;
 import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.StepPredicatePair;
+import com.datastax.oss.pulsar.functions.transforms.metrics.MetricsRegistry;
 import com.datastax.oss.pulsar.functions.transforms.model.ComputeField;
 import com.datastax.oss.pulsar.functions.transforms.model.ComputeFieldType;
+import com.datastax.oss.pulsar.functions.transforms.model.config.CacheConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.CastConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.ChatCompletionsConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.ComputeAIEmbeddingsConfig;
@@ -39,9 +46,12 @@ import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfi
 import com.datastax.oss.pulsar.functions.transforms.model.config.DropFieldsConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.FlattenConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.HuggingFaceConfig;
+import com.datastax.oss.pulsar.functions.transforms.model.config.InferenceConfig;
+import com.datastax.oss.pulsar.functions.transforms.model.config.MetricsConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.OpenAIConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.OpenAIProvider;
 import com.datastax.oss.pulsar.functions.transforms.model.config.QueryConfig;
+import com.datastax.oss.pulsar.functions.transforms.model.config.SnapshotConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.StepConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.TransformStepConfig;
 import com.datastax.oss.pulsar.functions.transforms.model.config.UnwrapKeyValueConfig;
@@ -59,12 +69,16 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.schema.GenericObject;
@@ -153,8 +167,11 @@ public class TransformFunction
       Arrays.asList("value", "key", "destinationTopic", "messageKey", "topicName", "eventTime");
   private final List<StepPredicatePair> steps = new ArrayList<>();
   private OpenAIClient openAIClient;
+  private OpenAIAsyncClient openAIAsyncClient;
   private HuggingFaceConfig huggingConfig;
   private QueryStepDataSource dataSource;
+  private TransformStepConfig config;
+  private MetricsRegistry metricsRegistry;
 
   @Override
   public void initialize(Context context) {
@@ -233,12 +250,14 @@ public class TransformFunction
 
     TransformStep transformStep;
 
-    TransformStepConfig config = mapper.convertValue(userConfigMap, TransformStepConfig.class);
+    config = mapper.convertValue(userConfigMap, TransformStepConfig.class);
 
     openAIClient = buildOpenAIClient(config.getOpenai());
+    openAIAsyncClient = buildOpenAIAsyncClient(config.getOpenai());
     huggingConfig = config.getHuggingface();
     dataSource = buildDataSource(config.getDatasource());
 
+    Map<TransformStep, String> stepNames = new IdentityHashMap<>();
     for (StepConfig step : config.getSteps()) {
       switch (step.getType()) {
         case "drop-fields":
@@ -260,7 +279,8 @@ public class TransformFunction
           transformStep = new DropStep();
           break;
         case "compute":
-          transformStep = newComputeFieldFunction((ComputeConfig) step);
+          transformStep =
+              newComputeFieldFunction((ComputeConfig) step, config.isCompileExpressions());
           break;
         case "compute-ai-embeddings":
           transformStep = newComputeAIEmbeddings((ComputeAIEmbeddingsConfig) step);
@@ -274,10 +294,78 @@ public class TransformFunction
         default:
           throw new IllegalArgumentException("Invalid step type: " + step.getType());
       }
+      stepNames.put(transformStep, "step" + stepNames.size() + "." + step.getType());
       steps.add(
           new StepPredicatePair(
-              transformStep, step.getWhen() == null ? null : new JstlPredicate(step.getWhen())));
+              transformStep,
+              step.getWhen() == null
+                  ? null
+                  : new JstlPredicate(step.getWhen(), config.isCompileExpressions())));
     }
+    fuseSteps(steps);
+
+    MetricsConfig metricsConfig = config.getMetrics();
+    if (metricsConfig != null && metricsConfig.isEnabled()) {
+      metricsRegistry =
+          new MetricsRegistry(
+              context, metricsConfig.getSampleInterval(), metricsConfig.isHistograms());
+      meterSteps(steps, stepNames, metricsRegistry);
+    }
+  }
+
+  /**
+   * Wraps each step and its predicate in a {@link MeteredStep}. The metrics of a {@link FusedStep}
+   * are named after all the steps it runs.
+   */
+  static void meterSteps(
+      List<StepPredicatePair> steps,
+      Map<TransformStep, String> stepNames,
+      MetricsRegistry metricsRegistry) {
+    for (int i = 0; i < steps.size(); i++) {
+      StepPredicatePair pair = steps.get(i);
+      TransformStep step = pair.getTransformStep();
+      String name =
+          step instanceof FusedStep
+              ? ((FusedStep) step)
+                  .getSteps()
+                  .stream()
+                  .map(stepNames::get)
+                  .collect(Collectors.joining("+"))
+              : stepNames.get(step);
+      steps.set(
+          i,
+          new StepPredicatePair(new MeteredStep(pair, metricsRegistry.getStepMetrics(name)), null));
+    }
+  }
+
+  /**
+   * Replaces the runs of consecutive {@link FusibleStep}s without predicate by a {@link FusedStep}.
+   * Steps with a <code>when</code> predicate and other steps are fusion barriers since they may
+   * observe the intermediate records.
+   */
+  static void fuseSteps(List<StepPredicatePair> steps) {
+    List<StepPredicatePair> fused = new ArrayList<>();
+    List<FusibleStep> run = new ArrayList<>();
+    for (StepPredicatePair pair : steps) {
+      if (pair.getPredicate() == null && pair.getTransformStep() instanceof FusibleStep) {
+        run.add((FusibleStep) pair.getTransformStep());
+      } else {
+        addRun(run, fused);
+        fused.add(pair);
+      }
+    }
+    addRun(run, fused);
+    steps.clear();
+    steps.addAll(fused);
+  }
+
+  private static void addRun(List<FusibleStep> run, List<StepPredicatePair> steps) {
+    if (run.size() == 1) {
+      steps.add(new StepPredicatePair(run.get(0), null));
+    } else if (run.size() > 1) {
+      steps.add(new StepPredicatePair(new FusedStep(run), null));
+    }
+    run.clear();
   }
 
   @Override
@@ -288,14 +376,16 @@ public class TransformFunction
     for (StepPredicatePair pair : steps) {
       pair.getTransformStep().close();
     }
+    if (metricsRegistry != null) {
+      metricsRegistry.close();
+    }
   }
 
   @Override
   public Record<GenericObject> process(GenericObject input, Context context) throws Exception {
-    Object nativeObject = input.getNativeObject();
     if (log.isDebugEnabled()) {
       Record<?> currentRecord = context.getCurrentRecord();
-      log.debug("apply to {} {}", input, nativeObject);
+      log.debug("apply to {} {}", input, input.getNativeObject());
       log.debug(
           "record with schema {} version {} {}",
           currentRecord.getSchema(),
@@ -303,7 +393,7 @@ public class TransformFunction
           currentRecord);
     }
 
-    TransformContext transformContext = new TransformContext(context, nativeObject);
+    TransformContext transformContext = new TransformContext(context, input);
     process(transformContext);
     return transformContext.send();
   }
@@ -319,6 +409,117 @@ public class TransformFunction
     }
   }
 
+  @Override
+  public void processBatch(List<TransformContext> transformContexts) throws Exception {
+    for (StepPredicatePair pair : steps) {
+      List<TransformContext> selected = select(pair.getPredicate(), transformContexts);
+      if (!selected.isEmpty()) {
+        pair.getTransformStep().processBatch(selected);
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> processBatchAsync(List<TransformContext> transformContexts) {
+    return processBatchAsync(transformContexts, Runnable::run);
+  }
+
+  /**
+   * Processes a batch of records asynchronously.
+   *
+   * @param transformContexts the records to process.
+   * @param executor the executor on which the processing resumes after a step completes
+   *     asynchronously.
+   * @return a future completed when all the steps have processed the records.
+   */
+  CompletableFuture<Void> processBatchAsync(
+      List<TransformContext> transformContexts, Executor executor) {
+    return processBatchAsync(transformContexts, executor, 0);
+  }
+
+  private CompletableFuture<Void> processBatchAsync(
+      List<TransformContext> transformContexts, Executor executor, int firstStep) {
+    try {
+      for (int i = firstStep; i < steps.size(); i++) {
+        StepPredicatePair pair = steps.get(i);
+        List<TransformContext> selected = select(pair.getPredicate(), transformContexts);
+        if (!selected.isEmpty()) {
+          CompletableFuture<Void> result = pair.getTransformStep().processBatchAsync(selected);
+          if (!result.isDone() || result.isCompletedExceptionally()) {
+            int nextStep = i + 1;
+            return result.thenComposeAsync(
+                v -> processBatchAsync(transformContexts, executor, nextStep), executor);
+          }
+        }
+      }
+      return CompletableFuture.completedFuture(null);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static List<TransformContext> select(
+      Predicate<TransformContext> predicate, List<TransformContext> transformContexts) {
+    if (predicate == null) {
+      return transformContexts;
+    }
+    List<TransformContext> selected = new ArrayList<>(transformContexts.size());
+    for (TransformContext transformContext : transformContexts) {
+      if (predicate.test(transformContext)) {
+        selected.add(transformContext);
+      }
+    }
+    return selected;
+  }
+
+  @Override
+  public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    return processAsync(transformContext, Runnable::run);
+  }
+
+  /**
+   * Processes a record asynchronously.
+   *
+   * @param transformContext the record to process.
+   * @param executor the executor on which the processing resumes after a step completes
+   *     asynchronously.
+   * @return a future completed when all the steps have processed the record.
+   */
+  CompletableFuture<Void> processAsync(TransformContext transformContext, Executor executor) {
+    return processAsync(transformContext, executor, 0);
+  }
+
+  private CompletableFuture<Void> processAsync(
+      TransformContext transformContext, Executor executor, int firstStep) {
+    try {
+      for (int i = firstStep; i < steps.size(); i++) {
+        StepPredicatePair pair = steps.get(i);
+        TransformStep step = pair.getTransformStep();
+        Predicate<TransformContext> predicate = pair.getPredicate();
+        if (predicate == null || predicate.test(transformContext)) {
+          CompletableFuture<Void> result = step.processAsync(transformContext);
+          if (!result.isDone() || result.isCompletedExceptionally()) {
+            int nextStep = i + 1;
+            return result.thenComposeAsync(
+                v -> processAsync(transformContext, executor, nextStep), executor);
+          }
+        }
+      }
+      return CompletableFuture.completedFuture(null);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  TransformStepConfig getConfig() {
+    return config;
+  }
+
+  /** @return the in-process registry of the step metrics, or null if the metrics are disabled. */
+  public MetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
   private static String kebabToPascal(String kebab) {
     return Pattern.compile("(?:^|-)(.)").matcher(kebab).replaceAll(mr -> mr.group(1).toUpperCase());
   }
@@ -364,7 +565,8 @@ public class TransformFunction
     return builder.build();
   }
 
-  private static TransformStep newComputeFieldFunction(ComputeConfig config) {
+  private static TransformStep newComputeFieldFunction(
+      ComputeConfig config, boolean compileExpressions) {
     List<ComputeField> fieldList = new ArrayList<>();
     Set<String> seen = new HashSet<>();
     config
@@ -395,6 +597,7 @@ public class TransformFunction
                       .expression(field.getExpression())
                       .type(type)
                       .optional(field.isOptional())
+                      .compile(compileExpressions)
                       .build());
             });
     return ComputeStep.builder().fields(fieldList).build();
@@ -417,7 +620,8 @@ public class TransformFunction
     final EmbeddingsService embeddingService;
     switch (service) {
       case OPENAI:
-        embeddingService = new OpenAIEmbeddingsService(openAIClient, config.getModel());
+        embeddingService =
+            new OpenAIEmbeddingsService(openAIClient, openAIAsyncClient, config.getModel());
         break;
       case HUGGINGFACE:
         Objects.requireNonNull(huggingConfig, "huggingface config is required");
@@ -428,6 +632,18 @@ public class TransformFunction
                     .options(config.getOptions())
                     .arguments(config.getArguments())
                     .modelUrl(config.getModelUrl());
+            InferenceConfig inference = config.getInference();
+            if (inference != null) {
+              builder
+                  .poolSize(inference.getPoolSize())
+                  .batchSize(inference.getBatchSize())
+                  .batchWindow(inference.getBatchWindow())
+                  .intraOpThreads(inference.getIntraOpThreads())
+                  .interOpThreads(inference.getInterOpThreads())
+                  .paddingBuckets(inference.getPaddingBuckets())
+                  .lengthBuckets(inference.getLengthBuckets())
+                  .maxTokens(inference.getMaxTokens());
+            }
             String modelUrl = config.getModelUrl();
             if (!Strings.isNullOrEmpty(config.getModel())) {
               builder.modelName(config.getModel());
@@ -448,15 +664,21 @@ public class TransformFunction
                 apiBuilder =
                     HuggingFaceRestEmbeddingService.HuggingFaceApiConfig.builder()
                         .accessKey(huggingConfig.getAccessKey())
-                        .model(config.getModel());
+                        .model(config.getModel())
+                        .connectTimeout(huggingConfig.getConnectTimeout())
+                        .requestTimeout(huggingConfig.getRequestTimeout())
+                        .maxInFlight(huggingConfig.getMaxInFlight())
+                        .maxRetries(huggingConfig.getMaxRetries())
+                        .retryBackoff(huggingConfig.getRetryBackoff())
+                        .maxRetryBackoff(huggingConfig.getMaxRetryBackoff());
 
             if (!Strings.isNullOrEmpty(huggingConfig.getApiUrl())) {
               apiBuilder.hfUrl(huggingConfig.getApiUrl());
             }
+            // a loading model is retried with a backoff rather than waited for with the
+            // wait_for_model option
             if (config.getOptions() != null && config.getOptions().size() > 0) {
               apiBuilder.options(config.getOptions());
-            } else {
-              apiBuilder.options(Map.of("wait_for_model", "true"));
             }
 
             embeddingService = new HuggingFaceRestEmbeddingService(apiBuilder.build());
@@ -470,8 +692,35 @@ public class TransformFunction
         throw new IllegalArgumentException("Unsupported service: " + service);
     }
 
+    String serviceName =
+        service == ComputeAIEmbeddingsConfig.SupportedServices.HUGGINGFACE
+            ? service.name() + "/" + huggingConfig.getProvider()
+            : service.name();
     return new ComputeAIEmbeddingsStep(
-        config.getText(), config.getEmbeddingsFieldName(), embeddingService);
+        config.getText(),
+        config.getEmbeddingsFieldName(),
+        withCache(embeddingService, serviceName, config.getModel(), config.getCache()),
+        config.getBatchSize(),
+        config.getFlushInterval(),
+        config.getEmbeddingsElementType() == ComputeAIEmbeddingsConfig.EmbeddingsElementType.FLOAT
+            ? org.apache.avro.Schema.Type.FLOAT
+            : org.apache.avro.Schema.Type.DOUBLE);
+  }
+
+  private static EmbeddingsService withCache(
+      EmbeddingsService embeddingsService, String service, String model, CacheConfig config) {
+    if (config == null || !config.isEnabled()) {
+      return embeddingsService;
+    }
+    if (config.getPath() != null) {
+      throw new IllegalArgumentException(
+          "The cache of the compute-ai-embeddings step doesn't support the path parameter");
+    }
+    return new CachedEmbeddingsService(
+        embeddingsService,
+        service,
+        model,
+        new EmbeddingsCache(config.getMaxSize(), config.getTtl()));
   }
 
   private static UnwrapKeyValueStep newUnwrapKeyValueFunction(UnwrapKeyValueConfig config) {
@@ -482,7 +731,7 @@ public class TransformFunction
     if (openAIClient == null) {
       throw new IllegalArgumentException("The OpenAI client must be configured for this step");
     }
-    return new ChatCompletionsStep(openAIClient, config);
+    return new ChatCompletionsStep(openAIClient, openAIAsyncClient, config);
   }
 
   private TransformStep newQuery(QueryConfig config) {
@@ -502,14 +751,75 @@ public class TransformFunction
         .outputFieldName(config.getOutputField())
         .query(config.getQuery())
         .fields(config.getFields())
-        .dataSource(dataSource)
+        .dataSource(withSnapshot(config, this.config.getDatasource()))
+        .typedRows(config.getRowFormat() == QueryConfig.RowFormat.RECORD)
         .build();
   }
 
+  /**
+   * @param config the config of the query step.
+   * @param dataSourceConfig the config of the data source loading the snapshot, if any.
+   * @return the data source of the query step.
+   */
+  QueryStepDataSource withSnapshot(QueryConfig config, DataSourceConfig dataSourceConfig) {
+    SnapshotConfig snapshotConfig = config.getSnapshot();
+    if (snapshotConfig == null || !snapshotConfig.isEnabled()) {
+      return withCache(dataSource, config.getCache());
+    }
+    // without datasource config, the data source is a stub that can't load the snapshot
+    if (dataSourceConfig == null) {
+      throw new IllegalArgumentException("The datasource must be configured for the snapshot");
+    }
+    if (config.getCache() != null && config.getCache().isEnabled()) {
+      throw new IllegalArgumentException(
+          "The cache and the snapshot of the query step can't be both enabled");
+    }
+    List<String> keyColumns = snapshotConfig.getKeyColumns();
+    if (keyColumns == null || keyColumns.size() != config.getFields().size()) {
+      throw new IllegalArgumentException(
+          "The snapshot of the query step must have a key column per field");
+    }
+    SnapshotQueryStepDataSource snapshot =
+        new SnapshotQueryStepDataSource(
+            dataSource,
+            config.getQuery(),
+            keyColumns,
+            config.getRowFormat() == QueryConfig.RowFormat.RECORD,
+            snapshotConfig.getRefreshInterval());
+    snapshot.start();
+    return snapshot;
+  }
+
+  private static QueryStepDataSource withCache(QueryStepDataSource dataSource, CacheConfig config) {
+    if (config == null || !config.isEnabled()) {
+      return dataSource;
+    }
+    if (config.getPath() != null) {
+      throw new IllegalArgumentException(
+          "The cache of the query step doesn't support the path parameter");
+    }
+    return new CachedQueryStepDataSource(
+        dataSource,
+        config.getMaxSize(),
+        config.getTtl(),
+        config.getNegativeTtl() == null ? config.getTtl() : config.getNegativeTtl());
+  }
+
   protected OpenAIClient buildOpenAIClient(OpenAIConfig openAIConfig) {
     if (openAIConfig == null) {
       return null;
     }
+    return newOpenAIClientBuilder(openAIConfig).buildClient();
+  }
+
+  protected OpenAIAsyncClient buildOpenAIAsyncClient(OpenAIConfig openAIConfig) {
+    if (openAIConfig == null) {
+      return null;
+    }
+    return newOpenAIClientBuilder(openAIConfig).buildAsyncClient();
+  }
+
+  private static OpenAIClientBuilder newOpenAIClientBuilder(OpenAIConfig openAIConfig) {
     OpenAIClientBuilder openAIClientBuilder = new OpenAIClientBuilder();
     if (openAIConfig.getProvider() == OpenAIProvider.AZURE) {
       openAIClientBuilder.credential(new AzureKeyCredential(openAIConfig.getAccessKey()));
@@ -519,21 +829,15 @@ public class TransformFunction
     if (openAIConfig.getUrl() != null) {
       openAIClientBuilder.endpoint(openAIConfig.getUrl());
     }
-    return openAIClientBuilder.buildClient();
+    return openAIClientBuilder;
   }
 
   protected QueryStepDataSource buildDataSource(DataSourceConfig dataSourceConfig) {
     if (dataSourceConfig == null) {
       return new QueryStepDataSource() {};
     }
-    QueryStepDataSource dataSource;
-    switch (dataSourceConfig.getService() + "") {
-      case "astra":
-        dataSource = new AstraDBDataSource();
-        break;
-      default:
-        throw new IllegalArgumentException("Invalid service type " + dataSourceConfig.getService());
-    }
+    QueryStepDataSource dataSource =
+        QueryStepDataSourceProvider.createDataSource(dataSourceConfig.getService());
     dataSource.initialize(dataSourceConfig);
     return dataSource;
   }
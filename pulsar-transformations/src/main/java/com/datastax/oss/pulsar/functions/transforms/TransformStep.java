@@ -15,8 +15,67 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface TransformStep extends AutoCloseable {
   default void close() throws Exception {}
 
   void process(TransformContext transformContext) throws Exception;
+
+  /**
+   * Processes a batch of records. Steps that call remote services can override this method to
+   * process the whole batch at once. By default, the records are processed one at a time.
+   *
+   * @param transformContexts the records to process.
+   */
+  default void processBatch(List<TransformContext> transformContexts) throws Exception {
+    for (TransformContext transformContext : transformContexts) {
+      process(transformContext);
+    }
+  }
+
+  /**
+   * Processes a record without blocking the calling thread. Steps that call remote services can
+   * override this method to use non-blocking clients. By default, the record is processed
+   * synchronously. The returned future may be completed on another thread, concurrently with the
+   * processing of other records by the step.
+   *
+   * @param transformContext the record to process.
+   * @return a future completed when the record has been processed.
+   */
+  default CompletableFuture<Void> processAsync(TransformContext transformContext) {
+    try {
+      process(transformContext);
+      return CompletableFuture.completedFuture(null);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Processes a batch of records without blocking the calling thread. Steps that call remote
+   * services can override this method to process the whole batch with non-blocking clients. By
+   * default, the batch is processed synchronously with {@link #processBatch(List)}.
+   *
+   * @param transformContexts the records to process.
+   * @return a future completed when the records have been processed.
+   */
+  default CompletableFuture<Void> processBatchAsync(List<TransformContext> transformContexts) {
+    try {
+      processBatch(transformContexts);
+      return CompletableFuture.completedFuture(null);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Sets the metrics of the step. Steps that call remote services can override this method to
+   * record the latency and the size of their calls. By default, the metrics are ignored.
+   *
+   * @param metrics the metrics of the step.
+   */
+  default void setMetrics(StepMetrics metrics) {}
 }
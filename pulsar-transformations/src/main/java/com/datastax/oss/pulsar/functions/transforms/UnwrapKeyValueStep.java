@@ -15,7 +15,7 @@
  */
 package com.datastax.oss.pulsar.functions.transforms;
 
-public class UnwrapKeyValueStep implements TransformStep {
+public class UnwrapKeyValueStep implements FusibleStep {
 
   private final boolean unwrapKey;
 
@@ -36,4 +36,10 @@ public class UnwrapKeyValueStep implements TransformStep {
       transformContext.setKeyObject(null);
     }
   }
+
+  @Override
+  public boolean plan(RecordRewritePlan plan) {
+    plan.unwrapKeyValue(unwrapKey);
+    return true;
+  }
 }
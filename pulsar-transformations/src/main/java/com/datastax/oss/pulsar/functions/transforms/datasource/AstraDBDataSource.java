@@ -15,9 +15,12 @@
  */
 package com.datastax.oss.pulsar.functions.transforms.datasource;
 
+import com.datastax.oss.driver.api.core.CqlIdentifier;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.CqlSessionBuilder;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
 import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
@@ -31,22 +34,49 @@ import com.datastax.oss.driver.api.core.type.reflect.GenericType;
 import com.datastax.oss.driver.internal.core.type.codec.CqlVectorCodec;
 import com.datastax.oss.driver.internal.core.type.codec.registry.DefaultCodecRegistry;
 import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArray;
+import com.datastax.oss.pulsar.functions.transforms.util.InFlightLimiter;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class AstraDBDataSource implements QueryStepDataSource {
 
+  private static final Pattern SINGLE_PARTITION_QUERY =
+      Pattern.compile(
+          "\\s*SELECT\\s+(.+?)\\s+FROM\\s+(\\S+)\\s+WHERE\\s+(\\S+?)\\s*=\\s*\\?\\s*;?\\s*",
+          Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern IDENTIFIER =
+      Pattern.compile("[A-Za-z][A-Za-z0-9_]*|\"([^\"]|\"\")+\"");
+  private static final Pattern NON_COALESCIBLE_SELECTORS =
+      Pattern.compile("^(DISTINCT|JSON)\\b", Pattern.CASE_INSENSITIVE);
+
   CqlSession session;
   Map<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+  private final Map<String, Optional<CoalescedQuery>> coalescedQueries = new ConcurrentHashMap<>();
+  private final Map<String, ResultColumns> resultColumns = new ConcurrentHashMap<>();
+  private InFlightLimiter inFlightLimiter = new InFlightLimiter(64);
+  private int pageSize = 100;
+  private int maxRows = 1000;
+  private int inQueryMaxKeys = 20;
 
   private static final DefaultCodecRegistry CODEC_REGISTRY =
       new DefaultCodecRegistry("default-registry") {
@@ -67,6 +97,7 @@ public class AstraDBDataSource implements QueryStepDataSource {
   @Override
   public void initialize(DataSourceConfig dataSourceConfig) {
     log.info("Initializing AstraDBDataSource with config {}", dataSourceConfig);
+    configure(dataSourceConfig);
     this.session =
         buildCqlSession(
             dataSourceConfig.getUsername(),
@@ -74,6 +105,13 @@ public class AstraDBDataSource implements QueryStepDataSource {
             dataSourceConfig.getSecureBundle());
   }
 
+  void configure(DataSourceConfig dataSourceConfig) {
+    this.inFlightLimiter = new InFlightLimiter(dataSourceConfig.getMaxConcurrentQueries());
+    this.pageSize = dataSourceConfig.getPageSize();
+    this.maxRows = dataSourceConfig.getMaxRows();
+    this.inQueryMaxKeys = dataSourceConfig.getInQueryMaxKeys();
+  }
+
   @Override
   public void close() {
     if (session != null) {
@@ -83,6 +121,279 @@ public class AstraDBDataSource implements QueryStepDataSource {
 
   @Override
   public List<Map<String, String>> fetchData(String query, List<Object> params) {
+    return QueryStepDataSource.join(fetchDataAsync(query, params));
+  }
+
+  @Override
+  public CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+      String query, List<Object> params) {
+    return submit(() -> bind(query, params), rowLimit(1)).thenApply(AstraDBDataSource::toMaps);
+  }
+
+  /**
+   * Fetches the rows with the types of the columns of the prepared statement. The types are
+   * converted by a {@link CqlAvroConverter} computed once per query.
+   */
+  @Override
+  public CompletableFuture<QueryResult> fetchResultAsync(String query, List<Object> params) {
+    ResultColumns resultColumns;
+    try {
+      resultColumns = resultColumns(query);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return submit(() -> bind(query, params), rowLimit(1)).thenApply(resultColumns::toResult);
+  }
+
+  /** Fetches all the rows of the query, reading the pages one at a time, without row limit. */
+  @Override
+  public CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+    return submit(() -> bind(query, List.of()), Integer.MAX_VALUE)
+        .thenApply(AstraDBDataSource::toMaps);
+  }
+
+  /** Fetches all the rows of the query with the types of the columns, without row limit. */
+  @Override
+  public CompletableFuture<QueryResult> loadResultAsync(String query) {
+    ResultColumns resultColumns;
+    try {
+      resultColumns = resultColumns(query);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return submit(() -> bind(query, List.of()), Integer.MAX_VALUE)
+        .thenApply(resultColumns::toResult);
+  }
+
+  /**
+   * Fetches the data of the parameter sets. If the query selects a single partition by its key,
+   * like <code>SELECT * FROM table WHERE id = ?</code>, the parameter sets are deduplicated and
+   * grouped by up to <code>in-query-max-keys</code> in <code>IN</code> queries.
+   */
+  @Override
+  public CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    return fetchBatchAsync(
+        query,
+        paramsList,
+        AstraDBDataSource::toMaps,
+        CoalescedQuery::toMaps,
+        () -> QueryStepDataSource.super.fetchDataBatchAsync(query, paramsList));
+  }
+
+  /**
+   * Fetches the rows of the parameter sets with the types of the columns. The lookups are coalesced
+   * like in {@link #fetchDataBatchAsync(String, List)}.
+   */
+  @Override
+  public CompletableFuture<List<QueryResult>> fetchResultBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    ResultColumns resultColumns;
+    try {
+      resultColumns = resultColumns(query);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return fetchBatchAsync(
+        query,
+        paramsList,
+        resultColumns::toResult,
+        (coalescedQuery, rows) -> resultColumns.toResult(rows),
+        () -> QueryStepDataSource.super.fetchResultBatchAsync(query, paramsList));
+  }
+
+  /**
+   * @param toResult converts the rows of a parameter set.
+   * @param toCoalescedResult converts the rows of a key fetched with a coalesced query.
+   * @param notCoalesced fetches the parameter sets if the query can't be coalesced.
+   */
+  private <T> CompletableFuture<List<T>> fetchBatchAsync(
+      String query,
+      List<List<Object>> paramsList,
+      Function<List<Row>, T> toResult,
+      BiFunction<CoalescedQuery, List<Row>, T> toCoalescedResult,
+      Supplier<CompletableFuture<List<T>>> notCoalesced) {
+    CoalescedQuery coalescedQuery = null;
+    if (inQueryMaxKeys > 1 && paramsList.size() > 1) {
+      try {
+        coalescedQuery = coalescedQueries.computeIfAbsent(query, this::coalesce).orElse(null);
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    if (coalescedQuery == null) {
+      return notCoalesced.get();
+    }
+
+    List<T> results = new ArrayList<>(paramsList.size());
+    Map<ByteBuffer, List<Integer>> positionsByKey = new LinkedHashMap<>();
+    List<CompletableFuture<Void>> fetches = new ArrayList<>();
+    for (int i = 0; i < paramsList.size(); i++) {
+      results.add(null);
+      int position = i;
+      BoundStatement statement;
+      try {
+        statement = bind(query, paramsList.get(i));
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+      ByteBuffer key = statement.getBytesUnsafe(0);
+      if (key == null) {
+        fetches.add(
+            inFlightLimiter
+                .submit(() -> execute(statement, rowLimit(1)))
+                .thenAccept(rows -> results.set(position, toResult.apply(rows))));
+      } else {
+        positionsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+      }
+    }
+
+    List<ByteBuffer> keys = new ArrayList<>(positionsByKey.keySet());
+    for (int from = 0; from < keys.size(); from += inQueryMaxKeys) {
+      List<ByteBuffer> chunk = keys.subList(from, Math.min(keys.size(), from + inQueryMaxKeys));
+      CoalescedQuery inQuery = coalescedQuery;
+      fetches.add(
+          submit(() -> inQuery.bind(chunk), rowLimit(chunk.size()))
+              .thenAccept(
+                  rows -> {
+                    Map<ByteBuffer, List<Row>> rowsByKey = inQuery.groupByKey(rows);
+                    for (ByteBuffer key : chunk) {
+                      T keyRows =
+                          toCoalescedResult.apply(inQuery, rowsByKey.getOrDefault(key, List.of()));
+                      for (int position : positionsByKey.get(key)) {
+                        results.set(position, keyRows);
+                      }
+                    }
+                  }));
+    }
+    return CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0]))
+        .thenApply(v -> results);
+  }
+
+  private int rowLimit(int keys) {
+    return maxRows > 0
+        ? (int) Math.min(Integer.MAX_VALUE, (long) maxRows * keys)
+        : Integer.MAX_VALUE;
+  }
+
+  private ResultColumns resultColumns(String query) {
+    return resultColumns.computeIfAbsent(
+        query,
+        q -> {
+          PreparedStatement preparedStatement =
+              statements.computeIfAbsent(q, k -> session.prepare(k));
+          ColumnDefinitions definitions = preparedStatement.getResultSetDefinitions();
+          List<QueryResult.Column> columns = new ArrayList<>(definitions.size());
+          List<CqlAvroConverter> converters = new ArrayList<>(definitions.size());
+          for (ColumnDefinition definition : definitions) {
+            CqlAvroConverter converter = CqlAvroConverter.of(definition.getType());
+            columns.add(
+                new QueryResult.Column(definition.getName().asInternal(), converter.getSchema()));
+            converters.add(converter);
+          }
+          return new ResultColumns(columns, converters);
+        });
+  }
+
+  private Optional<CoalescedQuery> coalesce(String query) {
+    Matcher matcher = SINGLE_PARTITION_QUERY.matcher(query);
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+    String selectors = matcher.group(1).trim();
+    String key = matcher.group(3);
+    if (selectors.contains("(")
+        || NON_COALESCIBLE_SELECTORS.matcher(selectors).find()
+        || !IDENTIFIER.matcher(key).matches()) {
+      return Optional.empty();
+    }
+    PreparedStatement preparedStatement =
+        statements.computeIfAbsent(query, q -> session.prepare(q));
+    if (preparedStatement.getVariableDefinitions().size() != 1
+        || !preparedStatement.getPartitionKeyIndices().equals(List.of(0))) {
+      return Optional.empty();
+    }
+    CqlIdentifier keyColumn = CqlIdentifier.fromCql(key);
+    boolean keySelected = selectors.equals("*");
+    for (String selector : selectors.split(",")) {
+      selector = selector.trim();
+      keySelected |=
+          IDENTIFIER.matcher(selector).matches()
+              && CqlIdentifier.fromCql(selector).equals(keyColumn);
+    }
+    String inQueryPrefix =
+        "SELECT "
+            + (keySelected ? selectors : selectors + ", " + key)
+            + " FROM "
+            + matcher.group(2)
+            + " WHERE "
+            + key
+            + " IN (";
+    log.info("Coalescing the lookups of query {} in IN queries", query);
+    return Optional.of(new CoalescedQuery(keyColumn, !keySelected, inQueryPrefix));
+  }
+
+  /**
+   * Binds a statement on the calling thread and executes it once the number of queries in flight
+   * allows it. Binding may prepare the statement, a blocking call that the driver rejects on its
+   * I/O threads, on which the queued queries are started when a query completes.
+   */
+  private CompletableFuture<List<Row>> submit(Supplier<BoundStatement> bind, int maxRows) {
+    BoundStatement statement;
+    try {
+      statement = bind.get();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return inFlightLimiter.submit(() -> execute(statement, maxRows));
+  }
+
+  /**
+   * Executes a statement and collects at most <code>maxRows</code> rows, fetching the pages one at
+   * a time.
+   */
+  private CompletableFuture<List<Row>> execute(BoundStatement statement, int maxRows) {
+    CompletableFuture<List<Row>> result = new CompletableFuture<>();
+    try {
+      session
+          .executeAsync(statement.setPageSize(pageSize))
+          .whenComplete(
+              (resultSet, error) -> collect(resultSet, error, new ArrayList<>(), maxRows, result));
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  private static void collect(
+      AsyncResultSet resultSet,
+      Throwable error,
+      List<Row> rows,
+      int maxRows,
+      CompletableFuture<List<Row>> result) {
+    if (error != null) {
+      result.completeExceptionally(error);
+      return;
+    }
+    for (Row row : resultSet.currentPage()) {
+      if (rows.size() >= maxRows) {
+        log.warn("The query returned more than {} rows, the other rows are ignored", maxRows);
+        result.complete(rows);
+        return;
+      }
+      rows.add(row);
+    }
+    if (resultSet.hasMorePages()) {
+      resultSet
+          .fetchNextPage()
+          .whenComplete(
+              (nextPage, nextError) -> collect(nextPage, nextError, rows, maxRows, result));
+    } else {
+      result.complete(rows);
+    }
+  }
+
+  private BoundStatement bind(String query, List<Object> params) {
     if (log.isDebugEnabled()) {
       log.debug(
           "Executing query {} with params {} ({})",
@@ -103,16 +414,22 @@ public class AstraDBDataSource implements QueryStepDataSource {
       ColumnDefinition columnDefinition = variableDefinitions.get(i);
       if (columnDefinition.getType() instanceof CqlVectorType && value instanceof List) {
         CqlVectorType vectorType = (CqlVectorType) columnDefinition.getType();
-        List<Object> list = (List<Object>) value;
         CqlVector.Builder builder = CqlVector.builder();
         if (vectorType.getSubtype() != DataTypes.FLOAT) {
           throw new IllegalArgumentException("Only VECTOR<FLOAT,x> is supported");
         }
-        for (Object v : list) {
-          if (v instanceof Number) {
-            builder.add(((Number) v).floatValue());
-          } else {
-            builder.add(Float.parseFloat(v + ""));
+        if (value instanceof FloatArray) {
+          // the embeddings computed by a previous step are read without a conversion to double
+          for (float v : ((FloatArray) value).getValues()) {
+            builder.add(v);
+          }
+        } else {
+          for (Object v : (List<Object>) value) {
+            if (v instanceof Number) {
+              builder.add(((Number) v).floatValue());
+            } else {
+              builder.add(Float.parseFloat(v + ""));
+            }
           }
         }
         value = builder.build();
@@ -120,29 +437,96 @@ public class AstraDBDataSource implements QueryStepDataSource {
       adaptedParameters.add(value);
     }
 
-    BoundStatement bind = preparedStatement.bind(adaptedParameters.toArray(new Object[0]));
-
-    List<Row> all = session.execute(bind).all();
-    return all.stream()
-        .map(
-            r -> {
-              Map<String, String> result = new HashMap<>();
-              ColumnDefinitions columnDefinitions = r.getColumnDefinitions();
-              for (int i = 0; i < columnDefinitions.size(); i++) {
-                String name = columnDefinitions.get(i).getName().toString();
-                Object object = r.getObject(i);
-                if (log.isTraceEnabled()) {
-                  log.trace(
-                      "Column {} is of type {} and value {}",
-                      name,
-                      object != null ? object.getClass().toString() : "null",
-                      object);
-                }
-                result.put(name, object != null ? object.toString() : null);
-              }
-              return result;
-            })
-        .collect(Collectors.toList());
+    return preparedStatement.bind(adaptedParameters.toArray(new Object[0]));
+  }
+
+  private static List<Map<String, String>> toMaps(List<Row> rows) {
+    List<Map<String, String>> maps = new ArrayList<>(rows.size());
+    for (Row row : rows) {
+      maps.add(toMap(row));
+    }
+    return maps;
+  }
+
+  private static Map<String, String> toMap(Row r) {
+    ColumnDefinitions columnDefinitions = r.getColumnDefinitions();
+    Map<String, String> result = new HashMap<>(columnDefinitions.size() * 4 / 3 + 1);
+    for (int i = 0; i < columnDefinitions.size(); i++) {
+      String name = columnDefinitions.get(i).getName().toString();
+      Object object = r.getObject(i);
+      if (log.isTraceEnabled()) {
+        log.trace(
+            "Column {} is of type {} and value {}",
+            name,
+            object != null ? object.getClass().toString() : "null",
+            object);
+      }
+      result.put(name, object != null ? object.toString() : null);
+    }
+    return result;
+  }
+
+  /** The columns of the result of a query and the converters of their values. */
+  @AllArgsConstructor
+  private static class ResultColumns {
+    private final List<QueryResult.Column> columns;
+    private final List<CqlAvroConverter> converters;
+
+    /**
+     * Converts the rows to a result with the columns of the query. The rows of a coalesced query
+     * have the key column after the columns of the query if it was added, which is ignored.
+     */
+    QueryResult toResult(List<Row> rows) {
+      List<List<Object>> values = new ArrayList<>(rows.size());
+      for (Row row : rows) {
+        List<Object> rowValues = new ArrayList<>(converters.size());
+        for (int i = 0; i < converters.size(); i++) {
+          rowValues.add(converters.get(i).convert(row.getObject(i)));
+        }
+        values.add(rowValues);
+      }
+      return new QueryResult(columns, values);
+    }
+  }
+
+  /** A single partition query rewritten to look up many partitions with an IN query. */
+  @AllArgsConstructor
+  private class CoalescedQuery {
+    private final CqlIdentifier keyColumn;
+    private final boolean keyColumnAdded;
+    private final String inQueryPrefix;
+
+    BoundStatement bind(List<ByteBuffer> keys) {
+      StringBuilder inQuery = new StringBuilder(inQueryPrefix);
+      for (int i = 0; i < keys.size(); i++) {
+        inQuery.append(i == 0 ? "?" : ", ?");
+      }
+      PreparedStatement preparedStatement =
+          statements.computeIfAbsent(inQuery.append(")").toString(), q -> session.prepare(q));
+      BoundStatementBuilder builder = preparedStatement.boundStatementBuilder();
+      for (int i = 0; i < keys.size(); i++) {
+        builder.setBytesUnsafe(i, keys.get(i));
+      }
+      return builder.build();
+    }
+
+    Map<ByteBuffer, List<Row>> groupByKey(List<Row> rows) {
+      Map<ByteBuffer, List<Row>> rowsByKey = new HashMap<>();
+      for (Row row : rows) {
+        rowsByKey.computeIfAbsent(row.getBytesUnsafe(keyColumn), k -> new ArrayList<>()).add(row);
+      }
+      return rowsByKey;
+    }
+
+    List<Map<String, String>> toMaps(List<Row> rows) {
+      List<Map<String, String>> maps = AstraDBDataSource.toMaps(rows);
+      if (keyColumnAdded) {
+        for (Map<String, String> map : maps) {
+          map.remove(keyColumn.asInternal());
+        }
+      }
+      return maps;
+    }
   }
 
   public CqlSession buildCqlSession(String username, String password, String secureBundle) {
@@ -0,0 +1,247 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import com.datastax.oss.pulsar.functions.transforms.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import lombok.Value;
+
+/**
+ * A {@link QueryStepDataSource} that caches the results fetched by another data source, keyed by
+ * query and parameters, as maps or as typed rows. A lookup waiting for the same query already in
+ * flight doesn't issue another query, so concurrent misses of the same key cost a single query.
+ *
+ * <p>The results expire <code>ttlMillis</code> milliseconds after they were fetched. Empty results
+ * expire after <code>negativeTtlMillis</code> milliseconds instead, so that a missing row can be
+ * cached for a shorter time than the existing rows. The data source is usually shared by several
+ * steps, so closing this data source doesn't close it. This class is thread-safe.
+ */
+public class CachedQueryStepDataSource implements QueryStepDataSource {
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final QueryStepDataSource delegate;
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  private final LongSupplier clock;
+  private final LruCache<Key, Object> cache;
+  private final Map<Key, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+  private volatile StepMetrics metrics = StepMetrics.NOOP;
+
+  /**
+   * @param delegate the data source fetching the results that are not cached.
+   * @param maxSize the maximum number of results in the cache.
+   * @param ttlMillis the time-to-live of the results in milliseconds. If 0, the results don't
+   *     expire.
+   * @param negativeTtlMillis the time-to-live of the empty results in milliseconds. If 0, the empty
+   *     results don't expire. If negative, the empty results are not cached.
+   */
+  public CachedQueryStepDataSource(
+      QueryStepDataSource delegate, int maxSize, long ttlMillis, long negativeTtlMillis) {
+    this(delegate, maxSize, ttlMillis, negativeTtlMillis, System::currentTimeMillis);
+  }
+
+  CachedQueryStepDataSource(
+      QueryStepDataSource delegate,
+      int maxSize,
+      long ttlMillis,
+      long negativeTtlMillis,
+      LongSupplier clock) {
+    this.delegate = delegate;
+    this.ttlMillis = ttlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+    this.clock = clock;
+    this.cache = new LruCache<>(maxSize, ttlMillis, clock);
+  }
+
+  /** Sets the metrics where the cache hits and misses are recorded. */
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public List<Map<String, String>> fetchData(String query, List<Object> params) {
+    return QueryStepDataSource.join(fetchDataAsync(query, params));
+  }
+
+  @Override
+  public CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+      String query, List<Object> params) {
+    return fetchAsync(
+        new Lookup<>(query, false, List::isEmpty), params, p -> delegate.fetchDataAsync(query, p));
+  }
+
+  @Override
+  public CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    return fetchBatchAsync(
+        new Lookup<>(query, false, List::isEmpty),
+        paramsList,
+        missed -> delegate.fetchDataBatchAsync(query, missed));
+  }
+
+  @Override
+  public CompletableFuture<QueryResult> fetchResultAsync(String query, List<Object> params) {
+    return fetchAsync(
+        new Lookup<>(query, true, QueryResult::isEmpty),
+        params,
+        p -> delegate.fetchResultAsync(query, p));
+  }
+
+  @Override
+  public CompletableFuture<List<QueryResult>> fetchResultBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    return fetchBatchAsync(
+        new Lookup<>(query, true, QueryResult::isEmpty),
+        paramsList,
+        missed -> delegate.fetchResultBatchAsync(query, missed));
+  }
+
+  private static <T> CompletableFuture<T> fetchAsync(
+      Lookup<T> lookup, List<Object> params, Function<List<Object>, CompletableFuture<T>> fetch) {
+    CompletableFuture<T> result = lookup.add(params);
+    if (!lookup.missedParams.isEmpty()) {
+      CompletableFuture<T> fetched;
+      try {
+        fetched = fetch.apply(params);
+      } catch (RuntimeException e) {
+        fetched = CompletableFuture.failedFuture(e);
+      }
+      fetched.whenComplete(
+          (data, error) -> lookup.complete(Collections.singletonList(data), error));
+    }
+    return result;
+  }
+
+  private static <T> CompletableFuture<List<T>> fetchBatchAsync(
+      Lookup<T> lookup,
+      List<List<Object>> paramsList,
+      Function<List<List<Object>>, CompletableFuture<List<T>>> fetch) {
+    List<CompletableFuture<T>> results = new ArrayList<>(paramsList.size());
+    for (List<Object> params : paramsList) {
+      results.add(lookup.add(params));
+    }
+    if (!lookup.missedParams.isEmpty()) {
+      CompletableFuture<List<T>> fetched;
+      try {
+        fetched = fetch.apply(lookup.missedParams);
+      } catch (RuntimeException e) {
+        fetched = CompletableFuture.failedFuture(e);
+      }
+      fetched.whenComplete(lookup::complete);
+    }
+    return QueryStepDataSource.allOf(results);
+  }
+
+  private long expirationTime(boolean empty) {
+    long ttl = empty ? negativeTtlMillis : ttlMillis;
+    return ttl > 0 ? clock.getAsLong() + ttl : NEVER;
+  }
+
+  /**
+   * The parameters of a lookup missing the cache, fetched together from the delegate.
+   *
+   * @param <T> the type of the result of a parameter set, rows as maps or typed rows.
+   */
+  private class Lookup<T> {
+    private final String query;
+    private final boolean typed;
+    private final Predicate<T> isEmpty;
+    private final List<Key> missedKeys = new ArrayList<>();
+    private final List<List<Object>> missedParams = new ArrayList<>();
+    private final List<CompletableFuture<T>> pending = new ArrayList<>();
+
+    Lookup(String query, boolean typed, Predicate<T> isEmpty) {
+      this.query = query;
+      this.typed = typed;
+      this.isEmpty = isEmpty;
+    }
+
+    /**
+     * Returns the cached result of the parameters, the result of the same query in flight, or a new
+     * pending result to be completed by {@link #complete(List, Throwable)}.
+     */
+    @SuppressWarnings("unchecked")
+    CompletableFuture<T> add(List<Object> params) {
+      Key key = new Key(query, new ArrayList<>(params), typed);
+      T data = (T) cache.get(key);
+      if (data != null) {
+        metrics.recordCacheHit();
+        return CompletableFuture.completedFuture(data);
+      }
+      CompletableFuture<T> result = new CompletableFuture<>();
+      CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(key, result);
+      if (existing != null) {
+        metrics.recordCacheHit();
+        return existing;
+      }
+      // the query in flight may have completed between the cache lookup and the claim
+      data = (T) cache.get(key);
+      if (data != null) {
+        inFlight.remove(key, result);
+        metrics.recordCacheHit();
+        return CompletableFuture.completedFuture(data);
+      }
+      metrics.recordCacheMiss();
+      missedKeys.add(key);
+      missedParams.add(params);
+      pending.add(result);
+      return result;
+    }
+
+    /** Caches the fetched results and completes the pending results. */
+    void complete(List<T> fetched, Throwable error) {
+      if (error == null && fetched.size() != pending.size()) {
+        error =
+            new IllegalStateException(
+                "Expected " + pending.size() + " results, got " + fetched.size());
+      }
+      for (int i = 0; i < pending.size(); i++) {
+        Key key = missedKeys.get(i);
+        if (error == null) {
+          T data = fetched.get(i);
+          if (data != null) {
+            boolean empty = isEmpty.test(data);
+            if (!empty || negativeTtlMillis >= 0) {
+              cache.put(key, data, expirationTime(empty));
+            }
+          }
+          inFlight.remove(key, pending.get(i));
+          pending.get(i).complete(data);
+        } else {
+          inFlight.remove(key, pending.get(i));
+          pending.get(i).completeExceptionally(error);
+        }
+      }
+    }
+  }
+
+  /** The cache key of the results of a query with the given parameters. */
+  @Value
+  private static class Key {
+    String query;
+    List<Object> params;
+    boolean typed;
+  }
+}
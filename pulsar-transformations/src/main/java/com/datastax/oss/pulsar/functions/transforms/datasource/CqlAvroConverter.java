@@ -0,0 +1,173 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import com.datastax.oss.driver.api.core.data.CqlVector;
+import com.datastax.oss.driver.api.core.type.CqlVectorType;
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.driver.api.core.type.ListType;
+import com.datastax.oss.driver.api.core.type.MapType;
+import com.datastax.oss.driver.api.core.type.SetType;
+import com.datastax.oss.protocol.internal.ProtocolConstants;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArray;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+
+/**
+ * Converts the values of a CQL type to the Java type expected by Avro for the corresponding schema.
+ *
+ * <p>The numbers, booleans, strings and blobs are mapped to the Avro primitive types, the
+ * timestamps, dates, times and UUIDs to the Avro logical types, the lists, sets and vectors to
+ * arrays and the maps to maps with string keys. A <code>VECTOR&lt;FLOAT,n&gt;</code> is read into a
+ * {@link FloatArray} without boxing. The other types, like decimals, varints and user defined
+ * types, are converted to strings.
+ */
+final class CqlAvroConverter {
+  private final Schema schema;
+  private final Function<Object, Object> converter;
+
+  private CqlAvroConverter(Schema schema, Function<Object, Object> converter) {
+    this.schema = schema;
+    this.converter = converter;
+  }
+
+  /** @return the Avro schema of the converted values. */
+  Schema getSchema() {
+    return schema;
+  }
+
+  /** Converts a non null value of the CQL type. */
+  Object convert(Object value) {
+    return value == null ? null : converter.apply(value);
+  }
+
+  static CqlAvroConverter of(DataType type) {
+    switch (type.getProtocolCode()) {
+      case ProtocolConstants.DataType.ASCII:
+      case ProtocolConstants.DataType.VARCHAR:
+        return new CqlAvroConverter(Schema.create(Schema.Type.STRING), Function.identity());
+      case ProtocolConstants.DataType.INT:
+      case ProtocolConstants.DataType.SMALLINT:
+      case ProtocolConstants.DataType.TINYINT:
+        return new CqlAvroConverter(
+            Schema.create(Schema.Type.INT), value -> ((Number) value).intValue());
+      case ProtocolConstants.DataType.BIGINT:
+      case ProtocolConstants.DataType.COUNTER:
+        return new CqlAvroConverter(Schema.create(Schema.Type.LONG), Function.identity());
+      case ProtocolConstants.DataType.FLOAT:
+        return new CqlAvroConverter(Schema.create(Schema.Type.FLOAT), Function.identity());
+      case ProtocolConstants.DataType.DOUBLE:
+        return new CqlAvroConverter(Schema.create(Schema.Type.DOUBLE), Function.identity());
+      case ProtocolConstants.DataType.BOOLEAN:
+        return new CqlAvroConverter(Schema.create(Schema.Type.BOOLEAN), Function.identity());
+      case ProtocolConstants.DataType.BLOB:
+        return new CqlAvroConverter(
+            Schema.create(Schema.Type.BYTES), value -> ((ByteBuffer) value).duplicate());
+      case ProtocolConstants.DataType.TIMESTAMP:
+        return new CqlAvroConverter(
+            LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG)),
+            value -> ((Instant) value).toEpochMilli());
+      case ProtocolConstants.DataType.DATE:
+        return new CqlAvroConverter(
+            LogicalTypes.date().addToSchema(Schema.create(Schema.Type.INT)),
+            value -> (int) ((LocalDate) value).toEpochDay());
+      case ProtocolConstants.DataType.TIME:
+        return new CqlAvroConverter(
+            LogicalTypes.timeMicros().addToSchema(Schema.create(Schema.Type.LONG)),
+            value -> ((LocalTime) value).toNanoOfDay() / 1000);
+      case ProtocolConstants.DataType.UUID:
+      case ProtocolConstants.DataType.TIMEUUID:
+        return new CqlAvroConverter(
+            LogicalTypes.uuid().addToSchema(Schema.create(Schema.Type.STRING)), Object::toString);
+      case ProtocolConstants.DataType.LIST:
+        return ofCollection(((ListType) type).getElementType());
+      case ProtocolConstants.DataType.SET:
+        return ofCollection(((SetType) type).getElementType());
+      case ProtocolConstants.DataType.MAP:
+        return ofMap(((MapType) type).getValueType());
+      default:
+        if (type instanceof CqlVectorType) {
+          return ofVector((CqlVectorType) type);
+        }
+        return new CqlAvroConverter(Schema.create(Schema.Type.STRING), Object::toString);
+    }
+  }
+
+  private static CqlAvroConverter ofCollection(DataType elementType) {
+    CqlAvroConverter element = of(elementType);
+    return new CqlAvroConverter(
+        Schema.createArray(element.schema),
+        value -> {
+          Collection<?> collection = (Collection<?>) value;
+          List<Object> list = new ArrayList<>(collection.size());
+          for (Object v : collection) {
+            list.add(element.convert(v));
+          }
+          return list;
+        });
+  }
+
+  private static CqlAvroConverter ofMap(DataType valueType) {
+    CqlAvroConverter element = of(valueType);
+    return new CqlAvroConverter(
+        Schema.createMap(element.schema),
+        value -> {
+          Map<?, ?> map = (Map<?, ?>) value;
+          Map<String, Object> converted = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+          for (Map.Entry<?, ?> entry : map.entrySet()) {
+            converted.put(entry.getKey().toString(), element.convert(entry.getValue()));
+          }
+          return converted;
+        });
+  }
+
+  private static CqlAvroConverter ofVector(CqlVectorType type) {
+    if (!DataTypes.FLOAT.equals(type.getSubtype())) {
+      CqlAvroConverter element = of(type.getSubtype());
+      return new CqlAvroConverter(
+          Schema.createArray(element.schema),
+          value -> {
+            List<Object> list = new ArrayList<>(type.getDimensions());
+            for (Object v : ((CqlVector<?>) value).getValues()) {
+              list.add(element.convert(v));
+            }
+            return list;
+          });
+    }
+    Schema schema = Schema.createArray(Schema.create(Schema.Type.FLOAT));
+    return new CqlAvroConverter(
+        schema,
+        value -> {
+          float[] values = new float[type.getDimensions()];
+          int i = 0;
+          for (Object v : ((CqlVector<?>) value).getValues()) {
+            values[i++] = ((Number) v).floatValue();
+          }
+          return new FloatArray(schema, values);
+        });
+  }
+}
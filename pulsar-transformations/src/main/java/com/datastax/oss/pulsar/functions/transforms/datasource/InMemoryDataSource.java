@@ -0,0 +1,125 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An embedded {@link QueryStepDataSource} holding a reference dataset in memory. The dataset is
+ * loaded at initialization from the JSON file at <code>path</code>, either an array of objects or
+ * one object per line, each object being a row.
+ *
+ * <p>The query is the comma-separated list of the key columns, for instance <code>country, code
+ * </code>, and the parameters are the values of the key columns. The rows are indexed by the key
+ * columns of a query the first time it is run, so a lookup is a hash map access. The rows and the
+ * parameters are matched like in a {@link SnapshotQueryStepDataSource}: an integral number matches
+ * with or without a fractional part.
+ */
+@Slf4j
+public class InMemoryDataSource implements QueryStepDataSource {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private List<Map<String, String>> rows = List.of();
+  private final Map<String, Map<List<String>, List<Map<String, String>>>> indexes =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public void initialize(DataSourceConfig dataSourceConfig) {
+    if (dataSourceConfig.getPath() == null) {
+      throw new IllegalArgumentException("The path of the memory datasource must be set");
+    }
+    initialize(load(new File(dataSourceConfig.getPath())));
+  }
+
+  void initialize(List<Map<String, String>> rows) {
+    this.rows = rows;
+    indexes.clear();
+  }
+
+  @Override
+  public List<Map<String, String>> fetchData(String query, List<Object> params) {
+    return indexes
+        .computeIfAbsent(query, this::index)
+        .getOrDefault(SnapshotQueryStepDataSource.keyOf(params), List.of());
+  }
+
+  private Map<List<String>, List<Map<String, String>>> index(String query) {
+    String[] columns = query.split(",");
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = columns[i].trim();
+    }
+    Map<List<String>, List<Map<String, String>>> index = new HashMap<>();
+    for (Map<String, String> row : rows) {
+      List<String> key = new ArrayList<>(columns.length);
+      for (String column : columns) {
+        key.add(SnapshotQueryStepDataSource.keyOf(row.get(column)));
+      }
+      index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+    }
+    index.replaceAll((key, matches) -> Collections.unmodifiableList(matches));
+    log.info("Indexed {} rows on columns {}", rows.size(), String.join(", ", columns));
+    return index;
+  }
+
+  static List<Map<String, String>> load(File file) {
+    List<Map<String, String>> rows = new ArrayList<>();
+    try (MappingIterator<JsonNode> nodes =
+        OBJECT_MAPPER.readerFor(JsonNode.class).readValues(file)) {
+      while (nodes.hasNextValue()) {
+        JsonNode node = nodes.nextValue();
+        if (node.isArray()) {
+          for (JsonNode element : node) {
+            rows.add(toRow(element));
+          }
+        } else {
+          rows.add(toRow(node));
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Failed to load the dataset " + file, e);
+    }
+    log.info("Loaded {} rows from {}", rows.size(), file);
+    return rows;
+  }
+
+  private static Map<String, String> toRow(JsonNode node) {
+    if (!node.isObject()) {
+      throw new IllegalArgumentException("Expected a JSON object as row, got " + node);
+    }
+    Map<String, String> row = new HashMap<>(node.size() * 4 / 3 + 1);
+    for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      JsonNode value = field.getValue();
+      row.put(
+          field.getKey(),
+          value.isNull() ? null : value.isValueNode() ? value.asText() : value.toString());
+    }
+    return Collections.unmodifiableMap(row);
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded pool of JDBC connections. At most <code>maxSize</code> connections are borrowed at the
+ * same time, a borrower waits at most <code>connectionTimeoutMillis</code> milliseconds for a
+ * connection. The connections are created lazily, the most recently used idle connection is reused
+ * first and a connection idle for more than {@link #VALIDATION_WINDOW_MILLIS} milliseconds is
+ * validated before being reused.
+ *
+ * <p>Each connection keeps a cache of at most <code>statementCacheSize</code> prepared statements,
+ * evicting the least recently used one. A connection that failed a query is discarded.
+ */
+@Slf4j
+class JdbcConnectionPool implements AutoCloseable {
+  static final long VALIDATION_WINDOW_MILLIS = 1000;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final ConnectionFactory factory;
+  private final int statementCacheSize;
+  private final long connectionTimeoutMillis;
+  private final Semaphore permits;
+  private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private volatile boolean closed;
+
+  JdbcConnectionPool(
+      ConnectionFactory factory,
+      int maxSize,
+      int statementCacheSize,
+      long connectionTimeoutMillis) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Connection pool size must be at least 1, got " + maxSize);
+    }
+    this.factory = factory;
+    this.statementCacheSize = statementCacheSize;
+    this.connectionTimeoutMillis = connectionTimeoutMillis;
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  /** Runs the work with a connection of the pool. */
+  <T> T withConnection(ConnectionWork<T> work) throws SQLException {
+    PooledConnection connection = borrow();
+    boolean failed = true;
+    try {
+      T result = work.apply(connection);
+      failed = false;
+      return result;
+    } finally {
+      release(connection, failed);
+    }
+  }
+
+  /** Returns the number of open connections. */
+  int getSize() {
+    return size.get();
+  }
+
+  private PooledConnection borrow() throws SQLException {
+    if (closed) {
+      throw new IllegalStateException("The connection pool is closed");
+    }
+    try {
+      if (!permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLTransientConnectionException(
+            "No connection available after " + connectionTimeoutMillis + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+    }
+    try {
+      PooledConnection connection;
+      while ((connection = idle.pollFirst()) != null) {
+        if (System.currentTimeMillis() - connection.lastUsed < VALIDATION_WINDOW_MILLIS
+            || isValid(connection)) {
+          return connection;
+        }
+        log.info("Discarding an invalid connection");
+        discard(connection);
+      }
+      connection = new PooledConnection(factory.create());
+      size.incrementAndGet();
+      return connection;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private static boolean isValid(PooledConnection connection) {
+    try {
+      return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void release(PooledConnection connection, boolean failed) {
+    if (failed || closed) {
+      discard(connection);
+    } else {
+      connection.lastUsed = System.currentTimeMillis();
+      idle.addFirst(connection);
+      // the pool may have been closed while the connection was added
+      if (closed && idle.remove(connection)) {
+        discard(connection);
+      }
+    }
+    permits.release();
+  }
+
+  private void discard(PooledConnection connection) {
+    size.decrementAndGet();
+    try {
+      connection.connection.close();
+    } catch (SQLException e) {
+      log.warn("Failed to close connection", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    PooledConnection connection;
+    while ((connection = idle.pollFirst()) != null) {
+      discard(connection);
+    }
+  }
+
+  /** A connection of the pool and its cache of prepared statements. */
+  class PooledConnection {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    PooledConnection(Connection connection) {
+      this.connection = connection;
+      this.statements =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+              if (size() > statementCacheSize) {
+                try {
+                  eldest.getValue().close();
+                } catch (SQLException e) {
+                  log.warn("Failed to close statement", e);
+                }
+                return true;
+              }
+              return false;
+            }
+          };
+    }
+
+    /** Returns the cached prepared statement of the query, prepared if absent. */
+    PreparedStatement prepare(String query) throws SQLException {
+      PreparedStatement statement = statements.get(query);
+      if (statement == null) {
+        statement = connection.prepareStatement(query);
+        if (statementCacheSize > 0) {
+          statements.put(query, statement);
+        }
+      }
+      return statement;
+    }
+
+    /** Closes the statement if it is not cached. */
+    void done(PreparedStatement statement) throws SQLException {
+      if (statementCacheSize <= 0) {
+        statement.close();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface ConnectionFactory {
+    Connection create() throws SQLException;
+  }
+
+  @FunctionalInterface
+  interface ConnectionWork<T> {
+    T apply(PooledConnection connection) throws SQLException;
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import java.nio.ByteBuffer;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+
+/**
+ * A {@link QueryStepDataSource} running SQL queries with a JDBC driver, which must be in the
+ * classpath of the function. The queries run on a pool of <code>pool-size</code> connections and
+ * threads, with a cache of prepared statements per connection. The parameter sets of a batch are
+ * bound in turn to the same prepared statement of a single connection.
+ *
+ * <p>The typed rows map the SQL types to the Avro types, the types without an Avro equivalent are
+ * converted to strings.
+ */
+@Slf4j
+public class JdbcDataSource implements QueryStepDataSource {
+  private JdbcConnectionPool pool;
+  private ExecutorService executor;
+  private int pageSize = 100;
+  private int maxRows = 1000;
+
+  @Override
+  public void initialize(DataSourceConfig dataSourceConfig) {
+    if (dataSourceConfig.getUrl() == null) {
+      throw new IllegalArgumentException("The url of the jdbc datasource must be set");
+    }
+    String url = dataSourceConfig.getUrl();
+    String username = dataSourceConfig.getUsername();
+    String password = dataSourceConfig.getPassword();
+    initialize(
+        dataSourceConfig,
+        () ->
+            username == null
+                ? DriverManager.getConnection(url)
+                : DriverManager.getConnection(url, username, password));
+  }
+
+  void initialize(
+      DataSourceConfig dataSourceConfig, JdbcConnectionPool.ConnectionFactory connectionFactory) {
+    this.pageSize = dataSourceConfig.getPageSize();
+    this.maxRows = dataSourceConfig.getMaxRows();
+    this.pool =
+        new JdbcConnectionPool(
+            connectionFactory,
+            dataSourceConfig.getPoolSize(),
+            dataSourceConfig.getStatementCacheSize(),
+            dataSourceConfig.getConnectionTimeout());
+    AtomicInteger threads = new AtomicInteger();
+    this.executor =
+        Executors.newFixedThreadPool(
+            dataSourceConfig.getPoolSize(),
+            r -> {
+              Thread thread = new Thread(r, "jdbc-query-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Override
+  public List<Map<String, String>> fetchData(String query, List<Object> params) {
+    return fetchDataBatch(query, List.of(params)).get(0);
+  }
+
+  @Override
+  public CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+      String query, List<Object> params) {
+    return fetchDataBatchAsync(query, List.of(params)).thenApply(results -> results.get(0));
+  }
+
+  @Override
+  public List<List<Map<String, String>>> fetchDataBatch(
+      String query, List<List<Object>> paramsList) {
+    return executeBatch(query, paramsList, maxRows, JdbcDataSource::toMaps);
+  }
+
+  @Override
+  public CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    return CompletableFuture.supplyAsync(() -> fetchDataBatch(query, paramsList), executor);
+  }
+
+  @Override
+  public CompletableFuture<QueryResult> fetchResultAsync(String query, List<Object> params) {
+    return fetchResultBatchAsync(query, List.of(params)).thenApply(results -> results.get(0));
+  }
+
+  @Override
+  public CompletableFuture<List<QueryResult>> fetchResultBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    return CompletableFuture.supplyAsync(
+        () -> executeBatch(query, paramsList, maxRows, JdbcDataSource::toResult), executor);
+  }
+
+  /** Fetches all the rows of the query, without row limit. */
+  @Override
+  public CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+    return CompletableFuture.supplyAsync(
+        () -> executeBatch(query, List.of(List.of()), 0, JdbcDataSource::toMaps).get(0), executor);
+  }
+
+  /** Fetches all the rows of the query with the types of the columns, without row limit. */
+  @Override
+  public CompletableFuture<QueryResult> loadResultAsync(String query) {
+    return CompletableFuture.supplyAsync(
+        () -> executeBatch(query, List.of(List.of()), 0, JdbcDataSource::toResult).get(0),
+        executor);
+  }
+
+  private <T> List<T> executeBatch(
+      String query, List<List<Object>> paramsList, int maxRows, ResultSetConverter<T> converter) {
+    if (log.isDebugEnabled()) {
+      log.debug("Executing query {} with {} parameter sets", query, paramsList.size());
+    }
+    try {
+      return pool.withConnection(
+          connection -> {
+            PreparedStatement statement = connection.prepare(query);
+            try {
+              statement.setFetchSize(pageSize);
+              statement.setMaxRows(maxRows);
+              List<T> results = new ArrayList<>(paramsList.size());
+              for (List<Object> params : paramsList) {
+                statement.clearParameters();
+                for (int i = 0; i < params.size(); i++) {
+                  statement.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                  results.add(converter.convert(resultSet));
+                }
+              }
+              return results;
+            } finally {
+              connection.done(statement);
+            }
+          });
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to execute query " + query, e);
+    }
+  }
+
+  private static List<Map<String, String>> toMaps(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    List<Map<String, String>> maps = new ArrayList<>();
+    while (resultSet.next()) {
+      Map<String, String> map = new HashMap<>(columnCount * 4 / 3 + 1);
+      for (int i = 1; i <= columnCount; i++) {
+        map.put(metaData.getColumnLabel(i), resultSet.getString(i));
+      }
+      maps.add(map);
+    }
+    return maps;
+  }
+
+  private static QueryResult toResult(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    List<QueryResult.Column> columns = new ArrayList<>(columnCount);
+    List<Integer> types = new ArrayList<>(columnCount);
+    for (int i = 1; i <= columnCount; i++) {
+      int type = avroType(metaData.getColumnType(i));
+      columns.add(new QueryResult.Column(metaData.getColumnLabel(i), schemaOf(type)));
+      types.add(type);
+    }
+    List<List<Object>> rows = new ArrayList<>();
+    while (resultSet.next()) {
+      List<Object> row = new ArrayList<>(columnCount);
+      for (int i = 1; i <= columnCount; i++) {
+        row.add(read(resultSet, i, types.get(i - 1)));
+      }
+      rows.add(row);
+    }
+    return new QueryResult(columns, rows);
+  }
+
+  /** Returns the SQL type read for a column, {@link Types#VARCHAR} if read as a string. */
+  private static int avroType(int sqlType) {
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return Types.INTEGER;
+      case Types.REAL:
+        return Types.REAL;
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return Types.DOUBLE;
+      case Types.BIT:
+      case Types.BOOLEAN:
+      case Types.BIGINT:
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return sqlType;
+      default:
+        return Types.VARCHAR;
+    }
+  }
+
+  private static Schema schemaOf(int type) {
+    switch (type) {
+      case Types.INTEGER:
+        return Schema.create(Schema.Type.INT);
+      case Types.BIGINT:
+        return Schema.create(Schema.Type.LONG);
+      case Types.REAL:
+        return Schema.create(Schema.Type.FLOAT);
+      case Types.DOUBLE:
+        return Schema.create(Schema.Type.DOUBLE);
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return Schema.create(Schema.Type.BOOLEAN);
+      case Types.DATE:
+        return LogicalTypes.date().addToSchema(Schema.create(Schema.Type.INT));
+      case Types.TIME:
+        return LogicalTypes.timeMicros().addToSchema(Schema.create(Schema.Type.LONG));
+      case Types.TIMESTAMP:
+        return LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG));
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return Schema.create(Schema.Type.BYTES);
+      default:
+        return Schema.create(Schema.Type.STRING);
+    }
+  }
+
+  private static Object read(ResultSet resultSet, int column, int type) throws SQLException {
+    Object value;
+    switch (type) {
+      case Types.INTEGER:
+        value = resultSet.getInt(column);
+        break;
+      case Types.BIGINT:
+        value = resultSet.getLong(column);
+        break;
+      case Types.REAL:
+        value = resultSet.getFloat(column);
+        break;
+      case Types.DOUBLE:
+        value = resultSet.getDouble(column);
+        break;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        value = resultSet.getBoolean(column);
+        break;
+      case Types.DATE:
+        java.sql.Date date = resultSet.getDate(column);
+        return date == null ? null : (int) date.toLocalDate().toEpochDay();
+      case Types.TIME:
+        java.sql.Time time = resultSet.getTime(column);
+        return time == null ? null : time.toLocalTime().toNanoOfDay() / 1000;
+      case Types.TIMESTAMP:
+        java.sql.Timestamp timestamp = resultSet.getTimestamp(column);
+        return timestamp == null ? null : timestamp.getTime();
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        byte[] bytes = resultSet.getBytes(column);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+      default:
+        return resultSet.getString(column);
+    }
+    return resultSet.wasNull() ? null : value;
+  }
+
+  @FunctionalInterface
+  private interface ResultSetConverter<T> {
+    T convert(ResultSet resultSet) throws SQLException;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import lombok.Value;
+import org.apache.avro.Schema;
+
+/**
+ * The rows returned by a query with the metadata of their columns. The values of a row are in the
+ * order of the columns and of the Java type expected by Avro for the schema of the column, so the
+ * rows can be written as Avro records without converting the values.
+ */
+@Value
+public class QueryResult {
+  List<Column> columns;
+  List<List<Object>> rows;
+
+  public boolean isEmpty() {
+    return rows.isEmpty();
+  }
+
+  /**
+   * Converts rows returned as maps of strings to a result of string columns, sorted by name.
+   *
+   * @param maps the rows.
+   */
+  public static QueryResult fromMaps(List<Map<String, String>> maps) {
+    TreeSet<String> names = new TreeSet<>();
+    for (Map<String, String> map : maps) {
+      names.addAll(map.keySet());
+    }
+    List<Column> columns = new ArrayList<>(names.size());
+    for (String name : names) {
+      columns.add(new Column(name, Schema.create(Schema.Type.STRING)));
+    }
+    List<List<Object>> rows = new ArrayList<>(maps.size());
+    for (Map<String, String> map : maps) {
+      List<Object> row = new ArrayList<>(names.size());
+      for (String name : names) {
+        row.add(map.get(name));
+      }
+      rows.add(row);
+    }
+    return new QueryResult(columns, rows);
+  }
+
+  /** A column of a query result. */
+  @Value
+  public static class Column {
+    String name;
+
+    /** The schema of the values of the column. The column is nullable. */
+    Schema schema;
+  }
+}
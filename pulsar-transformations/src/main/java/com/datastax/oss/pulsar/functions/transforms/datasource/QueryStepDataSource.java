@@ -16,9 +16,12 @@
 package com.datastax.oss.pulsar.functions.transforms.datasource;
 
 import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public interface QueryStepDataSource {
 
@@ -28,5 +31,130 @@ public interface QueryStepDataSource {
     return Collections.emptyList();
   }
 
+  /**
+   * Fetch the data without blocking the calling thread. The default implementation runs {@link
+   * #fetchData(String, List)} synchronously.
+   */
+  default CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+      String query, List<Object> params) {
+    try {
+      return CompletableFuture.completedFuture(fetchData(query, params));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Fetch the data of many parameter sets of the same query. The default implementation runs {@link
+   * #fetchDataBatchAsync(String, List)} and waits for the results.
+   *
+   * @return the results of the parameter sets, in the same order.
+   */
+  default List<List<Map<String, String>>> fetchDataBatch(
+      String query, List<List<Object>> paramsList) {
+    return join(fetchDataBatchAsync(query, paramsList));
+  }
+
+  /**
+   * Fetch the data of many parameter sets of the same query without blocking the calling thread.
+   * Implementations can group the parameter sets in fewer queries. The default implementation runs
+   * {@link #fetchDataAsync(String, List)} for each parameter set.
+   *
+   * @return the results of the parameter sets, in the same order.
+   */
+  default CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    List<CompletableFuture<List<Map<String, String>>>> results = new ArrayList<>(paramsList.size());
+    for (List<Object> params : paramsList) {
+      results.add(fetchDataAsync(query, params));
+    }
+    return allOf(results);
+  }
+
+  /**
+   * Fetch the rows with the types of their columns. The default implementation runs {@link
+   * #fetchResultAsync(String, List)} and waits for the result.
+   */
+  default QueryResult fetchResult(String query, List<Object> params) {
+    return join(fetchResultAsync(query, params));
+  }
+
+  /**
+   * Fetch the rows with the types of their columns without blocking the calling thread. The default
+   * implementation runs {@link #fetchDataAsync(String, List)} and returns string columns.
+   */
+  default CompletableFuture<QueryResult> fetchResultAsync(String query, List<Object> params) {
+    return fetchDataAsync(query, params).thenApply(QueryResult::fromMaps);
+  }
+
+  /**
+   * Fetch the rows of many parameter sets of the same query with the types of their columns. The
+   * default implementation runs {@link #fetchResultBatchAsync(String, List)} and waits for the
+   * results.
+   *
+   * @return the results of the parameter sets, in the same order.
+   */
+  default List<QueryResult> fetchResultBatch(String query, List<List<Object>> paramsList) {
+    return join(fetchResultBatchAsync(query, paramsList));
+  }
+
+  /**
+   * Fetch the rows of many parameter sets of the same query with the types of their columns,
+   * without blocking the calling thread. The default implementation runs {@link
+   * #fetchResultAsync(String, List)} for each parameter set.
+   *
+   * @return the results of the parameter sets, in the same order.
+   */
+  default CompletableFuture<List<QueryResult>> fetchResultBatchAsync(
+      String query, List<List<Object>> paramsList) {
+    List<CompletableFuture<QueryResult>> results = new ArrayList<>(paramsList.size());
+    for (List<Object> params : paramsList) {
+      results.add(fetchResultAsync(query, params));
+    }
+    return allOf(results);
+  }
+
+  /**
+   * Fetch all the rows of a query without parameters, to load a snapshot of a table. The default
+   * implementation runs {@link #fetchDataAsync(String, List)}, which may limit the number of rows.
+   */
+  default CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+    return fetchDataAsync(query, List.of());
+  }
+
+  /**
+   * Fetch all the rows of a query without parameters with the types of their columns, to load a
+   * snapshot of a table. The default implementation runs {@link #fetchResultAsync(String, List)},
+   * which may limit the number of rows.
+   */
+  default CompletableFuture<QueryResult> loadResultAsync(String query) {
+    return fetchResultAsync(query, List.of());
+  }
+
   default void close() {}
+
+  /** Waits for the result and rethrows the runtime exception that failed it, if any. */
+  static <T> T join(CompletableFuture<T> result) {
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /** @return a future of the results of the futures, in the same order. */
+  static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> results) {
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenApply(
+            v -> {
+              List<T> data = new ArrayList<>(results.size());
+              for (CompletableFuture<T> result : results) {
+                data.add(result.join());
+              }
+              return data;
+            });
+  }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import java.util.ServiceLoader;
+
+/**
+ * Creates the {@link QueryStepDataSource} of a service. The providers are discovered with {@link
+ * ServiceLoader}, so a data source can be added to the function by a jar declaring its provider in
+ * the <code>META-INF/services</code> file named after this interface.
+ */
+public interface QueryStepDataSourceProvider {
+
+  /** @return the name of the service, as set in the <code>service</code> of the datasource. */
+  String getService();
+
+  /** @return a new data source, initialized by the caller. */
+  QueryStepDataSource createDataSource();
+
+  /**
+   * Creates the data source of a service with the first provider found for it.
+   *
+   * @throws IllegalArgumentException if there is no provider for the service.
+   */
+  static QueryStepDataSource createDataSource(String service) {
+    ServiceLoader<QueryStepDataSourceProvider> providers =
+        ServiceLoader.load(
+            QueryStepDataSourceProvider.class, QueryStepDataSourceProvider.class.getClassLoader());
+    for (QueryStepDataSourceProvider provider : providers) {
+      if (provider.getService().equals(service)) {
+        return provider.createDataSource();
+      }
+    }
+    throw new IllegalArgumentException("Invalid service type " + service);
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link QueryStepDataSource} answering the lookups from a local snapshot of the rows of a query,
+ * loaded by another data source. The snapshot is loaded by {@link #start()} and then reloaded every
+ * <code>refreshIntervalMillis</code> milliseconds in the background. A reloaded snapshot replaces
+ * the previous one atomically, and the previous snapshot is kept if the reload fails.
+ *
+ * <p>The rows of the snapshot are indexed by the values of the <code>keyColumns</code>, which are
+ * matched with the parameters of a lookup in the same order. The values are compared by their
+ * string representation, except that the integral floating point numbers, such as the numbers of a
+ * JSON record, are written without a fractional part. The same applies to the strings holding such
+ * numbers, in the rows loaded as strings and in the parameters, so that <code>1.0</code> matches
+ * <code>1</code>. The query passed to the lookups is ignored.
+ *
+ * <p>The data source is usually shared by several steps, so closing this data source doesn't close
+ * it. This class is thread-safe.
+ */
+@Slf4j
+public class SnapshotQueryStepDataSource implements QueryStepDataSource {
+  private static final double MAX_EXACT_LONG = 1L << 53;
+  private static final Pattern FLOATING_POINT = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+  private final QueryStepDataSource delegate;
+  private final String query;
+  private final List<String> keyColumns;
+  private final boolean typed;
+  private final long refreshIntervalMillis;
+  private final LongSupplier clock;
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+  private ScheduledExecutorService scheduler;
+  private volatile StepMetrics metrics = StepMetrics.NOOP;
+
+  /**
+   * @param delegate the data source loading the snapshot.
+   * @param query the query loading the rows of the snapshot, without parameters.
+   * @param keyColumns the columns of the rows matched with the parameters of the lookups.
+   * @param typed whether the snapshot holds the rows with the types of their columns or as maps of
+   *     strings.
+   * @param refreshIntervalMillis the time in milliseconds between the end of a load of the snapshot
+   *     and the start of the next one. If 0, the snapshot is not refreshed.
+   */
+  public SnapshotQueryStepDataSource(
+      QueryStepDataSource delegate,
+      String query,
+      List<String> keyColumns,
+      boolean typed,
+      long refreshIntervalMillis) {
+    this(delegate, query, keyColumns, typed, refreshIntervalMillis, System::currentTimeMillis);
+  }
+
+  SnapshotQueryStepDataSource(
+      QueryStepDataSource delegate,
+      String query,
+      List<String> keyColumns,
+      boolean typed,
+      long refreshIntervalMillis,
+      LongSupplier clock) {
+    if (keyColumns == null || keyColumns.isEmpty()) {
+      throw new IllegalArgumentException("The key columns of the snapshot must be set");
+    }
+    this.delegate = delegate;
+    this.query = query;
+    this.keyColumns = keyColumns;
+    this.typed = typed;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    this.clock = clock;
+  }
+
+  /** Sets the metrics where the size, the age and the refreshes of the snapshot are recorded. */
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
+    metrics.setSnapshotGauges(this::getSize, this::getAge);
+  }
+
+  /**
+   * Loads the snapshot and schedules its refreshes.
+   *
+   * @throws RuntimeException if the snapshot can't be loaded.
+   */
+  public void start() {
+    refresh();
+    if (refreshIntervalMillis > 0) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "query-snapshot-refresh");
+                thread.setDaemon(true);
+                return thread;
+              });
+      scheduler.scheduleWithFixedDelay(
+          this::refreshQuietly,
+          refreshIntervalMillis,
+          refreshIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Loads the snapshot and replaces the current one. */
+  void refresh() {
+    long start = System.nanoTime();
+    Snapshot loaded =
+        typed
+            ? index(QueryStepDataSource.join(delegate.loadResultAsync(query)))
+            : index(QueryStepDataSource.join(delegate.loadDataAsync(query)));
+    snapshot.set(loaded);
+    long nanos = System.nanoTime() - start;
+    metrics.recordSnapshotRefresh(nanos);
+    log.info(
+        "Loaded a snapshot of {} rows of query {} in {} ms",
+        loaded.size,
+        query,
+        TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      metrics.recordSnapshotRefreshFailure();
+      log.warn("Failed to refresh the snapshot of query {}, the previous one is kept", query, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** @return the number of rows of the snapshot, or 0 if not loaded. */
+  public long getSize() {
+    Snapshot current = snapshot.get();
+    return current == null ? 0 : current.size;
+  }
+
+  /** @return the time in milliseconds since the snapshot was loaded, or 0 if not loaded. */
+  public long getAge() {
+    Snapshot current = snapshot.get();
+    return current == null ? 0 : clock.getAsLong() - current.loadedAt;
+  }
+
+  @Override
+  public List<Map<String, String>> fetchData(String query, List<Object> params) {
+    Snapshot current = current();
+    List<String> key = keyOf(params);
+    if (current.results == null) {
+      return current.rows.getOrDefault(key, List.of());
+    }
+    QueryResult result = current.results.get(key);
+    return result == null ? List.of() : toMaps(result);
+  }
+
+  @Override
+  public CompletableFuture<QueryResult> fetchResultAsync(String query, List<Object> params) {
+    try {
+      Snapshot current = current();
+      List<String> key = keyOf(params);
+      if (current.results == null) {
+        return CompletableFuture.completedFuture(
+            QueryResult.fromMaps(current.rows.getOrDefault(key, List.of())));
+      }
+      return CompletableFuture.completedFuture(
+          current.results.getOrDefault(key, current.emptyResult));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private Snapshot current() {
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      throw new IllegalStateException("The snapshot of query " + query + " is not loaded");
+    }
+    return current;
+  }
+
+  private Snapshot index(List<Map<String, String>> loaded) {
+    if (!loaded.isEmpty()) {
+      for (String keyColumn : keyColumns) {
+        if (!loaded.get(0).containsKey(keyColumn)) {
+          throw new IllegalArgumentException(
+              "The key column " + keyColumn + " is not returned by query " + query);
+        }
+      }
+    }
+    Map<List<String>, List<Map<String, String>>> rows = new HashMap<>();
+    for (Map<String, String> row : loaded) {
+      List<String> key = new ArrayList<>(keyColumns.size());
+      for (String keyColumn : keyColumns) {
+        key.add(keyOf(row.get(keyColumn)));
+      }
+      rows.computeIfAbsent(key, k -> new ArrayList<>(1)).add(Collections.unmodifiableMap(row));
+    }
+    rows.replaceAll((key, matches) -> Collections.unmodifiableList(matches));
+    return new Snapshot(rows, null, null, loaded.size(), clock.getAsLong());
+  }
+
+  private Snapshot index(QueryResult loaded) {
+    List<QueryResult.Column> columns = loaded.getColumns();
+    int[] keyIndexes = new int[keyColumns.size()];
+    for (int i = 0; i < keyIndexes.length; i++) {
+      keyIndexes[i] = -1;
+      for (int j = 0; j < columns.size(); j++) {
+        if (columns.get(j).getName().equals(keyColumns.get(i))) {
+          keyIndexes[i] = j;
+        }
+      }
+      if (keyIndexes[i] < 0) {
+        throw new IllegalArgumentException(
+            "The key column " + keyColumns.get(i) + " is not returned by query " + query);
+      }
+    }
+    Map<List<String>, List<List<Object>>> rows = new HashMap<>();
+    for (List<Object> row : loaded.getRows()) {
+      List<String> key = new ArrayList<>(keyIndexes.length);
+      for (int keyIndex : keyIndexes) {
+        key.add(keyOf(row.get(keyIndex)));
+      }
+      rows.computeIfAbsent(key, k -> new ArrayList<>(1)).add(Collections.unmodifiableList(row));
+    }
+    Map<List<String>, QueryResult> results = new HashMap<>(rows.size() * 4 / 3 + 1);
+    rows.forEach(
+        (key, matches) ->
+            results.put(key, new QueryResult(columns, Collections.unmodifiableList(matches))));
+    return new Snapshot(
+        null,
+        results,
+        new QueryResult(columns, List.of()),
+        loaded.getRows().size(),
+        clock.getAsLong());
+  }
+
+  /**
+   * @return the lookup key of query parameters. The integral numbers are formatted without decimal
+   *     part, so that a JSON number read as a double matches the same key as an integer. The rows
+   *     must be indexed with {@link #keyOf(Object)}.
+   */
+  static List<String> keyOf(List<Object> params) {
+    List<String> key = new ArrayList<>(params.size());
+    for (Object param : params) {
+      key.add(keyOf(param));
+    }
+    return key;
+  }
+
+  /** @return the lookup key of a value of a row or of a query parameter. */
+  static String keyOf(Object value) {
+    if (value instanceof Double || value instanceof Float) {
+      String key = integralKey(((Number) value).doubleValue());
+      if (key != null) {
+        return key;
+      }
+    } else if (value instanceof String) {
+      return keyOf((String) value);
+    }
+    return Objects.toString(value, null);
+  }
+
+  private static String keyOf(String text) {
+    // integers are already in their normal form, only floating point numbers are parsed
+    if ((text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0)
+        && FLOATING_POINT.matcher(text).matches()) {
+      String key = integralKey(Double.parseDouble(text));
+      if (key != null) {
+        return key;
+      }
+    }
+    return text;
+  }
+
+  private static String integralKey(double number) {
+    if (number == Math.rint(number) && Math.abs(number) <= MAX_EXACT_LONG) {
+      return Long.toString((long) number);
+    }
+    return null;
+  }
+
+  private static List<Map<String, String>> toMaps(QueryResult result) {
+    List<QueryResult.Column> columns = result.getColumns();
+    List<Map<String, String>> maps = new ArrayList<>(result.getRows().size());
+    for (List<Object> row : result.getRows()) {
+      Map<String, String> map = new HashMap<>(columns.size() * 4 / 3 + 1);
+      for (int i = 0; i < columns.size(); i++) {
+        map.put(columns.get(i).getName(), Objects.toString(row.get(i), null));
+      }
+      maps.add(map);
+    }
+    return maps;
+  }
+
+  /** The rows of a snapshot, as maps or with their types, indexed by key. */
+  @AllArgsConstructor
+  private static class Snapshot {
+    private final Map<List<String>, List<Map<String, String>>> rows;
+    private final Map<List<String>, QueryResult> results;
+    private final QueryResult emptyResult;
+    private final int size;
+    private final long loadedAt;
+  }
+}
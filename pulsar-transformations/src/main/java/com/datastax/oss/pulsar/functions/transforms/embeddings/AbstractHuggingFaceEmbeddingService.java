@@ -16,24 +16,51 @@
 package com.datastax.oss.pulsar.functions.transforms.embeddings;
 
 import ai.djl.MalformedModelException;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
 import ai.djl.huggingface.translator.TextEmbeddingTranslatorFactory;
 import ai.djl.inference.Predictor;
 import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ModelNotFoundException;
 import ai.djl.repository.zoo.ZooModel;
 import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
 import com.datastax.oss.driver.shaded.guava.common.base.Strings;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import lombok.Builder;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Base class of the embeddings services running a model locally with the DJL.
+ *
+ * <p>The predictions run on a bounded pool of predictors owned by the service. The inputs of all
+ * the callers are grouped by a dynamic batcher into <code>batchPredict</code> calls of at most
+ * <code>batchSize</code> inputs, an input waiting at most <code>batchWindow</code> milliseconds for
+ * the inputs of other callers.
+ *
+ * <p>If length buckets are configured, the inputs are tokenized to find the smallest bucket holding
+ * them and are batched with the inputs of the same bucket, so a short input doesn't pay for the
+ * padding of a long one. With padding buckets, each batch is also padded to the length of its
+ * bucket, so the model runs on a few fixed shapes and the inputs longer than the largest bucket are
+ * truncated. The inputs longer than <code>maxTokens</code> are truncated by the tokenizer.
+ */
 @Slf4j
 public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     implements EmbeddingsService, AutoCloseable {
@@ -58,15 +85,34 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     return Set.of(prop.split(","));
   }
 
+  /** The system property setting the number of intra-op threads of the PyTorch engine. */
+  public static final String PYTORCH_INTRA_OP_THREADS_PROP = "ai.djl.pytorch.num_threads";
+
+  /** The system property setting the number of inter-op threads of the PyTorch engine. */
+  public static final String PYTORCH_INTER_OP_THREADS_PROP = "ai.djl.pytorch.num_interop_threads";
+
+  public static final int DEFAULT_POOL_SIZE = 2;
+  public static final int DEFAULT_BATCH_SIZE = 32;
+
   @Override
   public void close() throws Exception {
-    while (!predictorList.isEmpty()) {
-      Predictor<?, ?> p = predictorList.poll();
-      if (p != null) {
-        p.close();
-      }
+    for (DynamicBatcher<IN, OUT> batcher : batchers) {
+      batcher.close();
+    }
+    executor.shutdown();
+    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+      log.warn("Timed out while waiting for the running predictions");
+      executor.shutdownNow();
+    }
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+    for (PredictorPool<IN, OUT> pool : pools) {
+      pool.close();
+    }
+    if (tokenizer != null) {
+      tokenizer.close();
     }
-
     if (model != null) {
       model.close();
     }
@@ -84,15 +130,48 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     String modelUrl;
 
     String modelName;
+
+    /** The maximum number of predictors running concurrently. */
+    @Builder.Default int poolSize = DEFAULT_POOL_SIZE;
+
+    /** The maximum number of inputs of a <code>batchPredict</code> call. */
+    @Builder.Default int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The maximum time in milliseconds an input waits for the inputs of other callers. */
+    @Builder.Default long batchWindow = 0;
+
+    /**
+     * The number of intra-op threads of the engine. This is a JVM wide setting only applied if the
+     * engine is not initialized yet.
+     */
+    Integer intraOpThreads;
+
+    /**
+     * The number of inter-op threads of the engine. This is a JVM wide setting only applied if the
+     * engine is not initialized yet.
+     */
+    Integer interOpThreads;
+
+    /** The sequence lengths the batches are padded to. If empty, the translator pads them. */
+    @Builder.Default List<Integer> paddingBuckets = List.of();
+
+    /** The sequence lengths grouping the inputs in batches, without padding them. */
+    @Builder.Default List<Integer> lengthBuckets = List.of();
+
+    /** The maximum number of tokens of an input, the longer inputs are truncated. */
+    Integer maxTokens;
   }
 
   // thread safety:
   // http://djl.ai/docs/development/inference_performance_optimization.html#multithreading-support
   ZooModel<IN, OUT> model;
 
-  private static final ThreadLocal<Predictor<?, ?>> predictorThreadLocal = new ThreadLocal<>();
-  private static final ConcurrentLinkedQueue<Predictor<?, ?>> predictorList =
-      new ConcurrentLinkedQueue<>();
+  private final LengthBuckets buckets;
+  private final List<PredictorPool<IN, OUT>> pools = new ArrayList<>();
+  private final List<DynamicBatcher<IN, OUT>> batchers = new ArrayList<>();
+  private final ExecutorService executor;
+  private final ScheduledExecutorService scheduler;
+  private HuggingFaceTokenizer tokenizer;
 
   public AbstractHuggingFaceEmbeddingService(HuggingFaceConfig conf)
       throws IOException, ModelNotFoundException, MalformedModelException, IllegalAccessException {
@@ -100,6 +179,22 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     Objects.requireNonNull(conf.modelName);
 
     checkIfUrlIsAllowed(conf.modelUrl);
+    if (conf.poolSize < 1) {
+      throw new IllegalArgumentException(
+          "Predictor pool size must be at least 1, got " + conf.poolSize);
+    }
+    if (conf.maxTokens != null && conf.maxTokens < 1) {
+      throw new IllegalArgumentException("Max tokens must be at least 1, got " + conf.maxTokens);
+    }
+    boolean padded = conf.paddingBuckets != null && !conf.paddingBuckets.isEmpty();
+    if (padded && conf.lengthBuckets != null && !conf.lengthBuckets.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Only one of padding buckets and length buckets can be configured");
+    }
+    this.buckets =
+        new LengthBuckets(padded ? conf.paddingBuckets : conf.lengthBuckets, conf.maxTokens);
+    setEngineThreads(PYTORCH_INTRA_OP_THREADS_PROP, conf.intraOpThreads);
+    setEngineThreads(PYTORCH_INTER_OP_THREADS_PROP, conf.interOpThreads);
 
     // https://stackoverflow.com/a/1901275/2237794
     // https://github.com/deepjavalibrary/djl/blob/master/extensions/tokenizers/src/test/java/ai/djl/huggingface/tokenizers/TextEmbeddingTranslatorTest.java
@@ -131,6 +226,10 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     if (conf.arguments != null && !conf.arguments.isEmpty()) {
       conf.arguments.forEach(builder::optArgument);
     }
+    if (conf.maxTokens != null) {
+      builder.optArgument("truncation", "true");
+      builder.optArgument("maxLength", String.valueOf(conf.maxTokens));
+    }
 
     // for getting embeddings
     builder.optTranslatorFactory(new TextEmbeddingTranslatorFactory());
@@ -138,6 +237,84 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
     Criteria<IN, OUT> criteria = builder.build();
 
     model = criteria.loadModel();
+
+    this.executor = Executors.newFixedThreadPool(conf.poolSize, daemonThreadFactory("inference"));
+    this.scheduler =
+        conf.batchWindow > 0
+            ? Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("batch-flush"))
+            : null;
+    if (!buckets.isEmpty()) {
+      tokenizer =
+          HuggingFaceTokenizer.builder(conf.arguments == null ? Map.of() : conf.arguments)
+              .optTokenizerPath(model.getModelPath())
+              .optPadding(false)
+              .optTruncation(false)
+              .build();
+    }
+    if (padded) {
+      for (int i = 0; i < buckets.size(); i++) {
+        Translator<IN, OUT> translator =
+            newBucketTranslator(conf, inClass, outClass, buckets.getLength(i));
+        addBatcher(conf, newPool(conf, () -> model.newPredictor(translator)));
+      }
+    } else {
+      // the inputs of all the buckets share the predictors of the model translator
+      PredictorPool<IN, OUT> pool = newPool(conf, model::newPredictor);
+      for (int i = 0; i < Math.max(1, buckets.size()); i++) {
+        addBatcher(conf, pool);
+      }
+    }
+  }
+
+  private PredictorPool<IN, OUT> newPool(
+      HuggingFaceConfig conf, Supplier<Predictor<IN, OUT>> factory) {
+    PredictorPool<IN, OUT> pool = new PredictorPool<>(conf.poolSize, factory);
+    pools.add(pool);
+    return pool;
+  }
+
+  private void addBatcher(HuggingFaceConfig conf, PredictorPool<IN, OUT> pool) {
+    batchers.add(new DynamicBatcher<>(conf.batchSize, conf.batchWindow, pool, executor, scheduler));
+  }
+
+  private Translator<IN, OUT> newBucketTranslator(
+      HuggingFaceConfig conf, Class<IN> inClass, Class<OUT> outClass, int bucket)
+      throws IOException {
+    Map<String, String> arguments = new HashMap<>();
+    if (conf.arguments != null) {
+      arguments.putAll(conf.arguments);
+    }
+    arguments.put("padding", "max_length");
+    arguments.put("maxLength", String.valueOf(bucket));
+    arguments.put("truncation", "true");
+    try {
+      return new TextEmbeddingTranslatorFactory().newInstance(inClass, outClass, model, arguments);
+    } catch (TranslateException e) {
+      throw new IOException("Failed to create the translator for the padding bucket " + bucket, e);
+    }
+  }
+
+  private static void setEngineThreads(String property, Integer threads) {
+    if (threads == null) {
+      return;
+    }
+    String previous = System.setProperty(property, String.valueOf(threads));
+    if (previous != null && !previous.equals(String.valueOf(threads))) {
+      log.warn(
+          "Changed {} from {} to {}, the new value is ignored if the engine is already initialized",
+          property,
+          previous,
+          threads);
+    }
+  }
+
+  private static ThreadFactory daemonThreadFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "huggingface-" + name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private void checkIfUrlIsAllowed(String modelUrl) throws IllegalAccessException {
@@ -150,14 +327,74 @@ public abstract class AbstractHuggingFaceEmbeddingService<IN, OUT>
   }
 
   public List<OUT> compute(List<IN> texts) throws TranslateException {
-    Predictor<IN, OUT> predictor = (Predictor<IN, OUT>) predictorThreadLocal.get();
-    if (predictor == null) {
-      predictor = model.newPredictor();
-      predictorThreadLocal.set(predictor);
-      predictorList.add(predictor);
+    try {
+      return computeAsync(texts).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TranslateException("Interrupted while waiting for the predictions", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TranslateException) {
+        throw (TranslateException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TranslateException(cause);
+    }
+  }
+
+  /**
+   * Returns the outputs of the inputs, in the same order, once their batches are predicted. A
+   * failure to tokenize or to submit the inputs is returned as a failed future.
+   */
+  public CompletableFuture<List<OUT>> computeAsync(List<IN> texts) {
+    try {
+      return predictInBuckets(texts);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private CompletableFuture<List<OUT>> predictInBuckets(List<IN> texts) {
+    if (buckets.isEmpty()) {
+      return batchers.get(0).predict(texts);
+    }
+    List<List<Integer>> positions = new ArrayList<>(buckets.size());
+    for (int i = 0; i < buckets.size(); i++) {
+      positions.add(new ArrayList<>());
+    }
+    for (int i = 0; i < texts.size(); i++) {
+      positions.get(bucketOf(texts.get(i))).add(i);
     }
+    List<CompletableFuture<Void>> results = new ArrayList<>();
+    List<OUT> outputs = new ArrayList<>(texts.size());
+    for (int i = 0; i < texts.size(); i++) {
+      outputs.add(null);
+    }
+    for (int bucket = 0; bucket < buckets.size(); bucket++) {
+      List<Integer> bucketPositions = positions.get(bucket);
+      if (bucketPositions.isEmpty()) {
+        continue;
+      }
+      List<IN> bucketTexts = bucketPositions.stream().map(texts::get).collect(Collectors.toList());
+      results.add(
+          batchers
+              .get(bucket)
+              .predict(bucketTexts)
+              .thenAccept(
+                  bucketOutputs -> {
+                    for (int i = 0; i < bucketPositions.size(); i++) {
+                      outputs.set(bucketPositions.get(i), bucketOutputs.get(i));
+                    }
+                  }));
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenApply(v -> outputs);
+  }
 
-    return predictor.batchPredict(texts);
+  private int bucketOf(IN text) {
+    return buckets.indexOf(tokenizer.encode(String.valueOf(text)).getIds().length);
   }
 
   abstract List<IN> convertInput(List<String> texts);
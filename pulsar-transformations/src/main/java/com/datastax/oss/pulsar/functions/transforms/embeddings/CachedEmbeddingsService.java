@@ -0,0 +1,149 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link EmbeddingsService} that caches the embeddings computed by another service in an {@link
+ * EmbeddingsCache}. Only the texts that are not cached are sent to the other service, once per
+ * distinct text.
+ */
+public class CachedEmbeddingsService implements EmbeddingsService {
+  private final EmbeddingsService delegate;
+  private final String service;
+  private final String model;
+  private final EmbeddingsCache cache;
+  private volatile StepMetrics metrics = StepMetrics.NOOP;
+
+  /**
+   * @param delegate the service computing the embeddings that are not cached.
+   * @param service the name of the service, part of the cache key.
+   * @param model the model used by the service, part of the cache key.
+   * @param cache the cache of the embeddings.
+   */
+  public CachedEmbeddingsService(
+      EmbeddingsService delegate, String service, String model, EmbeddingsCache cache) {
+    this.delegate = delegate;
+    this.service = service;
+    this.model = model;
+    this.cache = cache;
+  }
+
+  /** Sets the metrics where the cache hits and misses are recorded. */
+  public void setMetrics(StepMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public EmbeddingsCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public void close() throws Exception {
+    delegate.close();
+  }
+
+  @Override
+  public List<List<Double>> computeEmbeddings(List<String> texts) {
+    return EmbeddingsService.toEmbeddings(computeVectors(texts));
+  }
+
+  @Override
+  public CompletableFuture<List<List<Double>>> computeEmbeddingsAsync(List<String> texts) {
+    return computeVectorsAsync(texts).thenApply(EmbeddingsService::toEmbeddings);
+  }
+
+  @Override
+  public List<float[]> computeVectors(List<String> texts) {
+    Lookup lookup = lookup(texts);
+    if (lookup.misses.isEmpty()) {
+      return lookup.results;
+    }
+    return lookup.complete(delegate.computeVectors(new ArrayList<>(lookup.misses.keySet())));
+  }
+
+  @Override
+  public CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+    try {
+      Lookup lookup = lookup(texts);
+      if (lookup.misses.isEmpty()) {
+        return CompletableFuture.completedFuture(lookup.results);
+      }
+      return delegate
+          .computeVectorsAsync(new ArrayList<>(lookup.misses.keySet()))
+          .thenApply(lookup::complete);
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private Lookup lookup(List<String> texts) {
+    Lookup lookup = new Lookup(texts);
+    for (String text : texts) {
+      EmbeddingsCache.Key key = EmbeddingsCache.key(service, model, text);
+      float[] vector = cache.get(key);
+      if (vector != null) {
+        metrics.recordCacheHit();
+      } else {
+        metrics.recordCacheMiss();
+        lookup.misses.putIfAbsent(text, key);
+      }
+      lookup.results.add(vector);
+    }
+    return lookup;
+  }
+
+  private class Lookup {
+    private final List<String> texts;
+    private final List<float[]> results;
+    private final Map<String, EmbeddingsCache.Key> misses = new LinkedHashMap<>();
+
+    Lookup(List<String> texts) {
+      this.texts = texts;
+      this.results = new ArrayList<>(texts.size());
+    }
+
+    /** Fills the missing results with the vectors of the missed texts and caches them. */
+    List<float[]> complete(List<float[]> computed) {
+      if (computed.size() != misses.size()) {
+        throw new IllegalStateException(
+            "Expected " + misses.size() + " embeddings, got " + computed.size());
+      }
+      Map<String, float[]> vectorsByText = new HashMap<>();
+      int i = 0;
+      for (Map.Entry<String, EmbeddingsCache.Key> miss : misses.entrySet()) {
+        float[] vector = computed.get(i++);
+        vectorsByText.put(miss.getKey(), vector);
+        if (vector != null) {
+          cache.put(miss.getValue(), vector);
+        }
+      }
+      for (int j = 0; j < results.size(); j++) {
+        if (results.get(j) == null) {
+          results.set(j, vectorsByText.get(texts.get(j)));
+        }
+      }
+      return results;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import com.datastax.oss.pulsar.functions.transforms.util.Batcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import lombok.Value;
+
+/**
+ * Groups the inputs of all the callers into batches of at most <code>batchSize</code> inputs and
+ * runs each batch with a single <code>batchPredict</code> call of a predictor of the pool. An input
+ * waits at most <code>batchWindow</code> milliseconds for the inputs of other callers. If the
+ * window is 0 or less, the inputs of a call are predicted as soon as they are submitted, together
+ * with the inputs submitted concurrently.
+ *
+ * <p>The batches run on the inference executor, so up to the pool size batches run concurrently.
+ *
+ * @param <IN> the input type of the model.
+ * @param <OUT> the output type of the model.
+ */
+class DynamicBatcher<IN, OUT> implements AutoCloseable {
+  private final long batchWindow;
+  private final PredictorPool<IN, OUT> pool;
+  private final Executor executor;
+  private final Batcher<PendingInput<IN, OUT>> batcher;
+
+  DynamicBatcher(
+      int batchSize,
+      long batchWindow,
+      PredictorPool<IN, OUT> pool,
+      Executor executor,
+      ScheduledExecutorService scheduler) {
+    this.batchWindow = batchWindow;
+    this.pool = pool;
+    this.executor = executor;
+    this.batcher = new Batcher<>(batchSize, batchWindow, this::submit, scheduler);
+  }
+
+  /** Returns the outputs of the inputs, in the same order. */
+  CompletableFuture<List<OUT>> predict(List<IN> inputs) {
+    List<CompletableFuture<OUT>> results = new ArrayList<>(inputs.size());
+    for (IN input : inputs) {
+      PendingInput<IN, OUT> pendingInput = new PendingInput<>(input, new CompletableFuture<>());
+      batcher.add(pendingInput);
+      results.add(pendingInput.getResult());
+    }
+    if (batchWindow <= 0) {
+      batcher.flush();
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenApply(
+            v -> {
+              List<OUT> outputs = new ArrayList<>(results.size());
+              for (CompletableFuture<OUT> result : results) {
+                outputs.add(result.join());
+              }
+              return outputs;
+            });
+  }
+
+  @Override
+  public void close() {
+    batcher.close();
+  }
+
+  private void submit(List<PendingInput<IN, OUT>> batch) {
+    try {
+      executor.execute(() -> run(batch));
+    } catch (RejectedExecutionException e) {
+      fail(batch, e);
+    }
+  }
+
+  private void run(List<PendingInput<IN, OUT>> batch) {
+    List<IN> inputs = new ArrayList<>(batch.size());
+    for (PendingInput<IN, OUT> pendingInput : batch) {
+      inputs.add(pendingInput.getInput());
+    }
+    List<OUT> outputs;
+    try {
+      outputs = pool.batchPredict(inputs);
+    } catch (Throwable e) {
+      fail(batch, e);
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      CompletableFuture<OUT> result = batch.get(i).getResult();
+      if (i >= outputs.size()) {
+        result.completeExceptionally(
+            new IllegalStateException(
+                "Expected " + batch.size() + " outputs, got " + outputs.size()));
+      } else {
+        result.complete(outputs.get(i));
+      }
+    }
+  }
+
+  private static <IN, OUT> void fail(List<PendingInput<IN, OUT>> batch, Throwable error) {
+    for (PendingInput<IN, OUT> pendingInput : batch) {
+      pendingInput.getResult().completeExceptionally(error);
+    }
+  }
+
+  @Value
+  private static class PendingInput<IN, OUT> {
+    IN input;
+    CompletableFuture<OUT> result;
+  }
+}
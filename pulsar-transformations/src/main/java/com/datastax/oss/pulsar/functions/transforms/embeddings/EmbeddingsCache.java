@@ -0,0 +1,253 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import lombok.Value;
+
+/**
+ * A cache of embedding vectors keyed by a hash of the embeddings service, the model and the text.
+ *
+ * <p>The vectors are stored as packed floats in direct buffers allocated outside of the Java heap,
+ * so that a cache of millions of vectors doesn't pressure the garbage collector. Only the keys and
+ * the slot indexes of the vectors are kept on the heap. The buffers are allocated in segments of
+ * {@link #SEGMENT_BYTES} bytes as the cache grows, up to <code>maxSize</code> vectors, and count
+ * against the JVM direct memory limit (<code>-XX:MaxDirectMemorySize</code>).
+ *
+ * <p>All the vectors have the dimension of the first vector put in the cache. A vector of another
+ * dimension is not cached. Since the vectors are stored as floats, a cached value is rounded to
+ * float precision.
+ *
+ * <p>The cache evicts the least recently used vector when full. If a time-to-live is set, a vector
+ * expires <code>ttlMillis</code> milliseconds after it was put in the cache. This class is
+ * thread-safe.
+ */
+public class EmbeddingsCache {
+  static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final LinkedHashMap<Key, Slot> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final List<ByteBuffer> segments = new ArrayList<>();
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount;
+  private int allocatedSlots;
+  private int dimension = -1;
+  private int slotsPerSegment;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long expirations;
+
+  /**
+   * @param maxSize the maximum number of vectors.
+   * @param ttlMillis the time-to-live of the vectors in milliseconds. If 0, the vectors don't
+   *     expire.
+   */
+  public EmbeddingsCache(int maxSize, long ttlMillis) {
+    this(maxSize, ttlMillis, System::currentTimeMillis);
+  }
+
+  EmbeddingsCache(int maxSize, long ttlMillis, LongSupplier clock) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+    }
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must not be negative, got " + ttlMillis);
+    }
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+  }
+
+  /** @return the key of the embeddings of the text computed by the service with the model. */
+  public static Key key(String service, String model, String text) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Cannot compute the embeddings cache key", e);
+    }
+    digest.update(String.valueOf(service).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(String.valueOf(model).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    return new Key(hash.getLong(), hash.getLong());
+  }
+
+  /** @return a copy of the cached vector or null if absent or expired. */
+  public synchronized float[] get(Key key) {
+    Slot slot = entries.get(key);
+    if (slot != null && slot.isExpired(clock)) {
+      entries.remove(key);
+      release(slot.index);
+      expirations++;
+      slot = null;
+    }
+    if (slot == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    float[] vector = new float[dimension];
+    ByteBuffer segment = segments.get(slot.index / slotsPerSegment);
+    int offset = (slot.index % slotsPerSegment) * dimension * Float.BYTES;
+    for (int i = 0; i < dimension; i++) {
+      vector[i] = segment.getFloat(offset + i * Float.BYTES);
+    }
+    return vector;
+  }
+
+  /**
+   * Puts a vector in the cache, evicting the least recently used vector if the cache is full.
+   *
+   * @return whether the vector was cached. A vector is not cached if its dimension differs from the
+   *     dimension of the cache.
+   */
+  public synchronized boolean put(Key key, float[] vector) {
+    if (dimension < 0) {
+      if (vector.length == 0) {
+        return false;
+      }
+      dimension = vector.length;
+      slotsPerSegment = Math.max(1, Math.min(maxSize, SEGMENT_BYTES / (dimension * Float.BYTES)));
+    } else if (vector.length != dimension) {
+      return false;
+    }
+    Slot previous = entries.remove(key);
+    int index = previous != null ? previous.index : acquire();
+    ByteBuffer segment = segments.get(index / slotsPerSegment);
+    int offset = (index % slotsPerSegment) * dimension * Float.BYTES;
+    for (int i = 0; i < dimension; i++) {
+      segment.putFloat(offset + i * Float.BYTES, vector[i]);
+    }
+    entries.put(key, new Slot(index, ttlMillis > 0 ? clock.getAsLong() + ttlMillis : NEVER));
+    return true;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    segments.clear();
+    freeSlotCount = 0;
+    allocatedSlots = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** @return the dimension of the cached vectors, or -1 if no vector was cached yet. */
+  public synchronized int getDimension() {
+    return dimension;
+  }
+
+  /** @return the number of bytes allocated outside of the heap for the vectors. */
+  public synchronized long getOffHeapBytes() {
+    long bytes = 0;
+    for (ByteBuffer segment : segments) {
+      bytes += segment.capacity();
+    }
+    return bytes;
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  public synchronized long getExpirationCount() {
+    return expirations;
+  }
+
+  private int acquire() {
+    if (freeSlotCount > 0) {
+      return freeSlots[--freeSlotCount];
+    }
+    if (allocatedSlots < maxSize) {
+      if (allocatedSlots == segments.size() * slotsPerSegment) {
+        int slots = Math.min(slotsPerSegment, maxSize - allocatedSlots);
+        segments.add(
+            ByteBuffer.allocateDirect(slots * dimension * Float.BYTES)
+                .order(ByteOrder.nativeOrder()));
+      }
+      return allocatedSlots++;
+    }
+    // the cache is full, reuse the slot of the least recently used vector
+    Iterator<Map.Entry<Key, Slot>> eldest = entries.entrySet().iterator();
+    Slot slot = eldest.next().getValue();
+    eldest.remove();
+    if (slot.isExpired(clock)) {
+      expirations++;
+    } else {
+      evictions++;
+    }
+    return slot.index;
+  }
+
+  private void release(int index) {
+    if (freeSlotCount == freeSlots.length) {
+      int[] grown = new int[freeSlots.length * 2];
+      System.arraycopy(freeSlots, 0, grown, 0, freeSlotCount);
+      freeSlots = grown;
+    }
+    freeSlots[freeSlotCount++] = index;
+  }
+
+  /** A 128-bit hash of the service, the model and the text of an embedding vector. */
+  @Value
+  public static class Key {
+    long high;
+    long low;
+  }
+
+  private static class Slot {
+    private final int index;
+    private final long expiresAt;
+
+    Slot(int index, long expiresAt) {
+      this.index = index;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(LongSupplier clock) {
+      return expiresAt != NEVER && clock.getAsLong() >= expiresAt;
+    }
+  }
+}
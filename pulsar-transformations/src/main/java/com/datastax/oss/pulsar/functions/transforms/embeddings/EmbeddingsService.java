@@ -18,7 +18,9 @@ package com.datastax.oss.pulsar.functions.transforms.embeddings;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface EmbeddingsService extends AutoCloseable {
 
@@ -33,4 +35,63 @@ public interface EmbeddingsService extends AutoCloseable {
   default void close() throws Exception {}
 
   List<List<Double>> computeEmbeddings(List<String> texts);
+
+  /**
+   * Computes the embeddings without blocking the calling thread. By default, the embeddings are
+   * computed synchronously.
+   */
+  default CompletableFuture<List<List<Double>>> computeEmbeddingsAsync(List<String> texts) {
+    try {
+      return CompletableFuture.completedFuture(computeEmbeddings(texts));
+    } catch (Throwable e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Computes the embeddings as primitive float vectors. By default, the vectors are converted from
+   * the result of {@link #computeEmbeddings(List)}. The services that get floats from their model
+   * or their response override this method to avoid boxing every value.
+   */
+  default List<float[]> computeVectors(List<String> texts) {
+    return toVectors(computeEmbeddings(texts));
+  }
+
+  /**
+   * Computes the embeddings as primitive float vectors without blocking the calling thread. By
+   * default, the vectors are converted from the result of {@link #computeEmbeddingsAsync(List)}.
+   */
+  default CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+    return computeEmbeddingsAsync(texts).thenApply(EmbeddingsService::toVectors);
+  }
+
+  static List<float[]> toVectors(List<? extends List<? extends Number>> embeddings) {
+    List<float[]> vectors = new ArrayList<>(embeddings.size());
+    for (List<? extends Number> embedding : embeddings) {
+      float[] vector = null;
+      if (embedding != null) {
+        vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+          vector[i] = embedding.get(i).floatValue();
+        }
+      }
+      vectors.add(vector);
+    }
+    return vectors;
+  }
+
+  static List<List<Double>> toEmbeddings(List<float[]> vectors) {
+    List<List<Double>> embeddings = new ArrayList<>(vectors.size());
+    for (float[] vector : vectors) {
+      List<Double> embedding = null;
+      if (vector != null) {
+        embedding = new ArrayList<>(vector.length);
+        for (float value : vector) {
+          embedding.add((double) value);
+        }
+      }
+      embeddings.add(embedding);
+    }
+    return embeddings;
+  }
 }
@@ -17,13 +17,15 @@ package com.datastax.oss.pulsar.functions.transforms.embeddings;
 
 import ai.djl.MalformedModelException;
 import ai.djl.repository.zoo.ModelNotFoundException;
+import ai.djl.translate.TranslateException;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * EmbeddingsService implementation using HuggingFace models adapted for use in the DJL. Thread safe
- * (but uses predictor per thread).
+ * (the texts of concurrent calls are batched on a pool of predictors).
  *
  * <p>The model requested there should be trained for "sentence similarity" task. See
  * https://github.com/deepjavalibrary/djl/blob/master/extensions/tokenizers/README.md for model
@@ -33,6 +35,7 @@ import java.util.List;
  * ./extensions/tokenizers/src/main/python/model_zoo_importer.py -m kmariunas/bert-uncased-triplet50
  * find . | grep /bert-uncased-triplet50.zip
  */
+@Slf4j
 public class HuggingFaceEmbeddingService
     extends AbstractHuggingFaceEmbeddingService<String, float[]> {
   public HuggingFaceEmbeddingService(HuggingFaceConfig conf)
@@ -47,14 +50,22 @@ public class HuggingFaceEmbeddingService
 
   @Override
   List<List<Double>> convertOutput(List<float[]> result) {
-    List<List<Double>> out = new ArrayList<>(result.size());
-    for (float[] floats : result) {
-      List<Double> l = new ArrayList<>(floats.length);
-      for (float aFloat : floats) {
-        l.add((double) aFloat);
-      }
-      out.add(l);
+    return EmbeddingsService.toEmbeddings(result);
+  }
+
+  /** Returns the float vectors computed by the model without boxing them. */
+  @Override
+  public List<float[]> computeVectors(List<String> texts) {
+    try {
+      return compute(texts);
+    } catch (TranslateException e) {
+      log.error("failed to run compute", e);
+      throw new RuntimeException("failed to run compute", e);
     }
-    return out;
+  }
+
+  @Override
+  public CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+    return computeAsync(texts);
   }
 }
@@ -15,25 +15,46 @@
  */
 package com.datastax.oss.pulsar.functions.transforms.embeddings;
 
+import com.datastax.oss.pulsar.functions.transforms.util.InFlightLimiter;
 import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * EmbeddingsService implementation using HuggingFace REST API.
  *
  * <p>The model requested there should be trained for "sentence similarity" task.
+ *
+ * <p>The requests are sent asynchronously over HTTP/2 when the server supports it, so the calls
+ * share a few multiplexed connections. At most <code>maxInFlight</code> requests are in flight, the
+ * other ones wait for a running request to complete. The responses are parsed as they are received
+ * directly into float vectors. A model that is loading answers with a 503 status, the request is
+ * then retried with an exponential backoff instead of blocking the connection with the <code>
+ * wait_for_model</code> option.
  */
 @Slf4j
 public class HuggingFaceRestEmbeddingService implements EmbeddingsService {
@@ -47,7 +68,27 @@ public class HuggingFaceRestEmbeddingService implements EmbeddingsService {
 
     @Builder.Default public String hfUrl = HF_URL;
 
-    @Builder.Default public Map<String, String> options = Map.of("wait_for_model", "true");
+    @Builder.Default public String hfCheckUrl = HF_CHECK_URL;
+
+    @Builder.Default public Map<String, String> options = Map.of();
+
+    /** The connection timeout in milliseconds. */
+    @Builder.Default public long connectTimeout = 10_000;
+
+    /** The timeout of a request in milliseconds, until the whole response body is received. */
+    @Builder.Default public long requestTimeout = 60_000;
+
+    /** The maximum number of requests in flight. */
+    @Builder.Default public int maxInFlight = 16;
+
+    /** The maximum number of retries of a request answered with a 503 status. */
+    @Builder.Default public int maxRetries = 5;
+
+    /** The delay in milliseconds before the first retry, doubled at each retry. */
+    @Builder.Default public long retryBackoff = 1_000;
+
+    /** The maximum delay in milliseconds before a retry. */
+    @Builder.Default public long maxRetryBackoff = 30_000;
   }
 
   private static final String HF_URL =
@@ -64,6 +105,8 @@ public class HuggingFaceRestEmbeddingService implements EmbeddingsService {
 
   private final HttpClient httpClient;
 
+  private final InFlightLimiter inFlightLimiter;
+
   @Data
   @Builder
   public static class HuggingPojo {
@@ -79,13 +122,19 @@ public class HuggingFaceRestEmbeddingService implements EmbeddingsService {
     this.model = conf.model;
     this.token = conf.accessKey;
     this.modelUrl = new URL(conf.hfUrl + model);
+    this.inFlightLimiter = new InFlightLimiter(conf.maxInFlight);
 
-    this.httpClient = HttpClient.newHttpClient();
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(conf.connectTimeout))
+            .build();
 
     try {
       HttpRequest request =
           HttpRequest.newBuilder()
-              .uri(new URL(HF_CHECK_URL + model).toURI())
+              .uri(new URL(conf.hfCheckUrl + model).toURI())
+              .timeout(Duration.ofMillis(conf.requestTimeout))
               .header("Authorization", "Bearer " + token)
               .GET()
               .build();
@@ -124,39 +173,169 @@ public class HuggingFaceRestEmbeddingService implements EmbeddingsService {
 
   @Override
   public List<List<Double>> computeEmbeddings(List<String> texts) {
-    HuggingPojo pojo = HuggingPojo.builder().inputs(texts).options(conf.options).build();
+    return EmbeddingsService.toEmbeddings(computeVectors(texts));
+  }
 
+  @Override
+  public CompletableFuture<List<List<Double>>> computeEmbeddingsAsync(List<String> texts) {
+    return computeVectorsAsync(texts).thenApply(EmbeddingsService::toEmbeddings);
+  }
+
+  /** Parses the response directly into float vectors, without boxing the values. */
+  @Override
+  public List<float[]> computeVectors(List<String> texts) {
     try {
-      String jsonContent = om.writeValueAsString(pojo);
+      return computeVectorsAsync(texts).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
 
-      String body = query(jsonContent);
+  @Override
+  public CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+    return computeVectorsAsync(texts, 0);
+  }
+
+  private CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts, int retries) {
+    return inFlightLimiter
+        .submit(() -> sendAsync(texts))
+        .handle(
+            (vectors, error) -> {
+              if (error == null) {
+                return CompletableFuture.completedFuture(vectors);
+              }
+              Throwable cause =
+                  error instanceof CompletionException && error.getCause() != null
+                      ? error.getCause()
+                      : error;
+              if (cause instanceof ModelLoadingException && retries < conf.maxRetries) {
+                long delay =
+                    retryDelay(retries, ((ModelLoadingException) cause).getEstimatedTime());
+                log.info("Model {} is loading, retrying in {} ms", model, delay);
+                return CompletableFuture.runAsync(
+                        () -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> computeVectorsAsync(texts, retries + 1));
+              }
+              return CompletableFuture.<List<float[]>>failedFuture(cause);
+            })
+        .thenCompose(result -> result);
+  }
+
+  long retryDelay(int retries, double estimatedTime) {
+    long delay = conf.retryBackoff << Math.min(retries, 30);
+    if (estimatedTime > 0) {
+      delay = Math.max(delay, (long) (estimatedTime * 1000));
+    }
+    return Math.min(delay, conf.maxRetryBackoff);
+  }
 
-      Object result = om.readValue(body, Object.class);
-      return (List<List<Double>>) result;
+  private CompletableFuture<List<float[]>> sendAsync(List<String> texts) {
+    try {
+      return httpClient
+          .sendAsync(buildRequest(texts), HttpResponse.BodyHandlers.ofByteArray())
+          // the timeout of the HttpRequest only bounds the wait for the response headers
+          .orTimeout(conf.requestTimeout, TimeUnit.MILLISECONDS)
+          .thenApply(this::readResponse);
     } catch (Exception e) {
-      throw new RuntimeException(e);
+      return CompletableFuture.failedFuture(e);
     }
   }
 
-  private String query(String jsonPayload) throws Exception {
-    HttpRequest request =
-        HttpRequest.newBuilder()
-            .uri(modelUrl.toURI())
-            .header("Authorization", "Bearer " + token)
-            .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
-            .build();
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+  private HttpRequest buildRequest(List<String> texts) throws Exception {
+    HuggingPojo pojo = HuggingPojo.builder().inputs(texts).options(conf.options).build();
+    return HttpRequest.newBuilder()
+        .uri(modelUrl.toURI())
+        .timeout(Duration.ofMillis(conf.requestTimeout))
+        .header("Authorization", "Bearer " + token)
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(om.writeValueAsBytes(pojo)))
+        .build();
+  }
 
-    if (log.isDebugEnabled()) {
-      log.debug("Model {} query response is {} {}", model, response, response.body());
+  private List<float[]> readResponse(HttpResponse<byte[]> response) {
+    byte[] body = response.body();
+    try {
+      if (response.statusCode() != 200) {
+        String error = new String(body, StandardCharsets.UTF_8);
+        if (response.statusCode() == 503) {
+          throw new ModelLoadingException(model, estimatedTime(error));
+        }
+        log.warn("Model {} query failed with {} {}", model, response, error);
+        throw new RuntimeException(
+            "Model " + model + " query failed with status " + response.statusCode());
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Model {} query response is {}", model, response);
+      }
+      try (JsonParser parser = om.getFactory().createParser(body)) {
+        return readVectors(parser);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
+  }
 
-    if (response.statusCode() != 200) {
-      log.warn("Model {} query failed with {} {}", model, response, response.body());
-      throw new RuntimeException(
-          "Model " + model + " query failed with status " + response.statusCode());
+  /** Reads an array of arrays of numbers into float vectors, without boxing the values. */
+  static List<float[]> readVectors(JsonParser parser) throws IOException {
+    expect(parser.nextToken(), JsonToken.START_ARRAY, parser);
+    List<float[]> vectors = new ArrayList<>();
+    float[] buffer = new float[512];
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (token == JsonToken.VALUE_NULL) {
+        vectors.add(null);
+        continue;
+      }
+      expect(token, JsonToken.START_ARRAY, parser);
+      int size = 0;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+          throw new IOException("Expected a number in the embeddings, got " + token);
+        }
+        if (size == buffer.length) {
+          buffer = Arrays.copyOf(buffer, size * 2);
+        }
+        buffer[size++] = parser.getFloatValue();
+      }
+      vectors.add(Arrays.copyOf(buffer, size));
+    }
+    return vectors;
+  }
+
+  private static void expect(JsonToken token, JsonToken expected, JsonParser parser)
+      throws IOException {
+    if (token != expected) {
+      throw new IOException(
+          "Expected "
+              + expected
+              + " in the embeddings, got "
+              + token
+              + " at "
+              + parser.getTokenLocation());
+    }
+  }
+
+  private static double estimatedTime(String error) {
+    try {
+      JsonNode node = om.readTree(error);
+      JsonNode estimatedTime = node == null ? null : node.get("estimated_time");
+      return estimatedTime == null ? 0 : estimatedTime.asDouble();
+    } catch (IOException e) {
+      return 0;
     }
+  }
+
+  /** The model is loading, the request can be retried. */
+  @Getter
+  static class ModelLoadingException extends RuntimeException {
+    private final double estimatedTime;
 
-    return response.body();
+    ModelLoadingException(String model, double estimatedTime) {
+      super("Model " + model + " query failed with status 503, the model is loading");
+      this.estimatedTime = estimatedTime;
+    }
   }
 }
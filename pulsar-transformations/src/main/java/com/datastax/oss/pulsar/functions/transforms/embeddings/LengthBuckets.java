@@ -0,0 +1,69 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import java.util.List;
+
+/**
+ * Sorted sequence lengths, in tokens, grouping the inputs of similar lengths. An input goes to the
+ * smallest bucket holding it, or to the largest bucket if it is longer.
+ */
+class LengthBuckets {
+  private final int[] lengths;
+
+  /**
+   * @param lengths the lengths of the buckets, in any order.
+   * @param maxTokens the maximum number of tokens of an input, or null. The buckets are capped to
+   *     it.
+   */
+  LengthBuckets(List<Integer> lengths, Integer maxTokens) {
+    this.lengths =
+        lengths == null
+            ? new int[0]
+            : lengths
+                .stream()
+                .mapToInt(length -> maxTokens == null ? length : Math.min(length, maxTokens))
+                .sorted()
+                .distinct()
+                .toArray();
+    if (this.lengths.length > 0 && this.lengths[0] < 1) {
+      throw new IllegalArgumentException(
+          "Bucket lengths must be at least 1, got " + this.lengths[0]);
+    }
+  }
+
+  boolean isEmpty() {
+    return lengths.length == 0;
+  }
+
+  int size() {
+    return lengths.length;
+  }
+
+  int getLength(int index) {
+    return lengths[index];
+  }
+
+  /** Returns the index of the bucket of an input of the given number of tokens. */
+  int indexOf(int tokens) {
+    for (int i = 0; i < lengths.length; i++) {
+      if (tokens <= lengths[i]) {
+        return i;
+      }
+    }
+    return lengths.length - 1;
+  }
+}
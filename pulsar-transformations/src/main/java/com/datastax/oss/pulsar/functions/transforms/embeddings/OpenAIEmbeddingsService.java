@@ -15,19 +15,28 @@
  */
 package com.datastax.oss.pulsar.functions.transforms.embeddings;
 
+import com.azure.ai.openai.OpenAIAsyncClient;
 import com.azure.ai.openai.OpenAIClient;
 import com.azure.ai.openai.models.Embeddings;
 import com.azure.ai.openai.models.EmbeddingsOptions;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class OpenAIEmbeddingsService implements EmbeddingsService {
 
   private final OpenAIClient openAIClient;
+  private final OpenAIAsyncClient openAIAsyncClient;
   private final String model;
 
   public OpenAIEmbeddingsService(OpenAIClient openAIClient, String model) {
+    this(openAIClient, null, model);
+  }
+
+  public OpenAIEmbeddingsService(
+      OpenAIClient openAIClient, OpenAIAsyncClient openAIAsyncClient, String model) {
     this.openAIClient = openAIClient;
+    this.openAIAsyncClient = openAIAsyncClient;
     this.model = model;
   }
 
@@ -35,6 +44,22 @@ public class OpenAIEmbeddingsService implements EmbeddingsService {
   public List<List<Double>> computeEmbeddings(List<String> texts) {
     EmbeddingsOptions embeddingsOptions = new EmbeddingsOptions(texts);
     Embeddings embeddings = openAIClient.getEmbeddings(model, embeddingsOptions);
+    return toList(embeddings);
+  }
+
+  @Override
+  public CompletableFuture<List<List<Double>>> computeEmbeddingsAsync(List<String> texts) {
+    if (openAIAsyncClient == null) {
+      return EmbeddingsService.super.computeEmbeddingsAsync(texts);
+    }
+    EmbeddingsOptions embeddingsOptions = new EmbeddingsOptions(texts);
+    return openAIAsyncClient
+        .getEmbeddings(model, embeddingsOptions)
+        .toFuture()
+        .thenApply(OpenAIEmbeddingsService::toList);
+  }
+
+  private static List<List<Double>> toList(Embeddings embeddings) {
     return embeddings
         .getData()
         .stream()
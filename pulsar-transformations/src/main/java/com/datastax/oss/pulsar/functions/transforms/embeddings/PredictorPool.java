@@ -0,0 +1,114 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import ai.djl.inference.Predictor;
+import ai.djl.translate.TranslateException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded pool of the predictors of a model. A predictor is not thread safe, so each prediction
+ * borrows a predictor and at most <code>maxSize</code> predictions run concurrently. The predictors
+ * are created lazily and reused until the pool is closed.
+ *
+ * @param <IN> the input type of the model.
+ * @param <OUT> the output type of the model.
+ */
+@Slf4j
+class PredictorPool<IN, OUT> implements AutoCloseable {
+  private final Supplier<Predictor<IN, OUT>> factory;
+  private final Semaphore permits;
+  private final ConcurrentLinkedQueue<Predictor<IN, OUT>> idle = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger created = new AtomicInteger();
+  private volatile boolean closed;
+
+  PredictorPool(int maxSize, Supplier<Predictor<IN, OUT>> factory) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Predictor pool size must be at least 1, got " + maxSize);
+    }
+    this.factory = factory;
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  /** Runs the prediction of a batch of inputs with a predictor of the pool. */
+  List<OUT> batchPredict(List<IN> inputs) throws TranslateException {
+    Predictor<IN, OUT> predictor = borrow();
+    try {
+      return predictor.batchPredict(inputs);
+    } finally {
+      release(predictor);
+    }
+  }
+
+  /** Returns the number of predictors created by the pool. */
+  int getSize() {
+    return created.get();
+  }
+
+  private Predictor<IN, OUT> borrow() {
+    if (closed) {
+      throw new IllegalStateException("The predictor pool is closed");
+    }
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a predictor", e);
+    }
+    Predictor<IN, OUT> predictor = idle.poll();
+    if (predictor == null) {
+      try {
+        predictor = factory.get();
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+      created.incrementAndGet();
+    }
+    return predictor;
+  }
+
+  private void release(Predictor<IN, OUT> predictor) {
+    if (closed) {
+      predictor.close();
+    } else {
+      idle.add(predictor);
+      // the pool may have been closed while the predictor was added
+      if (closed && idle.remove(predictor)) {
+        predictor.close();
+      }
+    }
+    permits.release();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    Predictor<IN, OUT> predictor;
+    while ((predictor = idle.poll()) != null) {
+      try {
+        predictor.close();
+      } catch (RuntimeException e) {
+        log.warn("Failed to close predictor", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.jstl;
+
+import jakarta.el.ELContext;
+import jakarta.el.ELException;
+import jakarta.el.FunctionMapper;
+import jakarta.el.PropertyNotFoundException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import org.apache.el.lang.ELArithmetic;
+import org.apache.el.lang.ELSupport;
+import org.apache.el.lang.ExpressionBuilder;
+import org.apache.el.parser.AstAnd;
+import org.apache.el.parser.AstBracketSuffix;
+import org.apache.el.parser.AstChoice;
+import org.apache.el.parser.AstCompositeExpression;
+import org.apache.el.parser.AstConcatenation;
+import org.apache.el.parser.AstDeferredExpression;
+import org.apache.el.parser.AstDiv;
+import org.apache.el.parser.AstDotSuffix;
+import org.apache.el.parser.AstDynamicExpression;
+import org.apache.el.parser.AstEmpty;
+import org.apache.el.parser.AstEqual;
+import org.apache.el.parser.AstFalse;
+import org.apache.el.parser.AstFloatingPoint;
+import org.apache.el.parser.AstFunction;
+import org.apache.el.parser.AstGreaterThan;
+import org.apache.el.parser.AstGreaterThanEqual;
+import org.apache.el.parser.AstIdentifier;
+import org.apache.el.parser.AstInteger;
+import org.apache.el.parser.AstLessThan;
+import org.apache.el.parser.AstLessThanEqual;
+import org.apache.el.parser.AstLiteralExpression;
+import org.apache.el.parser.AstMinus;
+import org.apache.el.parser.AstMod;
+import org.apache.el.parser.AstMult;
+import org.apache.el.parser.AstNegative;
+import org.apache.el.parser.AstNot;
+import org.apache.el.parser.AstNotEqual;
+import org.apache.el.parser.AstNull;
+import org.apache.el.parser.AstOr;
+import org.apache.el.parser.AstPlus;
+import org.apache.el.parser.AstString;
+import org.apache.el.parser.AstTrue;
+import org.apache.el.parser.AstValue;
+import org.apache.el.parser.Node;
+import org.apache.el.util.MessageFactory;
+
+/**
+ * Compiles the syntax tree of an expression into a tree of {@link CompiledExpression} closures.
+ *
+ * <p>The closures evaluate the operators with the same {@link ELSupport} and {@link ELArithmetic}
+ * coercions as the EL interpreter and call the <code>fn:</code> functions through method handles
+ * bound at compile time. The record variables are read directly from the {@link
+ * JstlTransformContextAdapter} and the properties of maps are read without going through the
+ * resolver chain, so an evaluation doesn't walk the syntax tree or resolve any name.
+ *
+ * <p>Expressions using constructs that are not supported (lambdas, method calls, assignments,
+ * collection literals, unknown identifiers...) are not compiled and must be interpreted.
+ */
+public final class JstlCompiler {
+
+  /** A compiled expression or sub-expression. */
+  @FunctionalInterface
+  public interface CompiledExpression {
+    Object evaluate(ELContext context, JstlTransformContextAdapter adapter);
+  }
+
+  private JstlCompiler() {}
+
+  /**
+   * Compiles an expression.
+   *
+   * @param expression the expression to compile.
+   * @param functionMapper the function mapper used to parse the expression.
+   * @return the compiled expression or null if the expression can't be compiled.
+   */
+  public static CompiledExpression compile(String expression, FunctionMapper functionMapper) {
+    try {
+      return compile(ExpressionBuilder.createNode(expression), functionMapper);
+    } catch (NotCompilableException e) {
+      return null;
+    }
+  }
+
+  private static CompiledExpression compile(Node node, FunctionMapper functionMapper) {
+    if (node instanceof AstDynamicExpression || node instanceof AstDeferredExpression) {
+      return compile(node.jjtGetChild(0), functionMapper);
+    }
+    if (isLiteral(node)) {
+      Object constant = node.getValue(null);
+      return (context, adapter) -> constant;
+    }
+    if (node instanceof AstNegative && isLiteral(node.jjtGetChild(0))) {
+      Object constant;
+      try {
+        constant = node.getValue(null);
+      } catch (RuntimeException e) {
+        throw new NotCompilableException();
+      }
+      return (context, adapter) -> constant;
+    }
+    if (node instanceof AstIdentifier) {
+      return compileIdentifier(node.getImage());
+    }
+    if (node instanceof AstValue) {
+      return compileValue(node, functionMapper);
+    }
+    if (node instanceof AstFunction) {
+      return compileFunction((AstFunction) node, functionMapper);
+    }
+    if (node instanceof AstCompositeExpression) {
+      return compileComposite(node, functionMapper);
+    }
+    if (node instanceof AstAnd) {
+      CompiledExpression left = compile(node.jjtGetChild(0), functionMapper);
+      CompiledExpression right = compile(node.jjtGetChild(1), functionMapper);
+      return (context, adapter) -> {
+        Boolean result = ELSupport.coerceToBoolean(context, left.evaluate(context, adapter), true);
+        if (!result) {
+          return result;
+        }
+        return ELSupport.coerceToBoolean(context, right.evaluate(context, adapter), true);
+      };
+    }
+    if (node instanceof AstOr) {
+      CompiledExpression left = compile(node.jjtGetChild(0), functionMapper);
+      CompiledExpression right = compile(node.jjtGetChild(1), functionMapper);
+      return (context, adapter) -> {
+        Boolean result = ELSupport.coerceToBoolean(context, left.evaluate(context, adapter), true);
+        if (result) {
+          return result;
+        }
+        return ELSupport.coerceToBoolean(context, right.evaluate(context, adapter), true);
+      };
+    }
+    if (node instanceof AstNot) {
+      CompiledExpression operand = compile(node.jjtGetChild(0), functionMapper);
+      return (context, adapter) ->
+          !ELSupport.coerceToBoolean(context, operand.evaluate(context, adapter), true);
+    }
+    if (node instanceof AstChoice) {
+      CompiledExpression condition = compile(node.jjtGetChild(0), functionMapper);
+      CompiledExpression whenTrue = compile(node.jjtGetChild(1), functionMapper);
+      CompiledExpression whenFalse = compile(node.jjtGetChild(2), functionMapper);
+      return (context, adapter) ->
+          ELSupport.coerceToBoolean(context, condition.evaluate(context, adapter), true)
+              ? whenTrue.evaluate(context, adapter)
+              : whenFalse.evaluate(context, adapter);
+    }
+    if (node instanceof AstEmpty) {
+      CompiledExpression operand = compile(node.jjtGetChild(0), functionMapper);
+      return (context, adapter) -> isEmpty(operand.evaluate(context, adapter));
+    }
+    if (node instanceof AstEqual) {
+      return compileComparison(
+          node, functionMapper, (context, left, right) -> ELSupport.equals(context, left, right));
+    }
+    if (node instanceof AstNotEqual) {
+      return compileComparison(
+          node, functionMapper, (context, left, right) -> !ELSupport.equals(context, left, right));
+    }
+    if (node instanceof AstGreaterThan) {
+      return compileComparison(
+          node,
+          functionMapper,
+          (context, left, right) ->
+              left != null && right != null && ELSupport.compare(context, left, right) > 0);
+    }
+    if (node instanceof AstLessThan) {
+      return compileComparison(
+          node,
+          functionMapper,
+          (context, left, right) ->
+              left != null && right != null && ELSupport.compare(context, left, right) < 0);
+    }
+    if (node instanceof AstGreaterThanEqual) {
+      return compileComparison(
+          node,
+          functionMapper,
+          (context, left, right) ->
+              left == right
+                  || (left != null
+                      && right != null
+                      && ELSupport.compare(context, left, right) >= 0));
+    }
+    if (node instanceof AstLessThanEqual) {
+      return compileComparison(
+          node,
+          functionMapper,
+          (context, left, right) ->
+              left == right
+                  || (left != null
+                      && right != null
+                      && ELSupport.compare(context, left, right) <= 0));
+    }
+    if (node instanceof AstPlus) {
+      return compileArithmetic(node, functionMapper, ELArithmetic::add);
+    }
+    if (node instanceof AstMinus) {
+      return compileArithmetic(node, functionMapper, ELArithmetic::subtract);
+    }
+    if (node instanceof AstMult) {
+      return compileArithmetic(node, functionMapper, ELArithmetic::multiply);
+    }
+    if (node instanceof AstDiv) {
+      return compileArithmetic(node, functionMapper, ELArithmetic::divide);
+    }
+    if (node instanceof AstMod) {
+      return compileArithmetic(node, functionMapper, ELArithmetic::mod);
+    }
+    if (node instanceof AstConcatenation) {
+      CompiledExpression left = compile(node.jjtGetChild(0), functionMapper);
+      CompiledExpression right = compile(node.jjtGetChild(1), functionMapper);
+      return (context, adapter) ->
+          ELSupport.coerceToString(context, left.evaluate(context, adapter))
+              + ELSupport.coerceToString(context, right.evaluate(context, adapter));
+    }
+    throw new NotCompilableException();
+  }
+
+  private static boolean isLiteral(Node node) {
+    return node instanceof AstLiteralExpression
+        || node instanceof AstString
+        || node instanceof AstInteger
+        || node instanceof AstFloatingPoint
+        || node instanceof AstTrue
+        || node instanceof AstFalse
+        || node instanceof AstNull;
+  }
+
+  private static CompiledExpression compileIdentifier(String name) {
+    switch (name) {
+      case "key":
+        return (context, adapter) -> adapter.getKey();
+      case "value":
+        return (context, adapter) -> adapter.adaptValue();
+      case "messageKey":
+      case "topicName":
+      case "destinationTopic":
+      case "eventTime":
+      case "properties":
+        return (context, adapter) -> adapter.getHeader().get(name);
+      default:
+        throw new NotCompilableException();
+    }
+  }
+
+  private static CompiledExpression compileValue(Node node, FunctionMapper functionMapper) {
+    CompiledExpression base = compile(node.jjtGetChild(0), functionMapper);
+    CompiledExpression[] properties = new CompiledExpression[node.jjtGetNumChildren() - 1];
+    for (int i = 0; i < properties.length; i++) {
+      Node suffix = node.jjtGetChild(i + 1);
+      if (suffix instanceof AstDotSuffix) {
+        String name = suffix.getImage();
+        properties[i] = (context, adapter) -> name;
+      } else if (suffix instanceof AstBracketSuffix) {
+        properties[i] = compile(suffix.jjtGetChild(0), functionMapper);
+      } else {
+        throw new NotCompilableException();
+      }
+    }
+    return (context, adapter) -> {
+      Object value = base.evaluate(context, adapter);
+      for (CompiledExpression property : properties) {
+        if (value == null) {
+          return null;
+        }
+        Object name = property.evaluate(context, adapter);
+        if (name == null) {
+          return null;
+        }
+        value = getProperty(context, value, name);
+      }
+      return value;
+    };
+  }
+
+  private static Object getProperty(ELContext context, Object base, Object property) {
+    if (base instanceof Map) {
+      return ((Map<?, ?>) base).get(property);
+    }
+    context.setPropertyResolved(false);
+    Object value = context.getELResolver().getValue(context, base, property);
+    if (!context.isPropertyResolved()) {
+      throw new PropertyNotFoundException(
+          MessageFactory.get("error.resolver.unhandled", base, property));
+    }
+    return value;
+  }
+
+  private static CompiledExpression compileFunction(
+      AstFunction node, FunctionMapper functionMapper) {
+    Method method =
+        functionMapper == null
+            ? null
+            : functionMapper.resolveFunction(node.getPrefix(), node.getLocalName());
+    if (method == null || method.isVarArgs() || node.jjtGetNumChildren() != 1) {
+      throw new NotCompilableException();
+    }
+    Node parameters = node.jjtGetChild(0);
+    Class<?>[] types = method.getParameterTypes();
+    if (parameters.jjtGetNumChildren() != types.length) {
+      throw new NotCompilableException();
+    }
+    CompiledExpression[] arguments = new CompiledExpression[types.length];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(parameters.jjtGetChild(i), functionMapper);
+    }
+    MethodHandle handle;
+    try {
+      handle =
+          MethodHandles.publicLookup()
+              .unreflect(method)
+              .asSpreader(Object[].class, types.length)
+              .asType(MethodType.methodType(Object.class, Object[].class));
+    } catch (IllegalAccessException e) {
+      throw new NotCompilableException();
+    }
+    String name = node.getOutputName();
+    return (context, adapter) -> {
+      Object[] values = new Object[arguments.length];
+      for (int i = 0; i < arguments.length; i++) {
+        try {
+          values[i] =
+              ELSupport.coerceToType(context, arguments[i].evaluate(context, adapter), types[i]);
+        } catch (ELException e) {
+          throw new ELException(MessageFactory.get("error.function", name), e);
+        }
+      }
+      try {
+        return (Object) handle.invokeExact(values);
+      } catch (VirtualMachineError e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new ELException(MessageFactory.get("error.function", name), e);
+      }
+    };
+  }
+
+  private static CompiledExpression compileComposite(Node node, FunctionMapper functionMapper) {
+    CompiledExpression[] parts = new CompiledExpression[node.jjtGetNumChildren()];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = compile(node.jjtGetChild(i), functionMapper);
+    }
+    return (context, adapter) -> {
+      StringBuilder result = new StringBuilder(16);
+      for (CompiledExpression part : parts) {
+        Object value = part.evaluate(context, adapter);
+        if (value != null) {
+          result.append(ELSupport.coerceToString(context, value));
+        }
+      }
+      return result.toString();
+    };
+  }
+
+  private static CompiledExpression compileComparison(
+      Node node, FunctionMapper functionMapper, Comparison comparison) {
+    CompiledExpression left = compile(node.jjtGetChild(0), functionMapper);
+    CompiledExpression right = compile(node.jjtGetChild(1), functionMapper);
+    return (context, adapter) ->
+        comparison.test(context, left.evaluate(context, adapter), right.evaluate(context, adapter));
+  }
+
+  private static CompiledExpression compileArithmetic(
+      Node node, FunctionMapper functionMapper, BinaryOperator<Object> operator) {
+    CompiledExpression left = compile(node.jjtGetChild(0), functionMapper);
+    CompiledExpression right = compile(node.jjtGetChild(1), functionMapper);
+    return (context, adapter) ->
+        operator.apply(left.evaluate(context, adapter), right.evaluate(context, adapter));
+  }
+
+  private static Boolean isEmpty(Object value) {
+    if (value == null) {
+      return true;
+    }
+    if (value instanceof String) {
+      return ((String) value).isEmpty();
+    }
+    if (value instanceof Object[]) {
+      return ((Object[]) value).length == 0;
+    }
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).isEmpty();
+    }
+    if (value instanceof Map) {
+      return ((Map<?, ?>) value).isEmpty();
+    }
+    return false;
+  }
+
+  @FunctionalInterface
+  private interface Comparison {
+    boolean test(ELContext context, Object left, Object right);
+  }
+
+  private static class NotCompilableException extends RuntimeException {
+    NotCompilableException() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -19,82 +19,103 @@ import com.datastax.oss.pulsar.functions.transforms.TransformContext;
 import jakarta.el.ELContext;
 import jakarta.el.ExpressionFactory;
 import jakarta.el.ValueExpression;
-import java.util.Map;
 import lombok.SneakyThrows;
 import org.apache.el.ExpressionFactoryImpl;
 
+/**
+ * Evaluates an expression against a {@link TransformContext}.
+ *
+ * <p>The expression is parsed once, with its functions bound at construction time. The variables
+ * are resolved at evaluation time by a {@link TransformContextELResolver} from a per-thread {@link
+ * ELContext}, so an evaluator is thread-safe and doesn't parse anything when it evaluates a record.
+ *
+ * <p>Unless disabled, the expression is also compiled by the {@link JstlCompiler} and the compiled
+ * form is used instead of the EL interpreter. Expressions that can't be compiled are interpreted.
+ */
 public class JstlEvaluator<T> {
 
   private static final ExpressionFactory FACTORY = new ExpressionFactoryImpl();
+
+  private static final ThreadLocal<EvaluationContext> EVALUATION_CONTEXT =
+      ThreadLocal.withInitial(EvaluationContext::new);
+
   private final ValueExpression valueExpression;
-  private final ELContext expressionContext;
+  private final Class<? extends T> type;
+  private final JstlCompiler.CompiledExpression compiledExpression;
 
   public JstlEvaluator(String expression, Class<? extends T> type) {
-    this.expressionContext = new StandardContext(FACTORY);
-    registerFunctions();
+    this(expression, type, true);
+  }
+
+  public JstlEvaluator(String expression, Class<? extends T> type, boolean compile) {
+    ELContext expressionContext = new StandardContext(FACTORY);
+    registerFunctions(expressionContext);
     this.valueExpression = FACTORY.createValueExpression(expressionContext, expression, type);
+    this.type = type;
+    this.compiledExpression =
+        compile ? JstlCompiler.compile(expression, expressionContext.getFunctionMapper()) : null;
   }
 
   @SneakyThrows
-  private void registerFunctions() {
-    this.expressionContext
+  private static void registerFunctions(ELContext expressionContext) {
+    expressionContext
         .getFunctionMapper()
         .mapFunction("fn", "uppercase", JstlFunctions.class.getMethod("uppercase", Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction("fn", "lowercase", JstlFunctions.class.getMethod("lowercase", Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
             "contains",
             JstlFunctions.class.getMethod("contains", Object.class, Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction("fn", "trim", JstlFunctions.class.getMethod("trim", Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn", "concat", JstlFunctions.class.getMethod("concat", Object.class, Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
             "coalesce",
             JstlFunctions.class.getMethod("coalesce", Object.class, Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction("fn", "str", JstlFunctions.class.getMethod("toString", Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
             "replace",
             JstlFunctions.class.getMethod("replace", Object.class, Object.class, Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction("fn", "now", JstlFunctions.class.getMethod("now"));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
             "timestampAdd",
             JstlFunctions.class.getMethod(
                 "timestampAdd", Object.class, Object.class, Object.class));
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
             "decimalFromUnscaled",
             JstlFunctions.class.getMethod("toBigDecimal", Object.class, Object.class));
 
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn", "decimalFromNumber", JstlFunctions.class.getMethod("toBigDecimal", Object.class));
 
     // Deprecated
-    this.expressionContext
+    expressionContext
         .getFunctionMapper()
         .mapFunction(
             "fn",
@@ -103,30 +124,35 @@ public class JstlEvaluator<T> {
   }
 
   public T evaluate(TransformContext transformContext) {
-    JstlTransformContextAdapter adapter = new JstlTransformContextAdapter(transformContext);
-    FACTORY
-        .createValueExpression(expressionContext, "${key}", Object.class)
-        .setValue(expressionContext, adapter.getKey());
-    FACTORY
-        .createValueExpression(expressionContext, "${value}", Object.class)
-        .setValue(expressionContext, adapter.adaptValue());
+    return evaluate(new JstlTransformContextAdapter(transformContext));
+  }
+
+  @SuppressWarnings("unchecked")
+  public T evaluate(JstlTransformContextAdapter adapter) {
+    EvaluationContext context = EVALUATION_CONTEXT.get();
+    context.binding.bind(adapter);
+    try {
+      if (compiledExpression != null) {
+        Object value = compiledExpression.evaluate(context.elContext, adapter);
+        return (T) context.elContext.convertToType(value, type);
+      }
+      return (T) valueExpression.getValue(context.elContext);
+    } finally {
+      context.binding.unbind();
+    }
+  }
+
+  boolean isCompiled() {
+    return compiledExpression != null;
+  }
+
+  private static class EvaluationContext {
+    private final ELContext elContext = new StandardContext(FACTORY);
+    private final TransformContextELResolver.Binding binding =
+        new TransformContextELResolver.Binding();
 
-    // Register message headers as top level fields
-    FACTORY
-        .createValueExpression(expressionContext, "${messageKey}", String.class)
-        .setValue(expressionContext, adapter.getHeader().get("messageKey"));
-    FACTORY
-        .createValueExpression(expressionContext, "${topicName}", String.class)
-        .setValue(expressionContext, adapter.getHeader().get("topicName"));
-    FACTORY
-        .createValueExpression(expressionContext, "${destinationTopic}", String.class)
-        .setValue(expressionContext, adapter.getHeader().get("destinationTopic"));
-    FACTORY
-        .createValueExpression(expressionContext, "${eventTime}", Long.class)
-        .setValue(expressionContext, adapter.getHeader().get("eventTime"));
-    FACTORY
-        .createValueExpression(expressionContext, "${properties}", Map.class)
-        .setValue(expressionContext, adapter.getHeader().get("properties"));
-    return this.valueExpression.getValue(expressionContext);
+    EvaluationContext() {
+      elContext.putContext(TransformContextELResolver.Binding.class, binding);
+    }
   }
 }
@@ -16,20 +16,16 @@
 package com.datastax.oss.pulsar.functions.transforms.jstl;
 
 import com.datastax.oss.pulsar.functions.transforms.TransformContext;
-import com.datastax.oss.pulsar.functions.transforms.util.AvroUtil;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.ZoneOffset;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import org.apache.avro.LogicalType;
-import org.apache.avro.LogicalTypes;
+import java.util.Set;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.collections4.Transformer;
@@ -39,49 +35,20 @@ import org.apache.pulsar.functions.api.Record;
 /**
  * A java bean that adapts the underlying {@link TransformContext} to be ready for jstl expression
  * language binding.
+ *
+ * <p>Records are exposed as read-only map views. The fields are resolved through a {@link
+ * SchemaAccessor} computed once per schema, so reading a field of an Avro record is a positional
+ * access and reading a field of a JSON record converts the node directly.
  */
 public class JstlTransformContextAdapter {
-  private TransformContext transformContext;
-
-  /**
-   * A key transformer backing the lazy key map. It transforms top level key fields to either a
-   * value or another lazy map for nested evaluation.
-   */
-  private final Transformer<String, Object> keyTransformer =
-      (fieldName) -> {
-        if (this.transformContext.getKeyObject() instanceof GenericRecord) {
-          GenericRecord genericRecord = (GenericRecord) this.transformContext.getKeyObject();
-          GenericRecordTransformer transformer = new GenericRecordTransformer(genericRecord);
-          return transformer.transform(fieldName);
-        }
-        return null;
-      };
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-  private final Map<String, Object> lazyKey = LazyMap.lazyMap(new HashMap<>(), keyTransformer);
-
-  /**
-   * A value transformer backing the lazy value map. It transforms top level value fields to either
-   * a value or another lazy map for nested evaluation.
-   */
-  private final Transformer<String, Object> valueTransformer =
-      (fieldName) -> {
-        Object valueObject = this.transformContext.getValueObject();
-        if (valueObject instanceof GenericRecord) {
-          GenericRecord genericRecord = (GenericRecord) valueObject;
-          GenericRecordTransformer transformer = new GenericRecordTransformer(genericRecord);
-          return transformer.transform(fieldName);
-        }
-        if (valueObject instanceof JsonNode) {
-          JsonNode jsonNode = (JsonNode) valueObject;
-          Schema schema =
-              (Schema) this.transformContext.getValueSchema().getNativeSchema().orElseThrow();
-          JsonNodeTransformer transformer = new JsonNodeTransformer(jsonNode, schema);
-          return transformer.transform(fieldName);
-        }
-        return null;
-      };
+  private TransformContext transformContext;
 
-  private final Map<String, Object> lazyValue = LazyMap.lazyMap(new HashMap<>(), valueTransformer);
+  private Map<String, Object> keyView;
+  private Object keyViewSource;
+  private Map<String, Object> valueView;
+  private Object valueViewSource;
 
   /** A header transformer to return message headers the user is allowed to filter on. */
   private final Transformer<String, Object> headerTransformer =
@@ -112,108 +79,211 @@ public class JstlTransformContextAdapter {
   }
 
   /**
-   * @return either a lazily evaluated map to access top-level and nested fields on a generic
-   *     object, or the primitive type itself.
+   * @return either a map view to access top-level and nested fields on a generic object, or the
+   *     primitive type itself.
    */
   public Object getKey() {
     Object keyObject = this.transformContext.getKeyObject();
     if (keyObject == null) {
       return transformContext.getKey();
     }
-    return keyObject instanceof GenericRecord ? lazyKey : keyObject;
+    if (keyObject instanceof GenericRecord) {
+      if (keyViewSource != keyObject) {
+        keyView = new AvroRecordMap((GenericRecord) keyObject);
+        keyViewSource = keyObject;
+      }
+      return keyView;
+    }
+    return keyObject;
   }
 
   /**
-   * @return either a lazily evaluated map to access top-level and nested fields on a generic
-   *     object, or the primitive type itself.
+   * @return either a map view to access top-level and nested fields on a generic object, or the
+   *     primitive type itself.
    */
   public Object adaptValue() {
     Object valueObject = this.transformContext.getValueObject();
-    return valueObject instanceof GenericRecord || valueObject instanceof JsonNode
-        ? lazyValue
-        : valueObject;
+    if (valueObject instanceof GenericRecord) {
+      if (valueViewSource != valueObject) {
+        valueView = new AvroRecordMap((GenericRecord) valueObject);
+        valueViewSource = valueObject;
+      }
+      return valueView;
+    }
+    if (valueObject instanceof JsonNode) {
+      if (valueViewSource != valueObject) {
+        Schema schema =
+            (Schema) this.transformContext.getValueSchema().getNativeSchema().orElse(null);
+        valueView = new JsonObjectMap((JsonNode) valueObject, accessorOf(schema));
+        valueViewSource = valueObject;
+      }
+      return valueView;
+    }
+    return valueObject;
   }
 
   public Map<String, Object> getHeader() {
     return lazyHeader;
   }
 
-  /** Enables {@link LazyMap} lookup on {@link GenericRecord}. */
-  static class GenericRecordTransformer implements Transformer<String, Object> {
+  private static SchemaAccessor accessorOf(Schema schema) {
+    return schema != null && schema.getType() == Schema.Type.RECORD
+        ? SchemaAccessor.of(schema)
+        : null;
+  }
 
+  /** A read-only map view of a {@link GenericRecord} reading the fields by position. */
+  static class AvroRecordMap extends AbstractMap<String, Object> {
     private final GenericRecord genericRecord;
+    private final SchemaAccessor accessor;
 
-    public GenericRecordTransformer(GenericRecord genericRecord) {
+    AvroRecordMap(GenericRecord genericRecord) {
       this.genericRecord = genericRecord;
+      this.accessor = SchemaAccessor.of(genericRecord.getSchema());
     }
 
     @Override
-    public Object transform(String key) {
-      if (!genericRecord.hasField(key)) {
-        return null;
-      }
-      Object value = genericRecord.get(key);
+    public Object get(Object key) {
+      SchemaAccessor.FieldAccessor field = accessor.getField(key);
+      return field == null ? null : read(field);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return accessor.getField(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return accessor.getSchema().getFields().size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          Iterator<Schema.Field> fields = accessor.getSchema().getFields().iterator();
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return fields.hasNext();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              SchemaAccessor.FieldAccessor field = accessor.getField(fields.next().name());
+              return new SimpleImmutableEntry<>(field.getName(), read(field));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return AvroRecordMap.this.size();
+        }
+      };
+    }
+
+    private Object read(SchemaAccessor.FieldAccessor field) {
+      Object value = genericRecord.get(field.getPosition());
       if (value instanceof GenericRecord) {
-        return LazyMap.lazyMap(
-            new HashMap<>(), new GenericRecordTransformer((GenericRecord) value));
+        return new AvroRecordMap((GenericRecord) value);
       }
-      return adaptValue(genericRecord.getSchema(), key, value);
+      return field.adapt(value);
     }
   }
 
-  static class JsonNodeTransformer implements Transformer<String, Object> {
-
-    public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  /**
+   * A read-only map view of a JSON object. The nodes are converted directly to java values and
+   * adapted to the logical type of the corresponding field of the schema, if any.
+   */
+  static class JsonObjectMap extends AbstractMap<String, Object> {
     private final JsonNode jsonNode;
-    private final org.apache.avro.Schema schema;
+    private final SchemaAccessor accessor;
 
-    public JsonNodeTransformer(JsonNode jsonNode, org.apache.avro.Schema schema) {
+    JsonObjectMap(JsonNode jsonNode, SchemaAccessor accessor) {
       this.jsonNode = jsonNode;
-      this.schema = schema;
+      this.accessor = accessor;
     }
 
     @Override
-    public Object transform(String key) {
-      if (!jsonNode.has(key)) {
+    public Object get(Object key) {
+      if (!(key instanceof String)) {
         return null;
       }
-      JsonNode node = jsonNode.get(key);
+      JsonNode node = jsonNode.get((String) key);
+      return node == null ? null : read((String) key, node);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String && jsonNode.has((String) key);
+    }
+
+    @Override
+    public int size() {
+      return jsonNode.size();
+    }
 
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          Iterator<Entry<String, JsonNode>> fields = jsonNode.fields();
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return fields.hasNext();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              Entry<String, JsonNode> field = fields.next();
+              return new SimpleImmutableEntry<>(
+                  field.getKey(), read(field.getKey(), field.getValue()));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return jsonNode.size();
+        }
+      };
+    }
+
+    private Object read(String key, JsonNode node) {
+      SchemaAccessor.FieldAccessor field = accessor == null ? null : accessor.getField(key);
       if (node instanceof ObjectNode) {
-        return LazyMap.lazyMap(
-            new HashMap<>(), new JsonNodeTransformer(node, schema.getField(key).schema()));
+        Schema recordSchema = field == null ? null : field.getRecordSchema();
+        return new JsonObjectMap(node, accessorOf(recordSchema));
       }
+      Object value = toJava(node);
+      return field == null ? value : field.adapt(value);
+    }
+
+    private static Object toJava(JsonNode node) {
       try {
-        Object value = OBJECT_MAPPER.treeToValue(node, Object.class);
-        return adaptValue(schema, key, value);
-      } catch (JsonProcessingException e) {
+        switch (node.getNodeType()) {
+          case NULL:
+          case MISSING:
+            return null;
+          case STRING:
+            return node.textValue();
+          case NUMBER:
+            return node.numberValue();
+          case BOOLEAN:
+            return node.booleanValue();
+          case BINARY:
+            return node.binaryValue();
+          default:
+            return OBJECT_MAPPER.treeToValue(node, Object.class);
+        }
+      } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
   }
-
-  private static Object adaptValue(Schema schema, String key, Object value) {
-    LogicalType logicalType = AvroUtil.getLogicalType(schema.getField(key).schema());
-    if (LogicalTypes.date().equals(logicalType)) {
-      return LocalDate.ofEpochDay((int) value);
-    } else if (LogicalTypes.timestampMillis().equals(logicalType)) {
-      return Instant.ofEpochMilli((long) value);
-    } else if (LogicalTypes.timestampMicros().equals(logicalType)) {
-      long micros = (long) value;
-      return Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1000);
-    } else if (LogicalTypes.timeMillis().equals(logicalType)) {
-      return LocalTime.ofNanoOfDay((int) value * 1_000_000L);
-    } else if (LogicalTypes.timeMicros().equals(logicalType)) {
-      return LocalTime.ofNanoOfDay((long) value * 1_000);
-    } else if (LogicalTypes.localTimestampMillis().equals(logicalType)) {
-      long millis = (long) value;
-      return LocalDateTime.ofEpochSecond(
-          millis / 1_000, (int) ((millis % 1_000) * 1_000_000), ZoneOffset.UTC);
-    } else if (LogicalTypes.localTimestampMicros().equals(logicalType)) {
-      long micros = (long) value;
-      return LocalDateTime.ofEpochSecond(
-          micros / 1_000_000, (int) ((micros % 1_000_000) * 1_000), ZoneOffset.UTC);
-    }
-    return value;
-  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.jstl;
+
+import com.datastax.oss.pulsar.functions.transforms.util.AvroUtil;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+
+/**
+ * Resolves the fields of an Avro record schema once: their position, the adapter of their logical
+ * type and the schema of the nested records. Accessors are cached per schema in the shared {@link
+ * SchemaCache} so that reading a field doesn't need any string lookup in the schema.
+ */
+final class SchemaAccessor {
+  private static final SchemaCache SCHEMA_CACHE = SchemaCache.shared();
+  private static final String ACCESSOR = "jstlSchemaAccessor";
+
+  private final Schema schema;
+  private final Map<String, FieldAccessor> fields;
+
+  private SchemaAccessor(Schema schema) {
+    this.schema = schema;
+    List<Schema.Field> schemaFields = schema.getFields();
+    this.fields = new HashMap<>(schemaFields.size() * 2);
+    for (Schema.Field field : schemaFields) {
+      fields.put(field.name(), new FieldAccessor(field));
+    }
+  }
+
+  /**
+   * Gets the accessor of a record schema. A new accessor is computed when the schema changes.
+   *
+   * @param schema the record schema.
+   * @return the accessor of the schema.
+   */
+  static SchemaAccessor of(Schema schema) {
+    return SCHEMA_CACHE.computeIfAbsent(schema, ACCESSOR, SchemaAccessor::new);
+  }
+
+  Schema getSchema() {
+    return schema;
+  }
+
+  /** @return the accessor of the field or null if the schema has no such field. */
+  FieldAccessor getField(Object name) {
+    return fields.get(name);
+  }
+
+  static final class FieldAccessor {
+    private final Schema.Field field;
+    private final UnaryOperator<Object> logicalTypeAdapter;
+    private final Schema recordSchema;
+
+    private FieldAccessor(Schema.Field field) {
+      this.field = field;
+      this.logicalTypeAdapter = logicalTypeAdapter(AvroUtil.getLogicalType(field.schema()));
+      this.recordSchema = recordSchemaOf(field.schema());
+    }
+
+    int getPosition() {
+      return field.pos();
+    }
+
+    String getName() {
+      return field.name();
+    }
+
+    /**
+     * @return the schema of the field if it's a record or a union with a record, null otherwise.
+     */
+    Schema getRecordSchema() {
+      return recordSchema;
+    }
+
+    /** Converts a value of the field to the Java type of its logical type, if any. */
+    Object adapt(Object value) {
+      if (value == null || logicalTypeAdapter == null) {
+        return value;
+      }
+      return logicalTypeAdapter.apply(value);
+    }
+  }
+
+  private static Schema recordSchemaOf(Schema schema) {
+    if (schema.getType() == Schema.Type.RECORD) {
+      return schema;
+    }
+    if (schema.isUnion()) {
+      for (Schema type : schema.getTypes()) {
+        if (type.getType() == Schema.Type.RECORD) {
+          return type;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static UnaryOperator<Object> logicalTypeAdapter(LogicalType logicalType) {
+    if (LogicalTypes.date().equals(logicalType)) {
+      return value -> LocalDate.ofEpochDay((int) value);
+    } else if (LogicalTypes.timestampMillis().equals(logicalType)) {
+      return value -> Instant.ofEpochMilli((long) value);
+    } else if (LogicalTypes.timestampMicros().equals(logicalType)) {
+      return value -> {
+        long micros = (long) value;
+        return Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1000);
+      };
+    } else if (LogicalTypes.timeMillis().equals(logicalType)) {
+      return value -> LocalTime.ofNanoOfDay((int) value * 1_000_000L);
+    } else if (LogicalTypes.timeMicros().equals(logicalType)) {
+      return value -> LocalTime.ofNanoOfDay((long) value * 1_000);
+    } else if (LogicalTypes.localTimestampMillis().equals(logicalType)) {
+      return value -> {
+        long millis = (long) value;
+        return LocalDateTime.ofEpochSecond(
+            millis / 1_000, (int) ((millis % 1_000) * 1_000_000), ZoneOffset.UTC);
+      };
+    } else if (LogicalTypes.localTimestampMicros().equals(logicalType)) {
+      return value -> {
+        long micros = (long) value;
+        return LocalDateTime.ofEpochSecond(
+            micros / 1_000_000, (int) ((micros % 1_000_000) * 1_000), ZoneOffset.UTC);
+      };
+    }
+    return null;
+  }
+}
@@ -16,23 +16,19 @@
 package com.datastax.oss.pulsar.functions.transforms.jstl;
 
 import jakarta.el.ArrayELResolver;
-import jakarta.el.BeanNameELResolver;
-import jakarta.el.BeanNameResolver;
 import jakarta.el.CompositeELResolver;
 import jakarta.el.ELResolver;
 import jakarta.el.ExpressionFactory;
 import jakarta.el.ListELResolver;
 import jakarta.el.MapELResolver;
-import jakarta.el.PropertyNotWritableException;
 import jakarta.el.ResourceBundleELResolver;
 import jakarta.el.StandardELContext;
 import jakarta.el.StaticFieldELResolver;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A standard context that mirrors {@link jakarta.el.StandardELContext} with the exception that it
- * registers a custom beans resolver that disables invocations.
+ * registers a custom beans resolver that disables invocations and resolves the record variables
+ * with a {@link TransformContextELResolver} instead of bean names.
  */
 public class StandardContext extends StandardELContext {
   private final CompositeELResolver standardResolver;
@@ -41,7 +37,7 @@ public class StandardContext extends StandardELContext {
     super(factory);
     this.standardResolver = new CompositeELResolver();
     ELResolver streamResolver = factory.getStreamELResolver();
-    this.standardResolver.add(new BeanNameELResolver(new StandardBeanNameResolver()));
+    this.standardResolver.add(new TransformContextELResolver());
     if (streamResolver != null) {
       this.standardResolver.add(streamResolver);
     }
@@ -58,28 +54,4 @@ public class StandardContext extends StandardELContext {
   public ELResolver getELResolver() {
     return this.standardResolver;
   }
-
-  private static class StandardBeanNameResolver extends BeanNameResolver {
-    private final Map<String, Object> beans = new HashMap<>();
-
-    public boolean isNameResolved(String beanName) {
-      return this.beans.containsKey(beanName);
-    }
-
-    public Object getBean(String beanName) {
-      return this.beans.get(beanName);
-    }
-
-    public void setBeanValue(String beanName, Object value) throws PropertyNotWritableException {
-      this.beans.put(beanName, value);
-    }
-
-    public boolean isReadOnly(String beanName) {
-      return false;
-    }
-
-    public boolean canCreateBean(String beanName) {
-      return true;
-    }
-  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.jstl;
+
+import jakarta.el.ELContext;
+import jakarta.el.ELResolver;
+import jakarta.el.PropertyNotWritableException;
+
+/**
+ * Resolves the top level identifiers of an expression (<code>key</code>, <code>value</code> and the
+ * message headers) directly from the {@link JstlTransformContextAdapter} bound to the {@link
+ * ELContext}. The resolver itself is stateless and can be shared between contexts and threads.
+ */
+public class TransformContextELResolver extends ELResolver {
+
+  /** Holds the adapter of the record being evaluated. Registered as an {@link ELContext} object. */
+  public static class Binding {
+    private JstlTransformContextAdapter adapter;
+
+    public void bind(JstlTransformContextAdapter adapter) {
+      this.adapter = adapter;
+    }
+
+    public void unbind() {
+      this.adapter = null;
+    }
+  }
+
+  @Override
+  public Object getValue(ELContext context, Object base, Object property) {
+    JstlTransformContextAdapter adapter = getAdapter(context, base, property);
+    if (adapter == null) {
+      return null;
+    }
+    switch ((String) property) {
+      case "key":
+        context.setPropertyResolved(true);
+        return adapter.getKey();
+      case "value":
+        context.setPropertyResolved(true);
+        return adapter.adaptValue();
+      case "messageKey":
+      case "topicName":
+      case "destinationTopic":
+      case "eventTime":
+      case "properties":
+        context.setPropertyResolved(true);
+        return adapter.getHeader().get(property);
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public Class<?> getType(ELContext context, Object base, Object property) {
+    if (isResolvable(context, base, property)) {
+      context.setPropertyResolved(true);
+    }
+    return null;
+  }
+
+  @Override
+  public void setValue(ELContext context, Object base, Object property, Object value) {
+    if (isResolvable(context, base, property)) {
+      throw new PropertyNotWritableException("Cannot assign a value to " + property);
+    }
+  }
+
+  @Override
+  public boolean isReadOnly(ELContext context, Object base, Object property) {
+    if (isResolvable(context, base, property)) {
+      context.setPropertyResolved(true);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Class<?> getCommonPropertyType(ELContext context, Object base) {
+    return base == null ? String.class : null;
+  }
+
+  private static boolean isResolvable(ELContext context, Object base, Object property) {
+    if (getAdapter(context, base, property) == null) {
+      return false;
+    }
+    switch ((String) property) {
+      case "key":
+      case "value":
+      case "messageKey":
+      case "topicName":
+      case "destinationTopic":
+      case "eventTime":
+      case "properties":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static JstlTransformContextAdapter getAdapter(
+      ELContext context, Object base, Object property) {
+    if (base != null || !(property instanceof String)) {
+      return null;
+    }
+    Binding binding = (Binding) context.getContext(Binding.class);
+    return binding == null ? null : binding.adapter;
+  }
+}
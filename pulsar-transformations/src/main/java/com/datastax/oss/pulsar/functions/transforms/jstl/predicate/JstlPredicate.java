@@ -27,9 +27,13 @@ public class JstlPredicate implements TransformPredicate {
   private final JstlEvaluator<Boolean> evaluator;
 
   public JstlPredicate(String when) {
+    this(when, true);
+  }
+
+  public JstlPredicate(String when, boolean compile) {
     try {
       final String expression = String.format("${%s}", when);
-      this.evaluator = new JstlEvaluator<>(expression, boolean.class);
+      this.evaluator = new JstlEvaluator<>(expression, boolean.class, compile);
     } catch (ELException ex) {
       throw new IllegalArgumentException("invalid when: " + when, ex);
     }
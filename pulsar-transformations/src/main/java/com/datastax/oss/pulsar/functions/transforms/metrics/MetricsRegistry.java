@@ -0,0 +1,111 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.metrics;
+
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.apache.pulsar.functions.api.Context;
+
+/**
+ * In-process registry of the {@link StepMetrics} of a function. All the step metrics share the
+ * context they are published to, the timing sample interval and whether histograms are recorded.
+ * The metrics of the shared {@link SchemaCache} are published with the counters of the steps.
+ */
+@Slf4j
+public class MetricsRegistry {
+  private final Context context;
+  private final int sampleInterval;
+  private final boolean histograms;
+  private final Map<String, StepMetrics> steps = new LinkedHashMap<>();
+
+  /**
+   * @param context the context to which the metrics are published. If null, the metrics are only
+   *     kept in-process.
+   * @param sampleInterval the execution time of a step is measured on average once every <code>
+   *     sampleInterval</code> executions.
+   * @param histograms whether the values are recorded in in-process histograms.
+   */
+  public MetricsRegistry(Context context, int sampleInterval, boolean histograms) {
+    this.context = context;
+    this.sampleInterval = sampleInterval;
+    this.histograms = histograms;
+  }
+
+  /** @return the metrics of the step with the given name, created if absent. */
+  public synchronized StepMetrics getStepMetrics(String name) {
+    return steps.computeIfAbsent(
+        name,
+        stepName ->
+            new StepMetrics(
+                stepName, context, sampleInterval, histograms, SchemaCacheMetrics.shared()));
+  }
+
+  /** @return the metrics of all the steps, in registration order. */
+  public synchronized List<StepMetrics> getStepMetrics() {
+    return new ArrayList<>(steps.values());
+  }
+
+  /**
+   * Publishes the counters of all the steps and logs the histograms summary, with the schema cache
+   * counters, if any.
+   */
+  public void close() {
+    for (StepMetrics stepMetrics : getStepMetrics()) {
+      stepMetrics.publish();
+      if (histograms && log.isInfoEnabled()) {
+        log.info(
+            "Step {}: predicate true {}, predicate false {}, dropped {}, errors {}, "
+                + "cache hits {}, cache misses {}, exec time {}, remote call time {}",
+            stepMetrics.getName(),
+            stepMetrics.getPredicateTrueCount(),
+            stepMetrics.getPredicateFalseCount(),
+            stepMetrics.getDroppedCount(),
+            stepMetrics.getErrorCount(),
+            stepMetrics.getCacheHitCount(),
+            stepMetrics.getCacheMissCount(),
+            summary(stepMetrics.getExecTimeHistogram()),
+            summary(stepMetrics.getRemoteCallTimeHistogram()));
+      }
+    }
+    if (histograms && log.isInfoEnabled()) {
+      SchemaCache schemaCache = SchemaCache.shared();
+      log.info(
+          "Schema cache: hits {}, misses {}, evictions {}, size {}",
+          schemaCache.getHitCount(),
+          schemaCache.getMissCount(),
+          schemaCache.getEvictionCount(),
+          schemaCache.size());
+    }
+  }
+
+  private static String summary(Histogram nanos) {
+    if (nanos.getTotalCount() == 0) {
+      return "n/a";
+    }
+    return String.format(
+        "[count %d, p50 %dus, p99 %dus, max %dus]",
+        nanos.getTotalCount(),
+        TimeUnit.NANOSECONDS.toMicros(nanos.getValueAtPercentile(50)),
+        TimeUnit.NANOSECONDS.toMicros(nanos.getValueAtPercentile(99)),
+        TimeUnit.NANOSECONDS.toMicros(nanos.getMaxValue()));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.metrics;
+
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.pulsar.functions.api.Context;
+
+/**
+ * Publishes the metrics of a {@link SchemaCache}: the hits, misses and evictions, as the increments
+ * since their last publication, and the number of entries. They are function-level metrics named
+ * <code>schema-cache.&lt;metric&gt;</code>, published with the counters of the steps.
+ *
+ * <p>The schema cache is shared by all the functions of the JVM, so the increments are tracked per
+ * cache and not per function: the sum of a counter over the functions of the JVM is the total
+ * count. A publication is skipped if another thread is publishing.
+ */
+public class SchemaCacheMetrics {
+  public static final String HITS = "schema-cache.hits";
+  public static final String MISSES = "schema-cache.misses";
+  public static final String EVICTIONS = "schema-cache.evictions";
+  public static final String SIZE = "schema-cache.size";
+
+  private static final SchemaCacheMetrics SHARED = new SchemaCacheMetrics(SchemaCache.shared());
+
+  private final SchemaCache schemaCache;
+  private final AtomicBoolean publishing = new AtomicBoolean();
+  private long publishedHits;
+  private long publishedMisses;
+  private long publishedEvictions;
+
+  SchemaCacheMetrics(SchemaCache schemaCache) {
+    this.schemaCache = schemaCache;
+  }
+
+  /** @return the metrics of the schema cache shared by the steps. */
+  public static SchemaCacheMetrics shared() {
+    return SHARED;
+  }
+
+  /** Publishes the increments of the counters since their last publication, and the size. */
+  public void publish(Context context) {
+    if (!publishing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      long hits = schemaCache.getHitCount();
+      long misses = schemaCache.getMissCount();
+      long evictions = schemaCache.getEvictionCount();
+      if (hits > publishedHits) {
+        context.recordMetric(HITS, hits - publishedHits);
+        publishedHits = hits;
+      }
+      if (misses > publishedMisses) {
+        context.recordMetric(MISSES, misses - publishedMisses);
+        publishedMisses = misses;
+      }
+      if (evictions > publishedEvictions) {
+        context.recordMetric(EVICTIONS, evictions - publishedEvictions);
+        publishedEvictions = evictions;
+      }
+      context.recordMetric(SIZE, schemaCache.size());
+    } finally {
+      publishing.set(false);
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.pulsar.functions.api.Context;
+
+/**
+ * The metrics of a transform step. It counts the records for which the step predicate evaluated to
+ * true or false, the records dropped by the step and the errors, samples the execution time of the
+ * step, records the latency and the size of the calls made to remote services and counts the hits
+ * and misses of the result cache of the step, if any. The steps answering from a local snapshot of
+ * a data source also publish its size and age, and the duration of its refreshes.
+ *
+ * <p>The metrics are published with {@link Context#recordMetric(String, double)} under the name
+ * <code>&lt;step name&gt;.&lt;metric&gt;</code>. The counters are published as the increments since
+ * their last publication when an execution is sampled, so the sum of a counter metric is the total
+ * count. When histograms are enabled, the values are also recorded in-process in HdrHistograms.
+ *
+ * <p>This class is thread-safe.
+ */
+public class StepMetrics {
+  public static final String EXEC_TIME = "exec-time-ms";
+  public static final String PREDICATE_TRUE = "predicate-true";
+  public static final String PREDICATE_FALSE = "predicate-false";
+  public static final String DROPPED = "dropped";
+  public static final String ERRORS = "errors";
+  public static final String REMOTE_CALL_TIME = "remote-call-time-ms";
+  public static final String REMOTE_BATCH_SIZE = "remote-batch-size";
+  public static final String CACHE_HITS = "cache-hits";
+  public static final String CACHE_MISSES = "cache-misses";
+  public static final String SNAPSHOT_SIZE = "snapshot-size";
+  public static final String SNAPSHOT_AGE = "snapshot-age-ms";
+  public static final String SNAPSHOT_REFRESH_TIME = "snapshot-refresh-time-ms";
+  public static final String SNAPSHOT_REFRESH_FAILURES = "snapshot-refresh-failures";
+
+  /** Metrics that record nothing, used by the steps that are not instrumented. */
+  public static final StepMetrics NOOP = new StepMetrics("noop", null, 0, false);
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final String name;
+  private final Context context;
+  private final int sampleInterval;
+  private final SchemaCacheMetrics schemaCacheMetrics;
+  private final Counter predicateTrue;
+  private final Counter predicateFalse;
+  private final Counter dropped;
+  private final Counter errors;
+  private final Counter cacheHits;
+  private final Counter cacheMisses;
+  private final Counter snapshotRefreshFailures;
+  private final String execTimeMetric;
+  private final String remoteCallTimeMetric;
+  private final String remoteBatchSizeMetric;
+  private final String snapshotSizeMetric;
+  private final String snapshotAgeMetric;
+  private final String snapshotRefreshTimeMetric;
+  private final Histogram execTimeHistogram;
+  private final Histogram remoteCallTimeHistogram;
+  private final Histogram remoteBatchSizeHistogram;
+  private volatile LongSupplier snapshotSize;
+  private volatile LongSupplier snapshotAge;
+
+  /**
+   * @param name the name of the step, used as prefix of the metric names.
+   * @param context the context to which the metrics are published. If null, the metrics are not
+   *     published.
+   * @param sampleInterval the execution time is measured on average once every <code>
+   *     sampleInterval</code> executions. If 0, the execution time is never measured.
+   * @param histograms whether the values are recorded in in-process histograms.
+   */
+  public StepMetrics(String name, Context context, int sampleInterval, boolean histograms) {
+    this(name, context, sampleInterval, histograms, null);
+  }
+
+  /**
+   * @param name the name of the step, used as prefix of the metric names.
+   * @param context the context to which the metrics are published. If null, the metrics are not
+   *     published.
+   * @param sampleInterval the execution time is measured on average once every <code>
+   *     sampleInterval</code> executions. If 0, the execution time is never measured.
+   * @param histograms whether the values are recorded in in-process histograms.
+   * @param schemaCacheMetrics the schema cache metrics published with the counters of the step, if
+   *     not null.
+   */
+  public StepMetrics(
+      String name,
+      Context context,
+      int sampleInterval,
+      boolean histograms,
+      SchemaCacheMetrics schemaCacheMetrics) {
+    if (sampleInterval < 0) {
+      throw new IllegalArgumentException(
+          "sampleInterval must not be negative, got " + sampleInterval);
+    }
+    this.name = name;
+    this.context = context;
+    this.sampleInterval = sampleInterval;
+    this.schemaCacheMetrics = schemaCacheMetrics;
+    this.predicateTrue = new Counter(metricName(PREDICATE_TRUE));
+    this.predicateFalse = new Counter(metricName(PREDICATE_FALSE));
+    this.dropped = new Counter(metricName(DROPPED));
+    this.errors = new Counter(metricName(ERRORS));
+    this.cacheHits = new Counter(metricName(CACHE_HITS));
+    this.cacheMisses = new Counter(metricName(CACHE_MISSES));
+    this.snapshotRefreshFailures = new Counter(metricName(SNAPSHOT_REFRESH_FAILURES));
+    this.execTimeMetric = metricName(EXEC_TIME);
+    this.remoteCallTimeMetric = metricName(REMOTE_CALL_TIME);
+    this.remoteBatchSizeMetric = metricName(REMOTE_BATCH_SIZE);
+    this.snapshotSizeMetric = metricName(SNAPSHOT_SIZE);
+    this.snapshotAgeMetric = metricName(SNAPSHOT_AGE);
+    this.snapshotRefreshTimeMetric = metricName(SNAPSHOT_REFRESH_TIME);
+    this.execTimeHistogram = histograms ? new ConcurrentHistogram(SIGNIFICANT_DIGITS) : null;
+    this.remoteCallTimeHistogram = histograms ? new ConcurrentHistogram(SIGNIFICANT_DIGITS) : null;
+    this.remoteBatchSizeHistogram = histograms ? new ConcurrentHistogram(SIGNIFICANT_DIGITS) : null;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @return whether the current execution of the step should be timed. */
+  public boolean sample() {
+    return sampleInterval == 1
+        || (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) == 0);
+  }
+
+  public void recordPredicate(boolean result) {
+    (result ? predicateTrue : predicateFalse).increment(1);
+  }
+
+  public void recordDropped(int count) {
+    dropped.increment(count);
+  }
+
+  public void recordError() {
+    errors.increment(1);
+  }
+
+  public void recordCacheHit() {
+    cacheHits.increment(1);
+  }
+
+  public void recordCacheMiss() {
+    cacheMisses.increment(1);
+  }
+
+  /**
+   * Records a sampled execution time of the step.
+   *
+   * @param nanos the execution time in nanoseconds.
+   */
+  public void recordExecTime(long nanos) {
+    if (execTimeHistogram != null) {
+      execTimeHistogram.recordValue(Math.max(nanos, 0));
+    }
+    if (context != null) {
+      context.recordMetric(execTimeMetric, nanos / NANOS_PER_MILLI);
+    }
+  }
+
+  /**
+   * Records a call to a remote service. Remote calls are always recorded since their cost dwarfs
+   * the cost of the recording.
+   *
+   * @param nanos the latency of the call in nanoseconds.
+   * @param batchSize the number of items sent in the call.
+   */
+  public void recordRemoteCall(long nanos, int batchSize) {
+    if (remoteCallTimeHistogram != null) {
+      remoteCallTimeHistogram.recordValue(Math.max(nanos, 0));
+      remoteBatchSizeHistogram.recordValue(Math.max(batchSize, 0));
+    }
+    if (context != null) {
+      context.recordMetric(remoteCallTimeMetric, nanos / NANOS_PER_MILLI);
+      context.recordMetric(remoteBatchSizeMetric, batchSize);
+    }
+  }
+
+  /**
+   * Sets the gauges of the snapshot of a data source, published with the counters.
+   *
+   * @param size returns the number of rows of the snapshot.
+   * @param ageMillis returns the time in milliseconds since the snapshot was loaded.
+   */
+  public void setSnapshotGauges(LongSupplier size, LongSupplier ageMillis) {
+    // the size is set last since it tells whether the gauges are set
+    this.snapshotAge = ageMillis;
+    this.snapshotSize = size;
+  }
+
+  /**
+   * Records a refresh of the snapshot of a data source.
+   *
+   * @param nanos the duration of the refresh in nanoseconds.
+   */
+  public void recordSnapshotRefresh(long nanos) {
+    if (context != null) {
+      context.recordMetric(snapshotRefreshTimeMetric, nanos / NANOS_PER_MILLI);
+    }
+  }
+
+  public void recordSnapshotRefreshFailure() {
+    snapshotRefreshFailures.increment(1);
+  }
+
+  /**
+   * Publishes the increments of the counters since their last publication, and the schema cache
+   * metrics, if any.
+   */
+  public synchronized void publish() {
+    if (context == null) {
+      return;
+    }
+    if (snapshotSize != null) {
+      context.recordMetric(snapshotSizeMetric, snapshotSize.getAsLong());
+      context.recordMetric(snapshotAgeMetric, snapshotAge.getAsLong());
+    }
+    predicateTrue.publish(context);
+    predicateFalse.publish(context);
+    dropped.publish(context);
+    errors.publish(context);
+    cacheHits.publish(context);
+    cacheMisses.publish(context);
+    snapshotRefreshFailures.publish(context);
+    if (schemaCacheMetrics != null) {
+      schemaCacheMetrics.publish(context);
+    }
+  }
+
+  public long getPredicateTrueCount() {
+    return predicateTrue.count.sum();
+  }
+
+  public long getPredicateFalseCount() {
+    return predicateFalse.count.sum();
+  }
+
+  public long getDroppedCount() {
+    return dropped.count.sum();
+  }
+
+  public long getErrorCount() {
+    return errors.count.sum();
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits.count.sum();
+  }
+
+  public long getCacheMissCount() {
+    return cacheMisses.count.sum();
+  }
+
+  public long getSnapshotRefreshFailureCount() {
+    return snapshotRefreshFailures.count.sum();
+  }
+
+  /** @return the number of rows of the snapshot of the data source, or -1 if none. */
+  public long getSnapshotSize() {
+    LongSupplier size = snapshotSize;
+    return size == null ? -1 : size.getAsLong();
+  }
+
+  /** @return the age in milliseconds of the snapshot of the data source, or -1 if none. */
+  public long getSnapshotAge() {
+    LongSupplier age = snapshotAge;
+    return age == null ? -1 : age.getAsLong();
+  }
+
+  /** @return a copy of the histogram of the sampled execution times in nanoseconds, or null. */
+  public Histogram getExecTimeHistogram() {
+    return copy(execTimeHistogram);
+  }
+
+  /** @return a copy of the histogram of the remote call latencies in nanoseconds, or null. */
+  public Histogram getRemoteCallTimeHistogram() {
+    return copy(remoteCallTimeHistogram);
+  }
+
+  /** @return a copy of the histogram of the remote call batch sizes, or null. */
+  public Histogram getRemoteBatchSizeHistogram() {
+    return copy(remoteBatchSizeHistogram);
+  }
+
+  private String metricName(String metric) {
+    return name + "." + metric;
+  }
+
+  private static Histogram copy(Histogram histogram) {
+    return histogram == null ? null : histogram.copy();
+  }
+
+  private static class Counter {
+    private final String metricName;
+    private final LongAdder count = new LongAdder();
+    private long published;
+
+    Counter(String metricName) {
+      this.metricName = metricName;
+    }
+
+    void increment(long delta) {
+      count.add(delta);
+    }
+
+    void publish(Context context) {
+      long total = count.sum();
+      if (total > published) {
+        context.recordMetric(metricName, total - published);
+        published = total;
+      }
+    }
+  }
+}
@@ -71,6 +71,7 @@ public class ComputeField {
 
   public static class ComputeFieldBuilder {
     private String expression;
+    private boolean compile = true;
     private JstlEvaluator<?> evaluator;
     private String scope;
     private String name;
@@ -80,12 +81,18 @@ public class ComputeField {
       return this;
     }
 
+    public ComputeFieldBuilder compile(boolean compile) {
+      this.compile = compile;
+      return this;
+    }
+
     public ComputeField build() {
       // Compile the jstl evaluator to validate the expression syntax early on.
       try {
         this.validateAndParseScopedName();
         this.evaluator =
-            new JstlEvaluator<>(String.format("${%s}", this.expression), getJavaType());
+            new JstlEvaluator<>(
+                String.format("${%s}", this.expression), getJavaType(), this.compile);
       } catch (ELException ex) {
         throw new IllegalArgumentException("invalid expression: " + "expression", ex);
       }
@@ -0,0 +1,37 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.model.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+@Data
+public class CacheConfig {
+  @JsonProperty(value = "enabled", defaultValue = "false")
+  private boolean enabled;
+
+  @JsonProperty(value = "max-size", defaultValue = "1000")
+  private int maxSize = 1000;
+
+  @JsonProperty(value = "ttl", defaultValue = "0")
+  private long ttl;
+
+  @JsonProperty(value = "negative-ttl")
+  private Long negativeTtl;
+
+  @JsonProperty(value = "path")
+  private String path;
+}
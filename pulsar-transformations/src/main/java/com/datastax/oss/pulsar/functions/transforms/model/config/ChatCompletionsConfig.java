@@ -59,4 +59,7 @@ public class ChatCompletionsConfig extends StepConfig {
 
   @JsonProperty(value = "frequency-penalty")
   private Double frequencyPenalty;
+
+  @JsonProperty(value = "cache")
+  private CacheConfig cache = new CacheConfig();
 }
@@ -27,6 +27,13 @@ public class ComputeAIEmbeddingsConfig extends StepConfig {
     HUGGINGFACE
   }
 
+  public enum EmbeddingsElementType {
+    @JsonProperty("float")
+    FLOAT,
+    @JsonProperty("double")
+    DOUBLE
+  }
+
   @JsonProperty(required = true)
   private String model;
 
@@ -36,6 +43,9 @@ public class ComputeAIEmbeddingsConfig extends StepConfig {
   @JsonProperty(value = "embeddings-field", required = true)
   private String embeddingsFieldName;
 
+  @JsonProperty(value = "embeddings-element-type", defaultValue = "double")
+  private EmbeddingsElementType embeddingsElementType = EmbeddingsElementType.DOUBLE;
+
   @JsonProperty(value = "compute-service")
   private String service;
 
@@ -45,4 +55,17 @@ public class ComputeAIEmbeddingsConfig extends StepConfig {
 
   @JsonProperty(value = "model-url")
   String modelUrl;
+
+  @JsonProperty(value = "batch-size", defaultValue = "10")
+  private int batchSize = 10;
+
+  @JsonProperty(value = "flush-interval", defaultValue = "0")
+  private long flushInterval = 0;
+
+  @JsonProperty(value = "cache")
+  private CacheConfig cache = new CacheConfig();
+
+  // for the LOCAL HuggingFace compute provider
+  @JsonProperty(value = "inference")
+  private InferenceConfig inference = new InferenceConfig();
 }
@@ -31,6 +31,31 @@ public class DataSourceConfig {
 
   @JsonProperty private String secureBundle;
 
+  @JsonProperty(value = "max-concurrent-queries", defaultValue = "64")
+  private int maxConcurrentQueries = 64;
+
+  @JsonProperty(value = "page-size", defaultValue = "100")
+  private int pageSize = 100;
+
+  @JsonProperty(value = "max-rows", defaultValue = "1000")
+  private int maxRows = 1000;
+
+  @JsonProperty(value = "in-query-max-keys", defaultValue = "20")
+  private int inQueryMaxKeys = 20;
+
+  @JsonProperty private String url;
+
+  @JsonProperty(value = "pool-size", defaultValue = "8")
+  private int poolSize = 8;
+
+  @JsonProperty(value = "statement-cache-size", defaultValue = "100")
+  private int statementCacheSize = 100;
+
+  @JsonProperty(value = "connection-timeout", defaultValue = "30000")
+  private long connectionTimeout = 30000;
+
+  @JsonProperty private String path;
+
   @Override
   public String toString() {
     return "DataSourceConfig{"
@@ -31,5 +31,29 @@ public class HuggingFaceConfig {
   @JsonProperty(value = "access-key")
   private String accessKey;
 
+  // for API compute provider
+  @JsonProperty(value = "connect-timeout", defaultValue = "10000")
+  private long connectTimeout = 10_000;
+
+  // for API compute provider
+  @JsonProperty(value = "request-timeout", defaultValue = "60000")
+  private long requestTimeout = 60_000;
+
+  // for API compute provider
+  @JsonProperty(value = "max-in-flight", defaultValue = "16")
+  private int maxInFlight = 16;
+
+  // for API compute provider
+  @JsonProperty(value = "max-retries", defaultValue = "5")
+  private int maxRetries = 5;
+
+  // for API compute provider
+  @JsonProperty(value = "retry-backoff", defaultValue = "1000")
+  private long retryBackoff = 1_000;
+
+  // for API compute provider
+  @JsonProperty(value = "max-retry-backoff", defaultValue = "30000")
+  private long maxRetryBackoff = 30_000;
+
   @JsonProperty ComputeProvider provider;
 }
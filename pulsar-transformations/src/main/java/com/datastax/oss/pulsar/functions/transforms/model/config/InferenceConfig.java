@@ -0,0 +1,47 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.model.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class InferenceConfig {
+  @JsonProperty(value = "pool-size", defaultValue = "2")
+  private int poolSize = 2;
+
+  @JsonProperty(value = "batch-size", defaultValue = "32")
+  private int batchSize = 32;
+
+  @JsonProperty(value = "batch-window", defaultValue = "0")
+  private long batchWindow;
+
+  @JsonProperty(value = "intra-op-threads")
+  private Integer intraOpThreads;
+
+  @JsonProperty(value = "inter-op-threads")
+  private Integer interOpThreads;
+
+  @JsonProperty(value = "padding-buckets")
+  private List<Integer> paddingBuckets = List.of();
+
+  @JsonProperty(value = "length-buckets")
+  private List<Integer> lengthBuckets = List.of();
+
+  @JsonProperty(value = "max-tokens")
+  private Integer maxTokens;
+}
@@ -21,6 +21,13 @@ import lombok.Getter;
 
 @Getter
 public class QueryConfig extends StepConfig {
+  public enum RowFormat {
+    @JsonProperty("map")
+    MAP,
+    @JsonProperty("record")
+    RECORD
+  }
+
   @JsonProperty(value = "query", required = true)
   private String query;
 
@@ -29,4 +36,13 @@ public class QueryConfig extends StepConfig {
 
   @JsonProperty(value = "output-field", required = true)
   private String outputField;
+
+  @JsonProperty(value = "row-format", defaultValue = "map")
+  private RowFormat rowFormat = RowFormat.MAP;
+
+  @JsonProperty(value = "cache")
+  private CacheConfig cache;
+
+  @JsonProperty(value = "snapshot")
+  private SnapshotConfig snapshot;
 }
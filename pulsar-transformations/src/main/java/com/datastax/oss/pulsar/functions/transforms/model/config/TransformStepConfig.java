@@ -29,4 +29,15 @@ public class TransformStepConfig {
   @JsonProperty private HuggingFaceConfig huggingface;
 
   @JsonProperty private DataSourceConfig datasource;
+
+  @JsonProperty(value = "batch-size", defaultValue = "1")
+  private int batchSize = 1;
+
+  @JsonProperty(value = "flush-interval", defaultValue = "100")
+  private long flushInterval = 100;
+
+  @JsonProperty(value = "compile-expressions", defaultValue = "true")
+  private boolean compileExpressions = true;
+
+  @JsonProperty private MetricsConfig metrics = new MetricsConfig();
 }
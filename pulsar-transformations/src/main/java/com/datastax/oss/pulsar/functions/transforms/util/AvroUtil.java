@@ -49,7 +49,7 @@ public class AvroUtil {
   }
 
   public static GenericData.Record addOrReplaceAvroRecordFields(
-      GenericRecord record, Map<Schema.Field, Object> newFields, Map<Schema, Schema> schemaCache) {
+      GenericRecord record, Map<Schema.Field, Object> newFields, SchemaCache schemaCache) {
     Schema newSchema =
         addOrReplaceAvroSchemaFields(record.getSchema(), newFields.keySet(), schemaCache);
     GenericRecordBuilder newRecordBuilder = new GenericRecordBuilder(newSchema);
@@ -67,10 +67,24 @@ public class AvroUtil {
     return newRecordBuilder.build();
   }
 
+  /**
+   * Adds or replaces fields of a record schema. The result is cached by input schema and new
+   * fields, so that a field whose schema changes (eg. the precision of a decimal) gives a new
+   * schema. The lookup is cheapest when the same field instances are passed for every record.
+   */
   public static Schema addOrReplaceAvroSchemaFields(
-      Schema avroSchema, Collection<Schema.Field> newFields, Map<Schema, Schema> schemaCache) {
+      Schema avroSchema, Collection<Schema.Field> newFields, SchemaCache schemaCache) {
+    return schemaCache.computeIfAbsent(
+        avroSchema,
+        new FieldsSignature(newFields),
+        schema -> addOrReplaceAvroSchemaFields(schema, newFields));
+  }
+
+  private static Schema addOrReplaceAvroSchemaFields(
+      Schema avroSchema, Collection<Schema.Field> newFields) {
     Map<String, Schema.Field> newFieldsByName = new LinkedHashMap<>();
-    newFields.forEach(k -> newFieldsByName.put(k.name(), k));
+    // copy the fields as a field can be used in a single schema
+    newFields.forEach(k -> newFieldsByName.put(k.name(), new Schema.Field(k, k.schema())));
 
     // allFields is the intersection between existing fields and computed fields. Computed fields
     // take precedence.
@@ -84,14 +98,55 @@ public class AvroUtil {
       }
     }
     allFields.addAll(newFieldsByName.values());
-    return schemaCache.computeIfAbsent(
-        avroSchema,
-        schema ->
-            Schema.createRecord(
-                avroSchema.getName(),
-                avroSchema.getDoc(),
-                avroSchema.getNamespace(),
-                avroSchema.isError(),
-                allFields));
+    return Schema.createRecord(
+        avroSchema.getName(),
+        avroSchema.getDoc(),
+        avroSchema.getNamespace(),
+        avroSchema.isError(),
+        allFields);
+  }
+
+  /**
+   * The fields added to a schema, as a cache signature. Unlike {@link Schema.Field#hashCode()}, the
+   * hash code uses the cached hash codes of the field schemas, and the fields are first compared by
+   * identity.
+   */
+  private static final class FieldsSignature {
+    private final Schema.Field[] fields;
+    private final int hashCode;
+
+    FieldsSignature(Collection<Schema.Field> fields) {
+      this.fields = fields.toArray(new Schema.Field[0]);
+      int hash = 1;
+      for (Schema.Field field : this.fields) {
+        hash = 31 * hash + field.name().hashCode() + field.schema().hashCode();
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof FieldsSignature)) {
+        return false;
+      }
+      FieldsSignature that = (FieldsSignature) o;
+      if (hashCode != that.hashCode || fields.length != that.fields.length) {
+        return false;
+      }
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i] != that.fields[i] && !fields[i].equals(that.fields[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
   }
 }
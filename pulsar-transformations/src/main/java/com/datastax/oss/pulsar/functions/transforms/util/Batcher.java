@@ -0,0 +1,124 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Groups items into batches of at most <code>maxSize</code> items. A batch is processed when it is
+ * full or <code>flushInterval</code> milliseconds after its first item was added. Batches are
+ * processed one at a time, in the order they were created, either by the thread that filled the
+ * batch or by the scheduler thread.
+ *
+ * @param <T> the type of the batched items.
+ */
+@Slf4j
+public class Batcher<T> implements AutoCloseable {
+  private final int maxSize;
+  private final long flushInterval;
+  private final Consumer<List<T>> processor;
+  private final ScheduledExecutorService scheduler;
+  private final Queue<List<T>> pendingBatches = new ArrayDeque<>();
+  private final Object processLock = new Object();
+  private List<T> buffer;
+  private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * @param maxSize the maximum number of items in a batch.
+   * @param flushInterval the maximum time in milliseconds an item waits for its batch to be full.
+   *     If 0 or less, batches are only processed when full or when {@link #flush()} is called.
+   * @param processor the batch processor. It must handle the processing errors.
+   * @param scheduler the scheduler used to flush the batches that are not full in time.
+   */
+  public Batcher(
+      int maxSize,
+      long flushInterval,
+      Consumer<List<T>> processor,
+      ScheduledExecutorService scheduler) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1, got " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.flushInterval = flushInterval;
+    this.processor = processor;
+    this.scheduler = scheduler;
+    this.buffer = new ArrayList<>(maxSize);
+  }
+
+  /** Adds an item to the current batch and processes the batch if it is full. */
+  public void add(T item) {
+    synchronized (this) {
+      buffer.add(item);
+      if (buffer.size() >= maxSize) {
+        enqueueBatch();
+      } else if (flushInterval > 0 && scheduledFlush == null) {
+        scheduledFlush = scheduler.schedule(this::flush, flushInterval, TimeUnit.MILLISECONDS);
+      }
+    }
+    processPendingBatches();
+  }
+
+  /** Processes the current batch even if it is not full. */
+  public void flush() {
+    synchronized (this) {
+      if (!buffer.isEmpty()) {
+        enqueueBatch();
+      }
+    }
+    processPendingBatches();
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+
+  private void enqueueBatch() {
+    pendingBatches.add(buffer);
+    buffer = new ArrayList<>(maxSize);
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+  }
+
+  private void processPendingBatches() {
+    synchronized (processLock) {
+      while (true) {
+        List<T> batch;
+        synchronized (this) {
+          batch = pendingBatches.poll();
+        }
+        if (batch == null) {
+          return;
+        }
+        try {
+          processor.accept(batch);
+        } catch (RuntimeException e) {
+          log.error("Error while processing a batch of {} items", batch.size(), e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericArray;
+
+/**
+ * An Avro array of <code>float</code> or <code>double</code> backed by a primitive <code>float[]
+ * </code>, used for the embedding vectors. The values are only boxed when read through the {@link
+ * java.util.List} interface, as {@link Float} or {@link Double} depending on the element schema,
+ * and {@link FloatArrayDatumWriter} serializes them directly from the primitive array.
+ */
+public class FloatArray extends AbstractList<Number> implements GenericArray<Number>, RandomAccess {
+  private final Schema schema;
+  private final float[] values;
+  private final boolean doubles;
+
+  /**
+   * @param schema the array schema, with a <code>float</code> or <code>double</code> element type.
+   * @param values the values of the array, not copied.
+   */
+  public FloatArray(Schema schema, float[] values) {
+    Schema.Type elementType = schema.getElementType().getType();
+    if (elementType != Schema.Type.FLOAT && elementType != Schema.Type.DOUBLE) {
+      throw new IllegalArgumentException(
+          "Expected an array of float or double, got an array of " + elementType);
+    }
+    this.schema = schema;
+    this.values = values;
+    this.doubles = elementType == Schema.Type.DOUBLE;
+  }
+
+  /** @return the primitive values of the array, not copied. */
+  public float[] getValues() {
+    return values;
+  }
+
+  @Override
+  public Number get(int index) {
+    float value = values[index];
+    if (doubles) {
+      return (double) value;
+    }
+    return value;
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public Schema getSchema() {
+    return schema;
+  }
+
+  @Override
+  public Number peek() {
+    return null;
+  }
+
+  @Override
+  public void reverse() {
+    for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+      float value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.io.IOException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.Encoder;
+
+/**
+ * A {@link GenericDatumWriter} that writes the {@link FloatArray} values directly from their
+ * primitive array instead of iterating over boxed values.
+ */
+public class FloatArrayDatumWriter<D> extends GenericDatumWriter<D> {
+
+  public FloatArrayDatumWriter(Schema schema, GenericData data) {
+    super(schema, data);
+  }
+
+  @Override
+  protected void writeArray(Schema schema, Object datum, Encoder out) throws IOException {
+    Schema.Type elementType = schema.getElementType().getType();
+    if (!(datum instanceof FloatArray)
+        || (elementType != Schema.Type.FLOAT && elementType != Schema.Type.DOUBLE)) {
+      super.writeArray(schema, datum, out);
+      return;
+    }
+    float[] values = ((FloatArray) datum).getValues();
+    boolean doubles = elementType == Schema.Type.DOUBLE;
+    out.writeArrayStart();
+    out.setItemCount(values.length);
+    for (float value : values) {
+      out.startItem();
+      if (doubles) {
+        out.writeDouble(value);
+      } else {
+        out.writeFloat(value);
+      }
+    }
+    out.writeArrayEnd();
+  }
+}
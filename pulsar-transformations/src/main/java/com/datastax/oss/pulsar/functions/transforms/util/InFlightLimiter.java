@@ -0,0 +1,119 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of asynchronous operations in flight. An operation submitted when <code>
+ * maxInFlight</code> operations are running is queued, without blocking the caller, and started
+ * when a running operation completes.
+ *
+ * <p>The queued operations are started in order by a single thread at a time, in a loop, so that a
+ * chain of operations failing synchronously doesn't grow the stack. The queue is not bounded: the
+ * callers bound the number of pending operations, eg. the Pulsar runtime limits the records in
+ * flight to the maximum number of pending async requests of the function.
+ */
+public class InFlightLimiter {
+  private final int maxInFlight;
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+  private int inFlight;
+  private boolean draining;
+
+  public InFlightLimiter(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException(
+          "Max in-flight operations must be at least 1, got " + maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Starts the operation now or once a running operation completes.
+   *
+   * @param operation starts the operation and returns its result.
+   * @return the result of the operation.
+   */
+  public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> operation) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    synchronized (this) {
+      waiting.add(() -> start(operation, result));
+    }
+    drain();
+    return result;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized int getWaiting() {
+    return waiting.size();
+  }
+
+  private <T> void start(Supplier<CompletableFuture<T>> operation, CompletableFuture<T> result) {
+    CompletableFuture<T> future;
+    try {
+      future = operation.get();
+    } catch (Throwable e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+    future.whenComplete(
+        (value, error) -> {
+          release();
+          if (error != null) {
+            result.completeExceptionally(error);
+          } else {
+            result.complete(value);
+          }
+        });
+  }
+
+  private void release() {
+    synchronized (this) {
+      inFlight--;
+    }
+    drain();
+  }
+
+  /**
+   * Starts the queued operations while there are free slots. If another thread, or the current
+   * thread up the stack, is already starting them, it will start the new ones.
+   */
+  private void drain() {
+    synchronized (this) {
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+    while (true) {
+      Runnable next;
+      synchronized (this) {
+        next = inFlight < maxInFlight ? waiting.poll() : null;
+        if (next == null) {
+          draining = false;
+          return;
+        }
+        inFlight++;
+      }
+      next.run();
+    }
+  }
+}
@@ -20,9 +20,11 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -30,7 +32,6 @@ import org.apache.avro.Conversion;
 import org.apache.avro.Conversions;
 import org.apache.avro.Schema;
 import org.apache.avro.data.TimeConversions;
-import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericFixed;
 import org.apache.avro.generic.GenericRecord;
 
@@ -73,6 +74,12 @@ public class JsonConverter {
       case BOOLEAN:
         return jsonNodeFactory.booleanNode((Boolean) value);
       case BYTES:
+        if (value instanceof ByteBuffer) {
+          ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+          byte[] bytes = new byte[buffer.remaining()];
+          buffer.get(bytes);
+          return jsonNodeFactory.binaryNode(bytes);
+        }
         return jsonNodeFactory.binaryNode((byte[]) value);
       case FIXED:
         return jsonNodeFactory.binaryNode(((GenericFixed) value).bytes());
@@ -85,8 +92,8 @@ public class JsonConverter {
           Schema elementSchema = schema.getElementType();
           ArrayNode arrayNode = jsonNodeFactory.arrayNode();
           Object[] iterable;
-          if (value instanceof GenericData.Array) {
-            iterable = ((GenericData.Array) value).toArray();
+          if (value instanceof Collection) {
+            iterable = ((Collection<?>) value).toArray();
           } else {
             iterable = (Object[]) value;
           }
@@ -0,0 +1,248 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread-safe cache bounded to <code>maxSize</code> entries that evicts the least recently used
+ * entry when full. It keeps count of the hits, misses, evictions and expirations.
+ *
+ * <p>If a time-to-live is set, an entry expires <code>ttlMillis</code> milliseconds after it was
+ * put in the cache. Expired entries are removed when they are read and when the cache is full.
+ *
+ * <p>Values are computed outside of the cache lock so that a slow computation doesn't block the
+ * readers of other keys. Two threads missing the same key may compute it both, the first value put
+ * in the cache wins.
+ */
+public class LruCache<K, V> {
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final LinkedHashMap<K, CachedValue<V>> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  public LruCache(int maxSize) {
+    this(maxSize, 0);
+  }
+
+  /**
+   * @param maxSize the maximum number of entries.
+   * @param ttlMillis the time-to-live of the entries in milliseconds. If 0, the entries don't
+   *     expire.
+   */
+  public LruCache(int maxSize, long ttlMillis) {
+    this(maxSize, ttlMillis, System::currentTimeMillis);
+  }
+
+  /**
+   * @param maxSize the maximum number of entries.
+   * @param ttlMillis the time-to-live of the entries in milliseconds. If 0, the entries don't
+   *     expire.
+   * @param clock the wall clock in milliseconds used to expire the entries.
+   */
+  public LruCache(int maxSize, long ttlMillis, LongSupplier clock) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+    }
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must not be negative, got " + ttlMillis);
+    }
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+            if (size() > LruCache.this.maxSize) {
+              if (eldest.getValue().isExpired(clock)) {
+                expirations.increment();
+              } else {
+                evictions.increment();
+              }
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /** @return the cached value or null if the key is absent or expired. */
+  public V get(K key) {
+    V value = null;
+    synchronized (entries) {
+      CachedValue<V> entry = entries.get(key);
+      if (entry != null) {
+        if (entry.isExpired(clock)) {
+          entries.remove(key);
+          expirations.increment();
+        } else {
+          value = entry.value;
+        }
+      }
+    }
+    if (value == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return value;
+  }
+
+  public void put(K key, V value) {
+    put(key, value, expirationTime());
+  }
+
+  /**
+   * Puts an entry that expires at the given time, eg. to restore an entry saved with {@link
+   * #forEach(EntryConsumer)}.
+   *
+   * @param expiresAt the expiration time in milliseconds of the clock, or {@link Long#MAX_VALUE} if
+   *     the entry doesn't expire.
+   */
+  public void put(K key, V value, long expiresAt) {
+    synchronized (entries) {
+      entries.put(key, new CachedValue<>(value, expiresAt));
+    }
+  }
+
+  /**
+   * Gets the cached value of the key or computes it and caches it if absent. Null values are not
+   * cached.
+   */
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    V value = get(key);
+    if (value != null) {
+      return value;
+    }
+    value = mappingFunction.apply(key);
+    if (value == null) {
+      return null;
+    }
+    CachedValue<V> entry = new CachedValue<>(value, expirationTime());
+    synchronized (entries) {
+      CachedValue<V> previous = entries.putIfAbsent(key, entry);
+      if (previous != null && !previous.isExpired(clock)) {
+        return previous.value;
+      }
+      entries.put(key, entry);
+      return value;
+    }
+  }
+
+  /**
+   * Calls the consumer with the entries that are not expired, from the least recently used to the
+   * most recently used. The consumer is called outside of the cache lock.
+   */
+  public void forEach(EntryConsumer<? super K, ? super V> consumer) {
+    List<Map.Entry<K, CachedValue<V>>> snapshot;
+    synchronized (entries) {
+      snapshot = new ArrayList<>(entries.size());
+      for (Iterator<Map.Entry<K, CachedValue<V>>> it = entries.entrySet().iterator();
+          it.hasNext(); ) {
+        Map.Entry<K, CachedValue<V>> entry = it.next();
+        if (entry.getValue().isExpired(clock)) {
+          it.remove();
+          expirations.increment();
+        } else {
+          snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+      }
+    }
+    for (Map.Entry<K, CachedValue<V>> entry : snapshot) {
+      consumer.accept(entry.getKey(), entry.getValue().value, entry.getValue().expiresAt);
+    }
+  }
+
+  public void invalidate(K key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public long getExpirationCount() {
+    return expirations.sum();
+  }
+
+  private long expirationTime() {
+    return ttlMillis > 0 ? clock.getAsLong() + ttlMillis : NEVER;
+  }
+
+  /** Consumes an entry of the cache with its expiration time. */
+  @FunctionalInterface
+  public interface EntryConsumer<K, V> {
+    void accept(K key, V value, long expiresAt);
+  }
+
+  private static class CachedValue<V> {
+    private final V value;
+    private final long expiresAt;
+
+    CachedValue(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(LongSupplier clock) {
+      return expiresAt != NEVER && clock.getAsLong() >= expiresAt;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import lombok.Value;
+
+/**
+ * Caches the objects derived from a schema by a transformation: derived Avro schemas, writers,
+ * field accessors or Pulsar schemas. The entries are keyed by the source schema and a signature of
+ * the transformation (eg. the fields that are added or dropped), so that a transformation producing
+ * a different output for the same input schema doesn't get a stale result.
+ *
+ * <p>The steps share a single instance bounded to {@link #DEFAULT_MAX_SIZE} entries so that the
+ * memory used stays bounded when the upstream schemas evolve. The lookups are lock-free reads of a
+ * {@link ConcurrentHashMap}, so the pipeline threads of all the functions of the JVM don't contend
+ * on the cache. The eviction is an approximate LRU: when the cache is full, a single thread evicts
+ * the {@link #EVICTION_RATIO} least recently used entries in one pass, the other threads don't wait
+ * for it.
+ */
+public class SchemaCache {
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  /** The share of the entries evicted at once, so that an eviction pass is amortized. */
+  static final double EVICTION_RATIO = 0.1;
+
+  private static final SchemaCache SHARED = new SchemaCache(DEFAULT_MAX_SIZE);
+
+  private final int maxSize;
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  // incremented when an entry is added, the entries read since then are the most recently used
+  private final AtomicLong generation = new AtomicLong();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public SchemaCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  /** @return the cache shared by the steps. */
+  public static SchemaCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Gets the result of a transformation of a schema, computing it if absent. The result is computed
+   * outside of any lock, two threads missing the same key may both compute it and the first result
+   * put in the cache wins.
+   *
+   * @param schema the source schema, compared with {@link Object#equals(Object)}.
+   * @param signature an object with value semantics identifying the transformation and all the
+   *     parameters that affect its result.
+   * @param derivation the transformation to apply on the source schema.
+   * @return the result of the transformation.
+   */
+  @SuppressWarnings("unchecked")
+  public <S, T> T computeIfAbsent(S schema, Object signature, Function<? super S, T> derivation) {
+    Key key = new Key(schema, signature);
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      hits.increment();
+      long current = generation.get();
+      // avoid writing to the entry when it was already read in this generation
+      if (entry.lastAccess != current) {
+        entry.lastAccess = current;
+      }
+      return (T) entry.value;
+    }
+    misses.increment();
+    T value = derivation.apply(schema);
+    Entry previous = entries.putIfAbsent(key, new Entry(value, generation.incrementAndGet()));
+    if (previous != null) {
+      return (T) previous.value;
+    }
+    if (entries.size() > maxSize) {
+      evict();
+    }
+    return value;
+  }
+
+  private void evict() {
+    // the entries added while another thread evicts are evicted by it once it is done
+    while (entries.size() > maxSize && evictionLock.tryLock()) {
+      try {
+        evictLeastRecentlyUsed();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void evictLeastRecentlyUsed() {
+    int size = entries.size();
+    if (size <= maxSize) {
+      return;
+    }
+    int count = size - maxSize + (int) (maxSize * EVICTION_RATIO);
+    // the access times are copied as they can change while sorting
+    List<Candidate> candidates = new ArrayList<>(size);
+    entries.forEach((key, entry) -> candidates.add(new Candidate(key, entry, entry.lastAccess)));
+    candidates.sort(Comparator.comparingLong(Candidate::getLastAccess));
+    for (int i = 0; i < count && i < candidates.size(); i++) {
+      Candidate candidate = candidates.get(i);
+      if (entries.remove(candidate.getKey(), candidate.getEntry())) {
+        evictions.increment();
+      }
+    }
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @Value
+  private static class Key {
+    Object schema;
+    Object signature;
+  }
+
+  @Value
+  private static class Candidate {
+    Key key;
+    Entry entry;
+    long lastAccess;
+  }
+
+  private static class Entry {
+    private final Object value;
+    private volatile long lastAccess;
+
+    Entry(Object value, long lastAccess) {
+      this.value = value;
+      this.lastAccess = lastAccess;
+    }
+  }
+}
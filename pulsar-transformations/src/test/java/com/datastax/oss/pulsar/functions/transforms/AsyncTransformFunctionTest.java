@@ -0,0 +1,141 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.util.Utf8;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.client.api.schema.KeyValueSchema;
+import org.apache.pulsar.client.impl.schema.AutoConsumeSchema;
+import org.apache.pulsar.common.schema.KeyValue;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Record;
+import org.testng.annotations.Test;
+
+public class AsyncTransformFunctionTest {
+
+  @Test
+  void testWithoutBatching() throws Exception {
+    AsyncTransformFunction function =
+        initialize("{'steps': [{'type': 'drop-fields', 'fields': ['valueField1']}]}");
+
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    CompletableFuture<Record<GenericObject>> result =
+        function.process(record.getValue(), new Utils.TestContext(record, Map.of()));
+
+    assertValueFields(result.get(10, TimeUnit.SECONDS), "valueField2", "valueField3");
+    function.close();
+  }
+
+  @Test
+  void testBatchSize() throws Exception {
+    AsyncTransformFunction function =
+        initialize(
+            "{'steps': [{'type': 'cast', 'schema-type': 'STRING'}, "
+                + "{'type': 'drop', 'when': 'value == \\'drop-me\\''}], "
+                + "'batch-size': 3, 'flush-interval': 0}");
+
+    List<CompletableFuture<Record<GenericObject>>> results = new ArrayList<>();
+    for (String value : List.of("value1", "drop-me", "value3")) {
+      Record<GenericObject> record = createStringRecord(value, "key-" + value);
+      results.add(function.process(record.getValue(), new Utils.TestContext(record, Map.of())));
+      if (results.size() < 3) {
+        assertFalse(results.get(results.size() - 1).isDone());
+      }
+    }
+
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    assertEquals(results.get(0).get().getValue(), "value1");
+    assertEquals(results.get(0).get().getKey().orElseThrow(), "key-value1");
+    assertNull(results.get(1).get());
+    assertEquals(results.get(2).get().getValue(), "value3");
+    assertEquals(results.get(2).get().getKey().orElseThrow(), "key-value3");
+    function.close();
+  }
+
+  @Test
+  void testFlushInterval() throws Exception {
+    AsyncTransformFunction function =
+        initialize(
+            "{'steps': [{'type': 'drop-fields', 'fields': ['valueField1']}], "
+                + "'batch-size': 100, 'flush-interval': 10}");
+
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    CompletableFuture<Record<GenericObject>> result =
+        function.process(record.getValue(), new Utils.TestContext(record, Map.of()));
+
+    assertValueFields(result.get(10, TimeUnit.SECONDS), "valueField2", "valueField3");
+    function.close();
+  }
+
+  @Test
+  void testFlushOnClose() throws Exception {
+    AsyncTransformFunction function =
+        initialize(
+            "{'steps': [{'type': 'cast', 'schema-type': 'STRING'}], "
+                + "'batch-size': 100, 'flush-interval': 0}");
+
+    Record<GenericObject> record = createStringRecord("value1", "key1");
+    CompletableFuture<Record<GenericObject>> result =
+        function.process(record.getValue(), new Utils.TestContext(record, Map.of()));
+    assertFalse(result.isDone());
+
+    function.close();
+    assertEquals(result.get(10, TimeUnit.SECONDS).getValue(), "value1");
+  }
+
+  private static AsyncTransformFunction initialize(String userConfig) throws Exception {
+    Map<String, Object> config =
+        new Gson()
+            .fromJson(
+                userConfig.replace("'", "\""), new TypeToken<Map<String, Object>>() {}.getType());
+    AsyncTransformFunction function = new AsyncTransformFunction();
+    function.initialize(new Utils.TestContext(null, config));
+    return function;
+  }
+
+  private static Record<GenericObject> createStringRecord(String value, String key) {
+    return new Utils.TestRecord<>(
+        Schema.STRING,
+        AutoConsumeSchema.wrapPrimitiveObject(value, SchemaType.STRING, new byte[] {}),
+        key);
+  }
+
+  private static void assertValueFields(Record<?> outputRecord, String... fields) throws Exception {
+    KeyValue<?, ?> keyValue = (KeyValue<?, ?>) outputRecord.getValue();
+    GenericData.Record value =
+        Utils.getRecord(
+            ((KeyValueSchema<?, ?>) outputRecord.getSchema()).getValueSchema(),
+            (byte[]) keyValue.getValue());
+    assertEquals(value.getSchema().getFields().size(), fields.length);
+    for (String field : fields) {
+      assertTrue(value.get(field) instanceof Utf8);
+    }
+  }
+}
@@ -18,18 +18,24 @@ package com.datastax.oss.pulsar.functions.transforms;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 
+import com.azure.ai.openai.OpenAIAsyncClient;
 import com.azure.ai.openai.OpenAIClient;
 import com.azure.ai.openai.models.ChatCompletions;
 import com.azure.ai.openai.models.ChatCompletionsOptions;
 import com.azure.ai.openai.models.ChatMessage;
 import com.azure.ai.openai.models.ChatRole;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
 import com.datastax.oss.pulsar.functions.transforms.model.config.ChatCompletionsConfig;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -54,6 +60,7 @@ import org.apache.pulsar.functions.api.Record;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import reactor.core.publisher.Mono;
 
 public class ChatCompletionsStepTest {
 
@@ -328,4 +335,118 @@ public class ChatCompletionsStepTest {
     assertEquals(schema.getField("chat").schema().getType(), org.apache.avro.Schema.Type.STRING);
     assertEquals(((JsonNode) messageValue.getKey()).get("chat").asText(), "result");
   }
+
+  @Test
+  void testProcessAsync() throws Exception {
+    OpenAIAsyncClient openAIAsyncClient = mock(OpenAIAsyncClient.class);
+    when(openAIAsyncClient.getChatCompletions(eq("test-model"), any()))
+        .thenReturn(Mono.just(mapper.readValue(COMPLETION, ChatCompletions.class)));
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("content")));
+    config.setFieldName("value.chat");
+    Record<?> outputRecord =
+        Utils.processAsync(
+            Utils.createTestAvroKeyValueRecord(),
+            new ChatCompletionsStep(openAIClient, openAIAsyncClient, config));
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+
+    GenericData.Record valueAvroRecord =
+        Utils.getRecord(messageSchema.getValueSchema(), (byte[]) messageValue.getValue());
+    assertEquals(valueAvroRecord.get("chat"), new Utf8("result"));
+    verify(openAIClient, never()).getChatCompletions(any(), any());
+  }
+
+  @Test
+  void testCache() throws Exception {
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("{{ value }}")));
+    config.getCache().setEnabled(true);
+    ChatCompletionsStep step = new ChatCompletionsStep(openAIClient, config);
+    StepMetrics metrics = new StepMetrics("test", null, 0, false);
+    step.setMetrics(metrics);
+
+    assertEquals(Utils.process(createStringRecord("a"), step).getValue(), "result");
+    assertEquals(Utils.process(createStringRecord("a"), step).getValue(), "result");
+    assertEquals(Utils.process(createStringRecord("b"), step).getValue(), "result");
+
+    verify(openAIClient, times(2)).getChatCompletions(eq("test-model"), any());
+    assertEquals(metrics.getCacheHitCount(), 1);
+    assertEquals(metrics.getCacheMissCount(), 2);
+  }
+
+  @Test
+  void testCacheDisabled() throws Exception {
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("{{ value }}")));
+    ChatCompletionsStep step = new ChatCompletionsStep(openAIClient, config);
+
+    Utils.process(createStringRecord("a"), step);
+    Utils.process(createStringRecord("a"), step);
+
+    verify(openAIClient, times(2)).getChatCompletions(eq("test-model"), any());
+  }
+
+  @Test
+  void testCacheKeyIncludesOptions() throws Exception {
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("{{ value }}")));
+    config.getCache().setEnabled(true);
+    ChatCompletionsStep step = new ChatCompletionsStep(openAIClient, config);
+    Utils.process(createStringRecord("a"), step);
+
+    config.setTemperature(0.5);
+    ChatCompletionsStep otherStep = new ChatCompletionsStep(openAIClient, config);
+    Utils.process(createStringRecord("a"), otherStep);
+    Utils.process(createStringRecord("a"), otherStep);
+
+    verify(openAIClient, times(2)).getChatCompletions(eq("test-model"), any());
+  }
+
+  @Test
+  void testCacheAsync() throws Exception {
+    OpenAIAsyncClient openAIAsyncClient = mock(OpenAIAsyncClient.class);
+    when(openAIAsyncClient.getChatCompletions(eq("test-model"), any()))
+        .thenReturn(Mono.just(mapper.readValue(COMPLETION, ChatCompletions.class)));
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("{{ value }}")));
+    config.getCache().setEnabled(true);
+    ChatCompletionsStep step = new ChatCompletionsStep(openAIClient, openAIAsyncClient, config);
+
+    assertEquals(Utils.processAsync(createStringRecord("a"), step).getValue(), "result");
+    assertEquals(Utils.processAsync(createStringRecord("a"), step).getValue(), "result");
+
+    verify(openAIAsyncClient, times(1)).getChatCompletions(eq("test-model"), any());
+  }
+
+  @Test
+  void testCachePersistence() throws Exception {
+    Path path = Files.createTempDirectory("chat-completions").resolve("cache.jsonl");
+    ChatCompletionsConfig config = new ChatCompletionsConfig();
+    config.setModel("test-model");
+    config.setMessages(List.of(new ChatMessage(ChatRole.USER).setContent("{{ value }}")));
+    config.getCache().setEnabled(true);
+    config.getCache().setPath(path.toString());
+    ChatCompletionsStep step = new ChatCompletionsStep(openAIClient, config);
+    Utils.process(createStringRecord("a"), step);
+    step.close();
+
+    ChatCompletionsStep restartedStep = new ChatCompletionsStep(openAIClient, config);
+    assertEquals(Utils.process(createStringRecord("a"), restartedStep).getValue(), "result");
+    restartedStep.close();
+
+    verify(openAIClient, times(1)).getChatCompletions(eq("test-model"), any());
+  }
+
+  private static Record<GenericObject> createStringRecord(String value) {
+    return Utils.TestRecord.<GenericObject>builder()
+        .value(AutoConsumeSchema.wrapPrimitiveObject(value, SchemaType.STRING, new byte[] {}))
+        .schema(Schema.STRING)
+        .build();
+  }
 }
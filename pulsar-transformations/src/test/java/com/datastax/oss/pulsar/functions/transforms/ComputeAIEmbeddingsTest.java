@@ -16,13 +16,23 @@
 package com.datastax.oss.pulsar.functions.transforms;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
+import com.datastax.oss.pulsar.functions.transforms.embeddings.CachedEmbeddingsService;
+import com.datastax.oss.pulsar.functions.transforms.embeddings.EmbeddingsCache;
+import com.datastax.oss.pulsar.functions.transforms.embeddings.EmbeddingsService;
 import com.datastax.oss.pulsar.functions.transforms.embeddings.MockEmbeddingsService;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.apache.avro.generic.GenericData;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.schema.GenericObject;
@@ -31,6 +41,7 @@ import org.apache.pulsar.client.api.schema.GenericSchema;
 import org.apache.pulsar.client.api.schema.KeyValueSchema;
 import org.apache.pulsar.client.api.schema.RecordSchemaBuilder;
 import org.apache.pulsar.client.api.schema.SchemaBuilder;
+import org.apache.pulsar.client.impl.schema.AutoConsumeSchema;
 import org.apache.pulsar.common.schema.KeyValue;
 import org.apache.pulsar.common.schema.SchemaInfo;
 import org.apache.pulsar.common.schema.SchemaType;
@@ -73,6 +84,31 @@ public class ComputeAIEmbeddingsTest {
     assertEquals(outputRecord.getSchema().getSchemaInfo().getType(), SchemaType.AVRO);
   }
 
+  @Test
+  void testFloatElementType() throws Exception {
+    MockEmbeddingsService mockService = new MockEmbeddingsService();
+    mockService.setEmbeddingsForText("key1", Arrays.asList(1.5d, 2.5d, 3.5d));
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep(
+            "{{ key.keyField1 }}",
+            "value.newField",
+            mockService,
+            10,
+            0,
+            org.apache.avro.Schema.Type.FLOAT);
+
+    Record<?> outputRecord = Utils.process(Utils.createTestAvroKeyValueRecord(), step);
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+
+    GenericData.Record valueAvroRecord =
+        Utils.getRecord(messageSchema.getValueSchema(), (byte[]) messageValue.getValue());
+    assertEquals(
+        valueAvroRecord.getSchema().getField("newField").schema().getElementType().getType(),
+        org.apache.avro.Schema.Type.FLOAT);
+    assertEquals(valueAvroRecord.get("newField"), Arrays.asList(1.5f, 2.5f, 3.5f));
+  }
+
   @Test
   void testKeyValueAvro() throws Exception {
     MockEmbeddingsService mockService = new MockEmbeddingsService();
@@ -91,6 +127,200 @@ public class ComputeAIEmbeddingsTest {
     assertEquals(outputRecord.getSchema().getSchemaInfo().getType(), SchemaType.KEY_VALUE);
   }
 
+  @Test
+  void testProcessBatch() throws Exception {
+    MockEmbeddingsService mockService = new MockEmbeddingsService();
+    mockService.setEmbeddingsForText("value1", Arrays.asList(1.0d, 2.0d));
+    mockService.setEmbeddingsForText("value2", Arrays.asList(3.0d, 4.0d));
+    mockService.setEmbeddingsForText("value3", Arrays.asList(5.0d, 6.0d));
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep("{{ value }}", "value", mockService, 2, 0);
+
+    List<TransformContext> transformContexts = new ArrayList<>();
+    for (String value : List.of("value1", "value2", "value3")) {
+      Record<GenericObject> record =
+          new Utils.TestRecord<>(
+              Schema.STRING,
+              AutoConsumeSchema.wrapPrimitiveObject(value, SchemaType.STRING, new byte[] {}),
+              "test-key");
+      transformContexts.add(
+          new TransformContext(
+              new Utils.TestContext(record, new HashMap<>()), record.getValue().getNativeObject()));
+    }
+    step.processBatch(transformContexts);
+
+    assertEquals(mockService.getCalls(), List.of(List.of("value1", "value2"), List.of("value3")));
+    assertEquals(transformContexts.get(0).getValueObject(), Arrays.asList(1.0d, 2.0d));
+    assertEquals(transformContexts.get(1).getValueObject(), Arrays.asList(3.0d, 4.0d));
+    assertEquals(transformContexts.get(2).getValueObject(), Arrays.asList(5.0d, 6.0d));
+  }
+
+  @Test
+  void testCache() throws Exception {
+    MockEmbeddingsService mockService = new MockEmbeddingsService();
+    mockService.setEmbeddingsForText("value1", Arrays.asList(1.5d, 2.5d));
+    mockService.setEmbeddingsForText("value2", Arrays.asList(3.5d, 4.5d));
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep(
+            "{{ value }}",
+            "value",
+            new CachedEmbeddingsService(
+                mockService, "test-service", "test-model", new EmbeddingsCache(10, 0)),
+            10,
+            0);
+    StepMetrics metrics = new StepMetrics("test", null, 0, false);
+    step.setMetrics(metrics);
+
+    List<TransformContext> transformContexts = createStringContexts("value1", "value2", "value1");
+    step.processBatch(transformContexts);
+    List<TransformContext> cachedTransformContexts = createStringContexts("value2", "value1");
+    step.processBatch(cachedTransformContexts);
+
+    assertEquals(mockService.getCalls(), List.of(List.of("value1", "value2")));
+    assertEquals(transformContexts.get(0).getValueObject(), Arrays.asList(1.5d, 2.5d));
+    assertEquals(transformContexts.get(1).getValueObject(), Arrays.asList(3.5d, 4.5d));
+    assertEquals(transformContexts.get(2).getValueObject(), Arrays.asList(1.5d, 2.5d));
+    assertEquals(cachedTransformContexts.get(0).getValueObject(), Arrays.asList(3.5d, 4.5d));
+    assertEquals(cachedTransformContexts.get(1).getValueObject(), Arrays.asList(1.5d, 2.5d));
+    assertEquals(metrics.getCacheHitCount(), 2);
+    assertEquals(metrics.getCacheMissCount(), 3);
+  }
+
+  private static List<TransformContext> createStringContexts(String... values) {
+    List<TransformContext> transformContexts = new ArrayList<>();
+    for (String value : values) {
+      Record<GenericObject> record =
+          new Utils.TestRecord<>(
+              Schema.STRING,
+              AutoConsumeSchema.wrapPrimitiveObject(value, SchemaType.STRING, new byte[] {}),
+              "test-key");
+      transformContexts.add(
+          new TransformContext(
+              new Utils.TestContext(record, new HashMap<>()), record.getValue().getNativeObject()));
+    }
+    return transformContexts;
+  }
+
+  @Test
+  void testProcessAsync() throws Exception {
+    MockEmbeddingsService mockService = new MockEmbeddingsService();
+    mockService.setEmbeddingsForText("value1", Arrays.asList(1.0d, 2.0d));
+    mockService.setEmbeddingsForText("value2", Arrays.asList(3.0d, 4.0d));
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep("{{ value }}", "value", mockService, 2, 60000);
+
+    List<TransformContext> transformContexts = new ArrayList<>();
+    List<CompletableFuture<Void>> results = new ArrayList<>();
+    for (String value : List.of("value1", "value2")) {
+      Record<GenericObject> record =
+          new Utils.TestRecord<>(
+              Schema.STRING,
+              AutoConsumeSchema.wrapPrimitiveObject(value, SchemaType.STRING, new byte[] {}),
+              "test-key");
+      TransformContext transformContext =
+          new TransformContext(
+              new Utils.TestContext(record, new HashMap<>()), record.getValue().getNativeObject());
+      transformContexts.add(transformContext);
+      results.add(step.processAsync(transformContext));
+    }
+    assertTrue(results.get(0).isDone());
+
+    assertEquals(mockService.getCalls(), List.of(List.of("value1", "value2")));
+    assertEquals(transformContexts.get(0).getValueObject(), Arrays.asList(1.0d, 2.0d));
+    assertEquals(transformContexts.get(1).getValueObject(), Arrays.asList(3.0d, 4.0d));
+    step.close();
+  }
+
+  @Test(timeOut = 10_000)
+  void testProcessBatchAsync() throws Exception {
+    List<CompletableFuture<List<float[]>>> calls = new ArrayList<>();
+    EmbeddingsService pendingService =
+        new EmbeddingsService() {
+          @Override
+          public List<List<Double>> computeEmbeddings(List<String> texts) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+            CompletableFuture<List<float[]>> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+          }
+        };
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep("{{ value }}", "value", pendingService, 10, 0);
+
+    List<TransformContext> firstBatch = createStringContexts("value1", "value2");
+    List<TransformContext> secondBatch = createStringContexts("value3");
+    CompletableFuture<Void> first = step.processBatchAsync(firstBatch);
+    CompletableFuture<Void> second = step.processBatchAsync(secondBatch);
+
+    // both batches wait for the service at the same time
+    assertEquals(calls.size(), 2);
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+
+    calls.get(1).complete(List.of(new float[] {3.0f}));
+    second.get();
+    assertFalse(first.isDone());
+    calls.get(0).complete(List.of(new float[] {1.0f}, new float[] {2.0f}));
+    first.get();
+
+    assertEquals(firstBatch.get(0).getValueObject(), Arrays.asList(1.0d));
+    assertEquals(firstBatch.get(1).getValueObject(), Arrays.asList(2.0d));
+    assertEquals(secondBatch.get(0).getValueObject(), Arrays.asList(3.0d));
+    step.close();
+  }
+
+  @Test
+  void testProcessBatchError() {
+    EmbeddingsService failingService =
+        texts -> {
+          throw new IllegalStateException("service unavailable");
+        };
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep("{{ value }}", "value", failingService, 2, 0);
+
+    Record<GenericObject> record =
+        new Utils.TestRecord<>(
+            Schema.STRING,
+            AutoConsumeSchema.wrapPrimitiveObject("value1", SchemaType.STRING, new byte[] {}),
+            "test-key");
+    IllegalStateException e =
+        expectThrows(IllegalStateException.class, () -> Utils.process(record, step));
+    assertEquals(e.getMessage(), "service unavailable");
+  }
+
+  @Test(timeOut = 10_000)
+  void testProcessBatchSynchronousAsyncError() {
+    EmbeddingsService failingService =
+        new EmbeddingsService() {
+          @Override
+          public List<List<Double>> computeEmbeddings(List<String> texts) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public CompletableFuture<List<float[]>> computeVectorsAsync(List<String> texts) {
+            throw new IllegalStateException("service unavailable");
+          }
+        };
+    ComputeAIEmbeddingsStep step =
+        new ComputeAIEmbeddingsStep("{{ value }}", "value", failingService, 2, 0);
+
+    List<TransformContext> transformContexts = createStringContexts("value1", "value2", "value3");
+    IllegalStateException e =
+        expectThrows(IllegalStateException.class, () -> step.processBatch(transformContexts));
+    assertEquals(e.getMessage(), "service unavailable");
+
+    CompletableFuture<List<float[]>> cached =
+        new CachedEmbeddingsService(
+                failingService, "test-service", "test-model", new EmbeddingsCache(10, 0))
+            .computeVectorsAsync(List.of("value1"));
+    assertTrue(cached.isCompletedExceptionally());
+  }
+
   @Test
   @Ignore("JSON not supported at the moment")
   void testJson() throws Exception {
@@ -630,6 +630,33 @@ public class ComputeStepTest {
     assertEquals(read.get("decimalFieldFromDouble"), BigDecimal.valueOf(12.23d));
   }
 
+  @Test
+  void testKeyValueJsonOutputSchemaReused() throws Exception {
+    ComputeStep step =
+        ComputeStep.builder()
+            .fields(
+                Arrays.asList(
+                    ComputeField.builder()
+                        .scopedName("value.newValueStringField")
+                        .expression("'Hotaru'")
+                        .type(ComputeFieldType.STRING)
+                        .build(),
+                    ComputeField.builder()
+                        .scopedName("key.newKeyStringField")
+                        .expression("'Hotaru'")
+                        .type(ComputeFieldType.STRING)
+                        .build()))
+            .build();
+
+    Record<?> first = Utils.process(Utils.createTestJsonKeyValueRecord(), step);
+    Record<?> second = Utils.process(Utils.createTestJsonKeyValueRecord(), step);
+
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) first.getSchema();
+    assertEquals(messageSchema.getKeySchema().getSchemaInfo().getType(), SchemaType.JSON);
+    assertEquals(messageSchema.getValueSchema().getSchemaInfo().getType(), SchemaType.JSON);
+    assertSame(second.getSchema(), first.getSchema());
+  }
+
   @Test
   void testKeyValueAvro() throws Exception {
     ComputeStep step =
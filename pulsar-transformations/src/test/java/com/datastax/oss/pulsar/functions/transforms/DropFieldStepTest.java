@@ -22,6 +22,7 @@ import static org.testng.Assert.assertSame;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.util.Utf8;
 import org.apache.pulsar.client.api.Schema;
@@ -73,6 +74,35 @@ public class DropFieldStepTest {
     assertNull(read.getSchema().getField("lastName"));
   }
 
+  @Test
+  void testAvroOutputSchemaReused() throws Exception {
+    RecordSchemaBuilder recordSchemaBuilder = SchemaBuilder.record("record");
+    recordSchemaBuilder.field("firstName").type(SchemaType.STRING);
+    recordSchemaBuilder.field("age").type(SchemaType.INT32);
+
+    SchemaInfo schemaInfo = recordSchemaBuilder.build(SchemaType.AVRO);
+    GenericSchema<GenericRecord> genericSchema = Schema.generic(schemaInfo);
+    DropFieldStep step = DropFieldStep.builder().valueFields(List.of("firstName")).build();
+
+    Record<?> outputRecord1 = Utils.process(newRecord(genericSchema, "Jane", 42), step);
+    Record<?> outputRecord2 = Utils.process(newRecord(genericSchema, "John", 43), step);
+
+    assertSame(outputRecord2.getSchema(), outputRecord1.getSchema());
+    GenericData.Record read1 =
+        Utils.getRecord(outputRecord1.getSchema(), (byte[]) outputRecord1.getValue());
+    GenericData.Record read2 =
+        Utils.getRecord(outputRecord2.getSchema(), (byte[]) outputRecord2.getValue());
+    assertEquals(read1.get("age"), 42);
+    assertEquals(read2.get("age"), 43);
+  }
+
+  private static Record<GenericObject> newRecord(
+      GenericSchema<GenericRecord> genericSchema, String firstName, int age) {
+    GenericRecord genericRecord =
+        genericSchema.newRecordBuilder().set("firstName", firstName).set("age", age).build();
+    return new Utils.TestRecord<>(genericSchema, genericRecord, "test-key");
+  }
+
   @Test
   void testKeyValueAvro() throws Exception {
     DropFieldStep step =
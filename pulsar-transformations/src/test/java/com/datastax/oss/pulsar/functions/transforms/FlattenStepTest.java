@@ -17,6 +17,7 @@ package com.datastax.oss.pulsar.functions.transforms;
 
 import static com.datastax.oss.pulsar.functions.transforms.FlattenStep.AVRO_READ_OFFSET_PROP;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 
@@ -24,6 +25,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.util.Utf8;
 import org.apache.pulsar.client.api.schema.GenericObject;
@@ -240,6 +242,52 @@ public class FlattenStepTest {
     assertValuesFlattened(valueRecord, value);
   }
 
+  @Test
+  void testFlattenedSchemaCachedPerSchemaAndDelimiter() {
+    // given
+    Schema schema = Utils.createNestedAvroRecord(3).getAvroRecord().getSchema();
+    FlattenStep step = FlattenStep.builder().build();
+
+    // when
+    FlattenStep.FlattenedSchema flattened = step.flattenSchema(schema);
+
+    // then
+    assertSame(step.flattenSchema(schema), flattened);
+    assertSame(FlattenStep.builder().build().flattenSchema(schema), flattened);
+    FlattenStep.FlattenedSchema otherDelimiter =
+        FlattenStep.builder().delimiter("__").build().flattenSchema(schema);
+    assertNotSame(otherDelimiter, flattened);
+    assertEquals(
+        otherDelimiter.getSchema().getFields().get(1).name(), "level1Record__level2String");
+  }
+
+  @Test
+  void testFlattenUnionOfRecords() {
+    // given
+    Schema first =
+        SchemaBuilder.record("first").fields().requiredString("a").requiredString("b").endRecord();
+    Schema second = SchemaBuilder.record("second").fields().requiredString("b").endRecord();
+    Schema schema =
+        SchemaBuilder.record("root")
+            .fields()
+            .name("nested")
+            .type(Schema.createUnion(first, second))
+            .noDefault()
+            .endRecord();
+    GenericData.Record nested = new GenericData.Record(second);
+    nested.put("b", "b2");
+    GenericData.Record record = new GenericData.Record(schema);
+    record.put("nested", nested);
+
+    // when
+    org.apache.avro.generic.GenericRecord flattened =
+        FlattenStep.builder().build().flattenGenericRecord(record);
+
+    // then
+    assertNull(flattened.get("nested_a"));
+    assertEquals(flattened.get("nested_b"), "b2");
+  }
+
   @Test(
     expectedExceptions = IllegalArgumentException.class,
     expectedExceptionsMessageRegExp = "Unsupported part for Flatten: invalid"
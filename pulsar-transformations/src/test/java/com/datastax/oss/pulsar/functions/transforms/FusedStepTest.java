@@ -0,0 +1,295 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.JstlPredicate;
+import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.StepPredicatePair;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.apache.avro.generic.GenericData;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.client.api.schema.KeyValueSchema;
+import org.apache.pulsar.client.impl.schema.AutoConsumeSchema;
+import org.apache.pulsar.common.schema.KeyValue;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.functions.api.Record;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class FusedStepTest {
+
+  @DataProvider(name = "stepRuns")
+  public static Object[][] stepRuns() {
+    return new Object[][] {
+      {
+        (Supplier<List<FusibleStep>>)
+            () ->
+                List.of(
+                    DropFieldStep.builder()
+                        .keyFields(List.of("keyField1"))
+                        .valueFields(List.of("valueField1"))
+                        .build(),
+                    new MergeKeyValueStep())
+      },
+      {
+        (Supplier<List<FusibleStep>>)
+            () ->
+                List.of(
+                    new MergeKeyValueStep(),
+                    DropFieldStep.builder()
+                        .keyFields(List.of("keyField2"))
+                        .valueFields(List.of("keyField1", "valueField2"))
+                        .build())
+      },
+      {
+        (Supplier<List<FusibleStep>>)
+            () ->
+                List.of(
+                    FlattenStep.builder().part("value").build(),
+                    DropFieldStep.builder().valueFields(List.of("valueField3")).build(),
+                    FlattenStep.builder().part("key").build())
+      },
+    };
+  }
+
+  @Test(dataProvider = "stepRuns")
+  void testKeyValueAvroMatchesSequential(Supplier<List<FusibleStep>> steps) throws Exception {
+    Record<?> expected = processSequentially(Utils.createTestAvroKeyValueRecord(), steps.get());
+    Record<?> actual =
+        Utils.process(Utils.createTestAvroKeyValueRecord(), new FusedStep(steps.get()));
+
+    assertKeyValueEquals(actual, expected);
+  }
+
+  @Test
+  void testNestedKeyValueAvroMatchesSequential() throws Exception {
+    Supplier<List<FusibleStep>> steps =
+        () ->
+            List.of(
+                FlattenStep.builder().build(),
+                DropFieldStep.builder()
+                    .keyFields(List.of("level1String"))
+                    .valueFields(List.of("level1Integer", "level1Record_level2String"))
+                    .build(),
+                new MergeKeyValueStep());
+
+    Record<?> expected = processSequentially(Utils.createNestedAvroKeyValueRecord(4), steps.get());
+    Record<?> actual =
+        Utils.process(Utils.createNestedAvroKeyValueRecord(4), new FusedStep(steps.get()));
+
+    assertKeyValueEquals(actual, expected);
+  }
+
+  @Test
+  void testUnwrapKey() throws Exception {
+    Supplier<List<FusibleStep>> steps =
+        () ->
+            List.of(
+                new MergeKeyValueStep(),
+                new UnwrapKeyValueStep(true),
+                DropFieldStep.builder()
+                    .keyFields(List.of("keyField1"))
+                    .valueFields(List.of("keyField2"))
+                    .build());
+
+    Record<?> expected = processSequentially(Utils.createTestAvroKeyValueRecord(), steps.get());
+    Record<?> actual =
+        Utils.process(Utils.createTestAvroKeyValueRecord(), new FusedStep(steps.get()));
+
+    assertEquals(actual.getSchema().getSchemaInfo().getType(), SchemaType.AVRO);
+    assertEquals(
+        Utils.getRecord(actual.getSchema(), (byte[]) actual.getValue()).toString(),
+        "{\"keyField1\": \"key1\", \"keyField3\": \"key3\"}");
+    assertEquals(
+        actual.getSchema().getNativeSchema().orElseThrow(),
+        expected.getSchema().getNativeSchema().orElseThrow());
+  }
+
+  @Test
+  void testUnmodifiedRecordPassedThrough() throws Exception {
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    FusedStep step =
+        new FusedStep(
+            List.of(
+                DropFieldStep.builder().keyFields(List.of("notAField")).build(),
+                FlattenStep.builder().part("unknown").build()));
+
+    // an unsupported part can't be planned: the flatten step reports the error
+    FusedStep invalidStep = step;
+    IllegalArgumentException e =
+        expectThrows(IllegalArgumentException.class, () -> Utils.process(record, invalidStep));
+    assertEquals(e.getMessage(), "Unsupported part for Flatten: unknown");
+
+    step =
+        new FusedStep(
+            List.of(
+                DropFieldStep.builder().keyFields(List.of("notAField")).build(),
+                DropFieldStep.builder().valueFields(List.of("notAField")).build()));
+    Record<?> outputRecord = Utils.process(record, step);
+    KeyValueSchema<?, ?> recordSchema = (KeyValueSchema) record.getSchema();
+    KeyValue<?, ?> recordValue = (KeyValue<?, ?>) record.getValue().getNativeObject();
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+    assertSame(messageSchema.getKeySchema(), recordSchema.getKeySchema());
+    assertSame(messageSchema.getValueSchema(), recordSchema.getValueSchema());
+    assertSame(messageValue.getKey(), recordValue.getKey());
+    assertSame(messageValue.getValue(), recordValue.getValue());
+  }
+
+  @Test
+  void testPrimitive() throws Exception {
+    Record<GenericObject> record =
+        new Utils.TestRecord<>(
+            Schema.STRING,
+            AutoConsumeSchema.wrapPrimitiveObject("test-message", SchemaType.STRING, new byte[] {}),
+            "test-key");
+    Record<GenericObject> outputRecord =
+        Utils.process(
+            record, new FusedStep(List.of(new MergeKeyValueStep(), new UnwrapKeyValueStep(false))));
+
+    assertSame(outputRecord.getSchema(), record.getSchema());
+    assertSame(outputRecord.getValue(), record.getValue().getNativeObject());
+  }
+
+  @Test
+  void testSchemaCached() throws Exception {
+    FusedStep step =
+        new FusedStep(
+            List.of(
+                DropFieldStep.builder().valueFields(List.of("valueField1")).build(),
+                new MergeKeyValueStep()));
+    Record<?> outputRecord = Utils.process(Utils.createTestAvroKeyValueRecord(), step);
+    Record<?> newOutputRecord = Utils.process(Utils.createTestAvroKeyValueRecord(), step);
+
+    assertSame(
+        ((KeyValueSchema<?, ?>) outputRecord.getSchema())
+            .getValueSchema()
+            .getNativeSchema()
+            .orElseThrow(),
+        ((KeyValueSchema<?, ?>) newOutputRecord.getSchema())
+            .getValueSchema()
+            .getNativeSchema()
+            .orElseThrow());
+  }
+
+  @Test
+  void testPlansCachedInSharedSchemaCache() throws Exception {
+    Supplier<FusedStep> newStep =
+        () ->
+            new FusedStep(
+                List.of(
+                    DropFieldStep.builder().keyFields(List.of("keyField1")).build(),
+                    new MergeKeyValueStep()));
+    SchemaCache schemaCache = SchemaCache.shared();
+    schemaCache.clear();
+    FusedStep step = newStep.get();
+
+    Utils.process(Utils.createTestAvroKeyValueRecord(), step);
+    int size = schemaCache.size();
+    Utils.process(Utils.createTestAvroKeyValueRecord(), step);
+    assertEquals(schemaCache.size(), size);
+
+    // the plans of other steps are cached separately
+    Utils.process(Utils.createTestAvroKeyValueRecord(), newStep.get());
+    assertTrue(schemaCache.size() > size);
+
+    // an evicted plan is rebuilt
+    schemaCache.clear();
+    assertKeyValueEquals(
+        Utils.process(Utils.createTestAvroKeyValueRecord(), step),
+        processSequentially(Utils.createTestAvroKeyValueRecord(), step.getSteps()));
+  }
+
+  @Test
+  void testFuseSteps() {
+    DropFieldStep dropFields = DropFieldStep.builder().build();
+    MergeKeyValueStep merge = new MergeKeyValueStep();
+    FlattenStep flatten = FlattenStep.builder().build();
+    UnwrapKeyValueStep unwrap = new UnwrapKeyValueStep(false);
+    DropStep drop = new DropStep();
+    JstlPredicate predicate = new JstlPredicate("true");
+
+    List<StepPredicatePair> steps = new ArrayList<>();
+    steps.add(new StepPredicatePair(dropFields, null));
+    steps.add(new StepPredicatePair(merge, null));
+    steps.add(new StepPredicatePair(flatten, predicate));
+    steps.add(new StepPredicatePair(unwrap, null));
+    steps.add(new StepPredicatePair(drop, null));
+    steps.add(new StepPredicatePair(dropFields, null));
+    steps.add(new StepPredicatePair(merge, null));
+    TransformFunction.fuseSteps(steps);
+
+    assertEquals(steps.size(), 5);
+    assertTrue(steps.get(0).getTransformStep() instanceof FusedStep);
+    assertEquals(
+        ((FusedStep) steps.get(0).getTransformStep()).getSteps(), List.of(dropFields, merge));
+    assertNull(steps.get(0).getPredicate());
+    assertSame(steps.get(1).getTransformStep(), flatten);
+    assertSame(steps.get(1).getPredicate(), predicate);
+    assertSame(steps.get(2).getTransformStep(), unwrap);
+    assertSame(steps.get(3).getTransformStep(), drop);
+    assertEquals(
+        ((FusedStep) steps.get(4).getTransformStep()).getSteps(), List.of(dropFields, merge));
+  }
+
+  private static Record<?> processSequentially(
+      Record<GenericObject> record, List<FusibleStep> steps) throws Exception {
+    Utils.TestContext context = new Utils.TestContext(record, new java.util.HashMap<>());
+    TransformContext transformContext =
+        new TransformContext(context, record.getValue().getNativeObject());
+    for (TransformStep step : steps) {
+      step.process(transformContext);
+    }
+    return transformContext.send();
+  }
+
+  private static void assertKeyValueEquals(Record<?> actual, Record<?> expected) throws Exception {
+    KeyValueSchema<?, ?> actualSchema = (KeyValueSchema<?, ?>) actual.getSchema();
+    KeyValueSchema<?, ?> expectedSchema = (KeyValueSchema<?, ?>) expected.getSchema();
+    KeyValue<?, ?> actualValue = (KeyValue<?, ?>) actual.getValue();
+    KeyValue<?, ?> expectedValue = (KeyValue<?, ?>) expected.getValue();
+
+    assertEquals(
+        actualSchema.getKeySchema().getNativeSchema().orElseThrow(),
+        expectedSchema.getKeySchema().getNativeSchema().orElseThrow());
+    assertEquals(
+        actualSchema.getValueSchema().getNativeSchema().orElseThrow(),
+        expectedSchema.getValueSchema().getNativeSchema().orElseThrow());
+    assertEquals(
+        toString(actualSchema.getKeySchema(), actualValue.getKey()),
+        toString(expectedSchema.getKeySchema(), expectedValue.getKey()));
+    assertEquals(
+        toString(actualSchema.getValueSchema(), actualValue.getValue()),
+        toString(expectedSchema.getValueSchema(), expectedValue.getValue()));
+  }
+
+  private static String toString(Schema<?> schema, Object value) throws Exception {
+    if (value instanceof byte[]) {
+      GenericData.Record record = Utils.getRecord(schema, (byte[]) value);
+      return record.toString();
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.jstl.predicate.StepPredicatePair;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.functions.api.Record;
+import org.testng.annotations.Test;
+
+public class MeteredStepTest {
+
+  @Test
+  void testProcess() throws Exception {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    StepMetrics metrics = new StepMetrics("step0.drop", context, 1, true);
+    MeteredStep step =
+        new MeteredStep(
+            new StepPredicatePair(new DropStep(), ctx -> ctx.getKey().equals("drop")), metrics);
+
+    step.process(newTransformContext("drop"));
+    step.process(newTransformContext("keep"));
+    step.process(newTransformContext("drop"));
+
+    assertEquals(metrics.getPredicateTrueCount(), 2);
+    assertEquals(metrics.getPredicateFalseCount(), 1);
+    assertEquals(metrics.getDroppedCount(), 2);
+    assertEquals(metrics.getErrorCount(), 0);
+    assertEquals(metrics.getExecTimeHistogram().getTotalCount(), 2);
+    Map<String, Double> published = context.getTotals();
+    assertEquals(published.get("step0.drop.predicate-true"), 2.0);
+    assertEquals(published.get("step0.drop.predicate-false"), 1.0);
+    assertEquals(published.get("step0.drop.dropped"), 2.0);
+    assertTrue(published.containsKey("step0.drop.exec-time-ms"));
+  }
+
+  @Test
+  void testProcessBatch() throws Exception {
+    StepMetrics metrics = new StepMetrics("step0.drop", null, 1, true);
+    MeteredStep step =
+        new MeteredStep(
+            new StepPredicatePair(new DropStep(), ctx -> ctx.getKey().equals("drop")), metrics);
+
+    List<TransformContext> transformContexts =
+        List.of(
+            newTransformContext("drop"), newTransformContext("keep"), newTransformContext("drop"));
+    step.processBatch(transformContexts);
+
+    assertTrue(transformContexts.get(0).isDropCurrentRecord());
+    assertTrue(!transformContexts.get(1).isDropCurrentRecord());
+    assertEquals(metrics.getPredicateTrueCount(), 2);
+    assertEquals(metrics.getPredicateFalseCount(), 1);
+    assertEquals(metrics.getDroppedCount(), 2);
+    assertEquals(metrics.getExecTimeHistogram().getTotalCount(), 1);
+  }
+
+  @Test
+  void testProcessBatchAsync() throws Exception {
+    StepMetrics metrics = new StepMetrics("step0.drop", null, 1, true);
+    MeteredStep step =
+        new MeteredStep(
+            new StepPredicatePair(new DropStep(), ctx -> ctx.getKey().equals("drop")), metrics);
+
+    List<TransformContext> transformContexts =
+        List.of(
+            newTransformContext("drop"), newTransformContext("keep"), newTransformContext("drop"));
+    step.processBatchAsync(transformContexts).get(10, TimeUnit.SECONDS);
+
+    assertTrue(transformContexts.get(0).isDropCurrentRecord());
+    assertTrue(!transformContexts.get(1).isDropCurrentRecord());
+    assertEquals(metrics.getPredicateTrueCount(), 2);
+    assertEquals(metrics.getPredicateFalseCount(), 1);
+    assertEquals(metrics.getDroppedCount(), 2);
+    assertEquals(metrics.getExecTimeHistogram().getTotalCount(), 1);
+  }
+
+  @Test
+  void testErrors() throws Exception {
+    StepMetrics metrics = new StepMetrics("step0.failing", null, 1, true);
+    TransformStep failing =
+        new TransformStep() {
+          @Override
+          public void process(TransformContext transformContext) {
+            throw new IllegalStateException("failed");
+          }
+
+          @Override
+          public CompletableFuture<Void> processAsync(TransformContext transformContext) {
+            return CompletableFuture.failedFuture(new IllegalStateException("failed"));
+          }
+        };
+    MeteredStep step = new MeteredStep(new StepPredicatePair(failing, null), metrics);
+
+    assertThrows(IllegalStateException.class, () -> step.process(newTransformContext("key")));
+    CompletableFuture<Void> result = step.processAsync(newTransformContext("key"));
+    ExecutionException e =
+        expectThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof IllegalStateException);
+
+    assertEquals(metrics.getErrorCount(), 2);
+    assertEquals(metrics.getExecTimeHistogram().getTotalCount(), 0);
+  }
+
+  @Test
+  void testProcessAsync() throws Exception {
+    StepMetrics metrics = new StepMetrics("step0.drop", null, 1, true);
+    MeteredStep step = new MeteredStep(new StepPredicatePair(new DropStep(), null), metrics);
+
+    TransformContext transformContext = newTransformContext("key");
+    step.processAsync(transformContext).get(10, TimeUnit.SECONDS);
+
+    assertTrue(transformContext.isDropCurrentRecord());
+    assertEquals(metrics.getDroppedCount(), 1);
+    assertEquals(metrics.getExecTimeHistogram().getTotalCount(), 1);
+  }
+
+  @Test
+  void testRemoteStepMetrics() {
+    StepMetrics metrics = new StepMetrics("step0.remote", null, 1, false);
+    StepMetrics[] received = new StepMetrics[1];
+    TransformStep remote =
+        new TransformStep() {
+          @Override
+          public void process(TransformContext transformContext) {}
+
+          @Override
+          public void setMetrics(StepMetrics metrics) {
+            received[0] = metrics;
+          }
+        };
+
+    new MeteredStep(new StepPredicatePair(remote, null), metrics);
+
+    assertEquals(received[0], metrics);
+  }
+
+  private static TransformContext newTransformContext(String key) {
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    TransformContext transformContext =
+        new TransformContext(
+            new Utils.TestContext(record, new HashMap<>()), record.getValue().getNativeObject());
+    transformContext.setKey(key);
+    return transformContext;
+  }
+}
@@ -16,29 +16,195 @@
 package com.datastax.oss.pulsar.functions.transforms;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
 
+import com.datastax.oss.pulsar.functions.transforms.datasource.CachedQueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.InMemoryDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.QueryResult;
 import com.datastax.oss.pulsar.functions.transforms.datasource.QueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.datasource.SnapshotQueryStepDataSource;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArray;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.File;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.util.Utf8;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.schema.GenericObject;
 import org.apache.pulsar.client.api.schema.GenericRecord;
 import org.apache.pulsar.client.api.schema.GenericSchema;
+import org.apache.pulsar.client.api.schema.KeyValueSchema;
 import org.apache.pulsar.client.api.schema.RecordSchemaBuilder;
 import org.apache.pulsar.client.api.schema.SchemaBuilder;
 import org.apache.pulsar.client.impl.schema.AutoConsumeSchema;
+import org.apache.pulsar.common.schema.KeyValue;
 import org.apache.pulsar.common.schema.SchemaInfo;
 import org.apache.pulsar.common.schema.SchemaType;
 import org.apache.pulsar.functions.api.Record;
 import org.testng.annotations.Test;
 
 public class QueryStepTest {
+  @Test
+  void testRemoteCallMetrics() throws Exception {
+    Record<GenericObject> record =
+        new Utils.TestRecord<>(
+            Schema.STRING,
+            AutoConsumeSchema.wrapPrimitiveObject("test-message", SchemaType.STRING, new byte[] {}),
+            "test-key");
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public List<Map<String, String>> fetchData(String query, List<Object> params) {
+            return List.of(Map.of());
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value.result")
+            .query("select 1")
+            .fields(List.of("value"))
+            .build();
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    queryStep.setMetrics(metrics);
+
+    Utils.process(record, queryStep);
+    Utils.processAsync(record, queryStep);
+
+    assertEquals(metrics.getRemoteCallTimeHistogram().getTotalCount(), 2);
+    assertEquals(metrics.getRemoteBatchSizeHistogram().getMaxValue(), 1);
+  }
+
+  @Test
+  void testProcessBatch() throws Exception {
+    List<List<List<Object>>> calls = new ArrayList<>();
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public List<List<Map<String, String>>> fetchDataBatch(
+              String query, List<List<Object>> paramsList) {
+            calls.add(paramsList);
+            List<List<Map<String, String>>> results = new ArrayList<>();
+            paramsList.forEach(params -> results.add(List.of(Map.of("id", params.get(0) + ""))));
+            return results;
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value")
+            .query("select 1")
+            .fields(List.of("value"))
+            .build();
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    queryStep.setMetrics(metrics);
+    List<TransformContext> transformContexts =
+        List.of(
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "a", "key"),
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "b", "key"));
+
+    queryStep.processBatch(transformContexts);
+
+    assertEquals(calls, List.of(List.of(List.of("a"), List.of("b"))));
+    assertEquals(transformContexts.get(0).getValueObject(), List.of(Map.of("id", "a")));
+    assertEquals(transformContexts.get(1).getValueObject(), List.of(Map.of("id", "b")));
+    assertEquals(metrics.getRemoteBatchSizeHistogram().getMaxValue(), 2);
+  }
+
+  @Test
+  void testCacheMetrics() throws Exception {
+    List<List<Object>> calls = new ArrayList<>();
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public List<Map<String, String>> fetchData(String query, List<Object> params) {
+            calls.add(params);
+            return List.of(Map.of("id", params.get(0) + ""));
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(new CachedQueryStepDataSource(dataSource, 10, 0, 0))
+            .outputFieldName("value")
+            .query("select 1")
+            .fields(List.of("value"))
+            .build();
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    queryStep.setMetrics(metrics);
+    List<TransformContext> transformContexts =
+        List.of(
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "a", "key"),
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "a", "key"),
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "b", "key"));
+
+    queryStep.processBatch(transformContexts);
+
+    assertEquals(calls, List.of(List.of("a"), List.of("b")));
+    assertEquals(transformContexts.get(1).getValueObject(), List.of(Map.of("id", "a")));
+    assertEquals(metrics.getCacheHitCount(), 1);
+    assertEquals(metrics.getCacheMissCount(), 2);
+  }
+
+  @Test
+  void testSnapshot() throws Exception {
+    List<String> loads = new ArrayList<>();
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+            loads.add(query);
+            return CompletableFuture.completedFuture(
+                List.of(Map.of("id", "a", "name", "A"), Map.of("id", "b", "name", "B")));
+          }
+        };
+    SnapshotQueryStepDataSource snapshot =
+        new SnapshotQueryStepDataSource(
+            dataSource, "select id, name from t", List.of("id"), false, 0);
+    snapshot.start();
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(snapshot)
+            .outputFieldName("value")
+            .query("select id, name from t")
+            .fields(List.of("value"))
+            .build();
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    queryStep.setMetrics(metrics);
+    List<TransformContext> transformContexts =
+        List.of(
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "a", "key"),
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "c", "key"));
+
+    queryStep.processBatch(transformContexts);
+    TransformContext transformContext =
+        Utils.createContextWithPrimitiveRecord(Schema.STRING, "b", "key");
+    queryStep.processAsync(transformContext).get();
+
+    assertEquals(loads, List.of("select id, name from t"));
+    assertEquals(
+        transformContexts.get(0).getValueObject(), List.of(Map.of("id", "a", "name", "A")));
+    assertEquals(transformContexts.get(1).getValueObject(), List.of());
+    assertEquals(transformContext.getValueObject(), List.of(Map.of("id", "b", "name", "B")));
+    assertEquals(metrics.getRemoteCallTimeHistogram().getTotalCount(), 0);
+    assertEquals(metrics.getSnapshotSize(), 2);
+    queryStep.close();
+  }
+
   @Test
   void testPrimitive() throws Exception {
     Record<GenericObject> record =
@@ -158,4 +324,202 @@ public class QueryStepTest {
 
     Utils.process(record, queryStep);
   }
+
+  @Test
+  void testProcessAsync() throws Exception {
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    CompletableFuture<List<Map<String, String>>> results = new CompletableFuture<>();
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+              String query, List<Object> params) {
+            assertEquals(params, List.of("value1"));
+            return results;
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value.result")
+            .query("select 1")
+            .fields(List.of("value.valueField1"))
+            .build();
+
+    TransformContext transformContext =
+        new TransformContext(
+            new Utils.TestContext(record, Map.of()), record.getValue().getNativeObject());
+    CompletableFuture<Void> result = queryStep.processAsync(transformContext);
+    assertFalse(result.isDone());
+
+    results.complete(List.of(Map.of("name", "test")));
+    result.get(10, TimeUnit.SECONDS);
+    Record<?> outputRecord = transformContext.send();
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+    GenericData.Record valueAvroRecord =
+        Utils.getRecord(messageSchema.getValueSchema(), (byte[]) messageValue.getValue());
+    assertEquals(
+        valueAvroRecord.get("result"), List.of(Map.of(new Utf8("name"), new Utf8("test"))));
+  }
+
+  @Test
+  void testProcessBatchAsync() throws Exception {
+    CompletableFuture<List<List<Map<String, String>>>> results = new CompletableFuture<>();
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+              String query, List<List<Object>> paramsList) {
+            assertEquals(paramsList, List.of(List.of("a"), List.of("b")));
+            return results;
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value")
+            .query("select 1")
+            .fields(List.of("value"))
+            .build();
+    List<TransformContext> transformContexts =
+        List.of(
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "a", "key"),
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "b", "key"));
+
+    CompletableFuture<Void> result = queryStep.processBatchAsync(transformContexts);
+    assertFalse(result.isDone());
+
+    results.complete(List.of(List.of(Map.of("id", "a")), List.of(Map.of("id", "b"))));
+    result.get(10, TimeUnit.SECONDS);
+    assertEquals(transformContexts.get(0).getValueObject(), List.of(Map.of("id", "a")));
+    assertEquals(transformContexts.get(1).getValueObject(), List.of(Map.of("id", "b")));
+  }
+
+  @Test
+  void testTypedRows() throws Exception {
+    org.apache.avro.Schema embeddingSchema =
+        org.apache.avro.Schema.createArray(
+            org.apache.avro.Schema.create(org.apache.avro.Schema.Type.FLOAT));
+    List<QueryResult.Column> columns =
+        List.of(
+            new QueryResult.Column(
+                "id", org.apache.avro.Schema.create(org.apache.avro.Schema.Type.INT)),
+            new QueryResult.Column(
+                "created at",
+                LogicalTypes.timestampMillis()
+                    .addToSchema(org.apache.avro.Schema.create(org.apache.avro.Schema.Type.LONG))),
+            new QueryResult.Column("embedding", embeddingSchema),
+            new QueryResult.Column(
+                "name", org.apache.avro.Schema.create(org.apache.avro.Schema.Type.STRING)));
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<QueryResult> fetchResultAsync(
+              String query, List<Object> params) {
+            return CompletableFuture.completedFuture(
+                new QueryResult(
+                    columns,
+                    List.of(
+                        Arrays.asList(
+                            1,
+                            1672531200123L,
+                            new FloatArray(embeddingSchema, new float[] {0.5f, 0.25f}),
+                            null))));
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value.result")
+            .query("select 1")
+            .fields(List.of("value.valueField1"))
+            .typedRows(true)
+            .build();
+
+    Record<?> outputRecord = Utils.process(Utils.createTestAvroKeyValueRecord(), queryStep);
+
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+    GenericData.Record valueAvroRecord =
+        Utils.getRecord(messageSchema.getValueSchema(), (byte[]) messageValue.getValue());
+    org.apache.avro.Schema rowSchema =
+        valueAvroRecord.getSchema().getField("result").schema().getElementType();
+    assertEquals(rowSchema.getName(), "value_result_row");
+    assertEquals(
+        rowSchema.getField("created_at").schema().getTypes().get(1).getLogicalType(),
+        LogicalTypes.timestampMillis());
+    List<?> rows = (List<?>) valueAvroRecord.get("result");
+    assertEquals(rows.size(), 1);
+    GenericData.Record row = (GenericData.Record) rows.get(0);
+    assertEquals(row.get("id"), 1);
+    assertEquals(row.get("created_at"), 1672531200123L);
+    assertEquals(row.get("embedding"), List.of(0.5f, 0.25f));
+    assertNull(row.get("name"));
+  }
+
+  @Test
+  void testInMemoryLookupOnJsonNumber() throws Exception {
+    RecordSchemaBuilder recordSchemaBuilder = SchemaBuilder.record("record");
+    recordSchemaBuilder.field("id").type(SchemaType.INT32);
+    GenericSchema<GenericRecord> genericSchema =
+        Schema.generic(recordSchemaBuilder.build(SchemaType.JSON));
+    GenericRecord genericRecord = genericSchema.newRecordBuilder().set("id", 42).build();
+    Record<GenericObject> record = new Utils.TestRecord<>(genericSchema, genericRecord, "test-key");
+
+    File file = File.createTempFile("dataset", ".json");
+    file.deleteOnExit();
+    Files.writeString(file.toPath(), "[{\"id\": 42, \"name\": \"answer\"}]");
+    DataSourceConfig config = new DataSourceConfig();
+    config.setService("memory");
+    config.setPath(file.getAbsolutePath());
+    QueryStepDataSource dataSource = new InMemoryDataSource();
+    dataSource.initialize(config);
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value.result")
+            .query("id")
+            .fields(List.of("value.id"))
+            .build();
+
+    Record<?> outputRecord = Utils.process(record, queryStep);
+
+    JsonNode rows = ((JsonNode) outputRecord.getValue()).get("result");
+    assertEquals(rows.size(), 1);
+    assertEquals(rows.get(0).get("name").asText(), "answer");
+  }
+
+  @Test
+  void testTypedRowsInJsonValue() throws Exception {
+    QueryStepDataSource dataSource =
+        new QueryStepDataSource() {
+          @Override
+          public List<Map<String, String>> fetchData(String query, List<Object> params) {
+            return List.of(Map.of("id", "1", "name", "test"));
+          }
+        };
+    QueryStep queryStep =
+        QueryStep.builder()
+            .dataSource(dataSource)
+            .outputFieldName("value.result")
+            .query("select 1")
+            .fields(List.of("value.valueField1"))
+            .typedRows(true)
+            .build();
+
+    Record<?> outputRecord = Utils.process(Utils.createTestJsonKeyValueRecord(), queryStep);
+
+    KeyValueSchema<?, ?> messageSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> messageValue = (KeyValue<?, ?>) outputRecord.getValue();
+    org.apache.avro.Schema schema =
+        (org.apache.avro.Schema) messageSchema.getValueSchema().getNativeSchema().orElseThrow();
+    org.apache.avro.Schema rowSchema = schema.getField("result").schema().getElementType();
+    assertEquals(rowSchema.getFields().size(), 2);
+    assertEquals(rowSchema.getField("id").pos(), 0);
+    JsonNode rows = ((JsonNode) messageValue.getValue()).get("result");
+    assertEquals(rows.size(), 1);
+    assertEquals(rows.get(0).get("id").asText(), "1");
+    assertEquals(rows.get(0).get("name").asText(), "test");
+  }
 }
@@ -17,15 +17,28 @@ package com.datastax.oss.pulsar.functions.transforms;
 
 import static com.datastax.oss.pulsar.functions.transforms.Utils.assertNonOptionalField;
 import static com.datastax.oss.pulsar.functions.transforms.Utils.assertOptionalField;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.expectThrows;
 import static org.testng.AssertJUnit.assertNull;
 
+import com.datastax.oss.pulsar.functions.transforms.metrics.MetricsRegistry;
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import com.datastax.oss.pulsar.functions.transforms.model.config.QueryConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.util.Utf8;
+import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.schema.GenericObject;
 import org.apache.pulsar.client.api.schema.GenericRecord;
@@ -34,6 +47,7 @@ import org.apache.pulsar.client.api.schema.KeyValueSchema;
 import org.apache.pulsar.client.api.schema.RecordSchemaBuilder;
 import org.apache.pulsar.client.api.schema.SchemaBuilder;
 import org.apache.pulsar.common.schema.KeyValue;
+import org.apache.pulsar.common.schema.KeyValueEncodingType;
 import org.apache.pulsar.common.schema.SchemaInfo;
 import org.apache.pulsar.common.schema.SchemaType;
 import org.apache.pulsar.functions.api.Context;
@@ -44,6 +58,8 @@ import org.testng.annotations.Test;
 
 public class TransformFunctionTest {
 
+  private static final GenericSchema<GenericRecord> PERSON_SCHEMA = createPersonSchema();
+
   @DataProvider(name = "validConfigs")
   public static Object[][] validConfigs() {
     return new Object[][] {
@@ -116,6 +132,10 @@ public class TransformFunctionTest {
       },
       {
         "{'steps': [{'type': 'compute', 'fields': [{'name': 'value.field1', expression: 'value.field1', type: 'DECIMAL'}]}]}"
+      },
+      {"{'steps': [{'type': 'drop', 'when': 'value.a == 1'}], 'compile-expressions': false}"},
+      {
+        "{'steps': [{'type': 'drop'}], 'metrics': {'enabled': true, 'sample-interval': 100, 'histograms': true}}"
       }
     };
   }
@@ -208,10 +228,40 @@ public class TransformFunctionTest {
       },
       {
         "{'steps': [{'type': 'ai-chat-completions', 'model': 'example_model', 'messages': [{'role': 'user','content': 'Hello'}]}], 'openai': {'access-key': 'qwerty'}}"
-      }
+      },
+      {"{'steps': [{'type': 'drop'}], 'batch-size': 0}"},
+      {"{'steps': [{'type': 'drop'}], 'flush-interval': -1}"},
+      {"{'steps': [{'type': 'drop'}], 'compile-expressions': 'no'}"},
+      {"{'steps': [{'type': 'drop'}], 'metrics': {'sample-interval': -1}}"},
+      {"{'steps': [{'type': 'drop'}], 'metrics': {'enabled': 'no'}}"}
     };
   }
 
+  @Test
+  void testSnapshotWithoutDatasource() {
+    QueryConfig config =
+        new ObjectMapper()
+            .convertValue(
+                Map.of(
+                    "type",
+                    "query",
+                    "query",
+                    "select id, name from products",
+                    "fields",
+                    List.of("value.id"),
+                    "output-field",
+                    "value.product",
+                    "snapshot",
+                    Map.of("enabled", true, "key-columns", List.of("id"))),
+                QueryConfig.class);
+
+    IllegalArgumentException e =
+        expectThrows(
+            IllegalArgumentException.class,
+            () -> new TransformFunction().withSnapshot(config, null));
+    assertEquals(e.getMessage(), "The datasource must be configured for the snapshot");
+  }
+
   @Test(dataProvider = "invalidConfigs")
   void testInvalidConfig(String invalidConfig) {
     String userConfig = invalidConfig.replace("'", "\"");
@@ -487,6 +537,253 @@ public class TransformFunctionTest {
     };
   }
 
+  @Test
+  void testStepMetrics() throws Exception {
+    String userConfig =
+        (""
+                + "{'steps': ["
+                + "    {'type': 'drop-fields', 'fields': ['keyField1']},"
+                + "    {'type': 'merge-key-value'},"
+                + "    {'type': 'drop', 'when': 'value.valueField1 == \\'other\\''},"
+                + "    {'type': 'drop', 'when': 'value.valueField1 == \\'value1\\''}"
+                + "], 'metrics': {'sample-interval': 1, 'histograms': true}}")
+            .replace("'", "\"");
+    Map<String, Object> config =
+        new Gson().fromJson(userConfig, new TypeToken<Map<String, Object>>() {}.getType());
+    TransformFunction transformFunction = new TransformFunction();
+
+    Record<GenericObject> record = Utils.createTestAvroKeyValueRecord();
+    Utils.RecordingContext context = new Utils.RecordingContext(record, config);
+    transformFunction.initialize(context);
+    assertNull(transformFunction.process(record.getValue(), context));
+    assertNull(transformFunction.process(record.getValue(), context));
+    transformFunction.close();
+
+    MetricsRegistry registry = transformFunction.getMetricsRegistry();
+    List<String> names =
+        registry.getStepMetrics().stream().map(StepMetrics::getName).collect(Collectors.toList());
+    assertEquals(
+        names, List.of("step0.drop-fields+step1.merge-key-value", "step2.drop", "step3.drop"));
+    StepMetrics fused = registry.getStepMetrics("step0.drop-fields+step1.merge-key-value");
+    assertEquals(fused.getExecTimeHistogram().getTotalCount(), 2);
+    StepMetrics notDropping = registry.getStepMetrics("step2.drop");
+    assertEquals(notDropping.getPredicateFalseCount(), 2);
+    assertEquals(notDropping.getExecTimeHistogram().getTotalCount(), 0);
+    StepMetrics dropping = registry.getStepMetrics("step3.drop");
+    assertEquals(dropping.getPredicateTrueCount(), 2);
+    assertEquals(dropping.getDroppedCount(), 2);
+
+    Map<String, Double> published = context.getTotals();
+    assertEquals(published.get("step2.drop.predicate-false"), 2.0);
+    assertEquals(published.get("step3.drop.predicate-true"), 2.0);
+    assertEquals(published.get("step3.drop.dropped"), 2.0);
+  }
+
+  @Test
+  void testStepMetricsDisabled() {
+    Map<String, Object> config =
+        Map.of("steps", List.of(Map.of("type", "drop")), "metrics", Map.of("enabled", false));
+    TransformFunction transformFunction = new TransformFunction();
+    transformFunction.initialize(new Utils.TestContext(null, config));
+
+    assertNull(transformFunction.getMetricsRegistry());
+  }
+
+  @Test
+  void testHeaderOnlyStepsDontDecodeTheValue() throws Exception {
+    String userConfig =
+        (""
+                + "{'steps': ["
+                + "    {'type': 'drop', 'when': 'topicName == \\'dropped-topic\\''},"
+                + "    {'type': 'compute', 'fields': ["
+                + "        {'name': 'destinationTopic', 'expression': 'fn:concat(topicName, \\'-out\\')'},"
+                + "        {'name': 'properties.routed', 'expression': 'true', 'type': 'STRING'}]}"
+                + "]}")
+            .replace("'", "\"");
+    Map<String, Object> config =
+        new Gson().fromJson(userConfig, new TypeToken<Map<String, Object>>() {}.getType());
+    TransformFunction transformFunction = new TransformFunction();
+
+    GenericRecord genericRecord = createPersonRecord();
+    AtomicInteger nativeObjectReads = new AtomicInteger();
+    GenericObject value =
+        new GenericObject() {
+          @Override
+          public SchemaType getSchemaType() {
+            return genericRecord.getSchemaType();
+          }
+
+          @Override
+          public Object getNativeObject() {
+            nativeObjectReads.incrementAndGet();
+            return genericRecord.getNativeObject();
+          }
+        };
+    Record<GenericObject> record =
+        Utils.TestRecord.<GenericObject>builder()
+            .schema(PERSON_SCHEMA)
+            .value(value)
+            .key("test-key")
+            .topicName("input-topic")
+            .build();
+    Utils.TestContext context = new Utils.TestContext(record, config);
+    transformFunction.initialize(context);
+    Record<?> outputRecord = transformFunction.process(value, context);
+
+    assertEquals(nativeObjectReads.get(), 0);
+    assertSame(outputRecord.getValue(), value);
+    assertSame(outputRecord.getSchema(), PERSON_SCHEMA);
+    assertEquals(outputRecord.getDestinationTopic().orElse(null), "input-topic-out");
+    assertEquals(outputRecord.getProperties().get("routed"), "true");
+    assertEquals(outputRecord.getKey().orElse(null), "test-key");
+  }
+
+  @Test
+  void testKeyPredicateDoesntDecodeTheValue() throws Exception {
+    String userConfig =
+        ("{'steps': [{'type': 'drop', 'when': 'key == \\'dropped-key\\''}]}").replace("'", "\"");
+    Map<String, Object> config =
+        new Gson().fromJson(userConfig, new TypeToken<Map<String, Object>>() {}.getType());
+    TransformFunction transformFunction = new TransformFunction();
+
+    GenericRecord genericRecord = createPersonRecord();
+    AtomicInteger nativeObjectReads = new AtomicInteger();
+    GenericObject value =
+        new GenericObject() {
+          @Override
+          public SchemaType getSchemaType() {
+            return genericRecord.getSchemaType();
+          }
+
+          @Override
+          public Object getNativeObject() {
+            nativeObjectReads.incrementAndGet();
+            return genericRecord.getNativeObject();
+          }
+        };
+    Record<GenericObject> record =
+        Utils.TestRecord.<GenericObject>builder()
+            .schema(PERSON_SCHEMA)
+            .value(value)
+            .key("test-key")
+            .topicName("input-topic")
+            .build();
+    Utils.TestContext context = new Utils.TestContext(record, config);
+    transformFunction.initialize(context);
+    Record<?> outputRecord = transformFunction.process(value, context);
+
+    assertEquals(nativeObjectReads.get(), 0);
+    assertSame(outputRecord.getValue(), value);
+    assertEquals(outputRecord.getKey().orElse(null), "test-key");
+  }
+
+  @Test
+  void testUnmodifiedAvroPayloadForwarded() throws Exception {
+    String userConfig =
+        ("{'steps': [{'type': 'drop', 'when': 'value.age < 18'}]}").replace("'", "\"");
+    Map<String, Object> config =
+        new Gson().fromJson(userConfig, new TypeToken<Map<String, Object>>() {}.getType());
+    TransformFunction transformFunction = new TransformFunction();
+
+    GenericRecord genericRecord = createPersonRecord();
+    byte[] payload = PERSON_SCHEMA.encode(genericRecord);
+    Message<GenericObject> message = mock(Message.class);
+    when(message.getData()).thenReturn(payload);
+    Record<GenericObject> record =
+        new Utils.TestRecord<GenericObject>(PERSON_SCHEMA, genericRecord, "test-key") {
+          @Override
+          public Optional<Message<GenericObject>> getMessage() {
+            return Optional.of(message);
+          }
+        };
+    Utils.TestContext context = new Utils.TestContext(record, config);
+    transformFunction.initialize(context);
+    Record<?> outputRecord = transformFunction.process(genericRecord, context);
+
+    assertSame(outputRecord.getValue(), payload);
+    assertEquals(outputRecord.getSchema().getSchemaInfo().getType(), SchemaType.AVRO);
+    assertEquals(
+        outputRecord.getSchema().getNativeSchema().orElseThrow(),
+        PERSON_SCHEMA.getNativeSchema().orElseThrow());
+    assertEquals(outputRecord.getKey().orElse(null), "test-key");
+    GenericData.Record read = Utils.getRecord(outputRecord.getSchema(), payload);
+    assertEquals(read.get("age"), 42);
+  }
+
+  @DataProvider(name = "keyValueEncodingTypes")
+  public static Object[][] keyValueEncodingTypes() {
+    return new Object[][] {{KeyValueEncodingType.SEPARATED}, {KeyValueEncodingType.INLINE}};
+  }
+
+  @Test(dataProvider = "keyValueEncodingTypes")
+  @SuppressWarnings("unchecked")
+  void testUnmodifiedKeyPayloadForwarded(KeyValueEncodingType encodingType) throws Exception {
+    String userConfig =
+        (""
+                + "{'steps': [{'type': 'compute', 'fields': ["
+                + "    {'name': 'value.newField', 'expression': 'key.keyField1', 'type': 'STRING'}]}"
+                + "]}")
+            .replace("'", "\"");
+    Map<String, Object> config =
+        new Gson().fromJson(userConfig, new TypeToken<Map<String, Object>>() {}.getType());
+    TransformFunction transformFunction = new TransformFunction();
+
+    Record<GenericObject> kvRecord = Utils.createTestAvroKeyValueRecord();
+    KeyValueSchema<GenericRecord, GenericRecord> kvSchema =
+        (KeyValueSchema<GenericRecord, GenericRecord>) (Schema<?>) kvRecord.getSchema();
+    KeyValue<GenericRecord, GenericRecord> kv =
+        (KeyValue<GenericRecord, GenericRecord>) kvRecord.getValue().getNativeObject();
+    byte[] keyPayload = kvSchema.getKeySchema().encode(kv.getKey());
+    Message<GenericObject> message = mock(Message.class);
+    if (encodingType == KeyValueEncodingType.SEPARATED) {
+      when(message.hasKey()).thenReturn(true);
+      when(message.getKeyBytes()).thenReturn(keyPayload);
+      when(message.getData()).thenReturn(kvSchema.getValueSchema().encode(kv.getValue()));
+    } else {
+      when(message.getData())
+          .thenReturn(
+              KeyValue.encode(
+                  kv.getKey(), kvSchema.getKeySchema(), kv.getValue(), kvSchema.getValueSchema()));
+    }
+    Record<GenericObject> record =
+        new Utils.TestRecord<GenericObject>(
+            Schema.KeyValue(kvSchema.getKeySchema(), kvSchema.getValueSchema(), encodingType),
+            kvRecord.getValue(),
+            null) {
+          @Override
+          public Optional<Message<GenericObject>> getMessage() {
+            return Optional.of(message);
+          }
+        };
+    Utils.TestContext context = new Utils.TestContext(record, config);
+    transformFunction.initialize(context);
+    Record<?> outputRecord = transformFunction.process(record.getValue(), context);
+    Record<?> secondOutputRecord = transformFunction.process(record.getValue(), context);
+
+    KeyValueSchema<?, ?> outputSchema = (KeyValueSchema<?, ?>) outputRecord.getSchema();
+    KeyValue<?, ?> outputValue = (KeyValue<?, ?>) outputRecord.getValue();
+    assertEquals(outputSchema.getKeyValueEncodingType(), encodingType);
+    assertEquals((byte[]) outputValue.getKey(), keyPayload);
+    assertEquals(
+        outputSchema.getKeySchema().getNativeSchema().orElseThrow(),
+        kvSchema.getKeySchema().getNativeSchema().orElseThrow());
+    GenericData.Record valueRecord =
+        Utils.getRecord(outputSchema.getValueSchema(), (byte[]) outputValue.getValue());
+    assertEquals(valueRecord.get("newField"), new Utf8("key1"));
+    assertSame(secondOutputRecord.getSchema(), outputSchema);
+  }
+
+  private static GenericSchema<GenericRecord> createPersonSchema() {
+    RecordSchemaBuilder recordSchemaBuilder = SchemaBuilder.record("record");
+    recordSchemaBuilder.field("firstName").type(SchemaType.STRING);
+    recordSchemaBuilder.field("age").type(SchemaType.INT32);
+    return Schema.generic(recordSchemaBuilder.build(SchemaType.AVRO));
+  }
+
+  private static GenericRecord createPersonRecord() {
+    return PERSON_SCHEMA.newRecordBuilder().set("firstName", "Jane").set("age", 42).build();
+  }
+
   // TODO: just for demo. To be removed
   @Test
   void testRemoveMergeAndToString() throws Exception {
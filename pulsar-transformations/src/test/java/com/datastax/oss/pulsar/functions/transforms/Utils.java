@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -80,6 +81,15 @@ public class Utils {
     return transformContext.send();
   }
 
+  public static Record<GenericObject> processAsync(Record<GenericObject> record, TransformStep step)
+      throws Exception {
+    Utils.TestContext context = new Utils.TestContext(record, new HashMap<>());
+    TransformContext transformContext =
+        new TransformContext(context, record.getValue().getNativeObject());
+    step.processAsync(transformContext).get(10, TimeUnit.SECONDS);
+    return transformContext.send();
+  }
+
   public static GenericData.Record getRecord(Schema<?> schema, byte[] value) throws IOException {
     DatumReader<GenericData.Record> reader =
         new GenericDatumReader<>((org.apache.avro.Schema) schema.getNativeSchema().orElseThrow());
@@ -728,6 +738,36 @@ public class Utils {
     public void recordMetric(String metricName, double value) {}
   }
 
+  /** A {@link TestContext} recording the published metrics. */
+  public static class RecordingContext extends TestContext {
+    private final List<Map.Entry<String, Double>> published = new ArrayList<>();
+
+    public RecordingContext() {
+      this(null, new HashMap<>());
+    }
+
+    public RecordingContext(Record<?> currentRecord, Map<String, Object> userConfig) {
+      super(currentRecord, userConfig);
+    }
+
+    @Override
+    public synchronized void recordMetric(String metricName, double value) {
+      published.add(Map.entry(metricName, value));
+    }
+
+    /** @return the published metrics, in publication order. */
+    public synchronized List<Map.Entry<String, Double>> getPublished() {
+      return new ArrayList<>(published);
+    }
+
+    /** @return the sum of the published values of each metric. */
+    public synchronized Map<String, Double> getTotals() {
+      Map<String, Double> totals = new HashMap<>();
+      published.forEach(entry -> totals.merge(entry.getKey(), entry.getValue(), Double::sum));
+      return totals;
+    }
+  }
+
   public static class NativeSchemaWrapper
       implements org.apache.pulsar.client.api.Schema<org.apache.avro.generic.GenericRecord> {
 
@@ -15,12 +15,43 @@
  */
 package com.datastax.oss.pulsar.functions.transforms.datasource;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatementBuilder;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.driver.api.core.type.codec.TypeCodecs;
 import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
 import org.testng.annotations.Test;
 
 @Slf4j
@@ -51,6 +82,321 @@ public class AstraDBDataSourceTest {
     log.info("maps {}", maps);
   }
 
+  @Test
+  void testLookupsCoalescedInInQueries() {
+    FakeTable table = new FakeTable();
+    AstraDBDataSource source = table.newDataSource(2, 1000);
+
+    List<List<Map<String, String>>> results =
+        source.fetchDataBatch(
+            "SELECT * FROM ks.products WHERE id = ?",
+            List.of(List.of(1), List.of(2), List.of(1), List.of(3)));
+
+    assertEquals(
+        results,
+        List.of(
+            List.of(Map.of("id", "1", "name", "product-1")),
+            List.of(Map.of("id", "2", "name", "product-2")),
+            List.of(Map.of("id", "1", "name", "product-1")),
+            List.of(Map.of("id", "3", "name", "product-3"))));
+    assertEquals(
+        table.queries,
+        List.of(
+            "SELECT * FROM ks.products WHERE id IN (?, ?)",
+            "SELECT * FROM ks.products WHERE id IN (?)"));
+  }
+
+  @Test
+  void testKeyColumnAddedToInQuery() {
+    FakeTable table = new FakeTable();
+    AstraDBDataSource source = table.newDataSource(20, 1000);
+
+    List<List<Map<String, String>>> results =
+        source.fetchDataBatch(
+            "select name from ks.products where id=?", List.of(List.of(1), List.of(2)));
+
+    assertEquals(
+        results,
+        List.of(List.of(Map.of("name", "product-1")), List.of(Map.of("name", "product-2"))));
+    assertEquals(table.queries, List.of("SELECT name, id FROM ks.products WHERE id IN (?, ?)"));
+  }
+
+  @Test
+  void testLookupsNotCoalesced() {
+    FakeTable table = new FakeTable();
+    AstraDBDataSource source = table.newDataSource(20, 1000);
+
+    List<List<Map<String, String>>> results =
+        source.fetchDataBatch(
+            "SELECT * FROM ks.products WHERE id = ? LIMIT 1", List.of(List.of(1), List.of(2)));
+
+    assertEquals(results.get(1), List.of(Map.of("id", "2", "name", "product-2")));
+    assertEquals(
+        table.queries,
+        List.of(
+            "SELECT * FROM ks.products WHERE id = ? LIMIT 1",
+            "SELECT * FROM ks.products WHERE id = ? LIMIT 1"));
+  }
+
+  @Test
+  void testMaxRows() {
+    FakeTable table = new FakeTable();
+    table.pages = List.of(List.of(1, 2), List.of(3, 4));
+    AstraDBDataSource source = table.newDataSource(20, 3);
+
+    List<Map<String, String>> results =
+        source.fetchData("SELECT * FROM ks.products WHERE id = ?", List.of(1));
+
+    assertEquals(results.size(), 3);
+    assertEquals(results.get(2), Map.of("id", "3", "name", "product-3"));
+    verify(table.lastPage, times(0)).fetchNextPage();
+  }
+
+  @Test
+  void testLoadWithoutMaxRows() {
+    FakeTable table = new FakeTable();
+    table.pages = List.of(List.of(1, 2), List.of(3, 4));
+    AstraDBDataSource source = table.newDataSource(20, 3);
+
+    List<Map<String, String>> rows =
+        QueryStepDataSource.join(source.loadDataAsync("SELECT * FROM ks.products"));
+    QueryResult result =
+        QueryStepDataSource.join(source.loadResultAsync("SELECT * FROM ks.products"));
+
+    assertEquals(rows.size(), 4);
+    assertEquals(rows.get(3), Map.of("id", "4", "name", "product-4"));
+    assertEquals(result.getRows().get(3), List.of(4, "product-4"));
+    assertEquals(table.queries, List.of("SELECT * FROM ks.products", "SELECT * FROM ks.products"));
+  }
+
+  @Test
+  void testTypedResults() {
+    FakeTable table = new FakeTable();
+    AstraDBDataSource source = table.newDataSource(2, 1000);
+    String query = "SELECT * FROM ks.products WHERE id = ?";
+    List<QueryResult.Column> columns =
+        List.of(
+            new QueryResult.Column("id", Schema.create(Schema.Type.INT)),
+            new QueryResult.Column("name", Schema.create(Schema.Type.STRING)));
+
+    List<QueryResult> results =
+        source.fetchResultBatch(query, List.of(List.of(1), List.of(2), List.of(3)));
+    QueryResult result = source.fetchResult(query, List.of(4));
+
+    assertEquals(results.get(0), new QueryResult(columns, List.of(List.of(1, "product-1"))));
+    assertEquals(results.get(2), new QueryResult(columns, List.of(List.of(3, "product-3"))));
+    assertEquals(result, new QueryResult(columns, List.of(List.of(4, "product-4"))));
+    assertEquals(
+        table.queries,
+        List.of(
+            "SELECT * FROM ks.products WHERE id IN (?, ?)",
+            "SELECT * FROM ks.products WHERE id IN (?)",
+            query));
+  }
+
+  @Test
+  void testTypedResultsWithKeyColumnAdded() {
+    FakeTable table = new FakeTable();
+    AstraDBDataSource source = table.newDataSource(20, 1000);
+
+    List<QueryResult> results =
+        source.fetchResultBatch(
+            "select name from ks.products where id=?", List.of(List.of(1), List.of(2)));
+
+    List<QueryResult.Column> columns =
+        List.of(new QueryResult.Column("name", Schema.create(Schema.Type.STRING)));
+    assertEquals(
+        results,
+        List.of(
+            new QueryResult(columns, List.of(List.of("product-1"))),
+            new QueryResult(columns, List.of(List.of("product-2")))));
+    assertEquals(table.queries, List.of("SELECT name, id FROM ks.products WHERE id IN (?, ?)"));
+  }
+
+  @Test
+  void testStatementsPreparedOutsideOfTheDriverThreads() throws Exception {
+    FakeTable table = new FakeTable();
+    ExecutorService driver =
+        Executors.newSingleThreadExecutor(r -> new Thread(r, FakeTable.DRIVER_THREAD));
+    table.driver = driver;
+    try {
+      AstraDBDataSource source = table.newDataSource(2, 1000, 1);
+
+      CompletableFuture<List<List<Map<String, String>>>> batch =
+          source.fetchDataBatchAsync(
+              "SELECT * FROM ks.products WHERE id = ?",
+              List.of(List.of(1), List.of(2), List.of(3), List.of(4), List.of(5)));
+      CompletableFuture<List<Map<String, String>>> lookup =
+          source.fetchDataAsync("SELECT * FROM ks.products WHERE id = ? LIMIT 1", List.of(6));
+
+      assertEquals(batch.get().get(4), List.of(Map.of("id", "5", "name", "product-5")));
+      assertEquals(lookup.get(), List.of(Map.of("id", "6", "name", "product-6")));
+    } finally {
+      driver.shutdown();
+    }
+  }
+
+  /**
+   * A table of products, with one row per id, behind a mocked session. If a driver executor is set,
+   * the queries complete on its thread, on which the statements can't be prepared.
+   */
+  private static class FakeTable {
+    static final String DRIVER_THREAD = "fake-driver-io";
+
+    final CqlSession session = mock(CqlSession.class);
+    final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    final Map<BoundStatement, String> boundQueries =
+        Collections.synchronizedMap(new IdentityHashMap<>());
+    final Map<BoundStatement, List<Integer>> boundIds =
+        Collections.synchronizedMap(new IdentityHashMap<>());
+    List<List<Integer>> pages;
+    AsyncResultSet lastPage;
+    Executor driver;
+
+    FakeTable() {
+      when(session.prepare(anyString()))
+          .thenAnswer(invocation -> prepare(invocation.getArgument(0)));
+      when(session.executeAsync(any(Statement.class)))
+          .thenAnswer(invocation -> execute(invocation.getArgument(0)));
+    }
+
+    AstraDBDataSource newDataSource(int inQueryMaxKeys, int maxRows) {
+      return newDataSource(
+          inQueryMaxKeys, maxRows, new DataSourceConfig().getMaxConcurrentQueries());
+    }
+
+    AstraDBDataSource newDataSource(int inQueryMaxKeys, int maxRows, int maxConcurrentQueries) {
+      DataSourceConfig config = new DataSourceConfig();
+      config.setInQueryMaxKeys(inQueryMaxKeys);
+      config.setMaxRows(maxRows);
+      config.setMaxConcurrentQueries(maxConcurrentQueries);
+      AstraDBDataSource source = new AstraDBDataSource();
+      source.configure(config);
+      source.session = session;
+      return source;
+    }
+
+    private PreparedStatement prepare(String query) {
+      if (Thread.currentThread().getName().equals(DRIVER_THREAD)) {
+        throw new IllegalStateException("Synchronous call on a driver I/O thread");
+      }
+      PreparedStatement statement = mock(PreparedStatement.class);
+      ColumnDefinitions variables = mock(ColumnDefinitions.class);
+      ColumnDefinition variable = mock(ColumnDefinition.class);
+      when(variable.getType()).thenReturn(DataTypes.INT);
+      when(variables.size())
+          .thenReturn(
+              query.contains(" IN ") ? 0 : (int) query.chars().filter(c -> c == '?').count());
+      when(variables.get(anyInt())).thenReturn(variable);
+      when(statement.getVariableDefinitions()).thenReturn(variables);
+      when(statement.getPartitionKeyIndices()).thenReturn(List.of(0));
+      ColumnDefinitions resultColumns = resultColumns(query);
+      when(statement.getResultSetDefinitions()).thenReturn(resultColumns);
+      when(statement.bind(any()))
+          .thenAnswer(
+              invocation ->
+                  boundStatement(
+                      query,
+                      invocation.getArguments().length == 0
+                          ? List.of()
+                          : List.of(encode(invocation.getArgument(0)))));
+      List<ByteBuffer> keys = new ArrayList<>();
+      BoundStatementBuilder builder = mock(BoundStatementBuilder.class);
+      when(builder.setBytesUnsafe(anyInt(), any(ByteBuffer.class)))
+          .thenAnswer(
+              invocation -> {
+                keys.add(invocation.getArgument(1));
+                return builder;
+              });
+      when(builder.build()).thenAnswer(invocation -> boundStatement(query, keys));
+      when(statement.boundStatementBuilder()).thenReturn(builder);
+      return statement;
+    }
+
+    private static ColumnDefinitions resultColumns(String query) {
+      String select = query.toLowerCase();
+      List<ColumnDefinition> columns = new ArrayList<>();
+      if (select.startsWith("select name")) {
+        columns.add(column("name", DataTypes.TEXT));
+      }
+      if (!select.startsWith("select name from")) {
+        columns.add(column("id", DataTypes.INT));
+      }
+      if (!select.startsWith("select name")) {
+        columns.add(column("name", DataTypes.TEXT));
+      }
+      ColumnDefinitions definitions = mock(ColumnDefinitions.class);
+      when(definitions.size()).thenReturn(columns.size());
+      when(definitions.iterator()).thenAnswer(invocation -> columns.iterator());
+      return definitions;
+    }
+
+    private static ColumnDefinition column(String name, DataType type) {
+      ColumnDefinition column = mock(ColumnDefinition.class);
+      when(column.getName()).thenReturn(CqlIdentifier.fromInternal(name));
+      when(column.getType()).thenReturn(type);
+      return column;
+    }
+
+    private BoundStatement boundStatement(String query, List<ByteBuffer> keys) {
+      BoundStatement statement = mock(BoundStatement.class);
+      if (!keys.isEmpty()) {
+        when(statement.getBytesUnsafe(0)).thenReturn(keys.get(0));
+      }
+      when(statement.setPageSize(anyInt())).thenReturn(statement);
+      List<Integer> ids = new ArrayList<>();
+      keys.forEach(key -> ids.add(TypeCodecs.INT.decode(key, ProtocolVersion.DEFAULT)));
+      boundQueries.put(statement, query);
+      boundIds.put(statement, ids);
+      return statement;
+    }
+
+    private CompletableFuture<AsyncResultSet> execute(BoundStatement statement) {
+      String query = boundQueries.get(statement);
+      queries.add(query);
+      List<List<Integer>> results = pages == null ? List.of(boundIds.get(statement)) : pages;
+      if (driver != null) {
+        return CompletableFuture.supplyAsync(() -> page(results, 0, query), driver);
+      }
+      return CompletableFuture.completedFuture(page(results, 0, query));
+    }
+
+    private AsyncResultSet page(List<List<Integer>> results, int index, String query) {
+      AsyncResultSet resultSet = mock(AsyncResultSet.class);
+      List<Row> rows = new ArrayList<>();
+      results.get(index).forEach(id -> rows.add(row(id, query.contains("SELECT name, id"))));
+      when(resultSet.currentPage()).thenReturn(rows);
+      when(resultSet.hasMorePages()).thenReturn(index + 1 < results.size());
+      if (index + 1 < results.size()) {
+        when(resultSet.fetchNextPage())
+            .thenAnswer(
+                invocation -> CompletableFuture.completedFuture(page(results, index + 1, query)));
+      }
+      lastPage = resultSet;
+      return resultSet;
+    }
+
+    private static Row row(int id, boolean nameFirst) {
+      List<String> names = nameFirst ? List.of("name", "id") : List.of("id", "name");
+      Row row = mock(Row.class);
+      ColumnDefinitions columns = mock(ColumnDefinitions.class);
+      when(columns.size()).thenReturn(2);
+      for (int i = 0; i < 2; i++) {
+        ColumnDefinition column = mock(ColumnDefinition.class);
+        when(column.getName()).thenReturn(CqlIdentifier.fromInternal(names.get(i)));
+        when(columns.get(i)).thenReturn(column);
+        when(row.getObject(i)).thenReturn(names.get(i).equals("id") ? id : "product-" + id);
+      }
+      when(row.getColumnDefinitions()).thenReturn(columns);
+      when(row.getBytesUnsafe(CqlIdentifier.fromInternal("id"))).thenReturn(encode(id));
+      return row;
+    }
+
+    private static ByteBuffer encode(Object id) {
+      return TypeCodecs.INT.encode((Integer) id, ProtocolVersion.DEFAULT);
+    }
+  }
+
   private static DataSourceConfig buildDataSourceConfig() {
     DataSourceConfig dataSourceConfig = new DataSourceConfig();
     dataSourceConfig.setService("astra");
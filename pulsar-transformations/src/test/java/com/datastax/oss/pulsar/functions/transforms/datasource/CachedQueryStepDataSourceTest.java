@@ -0,0 +1,196 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class CachedQueryStepDataSourceTest {
+
+  @Test
+  void testCachedByQueryAndParams() {
+    RecordingDataSource delegate = new RecordingDataSource();
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, 0);
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    dataSource.setMetrics(metrics);
+
+    assertEquals(dataSource.fetchData("q1", List.of("a")), List.of(Map.of("id", "q1-a")));
+    assertEquals(dataSource.fetchData("q1", List.of("a")), List.of(Map.of("id", "q1-a")));
+    assertEquals(dataSource.fetchData("q1", List.of("b")), List.of(Map.of("id", "q1-b")));
+    assertEquals(dataSource.fetchData("q2", List.of("a")), List.of(Map.of("id", "q2-a")));
+
+    assertEquals(delegate.calls, List.of("q1-a", "q1-b", "q2-a"));
+    assertEquals(metrics.getCacheHitCount(), 1);
+    assertEquals(metrics.getCacheMissCount(), 3);
+  }
+
+  @Test
+  void testExpiration() {
+    AtomicLong clock = new AtomicLong();
+    RecordingDataSource delegate = new RecordingDataSource();
+    CachedQueryStepDataSource dataSource =
+        new CachedQueryStepDataSource(delegate, 10, 1000, 100, clock::get);
+
+    dataSource.fetchData("q", List.of("a"));
+    dataSource.fetchData("q", List.of("missing"));
+    clock.set(99);
+    dataSource.fetchData("q", List.of("a"));
+    dataSource.fetchData("q", List.of("missing"));
+    assertEquals(delegate.calls, List.of("q-a", "q-missing"));
+
+    clock.set(100);
+    dataSource.fetchData("q", List.of("a"));
+    dataSource.fetchData("q", List.of("missing"));
+    assertEquals(delegate.calls, List.of("q-a", "q-missing", "q-missing"));
+
+    clock.set(1000);
+    dataSource.fetchData("q", List.of("a"));
+    assertEquals(delegate.calls, List.of("q-a", "q-missing", "q-missing", "q-a"));
+  }
+
+  @Test
+  void testEmptyResultsNotCached() {
+    RecordingDataSource delegate = new RecordingDataSource();
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, -1);
+
+    assertEquals(dataSource.fetchData("q", List.of("missing")), List.of());
+    assertEquals(dataSource.fetchData("q", List.of("missing")), List.of());
+    dataSource.fetchData("q", List.of("a"));
+    dataSource.fetchData("q", List.of("a"));
+
+    assertEquals(delegate.calls, List.of("q-missing", "q-missing", "q-a"));
+  }
+
+  @Test
+  void testConcurrentMissesCoalesced() throws Exception {
+    List<CompletableFuture<List<Map<String, String>>>> fetches = new ArrayList<>();
+    QueryStepDataSource delegate =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<List<Map<String, String>>> fetchDataAsync(
+              String query, List<Object> params) {
+            CompletableFuture<List<Map<String, String>>> fetch = new CompletableFuture<>();
+            fetches.add(fetch);
+            return fetch;
+          }
+        };
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, 0);
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, true);
+    dataSource.setMetrics(metrics);
+
+    CompletableFuture<List<Map<String, String>>> first = dataSource.fetchDataAsync("q", List.of(1));
+    CompletableFuture<List<Map<String, String>>> second =
+        dataSource.fetchDataAsync("q", List.of(1));
+    assertEquals(fetches.size(), 1);
+    assertFalse(second.isDone());
+
+    fetches.get(0).complete(List.of(Map.of("id", "1")));
+
+    assertEquals(first.get(), List.of(Map.of("id", "1")));
+    assertSame(second.get(), first.get());
+    assertEquals(dataSource.fetchDataAsync("q", List.of(1)).get(), List.of(Map.of("id", "1")));
+    assertEquals(fetches.size(), 1);
+    assertEquals(metrics.getCacheHitCount(), 2);
+    assertEquals(metrics.getCacheMissCount(), 1);
+  }
+
+  @Test
+  void testBatchFetchesDistinctMisses() throws Exception {
+    List<List<List<Object>>> batches = new ArrayList<>();
+    RecordingDataSource delegate =
+        new RecordingDataSource() {
+          @Override
+          public CompletableFuture<List<List<Map<String, String>>>> fetchDataBatchAsync(
+              String query, List<List<Object>> paramsList) {
+            batches.add(paramsList);
+            return super.fetchDataBatchAsync(query, paramsList);
+          }
+        };
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, 0);
+    dataSource.fetchData("q", List.of("a"));
+
+    List<List<Map<String, String>>> results =
+        dataSource.fetchDataBatch(
+            "q", List.of(List.of("a"), List.of("b"), List.of("b"), List.of("missing")));
+
+    assertEquals(batches, List.of(List.of(List.of("b"), List.of("missing"))));
+    assertEquals(
+        results,
+        List.of(
+            List.of(Map.of("id", "q-a")),
+            List.of(Map.of("id", "q-b")),
+            List.of(Map.of("id", "q-b")),
+            List.of()));
+    assertEquals(delegate.calls, List.of("q-a", "q-b", "q-missing"));
+  }
+
+  @Test
+  void testErrorsNotCached() {
+    List<String> calls = new ArrayList<>();
+    QueryStepDataSource delegate =
+        new QueryStepDataSource() {
+          @Override
+          public List<Map<String, String>> fetchData(String query, List<Object> params) {
+            calls.add(query);
+            throw new IllegalStateException("unavailable");
+          }
+        };
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, 0);
+
+    expectThrows(IllegalStateException.class, () -> dataSource.fetchData("q", List.of("a")));
+    ExecutionException e =
+        expectThrows(
+            ExecutionException.class, () -> dataSource.fetchDataAsync("q", List.of("a")).get());
+    assertTrue(e.getCause() instanceof IllegalStateException);
+    assertEquals(calls, List.of("q", "q"));
+  }
+
+  @Test
+  void testTypedResultsCachedSeparately() {
+    RecordingDataSource delegate = new RecordingDataSource();
+    CachedQueryStepDataSource dataSource = new CachedQueryStepDataSource(delegate, 10, 0, 0);
+    QueryResult expected = QueryResult.fromMaps(List.of(Map.of("id", "q-a")));
+
+    dataSource.fetchData("q", List.of("a"));
+    assertEquals(dataSource.fetchResult("q", List.of("a")), expected);
+    assertEquals(dataSource.fetchResultBatch("q", List.of(List.of("a"))), List.of(expected));
+
+    assertEquals(delegate.calls, List.of("q-a", "q-a"));
+  }
+
+  private static class RecordingDataSource implements QueryStepDataSource {
+    final List<String> calls = new ArrayList<>();
+
+    @Override
+    public synchronized List<Map<String, String>> fetchData(String query, List<Object> params) {
+      String id = query + "-" + params.get(0);
+      calls.add(id);
+      return "missing".equals(params.get(0)) ? List.of() : List.of(Map.of("id", id));
+    }
+  }
+}
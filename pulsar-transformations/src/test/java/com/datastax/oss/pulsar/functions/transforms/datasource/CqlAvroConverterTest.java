@@ -0,0 +1,155 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.datastax.oss.driver.api.core.data.CqlDuration;
+import com.datastax.oss.driver.api.core.data.CqlVector;
+import com.datastax.oss.driver.api.core.type.CqlVectorType;
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.pulsar.functions.transforms.util.FloatArray;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CqlAvroConverterTest {
+
+  @DataProvider(name = "conversions")
+  public static Object[][] conversions() {
+    UUID uuid = UUID.randomUUID();
+    return new Object[][] {
+      {DataTypes.TEXT, "text", Schema.create(Schema.Type.STRING), "text"},
+      {DataTypes.ASCII, "ascii", Schema.create(Schema.Type.STRING), "ascii"},
+      {DataTypes.INT, 1, Schema.create(Schema.Type.INT), 1},
+      {DataTypes.SMALLINT, (short) 2, Schema.create(Schema.Type.INT), 2},
+      {DataTypes.TINYINT, (byte) 3, Schema.create(Schema.Type.INT), 3},
+      {DataTypes.BIGINT, 4L, Schema.create(Schema.Type.LONG), 4L},
+      {DataTypes.COUNTER, 5L, Schema.create(Schema.Type.LONG), 5L},
+      {DataTypes.FLOAT, 1.5f, Schema.create(Schema.Type.FLOAT), 1.5f},
+      {DataTypes.DOUBLE, 2.5d, Schema.create(Schema.Type.DOUBLE), 2.5d},
+      {DataTypes.BOOLEAN, true, Schema.create(Schema.Type.BOOLEAN), true},
+      {
+        DataTypes.BLOB,
+        ByteBuffer.wrap(new byte[] {1, 2}),
+        Schema.create(Schema.Type.BYTES),
+        ByteBuffer.wrap(new byte[] {1, 2})
+      },
+      {
+        DataTypes.TIMESTAMP,
+        Instant.ofEpochMilli(1672531200123L),
+        LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG)),
+        1672531200123L
+      },
+      {
+        DataTypes.DATE,
+        LocalDate.of(2023, 1, 1),
+        LogicalTypes.date().addToSchema(Schema.create(Schema.Type.INT)),
+        19358
+      },
+      {
+        DataTypes.TIME,
+        LocalTime.of(1, 2, 3, 4000),
+        LogicalTypes.timeMicros().addToSchema(Schema.create(Schema.Type.LONG)),
+        3723000004L
+      },
+      {
+        DataTypes.UUID,
+        uuid,
+        LogicalTypes.uuid().addToSchema(Schema.create(Schema.Type.STRING)),
+        uuid.toString()
+      },
+      {DataTypes.DECIMAL, new BigDecimal("1.10"), Schema.create(Schema.Type.STRING), "1.10"},
+      {
+        DataTypes.DURATION,
+        CqlDuration.from("1h"),
+        Schema.create(Schema.Type.STRING),
+        CqlDuration.from("1h").toString()
+      },
+      {
+        DataTypes.listOf(DataTypes.INT),
+        List.of(1, 2),
+        Schema.createArray(Schema.create(Schema.Type.INT)),
+        List.of(1, 2)
+      },
+      {
+        DataTypes.setOf(DataTypes.SMALLINT),
+        Set.of((short) 1),
+        Schema.createArray(Schema.create(Schema.Type.INT)),
+        List.of(1)
+      },
+      {
+        DataTypes.mapOf(DataTypes.INT, DataTypes.TIMESTAMP),
+        Map.of(1, Instant.ofEpochMilli(10)),
+        Schema.createMap(
+            LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG))),
+        Map.of("1", 10L)
+      },
+      {
+        new CqlVectorType(DataTypes.INT, 2),
+        CqlVector.builder().add(1, 2).build(),
+        Schema.createArray(Schema.create(Schema.Type.INT)),
+        List.of(1, 2)
+      },
+    };
+  }
+
+  @Test(dataProvider = "conversions")
+  void testConversion(DataType type, Object value, Schema expectedSchema, Object expectedValue) {
+    CqlAvroConverter converter = CqlAvroConverter.of(type);
+
+    assertEquals(converter.getSchema(), expectedSchema);
+    assertEquals(converter.convert(value), expectedValue);
+    assertNull(converter.convert(null));
+  }
+
+  @Test
+  void testFloatVector() {
+    CqlAvroConverter converter = CqlAvroConverter.of(new CqlVectorType(DataTypes.FLOAT, 3));
+
+    Object converted = converter.convert(CqlVector.builder().add(0.1f, 0.2f, 0.3f).build());
+
+    assertEquals(converter.getSchema(), Schema.createArray(Schema.create(Schema.Type.FLOAT)));
+    assertTrue(converted instanceof FloatArray);
+    assertEquals(((FloatArray) converted).getValues(), new float[] {0.1f, 0.2f, 0.3f});
+  }
+
+  @Test
+  void testMapKeysConvertedToStrings() {
+    Map<UUID, String> map = new LinkedHashMap<>();
+    UUID key = UUID.randomUUID();
+    map.put(key, "value");
+
+    Object converted =
+        CqlAvroConverter.of(DataTypes.mapOf(DataTypes.UUID, DataTypes.TEXT)).convert(map);
+
+    assertEquals(converted, Map.of(key.toString(), "value"));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.annotations.Test;
+
+public class InMemoryDataSourceTest {
+
+  @Test
+  void testLoadJsonArray() throws Exception {
+    InMemoryDataSource dataSource =
+        dataSource(
+            "[{\"code\": \"FR\", \"name\": \"France\", \"population\": 68},"
+                + "{\"code\": \"DE\", \"name\": \"Germany\", \"tags\": [\"eu\"], \"capital\": null}]");
+
+    assertEquals(
+        dataSource.fetchData("code", List.of("FR")),
+        List.of(Map.of("code", "FR", "name", "France", "population", "68")));
+    Map<String, String> germany = new HashMap<>();
+    germany.put("code", "DE");
+    germany.put("name", "Germany");
+    germany.put("tags", "[\"eu\"]");
+    germany.put("capital", null);
+    assertEquals(dataSource.fetchData("code", List.of("DE")), List.of(germany));
+    assertTrue(dataSource.fetchData("code", List.of("IT")).isEmpty());
+  }
+
+  @Test
+  void testLoadJsonLines() throws Exception {
+    InMemoryDataSource dataSource =
+        dataSource(
+            "{\"country\": \"FR\", \"city\": \"Paris\", \"zip\": 75001}\n"
+                + "{\"country\": \"FR\", \"city\": \"Lyon\", \"zip\": 69001}\n"
+                + "{\"country\": \"FR\", \"city\": \"Paris\", \"zip\": 75002}\n");
+
+    assertEquals(
+        dataSource.fetchData("country, city", List.of("FR", "Paris")),
+        List.of(
+            Map.of("country", "FR", "city", "Paris", "zip", "75001"),
+            Map.of("country", "FR", "city", "Paris", "zip", "75002")));
+    assertEquals(dataSource.fetchData("zip", List.of(69001)).size(), 1);
+    assertEquals(dataSource.fetchData("country", List.of("FR")).size(), 3);
+    assertTrue(dataSource.fetchData("country,city", Arrays.asList("FR", null)).isEmpty());
+  }
+
+  @Test
+  void testIntegralFloatingPointKeys() throws Exception {
+    InMemoryDataSource dataSource =
+        dataSource(
+            "{\"id\": 1.0, \"name\": \"bread\"}\n"
+                + "{\"id\": 2.5, \"name\": \"wine\"}\n"
+                + "{\"id\": \"3.0\", \"name\": \"cheese\"}\n");
+
+    assertEquals(
+        dataSource.fetchData("id", List.of(1)), List.of(Map.of("id", "1.0", "name", "bread")));
+    assertEquals(dataSource.fetchData("id", List.of(1.0)).size(), 1);
+    assertEquals(dataSource.fetchData("id", List.of("1")).size(), 1);
+    assertEquals(dataSource.fetchData("id", List.of(2.5)).size(), 1);
+    assertTrue(dataSource.fetchData("id", List.of(2)).isEmpty());
+    assertEquals(dataSource.fetchData("id", List.of(3L)).size(), 1);
+  }
+
+  @Test
+  void testResultsReadOnly() throws Exception {
+    InMemoryDataSource dataSource = dataSource("{\"code\": \"FR\"}");
+    List<Map<String, String>> rows = dataSource.fetchData("code", List.of("FR"));
+    expectThrows(UnsupportedOperationException.class, () -> rows.clear());
+    expectThrows(UnsupportedOperationException.class, () -> rows.get(0).put("code", "DE"));
+  }
+
+  @Test
+  void testInvalidDataset() throws Exception {
+    expectThrows(IllegalArgumentException.class, () -> dataSource("[1, 2]"));
+    expectThrows(IllegalArgumentException.class, () -> dataSource("{\"code\": "));
+    expectThrows(
+        IllegalArgumentException.class,
+        () -> new InMemoryDataSource().initialize(new DataSourceConfig()));
+  }
+
+  @Test
+  void testProviders() {
+    assertEquals(
+        QueryStepDataSourceProvider.createDataSource("memory").getClass(),
+        InMemoryDataSource.class);
+    assertEquals(
+        QueryStepDataSourceProvider.createDataSource("jdbc").getClass(), JdbcDataSource.class);
+    assertEquals(
+        QueryStepDataSourceProvider.createDataSource("astra").getClass(), AstraDBDataSource.class);
+    IllegalArgumentException error =
+        expectThrows(
+            IllegalArgumentException.class,
+            () -> QueryStepDataSourceProvider.createDataSource("unknown"));
+    assertEquals(error.getMessage(), "Invalid service type unknown");
+  }
+
+  private static InMemoryDataSource dataSource(String content) throws Exception {
+    File file = File.createTempFile("dataset", ".json");
+    file.deleteOnExit();
+    Files.writeString(file.toPath(), content);
+    DataSourceConfig config = new DataSourceConfig();
+    config.setService("memory");
+    config.setPath(file.getAbsolutePath());
+    InMemoryDataSource dataSource = new InMemoryDataSource();
+    dataSource.initialize(config);
+    return dataSource;
+  }
+}
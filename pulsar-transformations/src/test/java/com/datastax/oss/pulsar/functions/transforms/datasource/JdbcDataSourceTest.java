@@ -0,0 +1,352 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.model.config.DataSourceConfig;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.testng.annotations.Test;
+
+public class JdbcDataSourceTest {
+
+  private static final String QUERY = "select id, name from products where id = ?";
+
+  @Test
+  void testFetchData() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    assertEquals(
+        dataSource.fetchData(QUERY, List.of("1")), List.of(Map.of("id", "1", "name", "name-1")));
+    assertEquals(dataSource.fetchData(QUERY, List.of("missing")), List.of());
+
+    PreparedStatement statement = database.statements.get(0);
+    verify(statement).setObject(1, "1");
+    verify(statement).setObject(1, "missing");
+    verify(statement, times(2)).setMaxRows(1000);
+    verify(statement, times(2)).setFetchSize(100);
+    dataSource.close();
+  }
+
+  @Test
+  void testPreparedStatementsCached() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    dataSource.fetchData(QUERY, List.of("1"));
+    dataSource.fetchDataAsync(QUERY, List.of("2")).get();
+    dataSource.fetchData(QUERY + " and 1 = 1", List.of("3"));
+
+    assertEquals(database.connections.size(), 1);
+    verify(database.connections.get(0), times(2)).prepareStatement(anyString());
+    assertEquals(database.statements.size(), 2);
+    dataSource.close();
+    verify(database.connections.get(0)).close();
+  }
+
+  @Test
+  void testStatementCacheDisabled() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    DataSourceConfig config = new DataSourceConfig();
+    config.setStatementCacheSize(0);
+    JdbcDataSource dataSource = database.dataSource(config);
+
+    dataSource.fetchData(QUERY, List.of("1"));
+    dataSource.fetchData(QUERY, List.of("2"));
+
+    assertEquals(database.statements.size(), 2);
+    verify(database.statements.get(0)).close();
+    dataSource.close();
+  }
+
+  @Test
+  void testBatchBoundToOneStatement() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    List<List<Map<String, String>>> results =
+        dataSource
+            .fetchDataBatchAsync(QUERY, List.of(List.of("1"), List.of("2"), List.of("x")))
+            .get();
+
+    assertEquals(
+        results,
+        List.of(
+            List.of(Map.of("id", "1", "name", "name-1")),
+            List.of(Map.of("id", "2", "name", "name-2")),
+            List.of()));
+    assertEquals(database.statements.size(), 1);
+    verify(database.statements.get(0), times(3)).executeQuery();
+    verify(database.statements.get(0), times(3)).clearParameters();
+    dataSource.close();
+  }
+
+  @Test
+  void testLoadWithoutMaxRows() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    dataSource.fetchData(QUERY, List.of("1"));
+    dataSource.loadDataAsync("select id, name from products").get();
+
+    verify(database.statements.get(0)).setMaxRows(1000);
+    verify(database.statements.get(1)).setMaxRows(0);
+    dataSource.close();
+  }
+
+  @Test
+  void testTypedResults() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    QueryResult result = dataSource.fetchResult(QUERY, List.of("1"));
+
+    assertEquals(
+        result.getColumns(),
+        List.of(
+            new QueryResult.Column("id", Schema.create(Schema.Type.INT)),
+            new QueryResult.Column("name", Schema.create(Schema.Type.STRING))));
+    assertEquals(result.getRows(), List.of(List.of(1, "name-1")));
+    dataSource.close();
+  }
+
+  @Test
+  void testTypedValues() throws Exception {
+    ResultSet resultSet = mock(ResultSet.class);
+    ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+    when(resultSet.getMetaData()).thenReturn(metaData);
+    when(resultSet.next()).thenReturn(true, false);
+    when(metaData.getColumnCount()).thenReturn(5);
+    when(metaData.getColumnLabel(anyInt())).thenAnswer(i -> "c" + i.getArgument(0));
+    when(metaData.getColumnType(1)).thenReturn(Types.BIGINT);
+    when(metaData.getColumnType(2)).thenReturn(Types.TIMESTAMP);
+    when(metaData.getColumnType(3)).thenReturn(Types.VARBINARY);
+    when(metaData.getColumnType(4)).thenReturn(Types.DOUBLE);
+    when(metaData.getColumnType(5)).thenReturn(Types.NUMERIC);
+    when(resultSet.getLong(1)).thenReturn(42L);
+    when(resultSet.getTimestamp(2)).thenReturn(new java.sql.Timestamp(1000));
+    when(resultSet.getBytes(3)).thenReturn(new byte[] {1, 2});
+    when(resultSet.getDouble(4)).thenReturn(0.0);
+    when(resultSet.wasNull()).thenReturn(false, true);
+    when(resultSet.getString(5)).thenReturn("1.50");
+    FakeDatabase database = new FakeDatabase(resultSet);
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    QueryResult result = dataSource.fetchResult("select", List.of());
+
+    List<Schema> schemas = new ArrayList<>();
+    result.getColumns().forEach(column -> schemas.add(column.getSchema()));
+    assertEquals(
+        schemas,
+        List.of(
+            Schema.create(Schema.Type.LONG),
+            LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG)),
+            Schema.create(Schema.Type.BYTES),
+            Schema.create(Schema.Type.DOUBLE),
+            Schema.create(Schema.Type.STRING)));
+    List<Object> row = result.getRows().get(0);
+    assertEquals(row.get(0), 42L);
+    assertEquals(row.get(1), 1000L);
+    assertEquals(row.get(2), ByteBuffer.wrap(new byte[] {1, 2}));
+    assertNull(row.get(3));
+    assertEquals(row.get(4), "1.50");
+    dataSource.close();
+  }
+
+  @Test
+  void testPoolBoundedBySize() throws Exception {
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger created = new AtomicInteger();
+    JdbcConnectionPool pool =
+        new JdbcConnectionPool(
+            () -> {
+              created.incrementAndGet();
+              return mock(Connection.class);
+            },
+            2,
+            10,
+            100);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<Object>> holders = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        holders.add(
+            executor.submit(
+                () ->
+                    pool.withConnection(
+                        connection -> {
+                          started.countDown();
+                          await(release);
+                          return null;
+                        })));
+      }
+      started.await(10, TimeUnit.SECONDS);
+
+      expectThrows(SQLTransientConnectionException.class, () -> pool.withConnection(c -> null));
+
+      release.countDown();
+      for (Future<Object> holder : holders) {
+        holder.get(10, TimeUnit.SECONDS);
+      }
+      pool.withConnection(c -> null);
+      assertEquals(created.get(), 2);
+      assertEquals(pool.getSize(), 2);
+    } finally {
+      executor.shutdown();
+      pool.close();
+    }
+  }
+
+  @Test
+  void testFailedConnectionDiscarded() throws Exception {
+    FakeDatabase database = new FakeDatabase();
+    JdbcDataSource dataSource = database.dataSource(new DataSourceConfig());
+
+    dataSource.fetchData(QUERY, List.of("1"));
+    when(database.statements.get(0).executeQuery()).thenThrow(new SQLException("boom"));
+    IllegalStateException error =
+        expectThrows(IllegalStateException.class, () -> dataSource.fetchData(QUERY, List.of("1")));
+    assertEquals(error.getCause().getMessage(), "boom");
+    verify(database.connections.get(0)).close();
+
+    dataSource.fetchData(QUERY, List.of("1"));
+    assertEquals(database.connections.size(), 2);
+    dataSource.close();
+  }
+
+  @Test
+  void testUrlRequired() {
+    expectThrows(
+        IllegalArgumentException.class,
+        () -> new JdbcDataSource().initialize(new DataSourceConfig()));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Mocks connections returning the row (id, "name-" + id) for numeric ids, and the row of id 1 for
+   * queries without parameters.
+   */
+  private static class FakeDatabase {
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<PreparedStatement> statements = new ArrayList<>();
+    private final ResultSet fixedResultSet;
+
+    FakeDatabase() {
+      this(null);
+    }
+
+    FakeDatabase(ResultSet fixedResultSet) {
+      this.fixedResultSet = fixedResultSet;
+    }
+
+    JdbcDataSource dataSource(DataSourceConfig config) {
+      JdbcDataSource dataSource = new JdbcDataSource();
+      dataSource.initialize(config, this::connect);
+      return dataSource;
+    }
+
+    private synchronized Connection connect() throws SQLException {
+      Connection connection = mock(Connection.class);
+      when(connection.isValid(anyInt())).thenReturn(true);
+      when(connection.prepareStatement(anyString())).thenAnswer(i -> prepare());
+      connections.add(connection);
+      return connection;
+    }
+
+    private synchronized PreparedStatement prepare() throws SQLException {
+      PreparedStatement statement = mock(PreparedStatement.class);
+      List<Object> params = new ArrayList<>();
+      doAnswer(
+              i -> {
+                params.add(i.getArgument(1));
+                return null;
+              })
+          .when(statement)
+          .setObject(anyInt(), any());
+      doAnswer(
+              i -> {
+                params.clear();
+                return null;
+              })
+          .when(statement)
+          .clearParameters();
+      when(statement.executeQuery())
+          .thenAnswer(
+              i -> {
+                if (fixedResultSet != null) {
+                  return fixedResultSet;
+                }
+                return resultSet(params.isEmpty() ? "1" : params.get(0).toString());
+              });
+      statements.add(statement);
+      return statement;
+    }
+
+    private static ResultSet resultSet(String id) throws SQLException {
+      boolean found = id.chars().allMatch(Character::isDigit);
+      ResultSet resultSet = mock(ResultSet.class);
+      ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+      when(resultSet.getMetaData()).thenReturn(metaData);
+      when(metaData.getColumnCount()).thenReturn(2);
+      when(metaData.getColumnLabel(1)).thenReturn("id");
+      when(metaData.getColumnLabel(2)).thenReturn("name");
+      when(metaData.getColumnType(1)).thenReturn(Types.INTEGER);
+      when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+      when(resultSet.next()).thenReturn(found, false);
+      when(resultSet.getString(1)).thenReturn(id);
+      when(resultSet.getString(2)).thenReturn("name-" + id);
+      when(resultSet.getInt(1)).thenReturn(found ? Integer.parseInt(id) : 0);
+      return resultSet;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.datasource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.datastax.oss.pulsar.functions.transforms.metrics.StepMetrics;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.avro.Schema;
+import org.testng.annotations.Test;
+
+public class SnapshotQueryStepDataSourceTest {
+
+  private static final String QUERY = "select * from products";
+
+  @Test
+  void testLookupsInSnapshot() {
+    TableDataSource delegate = new TableDataSource();
+    SnapshotQueryStepDataSource dataSource =
+        new SnapshotQueryStepDataSource(delegate, QUERY, List.of("country", "id"), false, 0);
+    dataSource.start();
+
+    assertEquals(
+        dataSource.fetchData(QUERY, List.of("FR", "1")),
+        List.of(Map.of("country", "FR", "id", "1", "name", "bread-v1")));
+    assertEquals(
+        dataSource.fetchDataBatch(QUERY, List.of(List.of("FR", 2.0), List.of("FR", 3))),
+        List.of(List.of(Map.of("country", "FR", "id", "2", "name", "wine-v1")), List.of()));
+    assertEquals(
+        dataSource.fetchResult(QUERY, List.of("FR", 1L)).getRows(),
+        List.of(List.of("FR", "1", "bread-v1")));
+    assertEquals(delegate.loads.get(), 1);
+    assertEquals(dataSource.getSize(), 2);
+    dataSource.close();
+  }
+
+  @Test
+  void testIntegralFloatingPointKeysInSnapshot() {
+    QueryStepDataSource delegate =
+        new QueryStepDataSource() {
+          @Override
+          public CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+            return CompletableFuture.completedFuture(
+                List.of(Map.of("id", "1.0", "name", "bread"), Map.of("id", "2.5", "name", "wine")));
+          }
+        };
+    SnapshotQueryStepDataSource dataSource =
+        new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), false, 0);
+    dataSource.start();
+
+    assertEquals(
+        dataSource.fetchData(QUERY, List.of(1)), List.of(Map.of("id", "1.0", "name", "bread")));
+    assertEquals(dataSource.fetchData(QUERY, List.of(1.0)).size(), 1);
+    assertEquals(dataSource.fetchData(QUERY, List.of("1.0")).size(), 1);
+    assertEquals(dataSource.fetchData(QUERY, List.of("2.5")).size(), 1);
+    assertTrue(dataSource.fetchData(QUERY, List.of(2)).isEmpty());
+    dataSource.close();
+  }
+
+  @Test
+  void testTypedLookupsInSnapshot() {
+    TableDataSource delegate = new TableDataSource();
+    SnapshotQueryStepDataSource dataSource =
+        new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), true, 0);
+    dataSource.start();
+
+    QueryResult result = dataSource.fetchResult(QUERY, List.of(2.0));
+    assertEquals(result.getColumns(), TableDataSource.COLUMNS);
+    assertEquals(result.getRows(), List.of(List.of("FR", 2, "wine-v1")));
+    QueryResult missing = dataSource.fetchResult(QUERY, List.of(2.5));
+    assertEquals(missing.getColumns(), TableDataSource.COLUMNS);
+    assertTrue(missing.isEmpty());
+    assertEquals(
+        dataSource.fetchData(QUERY, List.of("1")),
+        List.of(Map.of("country", "FR", "id", "1", "name", "bread-v1")));
+    dataSource.close();
+  }
+
+  @Test
+  void testRefreshSwapsSnapshot() {
+    AtomicLong clock = new AtomicLong(1000);
+    TableDataSource delegate = new TableDataSource();
+    SnapshotQueryStepDataSource dataSource =
+        new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), true, 0, clock::get);
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, false);
+    dataSource.setMetrics(metrics);
+    dataSource.start();
+    clock.set(4000);
+    assertEquals(metrics.getSnapshotAge(), 3000);
+
+    delegate.version.set(2);
+    dataSource.refresh();
+    assertEquals(dataSource.fetchResult(QUERY, List.of(1)).getRows().get(0).get(2), "bread-v2");
+    assertEquals(metrics.getSnapshotAge(), 0);
+    assertEquals(metrics.getSnapshotSize(), 2);
+  }
+
+  @Test
+  void testFailedRefreshKeepsSnapshot() throws Exception {
+    TableDataSource delegate = new TableDataSource();
+    SnapshotQueryStepDataSource dataSource =
+        new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), false, 10);
+    StepMetrics metrics = new StepMetrics("step0.query", null, 1, false);
+    dataSource.setMetrics(metrics);
+    dataSource.start();
+
+    delegate.failing = true;
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (metrics.getSnapshotRefreshFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(metrics.getSnapshotRefreshFailureCount() > 0);
+    assertEquals(dataSource.fetchData(QUERY, List.of(1)).get(0).get("name"), "bread-v1");
+
+    delegate.failing = false;
+    delegate.version.set(2);
+    while (!"bread-v2".equals(dataSource.fetchData(QUERY, List.of(1)).get(0).get("name"))
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(dataSource.fetchData(QUERY, List.of(1)).get(0).get("name"), "bread-v2");
+    dataSource.close();
+  }
+
+  @Test
+  void testInvalidSnapshot() {
+    TableDataSource delegate = new TableDataSource();
+    IllegalArgumentException error =
+        expectThrows(
+            IllegalArgumentException.class,
+            () ->
+                new SnapshotQueryStepDataSource(delegate, QUERY, List.of("sku"), true, 0).start());
+    assertEquals(error.getMessage(), "The key column sku is not returned by query " + QUERY);
+    expectThrows(
+        IllegalArgumentException.class,
+        () -> new SnapshotQueryStepDataSource(delegate, QUERY, List.of("sku"), false, 0).start());
+    expectThrows(
+        IllegalArgumentException.class,
+        () -> new SnapshotQueryStepDataSource(delegate, QUERY, List.of(), false, 0));
+
+    delegate.failing = true;
+    expectThrows(
+        IllegalStateException.class,
+        () -> new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), false, 0).start());
+    expectThrows(
+        IllegalStateException.class,
+        () ->
+            new SnapshotQueryStepDataSource(delegate, QUERY, List.of("id"), false, 0)
+                .fetchData(QUERY, List.of(1)));
+  }
+
+  /** A table of two products, whose names end with the version of the table. */
+  private static class TableDataSource implements QueryStepDataSource {
+    static final List<QueryResult.Column> COLUMNS =
+        List.of(
+            new QueryResult.Column("country", Schema.create(Schema.Type.STRING)),
+            new QueryResult.Column("id", Schema.create(Schema.Type.INT)),
+            new QueryResult.Column("name", Schema.create(Schema.Type.STRING)));
+
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger version = new AtomicInteger(1);
+    volatile boolean failing;
+
+    @Override
+    public CompletableFuture<List<Map<String, String>>> loadDataAsync(String query) {
+      return loadResultAsync(query).thenApply(SnapshotQueryStepDataSourceTest::toMaps);
+    }
+
+    @Override
+    public CompletableFuture<QueryResult> loadResultAsync(String query) {
+      loads.incrementAndGet();
+      if (failing) {
+        return CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+      }
+      return CompletableFuture.completedFuture(
+          new QueryResult(
+              COLUMNS,
+              List.of(
+                  List.of("FR", 1, "bread-v" + version.get()),
+                  List.of("FR", 2, "wine-v" + version.get()))));
+    }
+  }
+
+  private static List<Map<String, String>> toMaps(QueryResult result) {
+    return List.of(
+        Map.of("country", "FR", "id", "1", "name", (String) result.getRows().get(0).get(2)),
+        Map.of("country", "FR", "id", "2", "name", (String) result.getRows().get(1).get(2)));
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import ai.djl.inference.Predictor;
+import ai.djl.translate.TranslateException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+public class DynamicBatcherTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterClass
+  void tearDown() {
+    executor.shutdownNow();
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void testCallsCoalescedInWindow() throws Exception {
+    Predictor<String, Integer> predictor = PredictorPoolTest.lengthPredictor();
+    DynamicBatcher<String, Integer> batcher =
+        new DynamicBatcher<>(10, 100, new PredictorPool<>(1, () -> predictor), executor, scheduler);
+
+    CompletableFuture<List<Integer>> first = batcher.predict(List.of("a", "bb"));
+    CompletableFuture<List<Integer>> second = batcher.predict(List.of("ccc", "dddd"));
+
+    assertEquals(first.get(10, TimeUnit.SECONDS), List.of(1, 2));
+    assertEquals(second.get(10, TimeUnit.SECONDS), List.of(3, 4));
+    verify(predictor).batchPredict(List.of("a", "bb", "ccc", "dddd"));
+  }
+
+  @Test
+  void testBatchSize() throws Exception {
+    Predictor<String, Integer> predictor = PredictorPoolTest.lengthPredictor();
+    DynamicBatcher<String, Integer> batcher =
+        new DynamicBatcher<>(2, 0, new PredictorPool<>(1, () -> predictor), executor, null);
+
+    List<Integer> outputs =
+        batcher.predict(List.of("a", "bb", "ccc", "dddd", "eeeee")).get(10, TimeUnit.SECONDS);
+
+    assertEquals(outputs, List.of(1, 2, 3, 4, 5));
+    verify(predictor).batchPredict(List.of("a", "bb"));
+    verify(predictor).batchPredict(List.of("ccc", "dddd"));
+    verify(predictor).batchPredict(List.of("eeeee"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testPredictionError() throws Exception {
+    Predictor<String, Integer> predictor = mock(Predictor.class);
+    TranslateException error = new TranslateException("failed");
+    when(predictor.batchPredict(anyList())).thenThrow(error);
+    DynamicBatcher<String, Integer> batcher =
+        new DynamicBatcher<>(10, 0, new PredictorPool<>(1, () -> predictor), executor, null);
+
+    ExecutionException e =
+        expectThrows(
+            ExecutionException.class,
+            () -> batcher.predict(List.of("a", "b")).get(10, TimeUnit.SECONDS));
+    assertSame(e.getCause(), error);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class EmbeddingsCacheTest {
+
+  @Test
+  void testGetAndPut() {
+    EmbeddingsCache cache = new EmbeddingsCache(10, 0);
+    EmbeddingsCache.Key key = EmbeddingsCache.key("service", "model", "text");
+
+    assertNull(cache.get(key));
+    assertTrue(cache.put(key, new float[] {1.5f, 2.5f, 3.5f}));
+    assertEquals(
+        cache.get(EmbeddingsCache.key("service", "model", "text")), new float[] {1.5f, 2.5f, 3.5f});
+
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getDimension(), 3);
+    assertEquals(cache.getHitCount(), 1);
+    assertEquals(cache.getMissCount(), 1);
+    assertEquals(cache.getOffHeapBytes(), 10 * 3 * Float.BYTES);
+  }
+
+  @Test
+  void testKey() {
+    EmbeddingsCache.Key key = EmbeddingsCache.key("service", "model", "text");
+    assertEquals(EmbeddingsCache.key("service", "model", "text"), key);
+    assertNotEquals(EmbeddingsCache.key("service", "other-model", "text"), key);
+    assertNotEquals(EmbeddingsCache.key("other-service", "model", "text"), key);
+    assertNotEquals(EmbeddingsCache.key("service", "model", "other text"), key);
+  }
+
+  @Test
+  void testOtherDimensionNotCached() {
+    EmbeddingsCache cache = new EmbeddingsCache(10, 0);
+    assertTrue(cache.put(EmbeddingsCache.key("s", "m", "a"), new float[] {1f, 2f}));
+    assertFalse(cache.put(EmbeddingsCache.key("s", "m", "b"), new float[] {1f, 2f, 3f}));
+    assertNull(cache.get(EmbeddingsCache.key("s", "m", "b")));
+    assertEquals(cache.size(), 1);
+  }
+
+  @Test
+  void testEvictLeastRecentlyUsed() {
+    EmbeddingsCache cache = new EmbeddingsCache(2, 0);
+    cache.put(EmbeddingsCache.key("s", "m", "a"), new float[] {1f});
+    cache.put(EmbeddingsCache.key("s", "m", "b"), new float[] {2f});
+    // access a so that b is the least recently used
+    cache.get(EmbeddingsCache.key("s", "m", "a"));
+    cache.put(EmbeddingsCache.key("s", "m", "c"), new float[] {3f});
+
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.get(EmbeddingsCache.key("s", "m", "a")), new float[] {1f});
+    assertNull(cache.get(EmbeddingsCache.key("s", "m", "b")));
+    assertEquals(cache.get(EmbeddingsCache.key("s", "m", "c")), new float[] {3f});
+    assertEquals(cache.getEvictionCount(), 1);
+    assertEquals(cache.getOffHeapBytes(), 2 * Float.BYTES);
+  }
+
+  @Test
+  void testSegments() {
+    int dimension = EmbeddingsCache.SEGMENT_BYTES / Float.BYTES / 2;
+    EmbeddingsCache cache = new EmbeddingsCache(3, 0);
+    for (int i = 0; i < 3; i++) {
+      float[] vector = new float[dimension];
+      vector[dimension - 1] = i;
+      cache.put(EmbeddingsCache.key("s", "m", "text" + i), vector);
+    }
+
+    assertEquals(cache.getOffHeapBytes(), 3L * dimension * Float.BYTES);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(cache.get(EmbeddingsCache.key("s", "m", "text" + i))[dimension - 1], (float) i);
+    }
+  }
+
+  @Test
+  void testExpiration() {
+    AtomicLong clock = new AtomicLong();
+    EmbeddingsCache cache = new EmbeddingsCache(10, 100, clock::get);
+    cache.put(EmbeddingsCache.key("s", "m", "a"), new float[] {1f});
+
+    clock.set(99);
+    assertEquals(cache.get(EmbeddingsCache.key("s", "m", "a")), new float[] {1f});
+    clock.set(100);
+    assertNull(cache.get(EmbeddingsCache.key("s", "m", "a")));
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getExpirationCount(), 1);
+
+    // the slot of the expired vector is reused
+    cache.put(EmbeddingsCache.key("s", "m", "b"), new float[] {2f});
+    assertEquals(cache.getOffHeapBytes(), 10 * Float.BYTES);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  void testInvalidMaxSize() {
+    new EmbeddingsCache(0, 0);
+  }
+}
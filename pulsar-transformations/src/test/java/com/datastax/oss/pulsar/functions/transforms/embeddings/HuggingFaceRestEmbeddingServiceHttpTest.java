@@ -0,0 +1,222 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class HuggingFaceRestEmbeddingServiceHttpTest {
+  private static final String MODEL = "sentence-transformers/test-model";
+
+  private HttpServer server;
+  private final AtomicInteger queries = new AtomicInteger();
+  private volatile int loadingResponses;
+  private volatile int status;
+  private volatile String lastRequest;
+  private volatile boolean stallBody;
+  private volatile CountDownLatch stalled;
+
+  @BeforeMethod
+  void setUp() throws IOException {
+    queries.set(0);
+    loadingResponses = 0;
+    status = 200;
+    stallBody = false;
+    stalled = new CountDownLatch(1);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/api/models/",
+        exchange ->
+            respond(
+                exchange,
+                200,
+                "{\"modelId\":\"" + MODEL + "\",\"tags\":[\"sentence-transformers\"]}"));
+    server.createContext(
+        "/pipeline/",
+        exchange -> {
+          lastRequest =
+              new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+          if (queries.incrementAndGet() <= loadingResponses) {
+            respond(exchange, 503, "{\"error\":\"loading\",\"estimated_time\":0.001}");
+          } else if (stallBody) {
+            // send the headers and the start of the body, then stop responding
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("[[1.5,".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+              stalled.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            exchange.close();
+          } else if (status != 200) {
+            respond(exchange, status, "{\"error\":\"bad request\"}");
+          } else {
+            respond(exchange, 200, "[[1.5, 2], [-3, 4.25]]");
+          }
+        });
+    server.start();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  void tearDown() {
+    stalled.countDown();
+    server.stop(0);
+  }
+
+  @Test
+  void testComputeVectors() throws Exception {
+    try (EmbeddingsService service = newService(5)) {
+      List<float[]> vectors = service.computeVectors(List.of("hello", "world"));
+
+      assertEquals(vectors.size(), 2);
+      assertEquals(vectors.get(0), new float[] {1.5f, 2f});
+      assertEquals(vectors.get(1), new float[] {-3f, 4.25f});
+      assertEquals(lastRequest, "{\"inputs\":[\"hello\",\"world\"],\"options\":{}}");
+      assertEquals(
+          service.computeEmbeddingsAsync(List.of("hello", "world")).get(),
+          List.of(List.of(1.5, 2.0), List.of(-3.0, 4.25)));
+    }
+  }
+
+  @Test
+  void testRetryWhileModelLoading() throws Exception {
+    loadingResponses = 2;
+    try (EmbeddingsService service = newService(5)) {
+      List<float[]> vectors = service.computeVectorsAsync(List.of("hello", "world")).get();
+
+      assertEquals(vectors.get(1), new float[] {-3f, 4.25f});
+      assertEquals(queries.get(), 3);
+    }
+  }
+
+  @Test
+  void testRetriesExhausted() throws Exception {
+    loadingResponses = 10;
+    try (EmbeddingsService service = newService(1)) {
+      RuntimeException e =
+          expectThrows(RuntimeException.class, () -> service.computeVectors(List.of("hello")));
+
+      assertTrue(e.getMessage().contains("status 503"), e.getMessage());
+      assertEquals(queries.get(), 2);
+    }
+  }
+
+  @Test
+  void testQueryFailed() throws Exception {
+    status = 400;
+    try (EmbeddingsService service = newService(5)) {
+      RuntimeException e =
+          expectThrows(RuntimeException.class, () -> service.computeVectors(List.of("hello")));
+
+      assertTrue(e.getMessage().contains("status 400"), e.getMessage());
+      assertEquals(queries.get(), 1);
+    }
+  }
+
+  @Test(timeOut = 10_000)
+  void testRequestTimeoutWhileReadingBody() throws Exception {
+    stallBody = true;
+    try (EmbeddingsService service = newService(5, 200)) {
+      ExecutionException e =
+          expectThrows(
+              ExecutionException.class, () -> service.computeVectorsAsync(List.of("hello")).get());
+
+      assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+      assertEquals(queries.get(), 1);
+    }
+  }
+
+  @Test
+  void testReadVectors() throws Exception {
+    StringBuilder json = new StringBuilder("[null, [");
+    for (int i = 0; i < 1000; i++) {
+      json.append(i == 0 ? "" : ",").append(i);
+    }
+    json.append("]]");
+
+    List<float[]> vectors =
+        HuggingFaceRestEmbeddingService.readVectors(
+            new JsonFactory().createParser(json.toString()));
+
+    assertEquals(vectors.size(), 2);
+    assertNull(vectors.get(0));
+    assertEquals(vectors.get(1).length, 1000);
+    assertEquals(vectors.get(1)[999], 999f);
+    expectThrows(
+        IOException.class,
+        () ->
+            HuggingFaceRestEmbeddingService.readVectors(
+                new JsonFactory().createParser("[[[1.0]]]")));
+  }
+
+  @Test
+  void testRetryDelay() throws Exception {
+    try (HuggingFaceRestEmbeddingService service = newService(5)) {
+      assertEquals(service.retryDelay(0, 0), 10);
+      assertEquals(service.retryDelay(2, 0), 40);
+      assertEquals(service.retryDelay(2, 0.1), 100);
+      assertEquals(service.retryDelay(10, 0), 1000);
+    }
+  }
+
+  private HuggingFaceRestEmbeddingService newService(int maxRetries) throws Exception {
+    return newService(maxRetries, 60_000);
+  }
+
+  private HuggingFaceRestEmbeddingService newService(int maxRetries, long requestTimeout)
+      throws Exception {
+    String url = "http://localhost:" + server.getAddress().getPort();
+    return new HuggingFaceRestEmbeddingService(
+        HuggingFaceRestEmbeddingService.HuggingFaceApiConfig.builder()
+            .accessKey("key")
+            .model(MODEL)
+            .hfUrl(url + "/pipeline/")
+            .hfCheckUrl(url + "/api/models/")
+            .maxRetries(maxRetries)
+            .retryBackoff(10)
+            .maxRetryBackoff(1000)
+            .requestTimeout(requestTimeout)
+            .build());
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
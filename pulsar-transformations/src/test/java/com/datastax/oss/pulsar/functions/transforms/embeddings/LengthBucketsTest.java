@@ -0,0 +1,60 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class LengthBucketsTest {
+
+  @Test
+  void testIndexOf() {
+    LengthBuckets buckets = new LengthBuckets(List.of(128, 32, 64, 32), null);
+
+    assertEquals(buckets.size(), 3);
+    assertEquals(buckets.getLength(0), 32);
+    assertEquals(buckets.getLength(2), 128);
+    assertEquals(buckets.indexOf(1), 0);
+    assertEquals(buckets.indexOf(32), 0);
+    assertEquals(buckets.indexOf(33), 1);
+    assertEquals(buckets.indexOf(128), 2);
+    assertEquals(buckets.indexOf(1000), 2);
+  }
+
+  @Test
+  void testCappedToMaxTokens() {
+    LengthBuckets buckets = new LengthBuckets(List.of(32, 64, 128, 256), 100);
+
+    assertEquals(buckets.size(), 3);
+    assertEquals(buckets.getLength(2), 100);
+    assertEquals(buckets.indexOf(200), 2);
+  }
+
+  @Test
+  void testEmpty() {
+    assertTrue(new LengthBuckets(List.of(), null).isEmpty());
+    assertTrue(new LengthBuckets(null, 10).isEmpty());
+  }
+
+  @Test
+  void testInvalidLength() {
+    expectThrows(IllegalArgumentException.class, () -> new LengthBuckets(List.of(0, 32), null));
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.datastax.oss.pulsar.functions.transforms.embeddings;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +23,7 @@ import java.util.Map;
 public class MockEmbeddingsService implements EmbeddingsService {
 
   private final Map<String, List<Double>> embeddingsMapping = new HashMap<>();
+  private final List<List<String>> calls = new ArrayList<>();
 
   public void setEmbeddingsForText(String text, List<Double> embeddings) {
     embeddingsMapping.put(text, embeddings);
@@ -29,9 +31,14 @@ public class MockEmbeddingsService implements EmbeddingsService {
 
   @Override
   public List<List<Double>> computeEmbeddings(List<String> texts) {
+    calls.add(texts);
     return texts
         .stream()
         .map(text -> embeddingsMapping.get(text))
         .collect(java.util.stream.Collectors.toList());
   }
+
+  public List<List<String>> getCalls() {
+    return calls;
+  }
 }
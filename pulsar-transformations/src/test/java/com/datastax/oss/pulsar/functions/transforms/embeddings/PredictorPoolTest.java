@@ -0,0 +1,135 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.embeddings;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+import ai.djl.inference.Predictor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+public class PredictorPoolTest {
+
+  @Test
+  void testPredictorReused() throws Exception {
+    List<Predictor<String, Integer>> predictors = new ArrayList<>();
+    PredictorPool<String, Integer> pool =
+        new PredictorPool<>(
+            2,
+            () -> {
+              Predictor<String, Integer> predictor = lengthPredictor();
+              predictors.add(predictor);
+              return predictor;
+            });
+
+    assertEquals(pool.batchPredict(List.of("a", "bb")), List.of(1, 2));
+    assertEquals(pool.batchPredict(List.of("ccc")), List.of(3));
+
+    assertEquals(pool.getSize(), 1);
+    verify(predictors.get(0), times(2)).batchPredict(anyList());
+  }
+
+  @Test
+  void testPoolBounded() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    PredictorPool<String, Integer> pool =
+        new PredictorPool<>(
+            2,
+            () -> {
+              Predictor<String, Integer> predictor = mock(Predictor.class);
+              try {
+                when(predictor.batchPredict(anyList()))
+                    .thenAnswer(
+                        invocation -> {
+                          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                          started.countDown();
+                          release.await();
+                          running.decrementAndGet();
+                          return List.of(0);
+                        });
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+              return predictor;
+            });
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<Integer>>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> pool.batchPredict(List.of("a"))));
+      }
+      started.await(10, TimeUnit.SECONDS);
+      Thread.sleep(100);
+      assertEquals(running.get(), 2);
+      release.countDown();
+      for (Future<List<Integer>> result : results) {
+        assertEquals(result.get(10, TimeUnit.SECONDS), List.of(0));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(maxRunning.get(), 2);
+    assertEquals(pool.getSize(), 2);
+  }
+
+  @Test
+  void testClose() throws Exception {
+    Predictor<String, Integer> predictor = lengthPredictor();
+    PredictorPool<String, Integer> pool = new PredictorPool<>(1, () -> predictor);
+    pool.batchPredict(List.of("a"));
+
+    pool.close();
+
+    verify(predictor).close();
+    expectThrows(IllegalStateException.class, () -> pool.batchPredict(List.of("a")));
+  }
+
+  @SuppressWarnings("unchecked")
+  static Predictor<String, Integer> lengthPredictor() {
+    Predictor<String, Integer> predictor = mock(Predictor.class);
+    try {
+      when(predictor.batchPredict(anyList()))
+          .thenAnswer(
+              invocation -> {
+                List<String> inputs = invocation.getArgument(0);
+                List<Integer> outputs = new ArrayList<>();
+                inputs.forEach(input -> outputs.add(input.length()));
+                return outputs;
+              });
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return predictor;
+  }
+}
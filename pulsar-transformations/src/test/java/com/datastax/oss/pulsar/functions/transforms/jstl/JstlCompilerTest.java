@@ -0,0 +1,93 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.jstl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.datastax.oss.pulsar.functions.transforms.TransformContext;
+import com.datastax.oss.pulsar.functions.transforms.Utils;
+import java.util.HashMap;
+import org.apache.pulsar.client.api.schema.GenericObject;
+import org.apache.pulsar.functions.api.Record;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class JstlCompilerTest {
+
+  @Test(dataProvider = "compilableExpressions")
+  void testCompiledMatchesInterpreted(String expression, Class<?> type) {
+    TransformContext context = createContext();
+    JstlEvaluator<?> compiled = new JstlEvaluator<>(String.format("${%s}", expression), type);
+    JstlEvaluator<?> interpreted =
+        new JstlEvaluator<>(String.format("${%s}", expression), type, false);
+
+    assertTrue(compiled.isCompiled());
+    assertFalse(interpreted.isCompiled());
+    assertEquals(compiled.evaluate(context), interpreted.evaluate(context));
+  }
+
+  @Test(dataProvider = "notCompilableExpressions")
+  void testNotCompilable(String expression) {
+    assertFalse(new JstlEvaluator<>(String.format("${%s}", expression), Object.class).isCompiled());
+  }
+
+  @DataProvider(name = "compilableExpressions")
+  public static Object[][] compilableExpressions() {
+    return new Object[][] {
+      {"value.level1String == 'level1_1'", boolean.class},
+      {"value.level1String != 'level1_1'", boolean.class},
+      {"value.level1Record.level2String == 'level2_1' && eventTime > 10", boolean.class},
+      {"value.level1Record.missing == null || eventTime < 10", boolean.class},
+      {"!(eventTime >= 1662493532) || eventTime <= -1", boolean.class},
+      {"value['level1String']", String.class},
+      {"value.level1Record.level2Record.level3Array[1]", String.class},
+      {"value.level1Record.level2Record.level3Integer > 8.5", boolean.class},
+      {"key.level1Record.level2String", String.class},
+      {"messageKey", String.class},
+      {"topicName", String.class},
+      {"destinationTopic", String.class},
+      {"properties.p1", String.class},
+      {"properties['p2'] == 'v2' ? 'yes' : 'no'", String.class},
+      {"empty properties.p3", boolean.class},
+      {"eventTime + 1", Long.class},
+      {"eventTime - 1.5", Double.class},
+      {"eventTime * 2 / 4 % 3", Object.class},
+      {"'a' += eventTime", String.class},
+      {"'42' == 42", boolean.class},
+      {"fn:uppercase(value.level1String)", String.class},
+      {"fn:concat(key.level1String, fn:trim(' x '))", String.class},
+      {"fn:contains(topicName, 'topic')", boolean.class},
+      {"fn:coalesce(value.level1Record.missing, 'default')", String.class},
+      {"fn:timestampAdd(eventTime, 1, 'hours')", Object.class},
+      {"null", Object.class},
+    };
+  }
+
+  @DataProvider(name = "notCompilableExpressions")
+  public static Object[][] notCompilableExpressions() {
+    return new Object[][] {
+      {"value.toString()"}, {"unknown"}, {"x = 1"}, {"[1, 2]"}, {"(x -> x)(1)"}, {"-eventTime"}
+    };
+  }
+
+  private static TransformContext createContext() {
+    Record<GenericObject> record = Utils.createNestedAvroKeyValueRecord(3);
+    return new TransformContext(
+        new Utils.TestContext(record, new HashMap<>()), record.getValue().getNativeObject());
+  }
+}
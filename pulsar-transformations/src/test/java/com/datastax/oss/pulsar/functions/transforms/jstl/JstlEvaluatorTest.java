@@ -24,6 +24,11 @@ import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.pulsar.client.api.Schema;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -54,6 +59,26 @@ public class JstlEvaluatorTest {
     assertEquals("test-message", value);
   }
 
+  @Test
+  void testConcurrentEvaluations() throws Exception {
+    JstlEvaluator<String> evaluator =
+        new JstlEvaluator<>("${fn:concat(value, messageKey)}", String.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        TransformContext context =
+            Utils.createContextWithPrimitiveRecord(Schema.STRING, "value-" + i, "-key");
+        results.add(executor.submit(() -> evaluator.evaluate(context)));
+      }
+      for (int i = 0; i < 100; i++) {
+        assertEquals("value-" + i + "-key", results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   void testNowFunction() {
     TransformContext primitiveStringContext =
@@ -17,10 +17,13 @@ package com.datastax.oss.pulsar.functions.transforms.jstl;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import com.datastax.oss.pulsar.functions.transforms.TransformContext;
 import com.datastax.oss.pulsar.functions.transforms.Utils;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
@@ -245,6 +248,74 @@ public class JstlTransformContextAdapterTest {
     assertEquals(map.get("optionalDateField"), optionalDate);
   }
 
+  @Test
+  public void testAdapterForJsonLogicalTypes() {
+    // given
+    org.apache.avro.Schema nestedSchema =
+        org.apache.avro.Schema.createRecord(
+            "nested",
+            "",
+            "ns",
+            false,
+            List.of(
+                createDateField("dateField", false), createDateField("optionalDateField", true)));
+    org.apache.avro.Schema avroSchema =
+        SchemaBuilder.record("json_date")
+            .namespace("ns")
+            .fields()
+            .name("stringField")
+            .type()
+            .stringType()
+            .noDefault()
+            .name("nestedField")
+            .type()
+            .optional()
+            .type(nestedSchema)
+            .endRecord();
+
+    LocalDate date = LocalDate.parse("2023-04-01");
+    LocalDate optionalDate = LocalDate.parse("2023-04-02");
+    ObjectNode json = JsonNodeFactory.instance.objectNode();
+    json.put("stringField", "value");
+    json.putArray("arrayField").add(1).add(2);
+    json.putObject("nestedField")
+        .put("dateField", (int) date.toEpochDay())
+        .put("optionalDateField", (int) optionalDate.toEpochDay());
+
+    Schema<org.apache.avro.generic.GenericRecord> pulsarValueSchema =
+        new Utils.NativeSchemaWrapper(avroSchema, SchemaType.JSON);
+    Record<GenericObject> record = new Utils.TestRecord<>(pulsarValueSchema, null, "key");
+    Utils.TestContext context = new Utils.TestContext(record, new HashMap<>());
+    TransformContext transformContext = new TransformContext(context, json);
+
+    // when
+    JstlTransformContextAdapter adapter = new JstlTransformContextAdapter(transformContext);
+
+    // then
+    assertTrue(adapter.adaptValue() instanceof Map);
+    Map<String, Object> map = (Map) adapter.adaptValue();
+    assertEquals(map.get("stringField"), "value");
+    assertEquals(map.get("arrayField"), List.of(1, 2));
+    assertNull(map.get("missingField"));
+    assertTrue(map.get("nestedField") instanceof Map);
+    Map<String, Object> nested = (Map) map.get("nestedField");
+    assertEquals(nested.get("dateField"), date);
+    assertEquals(nested.get("optionalDateField"), optionalDate);
+  }
+
+  @Test
+  public void testSchemaAccessorIsCachedPerSchema() {
+    GenericAvroRecord first = Utils.createNestedAvroRecord(2);
+    GenericAvroRecord second = Utils.createNestedAvroRecord(2);
+    org.apache.avro.Schema schema = first.getAvroRecord().getSchema();
+
+    SchemaAccessor accessor = SchemaAccessor.of(schema);
+    assertSame(SchemaAccessor.of(second.getAvroRecord().getSchema()), accessor);
+    assertEquals(
+        accessor.getField("level1String").getPosition(), schema.getField("level1String").pos());
+    assertNull(accessor.getField("unknown"));
+  }
+
   private org.apache.avro.Schema.Field createDateField(String name, boolean optional) {
     org.apache.avro.Schema.Field dateField = new org.apache.avro.Schema.Field(name, dateType);
     if (optional) {
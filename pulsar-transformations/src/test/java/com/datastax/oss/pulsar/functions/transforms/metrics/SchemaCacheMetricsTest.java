@@ -0,0 +1,52 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import com.datastax.oss.pulsar.functions.transforms.Utils;
+import com.datastax.oss.pulsar.functions.transforms.util.SchemaCache;
+import java.util.List;
+import java.util.Map;
+import org.testng.annotations.Test;
+
+public class SchemaCacheMetricsTest {
+
+  @Test
+  void testCountersPublishedAsIncrements() {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    SchemaCache schemaCache = new SchemaCache(1);
+    SchemaCacheMetrics metrics = new SchemaCacheMetrics(schemaCache);
+
+    schemaCache.computeIfAbsent("a", "id", s -> s);
+    schemaCache.computeIfAbsent("a", "id", s -> s);
+    metrics.publish(context);
+    schemaCache.computeIfAbsent("b", "id", s -> s);
+    metrics.publish(context);
+    metrics.publish(context);
+
+    assertEquals(
+        context.getPublished(),
+        List.of(
+            Map.entry(SchemaCacheMetrics.HITS, 1.0),
+            Map.entry(SchemaCacheMetrics.MISSES, 1.0),
+            Map.entry(SchemaCacheMetrics.SIZE, 1.0),
+            Map.entry(SchemaCacheMetrics.MISSES, 1.0),
+            Map.entry(SchemaCacheMetrics.EVICTIONS, 1.0),
+            Map.entry(SchemaCacheMetrics.SIZE, 1.0),
+            Map.entry(SchemaCacheMetrics.SIZE, 1.0)));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import com.datastax.oss.pulsar.functions.transforms.Utils;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.Test;
+
+public class StepMetricsTest {
+
+  @Test
+  void testCountersPublishedAsIncrements() {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    StepMetrics metrics = new StepMetrics("step0.drop", context, 1, false);
+
+    metrics.recordPredicate(true);
+    metrics.recordPredicate(true);
+    metrics.recordDropped(2);
+    metrics.publish();
+    metrics.recordPredicate(true);
+    metrics.recordPredicate(false);
+    metrics.recordError();
+    metrics.publish();
+    metrics.publish();
+
+    assertEquals(
+        context.getPublished(),
+        List.of(
+            Map.entry("step0.drop.predicate-true", 2.0),
+            Map.entry("step0.drop.dropped", 2.0),
+            Map.entry("step0.drop.predicate-true", 1.0),
+            Map.entry("step0.drop.predicate-false", 1.0),
+            Map.entry("step0.drop.errors", 1.0)));
+    assertEquals(metrics.getPredicateTrueCount(), 3);
+    assertEquals(metrics.getPredicateFalseCount(), 1);
+    assertEquals(metrics.getDroppedCount(), 2);
+    assertEquals(metrics.getErrorCount(), 1);
+  }
+
+  @Test
+  void testTimesPublishedInMillis() {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    StepMetrics metrics = new StepMetrics("step0.query", context, 1, true);
+
+    metrics.recordExecTime(TimeUnit.MICROSECONDS.toNanos(1500));
+    metrics.recordRemoteCall(TimeUnit.MILLISECONDS.toNanos(20), 8);
+
+    assertEquals(
+        context.getPublished(),
+        List.of(
+            Map.entry("step0.query.exec-time-ms", 1.5),
+            Map.entry("step0.query.remote-call-time-ms", 20.0),
+            Map.entry("step0.query.remote-batch-size", 8.0)));
+    Histogram execTime = metrics.getExecTimeHistogram();
+    assertEquals(execTime.getTotalCount(), 1);
+    assertTrue(execTime.valuesAreEquivalent(execTime.getMaxValue(), 1_500_000));
+    assertEquals(metrics.getRemoteCallTimeHistogram().getTotalCount(), 1);
+    assertEquals(metrics.getRemoteBatchSizeHistogram().getMaxValue(), 8);
+  }
+
+  @Test
+  void testSnapshotMetrics() {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    StepMetrics metrics = new StepMetrics("step0.query", context, 1, false);
+    assertEquals(metrics.getSnapshotSize(), -1);
+
+    metrics.setSnapshotGauges(() -> 100, () -> 2500);
+    metrics.recordSnapshotRefresh(TimeUnit.MILLISECONDS.toNanos(300));
+    metrics.recordSnapshotRefreshFailure();
+    metrics.publish();
+
+    assertEquals(
+        context.getPublished(),
+        List.of(
+            Map.entry("step0.query.snapshot-refresh-time-ms", 300.0),
+            Map.entry("step0.query.snapshot-size", 100.0),
+            Map.entry("step0.query.snapshot-age-ms", 2500.0),
+            Map.entry("step0.query.snapshot-refresh-failures", 1.0)));
+    assertEquals(metrics.getSnapshotSize(), 100);
+    assertEquals(metrics.getSnapshotAge(), 2500);
+    assertEquals(metrics.getSnapshotRefreshFailureCount(), 1);
+  }
+
+  @Test
+  void testHistogramsDisabled() {
+    StepMetrics metrics = new StepMetrics("step0.compute", null, 1, false);
+    metrics.recordExecTime(1000);
+    metrics.recordRemoteCall(1000, 1);
+    metrics.publish();
+
+    assertNull(metrics.getExecTimeHistogram());
+    assertNull(metrics.getRemoteCallTimeHistogram());
+    assertNull(metrics.getRemoteBatchSizeHistogram());
+  }
+
+  @Test
+  void testSample() {
+    assertTrue(new StepMetrics("always", null, 1, false).sample());
+    assertFalse(new StepMetrics("never", null, 0, false).sample());
+    assertFalse(StepMetrics.NOOP.sample());
+
+    StepMetrics sampled = new StepMetrics("sampled", null, 10, false);
+    int count = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (sampled.sample()) {
+        count++;
+      }
+    }
+    assertTrue(count > 500 && count < 1500, "sampled " + count + " times");
+  }
+
+  @Test
+  void testRegistry() {
+    Utils.RecordingContext context = new Utils.RecordingContext();
+    MetricsRegistry registry = new MetricsRegistry(context, 0, true);
+    StepMetrics first = registry.getStepMetrics("step0.drop");
+    StepMetrics second = registry.getStepMetrics("step1.compute");
+
+    assertSame(registry.getStepMetrics("step0.drop"), first);
+    assertEquals(registry.getStepMetrics(), List.of(first, second));
+
+    first.recordDropped(3);
+    assertFalse(first.sample());
+    assertTrue(context.getPublished().isEmpty());
+
+    registry.close();
+    Map<String, Double> published = context.getTotals();
+    assertTrue(published.containsKey(SchemaCacheMetrics.SIZE));
+    published.keySet().removeIf(metric -> metric.startsWith("schema-cache."));
+    assertEquals(published, Map.of("step0.drop.dropped", 3.0));
+  }
+}
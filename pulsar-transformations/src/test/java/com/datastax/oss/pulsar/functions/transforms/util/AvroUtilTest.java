@@ -18,8 +18,13 @@ package com.datastax.oss.pulsar.functions.transforms.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
+import java.util.List;
 import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
 import org.testng.annotations.Test;
@@ -59,6 +64,60 @@ public class AvroUtilTest {
     assertEquals("my-logical-type", logicalType.getName());
   }
 
+  @Test
+  public void testAddOrReplaceAvroSchemaFieldsCachedPerFields() {
+    // given
+    Schema schema = SchemaBuilder.record("record").fields().requiredString("field1").endRecord();
+    SchemaCache schemaCache = new SchemaCache(10);
+
+    // when
+    Schema withDecimal1 =
+        AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(decimalField(10, 2)), schemaCache);
+    Schema withDecimal1Again =
+        AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(decimalField(10, 2)), schemaCache);
+    Schema withDecimal2 =
+        AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(decimalField(12, 4)), schemaCache);
+
+    // then
+    assertSame(withDecimal1Again, withDecimal1);
+    assertNotEquals(withDecimal2, withDecimal1);
+    assertEquals(
+        LogicalTypes.decimal(12, 4), withDecimal2.getField("decimal").schema().getLogicalType());
+    assertEquals(2, schemaCache.size());
+    assertEquals(1, schemaCache.getHitCount());
+    assertEquals(2, schemaCache.getMissCount());
+  }
+
+  @Test
+  public void testAddOrReplaceAvroSchemaFieldsCachedPerFieldDefinition() {
+    // given
+    Schema schema = SchemaBuilder.record("record").fields().requiredString("field1").endRecord();
+    Schema optionalString = SchemaBuilder.unionOf().nullType().and().stringType().endUnion();
+    Schema.Field field = new Schema.Field("field2", optionalString, null, null);
+    Schema.Field withDefault =
+        new Schema.Field("field2", optionalString, null, Schema.Field.NULL_DEFAULT_VALUE);
+    SchemaCache schemaCache = new SchemaCache(10);
+
+    // when
+    Schema added = AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(field), schemaCache);
+    Schema addedAgain = AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(field), schemaCache);
+    Schema addedWithDefault =
+        AvroUtil.addOrReplaceAvroSchemaFields(schema, List.of(withDefault), schemaCache);
+
+    // then
+    assertSame(addedAgain, added);
+    assertNotEquals(addedWithDefault, added);
+    assertTrue(addedWithDefault.getField("field2").hasDefaultValue());
+    assertEquals(1, schemaCache.getHitCount());
+    assertEquals(2, schemaCache.getMissCount());
+  }
+
+  private static Schema.Field decimalField(int precision, int scale) {
+    return new Schema.Field(
+        "decimal",
+        LogicalTypes.decimal(precision, scale).addToSchema(Schema.create(Schema.Type.BYTES)));
+  }
+
   public static class MyLogicalType extends LogicalType {
     MyLogicalType() {
       super("my-logical-type");
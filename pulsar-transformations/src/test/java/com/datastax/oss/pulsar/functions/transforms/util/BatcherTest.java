@@ -0,0 +1,94 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+public class BatcherTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterClass
+  void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  void testBatchSize() {
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    Batcher<Integer> batcher = new Batcher<>(2, 0, batches::add, scheduler);
+    for (int i = 0; i < 5; i++) {
+      batcher.add(i);
+    }
+    assertEquals(batches, List.of(List.of(0, 1), List.of(2, 3)));
+
+    batcher.flush();
+    assertEquals(batches, List.of(List.of(0, 1), List.of(2, 3), List.of(4)));
+
+    batcher.flush();
+    assertEquals(batches.size(), 3);
+  }
+
+  @Test
+  void testFlushInterval() throws Exception {
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    Batcher<Integer> batcher =
+        new Batcher<>(
+            10,
+            10,
+            batch -> {
+              batches.add(batch);
+              latch.countDown();
+            },
+            scheduler);
+    batcher.add(1);
+    batcher.add(2);
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(batches, List.of(List.of(1, 2)));
+  }
+
+  @Test
+  void testProcessorError() {
+    List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    Batcher<Integer> batcher =
+        new Batcher<>(
+            1,
+            0,
+            batch -> {
+              if (batch.get(0) == 1) {
+                throw new IllegalStateException();
+              }
+              batches.add(batch);
+            },
+            scheduler);
+    batcher.add(1);
+    batcher.add(2);
+
+    assertEquals(batches, List.of(List.of(2)));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class FloatArrayTest {
+
+  @DataProvider(name = "elementTypes")
+  public static Object[][] elementTypes() {
+    return new Object[][] {{Schema.Type.FLOAT}, {Schema.Type.DOUBLE}};
+  }
+
+  @Test
+  void testListView() {
+    FloatArray doubles =
+        new FloatArray(
+            Schema.createArray(Schema.create(Schema.Type.DOUBLE)), new float[] {1.5f, 2.5f});
+    FloatArray floats =
+        new FloatArray(
+            Schema.createArray(Schema.create(Schema.Type.FLOAT)), new float[] {1.5f, 2.5f});
+
+    assertEquals(doubles, List.of(1.5d, 2.5d));
+    assertEquals(floats, List.of(1.5f, 2.5f));
+    floats.reverse();
+    assertEquals(floats.getValues(), new float[] {2.5f, 1.5f});
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  void testInvalidElementType() {
+    new FloatArray(Schema.createArray(Schema.create(Schema.Type.INT)), new float[0]);
+  }
+
+  @Test(dataProvider = "elementTypes")
+  void testWrite(Schema.Type elementType) throws Exception {
+    Schema arraySchema = Schema.createArray(Schema.create(elementType));
+    Schema schema =
+        SchemaBuilder.record("record")
+            .fields()
+            .name("vector")
+            .type(arraySchema)
+            .noDefault()
+            .endRecord();
+    float[] values = {0.1f, -2.5f, 3e-8f};
+
+    GenericData.Record record = new GenericData.Record(schema);
+    record.put("vector", new FloatArray(arraySchema, values));
+    byte[] bytes = write(new FloatArrayDatumWriter<>(schema, GenericData.get()), record);
+
+    GenericData.Record boxedRecord = new GenericData.Record(schema);
+    GenericData.Array<Object> boxed = new GenericData.Array<>(values.length, arraySchema);
+    for (float value : values) {
+      boxed.add(elementType == Schema.Type.FLOAT ? (Object) value : (Object) (double) value);
+    }
+    boxedRecord.put("vector", boxed);
+    assertEquals(bytes, write(new GenericDatumWriter<>(schema), boxedRecord));
+
+    GenericRecord read =
+        new GenericDatumReader<GenericRecord>(schema)
+            .read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+    assertEquals(read.get("vector"), boxed);
+  }
+
+  private static byte[] write(GenericDatumWriter<GenericRecord> writer, GenericRecord record)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    writer.write(record, encoder);
+    encoder.flush();
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.testng.annotations.Test;
+
+public class InFlightLimiterTest {
+
+  @Test
+  void testOperationsQueuedWhenFull() throws Exception {
+    InFlightLimiter limiter = new InFlightLimiter(2);
+    List<CompletableFuture<Integer>> operations = new ArrayList<>();
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<Integer> operation = new CompletableFuture<>();
+      operations.add(operation);
+      results.add(limiter.submit(() -> operation));
+    }
+
+    assertEquals(limiter.getInFlight(), 2);
+    assertEquals(limiter.getWaiting(), 1);
+
+    operations.get(0).complete(0);
+    assertEquals(results.get(0).get(), 0);
+    assertEquals(limiter.getInFlight(), 2);
+    assertEquals(limiter.getWaiting(), 0);
+
+    operations.get(1).complete(1);
+    operations.get(2).complete(2);
+    assertEquals(results.get(1).get(), 1);
+    assertEquals(results.get(2).get(), 2);
+    assertEquals(limiter.getInFlight(), 0);
+  }
+
+  @Test
+  void testQueuedOperationNotStarted() {
+    InFlightLimiter limiter = new InFlightLimiter(1);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    limiter.submit(() -> first);
+    boolean[] started = new boolean[1];
+    limiter.submit(
+        () -> {
+          started[0] = true;
+          return CompletableFuture.completedFuture("second");
+        });
+
+    assertFalse(started[0]);
+    first.complete("first");
+    assertTrue(started[0]);
+  }
+
+  @Test
+  void testFailedOperationReleased() throws Exception {
+    InFlightLimiter limiter = new InFlightLimiter(1);
+    CompletableFuture<String> failed =
+        limiter.submit(
+            () -> {
+              throw new IllegalStateException("failed");
+            });
+
+    ExecutionException e = expectThrows(ExecutionException.class, failed::get);
+    assertTrue(e.getCause() instanceof IllegalStateException);
+    assertEquals(limiter.getInFlight(), 0);
+    assertEquals(limiter.submit(() -> CompletableFuture.completedFuture("ok")).get(), "ok");
+  }
+
+  @Test
+  void testQueuedOperationsFailingSynchronouslyDontGrowTheStack() {
+    InFlightLimiter limiter = new InFlightLimiter(1);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    limiter.submit(() -> first);
+    List<CompletableFuture<String>> results = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      results.add(
+          limiter.submit(
+              () -> {
+                throw new IllegalStateException("failed");
+              }));
+    }
+
+    first.complete("first");
+    assertTrue(results.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+    assertEquals(limiter.getInFlight(), 0);
+    assertEquals(limiter.getWaiting(), 0);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class LruCacheTest {
+
+  @Test
+  void testComputeIfAbsent() {
+    LruCache<String, String> cache = new LruCache<>(10);
+    AtomicInteger computations = new AtomicInteger();
+
+    assertEquals(cache.computeIfAbsent("a", k -> k + computations.incrementAndGet()), "a1");
+    assertEquals(cache.computeIfAbsent("a", k -> k + computations.incrementAndGet()), "a1");
+    assertNull(cache.computeIfAbsent("b", k -> null));
+
+    assertEquals(computations.get(), 1);
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getHitCount(), 1);
+    assertEquals(cache.getMissCount(), 2);
+  }
+
+  @Test
+  void testEvictLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "a");
+    cache.put("b", "b");
+    // access a so that b is the least recently used
+    cache.get("a");
+    cache.put("c", "c");
+
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.get("a"), "a");
+    assertNull(cache.get("b"));
+    assertEquals(cache.get("c"), "c");
+    assertEquals(cache.getEvictionCount(), 1);
+  }
+
+  @Test
+  void testExpiration() {
+    AtomicLong clock = new AtomicLong();
+    LruCache<String, String> cache = new LruCache<>(10, 100, clock::get);
+    cache.put("a", "a");
+    clock.set(50);
+    cache.put("b", "b");
+
+    clock.set(99);
+    assertEquals(cache.get("a"), "a");
+    clock.set(100);
+    assertNull(cache.get("a"));
+    assertEquals(cache.get("b"), "b");
+    assertEquals(cache.computeIfAbsent("a", k -> "a2"), "a2");
+    clock.set(150);
+    assertNull(cache.get("b"));
+
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getExpirationCount(), 2);
+  }
+
+  @Test
+  void testForEachAndRestore() {
+    AtomicLong clock = new AtomicLong();
+    LruCache<String, String> cache = new LruCache<>(10, 100, clock::get);
+    cache.put("a", "a");
+    clock.set(10);
+    cache.put("b", "b");
+    cache.put("c", "c", 20);
+    clock.set(20);
+
+    List<String> entries = new ArrayList<>();
+    LruCache<String, String> restored = new LruCache<>(10, 100, clock::get);
+    cache.forEach(
+        (key, value, expiresAt) -> {
+          entries.add(key + "=" + value + "@" + expiresAt);
+          restored.put(key, value, expiresAt);
+        });
+
+    assertEquals(entries, List.of("a=a@100", "b=b@110"));
+    clock.set(100);
+    assertNull(restored.get("a"));
+    assertEquals(restored.get("b"), "b");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  void testInvalidMaxSize() {
+    new LruCache<>(0);
+  }
+}
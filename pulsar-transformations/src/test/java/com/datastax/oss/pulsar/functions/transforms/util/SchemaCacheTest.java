@@ -0,0 +1,102 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.functions.transforms.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.avro.Schema;
+import org.testng.annotations.Test;
+
+public class SchemaCacheTest {
+
+  @Test
+  void testCachedBySchemaAndSignature() {
+    SchemaCache cache = new SchemaCache(10);
+    Schema schema = Schema.create(Schema.Type.STRING);
+    AtomicInteger derivations = new AtomicInteger();
+
+    Object first = cache.computeIfAbsent(schema, "a", s -> "a" + derivations.incrementAndGet());
+    Object second =
+        cache.computeIfAbsent(
+            Schema.create(Schema.Type.STRING), "a", s -> "a" + derivations.incrementAndGet());
+    Object other = cache.computeIfAbsent(schema, "b", s -> "b" + derivations.incrementAndGet());
+
+    assertSame(second, first);
+    assertEquals(other, "b2");
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.getHitCount(), 1);
+    assertEquals(cache.getMissCount(), 2);
+  }
+
+  @Test
+  void testLeastRecentlyUsedEvicted() {
+    SchemaCache cache = new SchemaCache(10);
+    for (int i = 0; i < 10; i++) {
+      cache.computeIfAbsent(i, "id", k -> k);
+    }
+    // read the oldest entry so that it's the most recently used
+    cache.computeIfAbsent(0, "id", k -> -1);
+
+    cache.computeIfAbsent(10, "id", k -> k);
+
+    assertEquals(cache.size(), 9);
+    assertEquals(cache.getEvictionCount(), 2);
+    assertEquals(get(cache, 0), 0);
+    assertEquals(get(cache, 3), 3);
+    assertEquals(get(cache, 1), -1);
+  }
+
+  @Test
+  void testBoundedUnderConcurrentAccess() throws Exception {
+    SchemaCache cache = new SchemaCache(100);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int thread = t;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 10_000; i++) {
+                    int key = (i * 31 + thread) % 500;
+                    assertEquals(
+                        cache.<Integer, Integer>computeIfAbsent(key, "id", k -> k).intValue(), key);
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(cache.size() <= 150, "size " + cache.size());
+    assertEquals(cache.getHitCount() + cache.getMissCount(), 80_000);
+  }
+
+  /** @return the cached value of the key, or -1 if it was absent. */
+  private static int get(SchemaCache cache, int key) {
+    return cache.<Integer, Integer>computeIfAbsent(key, "id", k -> -1);
+  }
+}